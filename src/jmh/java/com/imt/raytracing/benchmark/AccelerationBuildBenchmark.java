@@ -0,0 +1,59 @@
+package com.imt.raytracing.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.imt.raytracing.parsing.MappedSceneFileParser;
+import com.imt.raytracing.raytracer.acceleration.AcceleratorType;
+import com.imt.raytracing.raytracer.acceleration.BVH;
+import com.imt.raytracing.raytracer.acceleration.LinearBVHBuilder;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Build time of the acceleration structures, in milliseconds, on the two
+ * {@code .scene} files. The linear BVH builds on all the cores of the common
+ * fork/join pool; its build without the treelet optimization is measured apart.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AccelerationBuildBenchmark {
+
+    @Param({"final.scene", "final_avec_bonus.scene"})
+    public String scenePath;
+
+    @Param({"BVH", "LBVH", "GRID"})
+    public AcceleratorType accelerator;
+
+    private Scene scene;
+
+    @Setup
+    public void setup() throws Exception {
+        scene = new MappedSceneFileParser(AcceleratorType.NONE).parse(scenePath);
+    }
+
+    @Benchmark
+    public Scene build() {
+        scene.buildAccelerationStructure(accelerator);
+        return scene;
+    }
+
+    @Benchmark
+    public BVH linearWithoutTreelets() {
+        return LinearBVHBuilder.build(scene.shapes, false);
+    }
+}
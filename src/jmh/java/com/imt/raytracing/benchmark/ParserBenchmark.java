@@ -0,0 +1,77 @@
+package com.imt.raytracing.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.imt.raytracing.parsing.BinarySceneFormat;
+import com.imt.raytracing.parsing.MappedSceneFileParser;
+import com.imt.raytracing.parsing.SceneFileParser;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Compares the line-by-line text parser, the memory-mapped parser and the
+ * loading of the same scene compiled into the binary format (with its BVH).
+ * A parse includes building the acceleration structure of the scene, which
+ * is the same work for both parsers; {@link #buildAccelerationStructure()}
+ * measures it alone, so that it can be subtracted from the parse times.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"final.scene", "final_avec_bonus.scene"})
+    public String scenePath;
+
+    private Scene scene;
+    private File compiled;
+
+    @Setup
+    public void setup() throws Exception {
+        scene = new MappedSceneFileParser().parse(scenePath);
+        compiled = File.createTempFile("benchmark", ".rtscene");
+        BinarySceneFormat.write(scene, compiled.getPath(), true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        compiled.delete();
+    }
+
+    @Benchmark
+    public Scene text() throws Exception {
+        return new SceneFileParser().parse(scenePath);
+    }
+
+    @Benchmark
+    public Scene mapped() throws Exception {
+        return new MappedSceneFileParser().parse(scenePath);
+    }
+
+    @Benchmark
+    public Scene compiled() throws Exception {
+        return BinarySceneFormat.read(compiled.getPath());
+    }
+
+    @Benchmark
+    public Scene buildAccelerationStructure() {
+        scene.buildAccelerationStructure();
+        return scene;
+    }
+}
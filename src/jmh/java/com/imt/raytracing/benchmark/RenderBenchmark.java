@@ -0,0 +1,72 @@
+package com.imt.raytracing.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.imt.raytracing.imaging.Renderer;
+import com.imt.raytracing.parsing.SceneFileParser;
+import com.imt.raytracing.raytracer.acceleration.AcceleratorType;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * End-to-end benchmarks: rendering a whole image.
+ *
+ * A render takes from milliseconds to seconds, so each measurement is a
+ * single call. The number of threads of the renderer can be changed from the
+ * command line, e.g. {@code -p threads=8}, and each scene is rendered with every
+ * acceleration structure (restrict with {@code -p accelerator=GRID}). Scene paths are relative to the
+ * project root, where the benchmarks are meant to be launched from.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({
+            "src/test/resources/imagetest/tp51-diffuse.test",
+            "src/test/resources/imagetest/tp51-specular.test",
+            "src/test/resources/imagetest/tp61-dir.test",
+            "src/test/resources/imagetest/tp61.test",
+            "src/test/resources/imagetest/tp62-1.test",
+            "final.scene",
+            "final_avec_bonus.scene"
+    })
+    public String scenePath;
+
+    @Param({"1"})
+    public int threads;
+
+    @Param({"BVH", "LBVH", "GRID"})
+    public AcceleratorType accelerator;
+
+    private Scene scene;
+    private Renderer renderer;
+
+    @Setup
+    public void setup() throws Exception {
+        scene = new SceneFileParser(accelerator).parse(scenePath);
+        renderer = threads > 1
+                ? new Renderer(threads, Renderer.DEFAULT_TILE_SIZE)
+                : new Renderer();
+    }
+
+    @Benchmark
+    public BufferedImage render() {
+        return renderer.render(scene);
+    }
+}
@@ -0,0 +1,162 @@
+package com.imt.raytracing.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.imt.raytracing.geometry.Orthonormal;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.parsing.SceneFileParser;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.RayPacket;
+import com.imt.raytracing.raytracer.RayTracer;
+import com.imt.raytracing.raytracer.acceleration.AcceleratorType;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+import com.imt.raytracing.raytracer.scene.Intersection;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Microbenchmarks of the per-ray work of the ray tracer on real scenes:
+ * the closest-hit query, the shading of a hit and the full pixel color.
+ * The primary rays of blocks of 8x8 pixels are also traced as packets, 
+ * and one by one for comparison.
+ *
+ * The rays are the primary rays of a regular grid of pixels covering the
+ * whole image, precomputed in the setup, and each invocation handles the
+ * next one. Every scene is measured with each acceleration structure.
+ * Scene paths are relative to the project root, where the
+ * benchmarks are meant to be launched from.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SceneBenchmark {
+
+    /** Number of sampled pixels along each image axis. */
+    private static final int GRID = 32;
+
+    @Param({
+            "src/test/resources/imagetest/tp61.test",
+            "src/test/resources/imagetest/tp62-1.test",
+            "final.scene",
+            "final_avec_bonus.scene"
+    })
+    public String scenePath;
+
+    @Param({"BVH", "LBVH", "GRID"})
+    public AcceleratorType accelerator;
+
+    private Scene scene;
+    private RayTracer rayTracer;
+    private Orthonormal basis;
+
+    private int[] pixelsI;
+    private int[] pixelsJ;
+    private Ray[] rays;
+    private Intersection[] hits;
+    private int nextRay;
+    private int nextHit;
+    private RayPacket[] packets;
+    private int nextPacket;
+
+    @Setup
+    public void setup() throws Exception {
+        scene = new SceneFileParser(accelerator).parse(scenePath);
+        rayTracer = new RayTracer();
+        basis = new Orthonormal(scene.getCamera().getLookFrom(),
+                scene.getCamera().getLookAt(),
+                scene.getCamera().getUp());
+
+        pixelsI = new int[GRID * GRID];
+        pixelsJ = new int[GRID * GRID];
+        rays = new Ray[GRID * GRID];
+        List<Intersection> found = new ArrayList<>();
+        for (int y = 0; y < GRID; y++) {
+            for (int x = 0; x < GRID; x++) {
+                int k = y * GRID + x;
+                pixelsI[k] = (int) ((x + 0.5) * scene.getWidth() / GRID);
+                pixelsJ[k] = (int) ((y + 0.5) * scene.getHeight() / GRID);
+                rays[k] = rayTracer.getPrimaryRay(pixelsI[k], pixelsJ[k], scene, basis);
+                scene.closestIntersection(rays[k]).ifPresent(found::add);
+            }
+        }
+        if (found.isEmpty())
+            throw new IllegalStateException("No primary ray hits the scene " + scenePath);
+        hits = found.toArray(new Intersection[0]);
+
+        // One block on each row of the grid, along its diagonal
+        packets = new RayPacket[GRID];
+        for (int k = 0; k < GRID; k++) {
+            int x0 = pixelsI[k * GRID + k] / RayTracer.PACKET_SIZE * RayTracer.PACKET_SIZE;
+            int y0 = pixelsJ[k * GRID + k] / RayTracer.PACKET_SIZE * RayTracer.PACKET_SIZE;
+            Ray[] block = new Ray[RayTracer.PACKET_SIZE * RayTracer.PACKET_SIZE];
+            for (int r = 0; r < block.length; r++)
+                block[r] = rayTracer.getPrimaryRay(x0 + r % RayTracer.PACKET_SIZE,
+                        y0 + r / RayTracer.PACKET_SIZE, scene, basis);
+            packets[k] = new RayPacket(block);
+        }
+    }
+
+    @Benchmark
+    public Optional<Intersection> closestIntersection() {
+        Ray ray = rays[nextRay];
+        nextRay = (nextRay + 1) % rays.length;
+        return scene.closestIntersection(ray);
+    }
+
+    @Benchmark
+    public HitRecord[] closestHitsPacket() {
+        RayPacket packet = packets[nextPacket];
+        nextPacket = (nextPacket + 1) % packets.length;
+        HitRecord[] records = newRecords(packet.size());
+        scene.closestHits(packet, records);
+        return records;
+    }
+
+    @Benchmark
+    public HitRecord[] closestHitsOneByOne() {
+        RayPacket packet = packets[nextPacket];
+        nextPacket = (nextPacket + 1) % packets.length;
+        HitRecord[] records = newRecords(packet.size());
+        for (int k = 0; k < packet.size(); k++)
+            scene.closestHit(packet.rays[k], records[k]);
+        return records;
+    }
+
+    private static HitRecord[] newRecords(int n) {
+        HitRecord[] records = new HitRecord[n];
+        for (int k = 0; k < n; k++)
+            records[k] = new HitRecord();
+        return records;
+    }
+
+    @Benchmark
+    public Color shade() {
+        Intersection hit = hits[nextHit];
+        nextHit = (nextHit + 1) % hits.length;
+        return hit.shade(scene, 0);
+    }
+
+    @Benchmark
+    public Color getPixelColor() {
+        int k = nextRay;
+        nextRay = (nextRay + 1) % rays.length;
+        return rayTracer.getPixelColor(pixelsI[k], pixelsJ[k], scene, basis);
+    }
+}
@@ -0,0 +1,117 @@
+package com.imt.raytracing.benchmark;
+
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.Plane;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.geometry.shape.Triangle;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+import com.imt.raytracing.raytracer.scene.Intersection;
+
+/**
+ * Microbenchmarks of the ray/shape intersection tests.
+ *
+ * Every invocation tests the next ray of a fixed pseudo-random set aimed around
+ * the shape, so roughly half of the rays hit and the branch predictor cannot
+ * learn a single path. Both the Optional API and the allocation-free
+ * {@link HitRecord} API are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShapeIntersectionBenchmark {
+
+    private static final int RAY_COUNT = 1024;
+
+    private Sphere sphere;
+    private Plane plane;
+    private Triangle triangle;
+
+    private Ray[] rays;
+    private int next;
+    private final HitRecord hit = new HitRecord();
+
+    @Setup
+    public void setup() {
+        Color white = new Color(1, 1, 1);
+        Color black = new Color(0, 0, 0);
+        sphere = new Sphere(new Point(0, 0, 0), 1, white, black, 1);
+        plane = new Plane(new Point(0, 0, 0), new Vector(0.3, 1, 0.2), white, black, 1);
+        triangle = new Triangle(new Point(-1, -1, 0), new Point(1, -1, 0), new Point(0, 1, 0),
+                white, black, 1);
+
+        // Rays start on a sphere of radius 5 and aim at a random point of the [-2, 2] cube
+        Random random = new Random(42);
+        rays = new Ray[RAY_COUNT];
+        for (int k = 0; k < RAY_COUNT; k++) {
+            Point origin = new Point(0, 0, 0).add(randomDirection(random).mul(5));
+            Point target = new Point(4 * random.nextDouble() - 2,
+                    4 * random.nextDouble() - 2,
+                    4 * random.nextDouble() - 2);
+            rays[k] = new Ray(origin, target.sub(origin).normalize());
+        }
+    }
+
+    private static Vector randomDirection(Random random) {
+        return new Vector(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()).normalize();
+    }
+
+    private Ray nextRay() {
+        Ray ray = rays[next];
+        next = (next + 1) & (RAY_COUNT - 1);
+        return ray;
+    }
+
+    @Benchmark
+    public Optional<Intersection> sphereIntersect() {
+        return sphere.intersect(nextRay());
+    }
+
+    @Benchmark
+    public Optional<Intersection> planeIntersect() {
+        return plane.intersect(nextRay());
+    }
+
+    @Benchmark
+    public Optional<Intersection> triangleIntersect() {
+        return triangle.intersect(nextRay());
+    }
+
+    @Benchmark
+    public boolean sphereClosestHit() {
+        hit.reset();
+        return sphere.intersect(nextRay(), hit);
+    }
+
+    @Benchmark
+    public boolean planeClosestHit() {
+        hit.reset();
+        return plane.intersect(nextRay(), hit);
+    }
+
+    @Benchmark
+    public boolean triangleClosestHit() {
+        hit.reset();
+        return triangle.intersect(nextRay(), hit);
+    }
+}
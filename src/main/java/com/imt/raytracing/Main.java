@@ -1,13 +1,33 @@
 package com.imt.raytracing;
 
-import javax.imageio.ImageIO;
-
+import com.imt.raytracing.distributed.RenderWorker;
+import com.imt.raytracing.distributed.TileCoordinator;
+import com.imt.raytracing.imaging.AdaptiveSampler;
+import com.imt.raytracing.imaging.PngWriter;
+import com.imt.raytracing.imaging.RenderCheckpoint;
 import com.imt.raytracing.imaging.Renderer;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Phase;
+import com.imt.raytracing.parsing.BinarySceneFormat;
+import com.imt.raytracing.parsing.MappedSceneFileParser;
 import com.imt.raytracing.parsing.SceneFileParser;
+import com.imt.raytracing.raytracer.acceleration.AccelerationCache;
+import com.imt.raytracing.raytracer.acceleration.AcceleratorType;
 import com.imt.raytracing.raytracer.scene.Scene;
+import com.imt.raytracing.server.RenderClient;
+import com.imt.raytracing.server.RenderServer;
+import com.imt.raytracing.server.SceneStore;
 
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * The entry point of the ray tracing application.
@@ -17,25 +37,351 @@ import java.io.File;
 public class Main {
     /**
      * The main method executes the ray tracing process.
-     * @param args Command line arguments. Expects the path to the scene file as the first argument (args[0]).
+     * @param args Command line arguments: the paths to the scene files, followed by the 
+     * options printed by the usage. Several scene files are rendered as the frames of an 
+     * animation, the acceleration structure of the first one being refitted to the shapes 
+     * of the next ones. The options select the mode:
+     * <ul>
+     * <li>by default, the scenes are rendered and written to their output files, on 
+     * {@code --threads N} threads, with tiles of {@code --tile N} pixels;</li>
+     * <li>{@code --compile FILE} compiles the scene into a binary scene file with its BVH 
+     * instead of rendering it;</li>
+     * <li>{@code --stream} writes the image band by band as it is rendered, which is also 
+     * done for images too large to be held in memory;</li>
+     * <li>{@code --progressive} writes previews of the image, with one pixel traced out of 
+     * 16 then out of 4, before the full image;</li>
+     * <li>{@code --checkpoint FILE} saves the finished tiles every 
+     * {@code --checkpoint-every S} seconds, and resumes from them;</li>
+     * <li>{@code --serve PORT} runs a render daemon on the loopback interface, rendering at 
+     * most {@code --jobs N} scenes at once, and {@code --submit PORT} has the scenes 
+     * rendered by such a daemon, with the priority {@code --priority P};</li>
+     * <li>{@code --worker PORT} renders the tiles sent by coordinators on that port, and 
+     * {@code --workers HOST:PORT,...} renders the scenes on such workers.</li>
+     * </ul>
+     * The other options tune the render: {@code --parser text|mapped}, 
+     * {@code --minweight W}, {@code --accel bvh|lbvh|grid|none}, {@code --cache DIR} and 
+     * {@code --cache-size MB}, {@code --packets}, {@code --wavefront}, {@code --aa N} with 
+     * {@code --aa-threshold T}, and {@code --metrics print|file} reports the render metrics.
      * @throws Exception If file operations or parsing fails.
      */
     public static void main(String[] args) throws Exception {
 
-        // 1. Parse the scene file
-        SceneFileParser parser = new SceneFileParser();
-        Scene scene = parser.parse(args[0]);
-
-        // 2. Render the scene
-        Renderer renderer = new Renderer();
-        // The renderer processes the scene and produces the final image data
-        BufferedImage img = renderer.render(scene);
-
-        // 3. Save the output image
-        // Use the output file path specified in the scene file
-        ImageIO.write(img, "png", new File(scene.getOutput()));
-        
-        // Final confirmation message
-        System.out.println("Image generated at " + scene.getOutput());
+        List<String> sceneFiles = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int tileSize = Renderer.DEFAULT_TILE_SIZE;
+        String parserMode = "mapped";
+        String compiledFile = null;
+        Double minweight = null;
+        String metricsMode = null;
+        AcceleratorType accelerator = AcceleratorType.BVH;
+        String cacheDirectory = null;
+        long cacheSize = AccelerationCache.DEFAULT_MAX_SIZE;
+        boolean packets = false;
+        boolean wavefront = false;
+        boolean stream = false;
+        Integer servePort = null;
+        Integer submitPort = null;
+        int jobs = 1;
+        int priority = 0;
+        Integer workerPort = null;
+        String workerAddresses = null;
+        String checkpointFile = null;
+        long checkpointMillis = RenderCheckpoint.DEFAULT_INTERVAL_MILLIS;
+        Integer antialiasing = null;
+        double antialiasingThreshold = AdaptiveSampler.DEFAULT_THRESHOLD;
+        boolean progressive = false;
+
+        for (int k = 0; k < args.length; k++) {
+            switch (args[k]) {
+                case "--threads":
+                    threads = Integer.parseInt(value(args, ++k));
+                    break;
+                case "--tile":
+                    tileSize = Integer.parseInt(value(args, ++k));
+                    break;
+                case "--parser":
+                    parserMode = value(args, ++k);
+                    break;
+                case "--compile":
+                    compiledFile = value(args, ++k);
+                    break;
+                case "--minweight":
+                    minweight = Double.parseDouble(value(args, ++k));
+                    break;
+                case "--metrics":
+                    metricsMode = value(args, ++k);
+                    break;
+                case "--accel":
+                    accelerator = AcceleratorType.fromName(value(args, ++k));
+                    break;
+                case "--cache":
+                    cacheDirectory = value(args, ++k);
+                    break;
+                case "--cache-size":
+                    cacheSize = Long.parseLong(value(args, ++k)) << 20;
+                    break;
+                case "--packets":
+                    packets = true;
+                    break;
+                case "--wavefront":
+                    wavefront = true;
+                    break;
+                case "--stream":
+                    stream = true;
+                    break;
+                case "--serve":
+                    servePort = Integer.parseInt(value(args, ++k));
+                    break;
+                case "--submit":
+                    submitPort = Integer.parseInt(value(args, ++k));
+                    break;
+                case "--jobs":
+                    jobs = Integer.parseInt(value(args, ++k));
+                    break;
+                case "--priority":
+                    priority = Integer.parseInt(value(args, ++k));
+                    break;
+                case "--worker":
+                    workerPort = Integer.parseInt(value(args, ++k));
+                    break;
+                case "--workers":
+                    workerAddresses = value(args, ++k);
+                    break;
+                case "--checkpoint":
+                    checkpointFile = value(args, ++k);
+                    break;
+                case "--checkpoint-every":
+                    checkpointMillis = Math.round(Double.parseDouble(value(args, ++k)) * 1000);
+                    break;
+                case "--aa":
+                    antialiasing = Integer.parseInt(value(args, ++k));
+                    break;
+                case "--aa-threshold":
+                    antialiasingThreshold = Double.parseDouble(value(args, ++k));
+                    break;
+                case "--progressive":
+                    progressive = true;
+                    break;
+                default:
+                    sceneFiles.add(args[k]);
+            }
+        }
+
+        if ((sceneFiles.isEmpty() && servePort == null && workerPort == null)
+                || (servePort != null && submitPort != null)
+                || (compiledFile != null && sceneFiles.size() > 1)
+                || (metricsMode != null && (servePort != null || workerPort != null))
+                || (antialiasing != null && workerPort != null)
+                || (checkpointFile != null && (stream || workerAddresses != null || servePort != null
+                        || submitPort != null || workerPort != null))
+                || (progressive && (stream || antialiasing != null || checkpointFile != null || workerAddresses != null))
+                || !(parserMode.equals("text") || parserMode.equals("mapped"))
+                || !(metricsMode == null || metricsMode.equals("print") || metricsMode.equals("file"))) {
+            usage();
+        }
+
+        if (submitPort != null) {
+            // The daemon does the work, with its own settings
+            RenderClient client = new RenderClient(submitPort);
+            for (String sceneFile : sceneFiles)
+                System.out.println("Image generated at " + client.render(Path.of(sceneFile), priority, null));
+            return;
+        }
+
+        AccelerationCache cache = cacheDirectory == null ? null
+                : new AccelerationCache(Path.of(cacheDirectory), cacheSize);
+        AdaptiveSampler sampler = antialiasing == null ? null
+                : new AdaptiveSampler(antialiasing, antialiasingThreshold);
+        Renderer renderer = new Renderer(threads, tileSize, packets, wavefront, sampler);
+        PngWriter pngWriter = new PngWriter(threads);
+
+        if (workerPort != null) {
+            RenderWorker worker = new RenderWorker(new InetSocketAddress(workerPort), renderer, threads);
+            worker.start();
+            System.out.println("Render worker listening on port " + worker.getPort());
+            // Runs until the process is stopped
+            Thread.currentThread().join();
+            return;
+        }
+        RenderCheckpoint checkpoint = checkpointFile == null ? null
+                : new RenderCheckpoint(Path.of(checkpointFile), checkpointMillis);
+        TileCoordinator coordinator = workerAddresses == null ? null
+                : new TileCoordinator(parseAddresses(workerAddresses), tileSize, sampler);
+
+        if (servePort != null) {
+            String mode = parserMode;
+            AcceleratorType type = accelerator;
+            Double weight = minweight;
+            SceneStore scenes = new SceneStore(file -> {
+                Scene parsed = mode.equals("text")
+                        ? new SceneFileParser(type, cache).parse(file.toString())
+                        : new MappedSceneFileParser(type, cache).parse(file.toString());
+                if (weight != null)
+                    parsed.minweight = weight;
+                return parsed;
+            }, SceneStore.DEFAULT_MAX_SCENES);
+            RenderServer server = new RenderServer(scenes, renderer, pngWriter, jobs, servePort);
+            server.start();
+            System.out.println("Render server listening on 127.0.0.1:" + server.getPort());
+            // Runs until the process is stopped
+            Thread.currentThread().join();
+            return;
+        }
+
+        Scene scene = null;
+
+        for (String sceneFile : sceneFiles) {
+            // Every frame gets its own metrics, written next to its image
+            RenderMetrics metrics = null;
+            if (metricsMode != null) {
+                metrics = new RenderMetrics();
+                RenderMetrics.setActive(metrics);
+            }
+
+            // 1. Parse the scene file. The next frames only update the structures of the first one
+            AcceleratorType frameAccelerator = scene == null ? accelerator : AcceleratorType.NONE;
+            Scene frame = parserMode.equals("text")
+                    ? new SceneFileParser(frameAccelerator, cache).parse(sceneFile)
+                    : new MappedSceneFileParser(frameAccelerator, cache).parse(sceneFile);
+            if (scene == null)
+                scene = frame;
+            else
+                scene.loadFrame(frame);
+            if (minweight != null)
+                scene.minweight = minweight;
+
+            if (compiledFile != null) {
+                BinarySceneFormat.write(scene, compiledFile, true);
+                System.out.println("Compiled scene written to " + compiledFile);
+                return;
+            }
+            if (checkpoint != null && !fitsInMemory(scene)) {
+                // Streamed, the image is not held to be saved
+                System.err.println("Cannot checkpoint " + sceneFile + ": its image is too large to be held in memory");
+                System.exit(1);
+            }
+
+            // Use the output file path specified in the scene file
+            Path output = Path.of(scene.getOutput());
+            if (coordinator != null) {
+                // 2-3. Render the scene on the workers, then save the output image
+                BufferedImage img = coordinator.render(scene);
+                RenderMetrics.time(Phase.PNG_ENCODE, () -> pngWriter.write(img, output));
+            } else if (progressive && fitsInMemory(scene)) {
+                // 2. Render the scene, writing the previews as they come
+                long start = System.nanoTime();
+                BufferedImage img = renderer.renderProgressive(scene, (step, preview) -> {
+                    if (step == 1) return;
+                    pngWriter.write(preview, output);
+                    System.out.printf(Locale.ROOT, "Preview with 1 pixel out of %d written to %s after %.0f ms%n",
+                            step * step, output, (System.nanoTime() - start) / 1e6);
+                });
+
+                // 3. Save the output image
+                RenderMetrics.time(Phase.PNG_ENCODE, () -> pngWriter.write(img, output));
+            } else if (stream || !fitsInMemory(scene)) {
+                // 2-3. Render the scene and save the output image as it goes
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), 1 << 16);
+                     PngWriter.RowWriter rows = pngWriter.open(out, scene.getWidth(), scene.getHeight())) {
+                    renderer.render(scene, rows);
+                }
+            } else {
+                // 2. Render the scene
+                // The renderer processes the scene and produces the final image data
+                BufferedImage img = renderer.render(scene, checkpoint);
+                if (checkpoint != null && checkpoint.getRestoredTiles() > 0)
+                    System.out.println("Resumed from " + checkpoint.getFile() + ": " + checkpoint.getRestoredTiles()
+                            + " of " + checkpoint.getTileCount() + " tiles were already rendered");
+
+                // 3. Save the output image
+                RenderMetrics.time(Phase.PNG_ENCODE, () -> pngWriter.write(img, output));
+                // The image is safe, the render will not be resumed
+                if (checkpoint != null)
+                    checkpoint.delete();
+            }
+
+            // Final confirmation message
+            System.out.println("Image generated at " + scene.getOutput());
+
+            // 4. Report the metrics
+            if (metrics != null) {
+                if (metricsMode.equals("print")) {
+                    System.out.print(metrics.toJson());
+                } else {
+                    Path metricsFile = metricsPath(scene.getOutput());
+                    Files.writeString(metricsFile, metrics.toJson(), StandardCharsets.UTF_8);
+                    System.out.println("Metrics written to " + metricsFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints the usage of the command line and exits.
+     */
+    private static void usage() {
+        System.err.println("Usage: java -jar raytracing.jar <scene file>... [--threads N] [--tile N] "
+                + "[--parser text|mapped] [--compile FILE] [--minweight W] [--metrics print|file] "
+                + "[--accel bvh|lbvh|grid|none] [--cache DIR] [--cache-size MB] [--packets] [--wavefront] [--stream] "
+                + "[--serve PORT [--jobs N]] [--submit PORT [--priority P]] "
+                + "[--worker PORT] [--workers HOST:PORT,...] [--checkpoint FILE [--checkpoint-every S]] "
+                + "[--aa N [--aa-threshold T]] [--progressive]");
+        System.exit(1);
+    }
+
+    /**
+     * Returns the value of an option, exiting with the usage when the option comes last.
+     * @param args The command line arguments.
+     * @param k The index of the value, after the option.
+     * @return The value.
+     */
+    private static String value(String[] args, int k) {
+        if (k >= args.length) {
+            System.err.println("Missing value after " + args[k - 1]);
+            usage();
+        }
+        return args[k];
+    }
+
+    /**
+     * Parses a list of worker addresses.
+     * @param list The addresses, "host:port" separated by commas.
+     * @return The addresses.
+     */
+    static List<InetSocketAddress> parseAddresses(String list) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String address : list.split(",")) {
+            int colon = address.lastIndexOf(':');
+            if (colon <= 0)
+                throw new IllegalArgumentException("Invalid worker address, expected HOST:PORT: " + address);
+            addresses.add(new InetSocketAddress(address.substring(0, colon).trim(),
+                    Integer.parseInt(address.substring(colon + 1).trim())));
+        }
+        return addresses;
+    }
+
+    /**
+     * Tells whether the whole image of a scene can be rendered in memory: its pixels 
+     * should take no more than a quarter of the maximum heap.
+     * @param scene The scene to render.
+     * @return false if the image should be streamed.
+     */
+    static boolean fitsInMemory(Scene scene) {
+        long bytes = 4L * scene.getWidth() * scene.getHeight();
+        return bytes <= Runtime.getRuntime().maxMemory() / 4;
+    }
+
+    /**
+     * Returns the path of the metrics file written next to an image: 
+     * "out.png" gives "out.metrics.json".
+     * @param output The path of the image.
+     * @return The path of the metrics file.
+     */
+    static Path metricsPath(String output) {
+        Path image = Path.of(output);
+        String name = image.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return image.resolveSibling(base + ".metrics.json");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,235 @@
+package com.imt.raytracing.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.imt.raytracing.imaging.AdaptiveSampler;
+import com.imt.raytracing.imaging.Renderer;
+import com.imt.raytracing.parsing.BinarySceneFormat;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Renders the tiles sent by {@link TileCoordinator}s, over TCP (see {@link TileProtocol}).
+ *
+ * A worker renders as many tiles at once as it has threads, with the anti-aliasing of the
+ * coordinator. The scenes it receives are kept, by hash, for the next sessions: a
+ * coordinator rendering the same scene again, or another frame with the same compiled
+ * bytes, does not send it again.
+ */
+public final class RenderWorker implements Closeable {
+
+    /** Number of scenes kept between sessions. */
+    static final int MAX_SCENES = 4;
+
+    private final ServerSocket serverSocket;
+    private final Renderer renderer;
+    private final int threads;
+    private final ExecutorService pool;
+    /** The scenes received, by the hex form of their hash, least recently used first. */
+    private final Map<String, Scene> scenes = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong scenesReceived = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Creates a worker listening on the given address.
+     * @param address The address to listen on, port 0 for any free port.
+     * @param renderer The renderer of the tiles, whose sampler is replaced by the one of
+     * each coordinator.
+     * @param threads The number of tiles rendered at once.
+     * @throws IOException If the address cannot be bound.
+     */
+    public RenderWorker(InetSocketAddress address, Renderer renderer, int threads) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+        this.renderer = renderer;
+        this.threads = threads;
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "tile-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+    }
+
+    /**
+     * @return The port the worker listens on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return The number of scenes received from coordinators.
+     */
+    public long getScenesReceived() {
+        return scenesReceived.get();
+    }
+
+    /**
+     * Starts accepting coordinators, in the background, each one on its own thread.
+     */
+    public void start() {
+        Thread acceptor = new Thread(() -> {
+            while (!closed) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread session = new Thread(() -> serve(socket), "tile-session");
+                    session.setDaemon(true);
+                    session.start();
+                } catch (IOException e) {
+                    if (!closed)
+                        System.err.println("Render worker failed to accept a coordinator: " + e.getMessage());
+                }
+            }
+        }, "tile-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        pool.shutdownNow();
+    }
+
+    /** Answers one coordinator until it ends the session or goes away. */
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(TileProtocol.MAGIC);
+            out.writeInt(TileProtocol.VERSION);
+            out.writeInt(threads);
+            out.flush();
+
+            Scene scene = receiveScene(in, out);
+            if (scene == null) return;
+            Renderer sessionRenderer = receiveSampling(in, out);
+            if (sessionRenderer == null) return;
+            out.writeByte(TileProtocol.READY);
+            out.flush();
+
+            while (in.readByte() == TileProtocol.TILE) {
+                int id = in.readInt();
+                int x = in.readInt();
+                int y = in.readInt();
+                int width = in.readInt();
+                int height = in.readInt();
+                pool.execute(() -> {
+                    if (socket.isClosed()) return;
+                    int[] pixels = new int[width * height];
+                    try {
+                        sessionRenderer.renderTile(scene, x, y, x + width, y + height, pixels);
+                    } catch (RuntimeException | Error e) {
+                        // Dropping the session makes the coordinator give its tiles to the other workers
+                        System.err.println("Render worker failed to render tile " + id + ": " + e);
+                        close(socket);
+                        return;
+                    }
+                    try {
+                        synchronized (out) {
+                            out.writeInt(id);
+                            TileProtocol.writePixels(out, pixels);
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        // The coordinator went away, the session ends with the reading loop
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // The coordinator went away, or is done and closed the connection
+        }
+    }
+
+    /**
+     * Receives the scene of a session, unless it is already held.
+     * @return The scene, or null if it could not be loaded.
+     */
+    private Scene receiveScene(DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] hash = new byte[TileProtocol.HASH_BYTES];
+        in.readFully(hash);
+        String key = HexFormat.of().formatHex(hash);
+        Scene scene;
+        synchronized (scenes) {
+            scene = scenes.get(key);
+        }
+        out.writeBoolean(scene != null);
+        out.flush();
+        if (scene != null) return scene;
+
+        int length = in.readInt();
+        if (length < 0 || length > TileProtocol.MAX_SCENE_BYTES) {
+            // The bytes are not read, the session ends here
+            refuse(out, "Invalid scene length " + length + " (at most " + TileProtocol.MAX_SCENE_BYTES + ")");
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        try {
+            if (!Arrays.equals(TileProtocol.hash(bytes), hash))
+                throw new IOException("Scene does not match its hash");
+            scene = BinarySceneFormat.read(ByteBuffer.wrap(bytes));
+        } catch (IOException | RuntimeException e) {
+            refuse(out, String.valueOf(e.getMessage()));
+            return null;
+        }
+        scenesReceived.incrementAndGet();
+        synchronized (scenes) {
+            scenes.put(key, scene);
+            while (scenes.size() > MAX_SCENES)
+                scenes.remove(scenes.keySet().iterator().next());
+        }
+        return scene;
+    }
+
+    /**
+     * Receives the anti-aliasing of a session.
+     * @return The renderer of the tiles of the session, or null if the settings are invalid.
+     */
+    private Renderer receiveSampling(DataInputStream in, DataOutputStream out) throws IOException {
+        if (!in.readBoolean())
+            return renderer.withSampler(null);
+        int grid = in.readInt();
+        double threshold = in.readDouble();
+        try {
+            return renderer.withSampler(new AdaptiveSampler(grid, threshold));
+        } catch (IllegalArgumentException e) {
+            refuse(out, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    /** Tells the coordinator that the scene could not be loaded. */
+    private static void refuse(DataOutputStream out, String message) throws IOException {
+        out.writeByte(TileProtocol.FAILED);
+        out.writeUTF(message);
+        out.flush();
+    }
+}
@@ -0,0 +1,312 @@
+package com.imt.raytracing.distributed;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.imt.raytracing.imaging.AdaptiveSampler;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Phase;
+import com.imt.raytracing.parsing.BinarySceneFormat;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Renders a scene on several {@link RenderWorker} processes, tile by tile.
+ *
+ * The scene is compiled with its BVH ({@link BinarySceneFormat}) and only sent to the
+ * workers that do not hold it already, identified by its hash. Every worker is kept busy
+ * with twice as many tiles as it renders at once, the tiles going to whichever worker asks
+ * first. Once no tile is left to hand out, a worker with nothing to do gets a copy of a
+ * tile still being rendered elsewhere, the oldest one: a slow or stuck worker does not
+ * hold up the image, the first copy back wins. The tiles of a worker that fails go back to
+ * the others. The workers render with the anti-aliasing of the coordinator, and every
+ * pixel is computed exactly as by a local render, so the image is the same.
+ */
+public final class TileCoordinator {
+
+    /** Timeout of the connection to a worker, in milliseconds. */
+    static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private final List<InetSocketAddress> workers;
+    private final int tileSize;
+    /** The anti-aliasing of the edges, null for none. */
+    private final AdaptiveSampler sampler;
+
+    /**
+     * Creates a coordinator rendering one ray through the center of every pixel.
+     * @param workers The addresses of the workers.
+     * @param tileSize The edge length of the tiles, in pixels.
+     */
+    public TileCoordinator(List<InetSocketAddress> workers, int tileSize) {
+        this(workers, tileSize, null);
+    }
+
+    /**
+     * @param workers The addresses of the workers.
+     * @param tileSize The edge length of the tiles, in pixels.
+     * @param sampler The anti-aliasing of the edges, null for none.
+     */
+    public TileCoordinator(List<InetSocketAddress> workers, int tileSize, AdaptiveSampler sampler) {
+        if (workers.isEmpty())
+            throw new IllegalArgumentException("At least one worker is needed");
+        if (tileSize < 1)
+            throw new IllegalArgumentException("Tile size must be at least 1: " + tileSize);
+        this.workers = List.copyOf(workers);
+        this.tileSize = tileSize;
+        this.sampler = sampler;
+    }
+
+    /** A rectangle of the image, rows counted from the top. */
+    private record Tile(int id, int x, int y, int width, int height) {}
+
+    /**
+     * Renders a scene on the workers. The render is timed as the RENDER phase of the metrics.
+     * @param scene The scene to render.
+     * @return The image, as {@link com.imt.raytracing.imaging.Renderer#render} would give it.
+     * @throws IOException If the scene cannot be sent, or every worker failed before the end.
+     */
+    public BufferedImage render(Scene scene) throws IOException {
+        int width = scene.getWidth();
+        int height = scene.getHeight();
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] framebuffer = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+        BinarySceneFormat.write(scene, compiled, true);
+        byte[] bytes = compiled.toByteArray();
+
+        List<Tile> tiles = new ArrayList<>();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize)
+                tiles.add(new Tile(tiles.size(), x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y)));
+        }
+
+        RenderMetrics.time(Phase.RENDER, () -> {
+            Job job = new Job(tiles, framebuffer, width, bytes);
+            List<Link> links = new ArrayList<>();
+            for (InetSocketAddress address : workers) {
+                Link link = new Link(job, address);
+                links.add(link);
+                link.start();
+            }
+            try {
+                job.await(links.size());
+            } finally {
+                // Also ends the links still waiting for copies of finished tiles
+                for (Link link : links)
+                    link.disconnect();
+            }
+        });
+        return img;
+    }
+
+    /** The tiles of one render, shared by the links to the workers. */
+    private static final class Job {
+        final List<Tile> tiles;
+        final int[] framebuffer;
+        final int imageWidth;
+        final byte[] scene;
+        final byte[] hash;
+
+        /** Tiles not handed out yet, or given back by a failed worker. */
+        private final Deque<Tile> pending;
+        /** Tiles handed out and not rendered yet, with the links rendering them. */
+        private final Map<Tile, Set<Link>> running = new HashMap<>();
+        /** When every running tile was last handed out, to re-issue the oldest one first. */
+        private final Map<Tile, Long> issued = new HashMap<>();
+        private final boolean[] done;
+        private int remaining;
+        private int failedLinks;
+        private IOException lastFailure;
+
+        Job(List<Tile> tiles, int[] framebuffer, int imageWidth, byte[] scene) {
+            this.tiles = tiles;
+            this.framebuffer = framebuffer;
+            this.imageWidth = imageWidth;
+            this.scene = scene;
+            this.hash = TileProtocol.hash(scene);
+            this.pending = new ArrayDeque<>(tiles);
+            this.done = new boolean[tiles.size()];
+            this.remaining = tiles.size();
+        }
+
+        /**
+         * Hands out a tile to a link.
+         * @param idle true if the link has no tile left, so that it may get a copy of a tile running elsewhere.
+         * @return The tile, or null if there is nothing to hand out to this link.
+         */
+        synchronized Tile next(Link link, boolean idle) {
+            Tile tile = pending.poll();
+            if (tile == null && idle) {
+                long oldest = Long.MAX_VALUE;
+                for (Map.Entry<Tile, Set<Link>> entry : running.entrySet()) {
+                    long time = issued.get(entry.getKey());
+                    if (!entry.getValue().contains(link) && time < oldest) {
+                        oldest = time;
+                        tile = entry.getKey();
+                    }
+                }
+            }
+            if (tile != null) {
+                running.computeIfAbsent(tile, t -> new HashSet<>()).add(link);
+                issued.put(tile, System.nanoTime());
+            }
+            return tile;
+        }
+
+        /** Stores the pixels of a tile, unless another copy of it came back first. */
+        synchronized void complete(Tile tile, int[] pixels) {
+            if (done[tile.id()]) return;
+            for (int row = 0; row < tile.height(); row++)
+                System.arraycopy(pixels, row * tile.width(), framebuffer,
+                        (tile.y() + row) * imageWidth + tile.x(), tile.width());
+            done[tile.id()] = true;
+            running.remove(tile);
+            issued.remove(tile);
+            remaining--;
+            notifyAll();
+        }
+
+        /** Gives back the tiles of a link that failed, unless another link renders them too. */
+        synchronized void fail(Link link, Iterable<Tile> outstanding, IOException failure) {
+            for (Tile tile : outstanding) {
+                Set<Link> links = running.get(tile);
+                if (links == null) continue;
+                links.remove(link);
+                if (links.isEmpty()) {
+                    running.remove(tile);
+                    issued.remove(tile);
+                    pending.addFirst(tile);
+                }
+            }
+            failedLinks++;
+            lastFailure = failure;
+            notifyAll();
+        }
+
+        synchronized boolean isDone() {
+            return remaining == 0;
+        }
+
+        /** Waits until the tiles change: some rendered, or given back. */
+        synchronized void awaitChange() throws InterruptedException {
+            if (remaining > 0 && pending.isEmpty())
+                wait(100);
+        }
+
+        /** Waits until every tile is rendered, or every link failed. */
+        synchronized void await(int links) throws IOException {
+            try {
+                while (remaining > 0 && failedLinks < links)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the workers", e);
+            }
+            if (remaining > 0)
+                throw new IOException("Every worker failed, " + remaining + " tiles left", lastFailure);
+        }
+    }
+
+    /** The connection to one worker, run by its own thread. */
+    private final class Link extends Thread {
+        private final Job job;
+        private final InetSocketAddress address;
+        private final Socket socket = new Socket();
+
+        Link(Job job, InetSocketAddress address) {
+            super("tile-link-" + address);
+            setDaemon(true);
+            this.job = job;
+            this.address = address;
+        }
+
+        void disconnect() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+
+        @Override
+        public void run() {
+            Map<Integer, Tile> outstanding = new HashMap<>();
+            try {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                if (in.readInt() != TileProtocol.MAGIC || in.readInt() != TileProtocol.VERSION)
+                    throw new IOException("Not a render worker of this version: " + address);
+                int window = 2 * in.readInt();
+
+                sendScene(in, out);
+
+                while (!job.isDone()) {
+                    Tile tile;
+                    while (outstanding.size() < window && (tile = job.next(this, outstanding.isEmpty())) != null) {
+                        out.writeByte(TileProtocol.TILE);
+                        out.writeInt(tile.id());
+                        out.writeInt(tile.x());
+                        out.writeInt(tile.y());
+                        out.writeInt(tile.width());
+                        out.writeInt(tile.height());
+                        outstanding.put(tile.id(), tile);
+                    }
+                    out.flush();
+                    if (outstanding.isEmpty()) {
+                        job.awaitChange();
+                        continue;
+                    }
+
+                    Tile rendered = outstanding.remove(in.readInt());
+                    if (rendered == null)
+                        throw new IOException("Unexpected tile from " + address);
+                    job.complete(rendered, TileProtocol.readPixels(in, rendered.width() * rendered.height()));
+                }
+                out.writeByte(TileProtocol.END);
+                out.flush();
+            } catch (IOException e) {
+                if (!job.isDone())
+                    job.fail(this, outstanding.values(), e);
+            } catch (InterruptedException e) {
+                job.fail(this, outstanding.values(), new IOException("Interrupted", e));
+            } finally {
+                disconnect();
+            }
+        }
+
+        private void sendScene(DataInputStream in, DataOutputStream out) throws IOException {
+            out.write(job.hash);
+            out.flush();
+            if (!in.readBoolean()) {
+                out.writeInt(job.scene.length);
+                out.write(job.scene);
+            }
+            out.writeBoolean(sampler != null);
+            if (sampler != null) {
+                out.writeInt(sampler.getGrid());
+                out.writeDouble(sampler.getThreshold());
+            }
+            out.flush();
+            if (in.readByte() != TileProtocol.READY)
+                throw new IOException("Worker " + address + " could not load the scene: " + in.readUTF());
+        }
+    }
+}
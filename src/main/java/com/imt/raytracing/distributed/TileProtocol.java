@@ -0,0 +1,75 @@
+package com.imt.raytracing.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The messages exchanged between a {@link TileCoordinator} and a {@link RenderWorker},
+ * over one TCP connection per worker. All values are big-endian.
+ *
+ * <ol>
+ * <li>The worker opens with {@link #MAGIC}, {@link #VERSION} and the number of tiles it
+ * renders at once.</li>
+ * <li>The coordinator sends the SHA-256 hash of the compiled scene; the worker answers
+ * whether it holds that scene already. If not, the coordinator sends the length, at most
+ * {@link #MAX_SCENE_BYTES}, and the bytes of the scene, compiled with its BVH. In both
+ * cases, the coordinator then sends whether the edges are anti-aliased and, if so, the grid
+ * and the threshold of its {@link com.imt.raytracing.imaging.AdaptiveSampler}, which the
+ * worker renders the tiles with. The worker answers {@link #READY}, or {@link #FAILED}
+ * followed by a message.</li>
+ * <li>The coordinator then sends {@link #TILE} messages (id, x, y, width, height, the rows
+ * counted from the top of the image), and the worker answers each one, in any order,
+ * with the id and the pixels of the tile. {@link #END} closes the session.</li>
+ * </ol>
+ */
+final class TileProtocol {
+
+    static final int MAGIC = 0x52545752; // "RTWR"
+    static final int VERSION = 2;
+
+    static final byte END = 0;
+    static final byte TILE = 1;
+
+    static final byte READY = 1;
+    static final byte FAILED = 0;
+
+    /** Length of the hash of a scene. */
+    static final int HASH_BYTES = 32;
+
+    /** Largest compiled scene a worker accepts, so that a bad length does not exhaust its memory. */
+    static final int MAX_SCENE_BYTES = 1 << 30;
+
+    private TileProtocol() {
+    }
+
+    /**
+     * @return The SHA-256 hash of the bytes of a compiled scene.
+     */
+    static byte[] hash(byte[] scene) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(scene);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /** Writes the pixels of a tile, 4 bytes each. */
+    static void writePixels(DataOutputStream out, int[] pixels) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(4 * pixels.length);
+        bytes.asIntBuffer().put(pixels);
+        out.write(bytes.array());
+    }
+
+    /** Reads the pixels of a tile, 4 bytes each. */
+    static int[] readPixels(DataInputStream in, int count) throws IOException {
+        byte[] bytes = new byte[4 * count];
+        in.readFully(bytes);
+        int[] pixels = new int[count];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+        return pixels;
+    }
+}
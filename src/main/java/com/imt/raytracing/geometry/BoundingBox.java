@@ -0,0 +1,125 @@
+package com.imt.raytracing.geometry;
+
+/**
+ * Axis-aligned bounding box (AABB) described by its minimum and maximum corners.
+ * Used by the acceleration structures to enclose shapes and groups of shapes,
+ * so that a ray only has to be tested against the shapes whose box it crosses.
+ */
+public class BoundingBox {
+    /** Minimum corner coordinates. */
+    public double minX, minY, minZ;
+    /** Maximum corner coordinates. */
+    public double maxX, maxY, maxZ;
+
+    /**
+     * Creates an empty box (min = +infinity, max = -infinity) which can be grown
+     * with {@link #expand(BoundingBox)} or {@link #expand(double, double, double)}.
+     */
+    public BoundingBox() {
+        minX = minY = minZ = Double.POSITIVE_INFINITY;
+        maxX = maxY = maxZ = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Creates a box from its two corners.
+     * @param minX minimum x
+     * @param minY minimum y
+     * @param minZ minimum z
+     * @param maxX maximum x
+     * @param maxY maximum y
+     * @param maxZ maximum z
+     */
+    public BoundingBox(double minX, double minY, double minZ,
+                       double maxX, double maxY, double maxZ) {
+        this.minX = minX; this.minY = minY; this.minZ = minZ;
+        this.maxX = maxX; this.maxY = maxY; this.maxZ = maxZ;
+    }
+
+    /**
+     * Grows this box so that it contains the given point.
+     * @param x point x
+     * @param y point y
+     * @param z point z
+     */
+    public void expand(double x, double y, double z) {
+        if (x < minX) minX = x;
+        if (y < minY) minY = y;
+        if (z < minZ) minZ = z;
+        if (x > maxX) maxX = x;
+        if (y > maxY) maxY = y;
+        if (z > maxZ) maxZ = z;
+    }
+
+    /**
+     * Grows this box so that it contains the other box.
+     * @param b the box to include
+     */
+    public void expand(BoundingBox b) {
+        if (b.minX < minX) minX = b.minX;
+        if (b.minY < minY) minY = b.minY;
+        if (b.minZ < minZ) minZ = b.minZ;
+        if (b.maxX > maxX) maxX = b.maxX;
+        if (b.maxY > maxY) maxY = b.maxY;
+        if (b.maxZ > maxZ) maxZ = b.maxZ;
+    }
+
+    /**
+     * @return true if nothing has been added to this box yet
+     */
+    public boolean isEmpty() {
+        return minX > maxX || minY > maxY || minZ > maxZ;
+    }
+
+    /**
+     * Returns the minimum coordinate along an axis.
+     * @param axis 0 for x, 1 for y, 2 for z
+     * @return the minimum coordinate
+     */
+    public double min(int axis) {
+        return axis == 0 ? minX : axis == 1 ? minY : minZ;
+    }
+
+    /**
+     * Returns the maximum coordinate along an axis.
+     * @param axis 0 for x, 1 for y, 2 for z
+     * @return the maximum coordinate
+     */
+    public double max(int axis) {
+        return axis == 0 ? maxX : axis == 1 ? maxY : maxZ;
+    }
+
+    /**
+     * Returns the center of the box along an axis.
+     * @param axis 0 for x, 1 for y, 2 for z
+     * @return the centroid coordinate
+     */
+    public double center(int axis) {
+        return 0.5 * (min(axis) + max(axis));
+    }
+
+    /**
+     * Returns the axis along which the box is the widest.
+     * @return 0 for x, 1 for y, 2 for z
+     */
+    public int largestAxis() {
+        double dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+        if (dx >= dy && dx >= dz) return 0;
+        return dy >= dz ? 1 : 2;
+    }
+
+    /**
+     * Computes the surface area of the box, used by the surface area heuristic (SAH).
+     * An empty box has an area of 0.
+     * @return the surface area
+     */
+    public double surfaceArea() {
+        if (isEmpty()) return 0;
+        double dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[(%.4f, %.4f, %.4f) - (%.4f, %.4f, %.4f)]", minX, minY, minZ, maxX, maxY, maxZ);
+    }
+}
@@ -0,0 +1,264 @@
+package com.imt.raytracing.geometry;
+
+import java.util.Arrays;
+
+/**
+ * Immutable affine transformation of 3D space, stored as the top three rows of a
+ * 4x4 matrix (the last row is always 0 0 0 1). Points are transformed with the
+ * translation, vectors without it, and normals with the inverse transpose, so that
+ * they stay perpendicular to the transformed surface.
+ *
+ * The inverse is computed once, when the transform is created; it is null if the
+ * matrix is singular (e.g. a scale by 0), see {@link #isInvertible()}.
+ */
+public final class Transform {
+
+    /** The transform that leaves everything in place. */
+    public static final Transform IDENTITY = new Transform(new double[] {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0});
+
+    /** Row-major 3x4 matrix. */
+    private final double[] m;
+    /** Row-major 3x4 inverse matrix, null if the matrix is singular. */
+    private final double[] inv;
+
+    private Transform(double[] m) {
+        this.m = m;
+        this.inv = invert(m);
+    }
+
+    /**
+     * Creates a transform from its matrix.
+     * @param matrix The 12 coefficients of the top three rows of the matrix, row by row.
+     * @return The transform.
+     * @throws IllegalArgumentException If the array does not hold 12 finite numbers.
+     */
+    public static Transform of(double... matrix) {
+        if (matrix.length != 12)
+            throw new IllegalArgumentException("An affine matrix has 12 coefficients, got " + matrix.length);
+        for (double v : matrix) {
+            if (!Double.isFinite(v))
+                throw new IllegalArgumentException("Matrix coefficient is not finite: " + v);
+        }
+        return new Transform(matrix.clone());
+    }
+
+    /**
+     * @param x translation along x
+     * @param y translation along y
+     * @param z translation along z
+     * @return The translation by (x, y, z).
+     */
+    public static Transform translation(double x, double y, double z) {
+        return of(1, 0, 0, x,
+                  0, 1, 0, y,
+                  0, 0, 1, z);
+    }
+
+    /**
+     * @param x scale factor along x
+     * @param y scale factor along y
+     * @param z scale factor along z
+     * @return The scaling by (x, y, z) around the origin.
+     */
+    public static Transform scaling(double x, double y, double z) {
+        return of(x, 0, 0, 0,
+                  0, y, 0, 0,
+                  0, 0, z, 0);
+    }
+
+    /**
+     * Creates a rotation around an axis going through the origin (Rodrigues' formula).
+     * @param x axis x
+     * @param y axis y
+     * @param z axis z
+     * @param degrees The angle, counterclockwise when looking down the axis.
+     * @return The rotation.
+     * @throws IllegalArgumentException If the axis is the null vector.
+     */
+    public static Transform rotation(double x, double y, double z, double degrees) {
+        double length = Math.sqrt(x*x + y*y + z*z);
+        if (length == 0)
+            throw new IllegalArgumentException("Rotation axis must not be the null vector");
+        x /= length;
+        y /= length;
+        z /= length;
+
+        double rad = Math.toRadians(degrees);
+        double c = Math.cos(rad), s = Math.sin(rad), k = 1 - c;
+        return of(c + k*x*x,   k*x*y - s*z, k*x*z + s*y, 0,
+                  k*x*y + s*z, c + k*y*y,   k*y*z - s*x, 0,
+                  k*x*z - s*y, k*y*z + s*x, c + k*z*z,   0);
+    }
+
+    /**
+     * Composes two transforms.
+     * @param other The transform applied first.
+     * @return The transform applying {@code other}, then this one.
+     */
+    public Transform multiply(Transform other) {
+        double[] a = m, b = other.m;
+        double[] r = new double[12];
+        for (int row = 0; row < 3; row++) {
+            int i = 4 * row;
+            for (int col = 0; col < 4; col++) {
+                r[i + col] = a[i] * b[col] + a[i + 1] * b[4 + col] + a[i + 2] * b[8 + col];
+            }
+            r[i + 3] += a[i + 3];
+        }
+        return new Transform(r);
+    }
+
+    /**
+     * @return true if the transform can be undone, i.e. it does not flatten space
+     */
+    public boolean isInvertible() {
+        return inv != null;
+    }
+
+    /**
+     * @return The inverse transform.
+     * @throws IllegalStateException If the transform is not invertible.
+     */
+    public Transform inverse() {
+        return new Transform(inverseMatrix());
+    }
+
+    /**
+     * @return A copy of the 12 coefficients of the matrix, row by row.
+     */
+    public double[] getMatrix() {
+        return m.clone();
+    }
+
+    /**
+     * @param p a point
+     * @return The transformed point.
+     */
+    public Point apply(Point p) {
+        return new Point(
+                m[0]*p.x + m[1]*p.y + m[2]*p.z + m[3],
+                m[4]*p.x + m[5]*p.y + m[6]*p.z + m[7],
+                m[8]*p.x + m[9]*p.y + m[10]*p.z + m[11]);
+    }
+
+    /**
+     * @param v a vector (a direction, not affected by the translation)
+     * @return The transformed vector.
+     */
+    public Vector apply(Vector v) {
+        return new Vector(
+                m[0]*v.x + m[1]*v.y + m[2]*v.z,
+                m[4]*v.x + m[5]*v.y + m[6]*v.z,
+                m[8]*v.x + m[9]*v.y + m[10]*v.z);
+    }
+
+    /**
+     * @param p a point
+     * @return The point moved by the inverse transform.
+     * @throws IllegalStateException If the transform is not invertible.
+     */
+    public Point applyInverse(Point p) {
+        double[] i = inverseMatrix();
+        return new Point(
+                i[0]*p.x + i[1]*p.y + i[2]*p.z + i[3],
+                i[4]*p.x + i[5]*p.y + i[6]*p.z + i[7],
+                i[8]*p.x + i[9]*p.y + i[10]*p.z + i[11]);
+    }
+
+    /**
+     * @param v a vector
+     * @return The vector moved by the inverse transform.
+     * @throws IllegalStateException If the transform is not invertible.
+     */
+    public Vector applyInverse(Vector v) {
+        double[] i = inverseMatrix();
+        return new Vector(
+                i[0]*v.x + i[1]*v.y + i[2]*v.z,
+                i[4]*v.x + i[5]*v.y + i[6]*v.z,
+                i[8]*v.x + i[9]*v.y + i[10]*v.z);
+    }
+
+    /**
+     * Transforms a surface normal with the inverse transpose of the matrix.
+     * The result is not normalized.
+     * @param n a normal
+     * @return The transformed normal.
+     * @throws IllegalStateException If the transform is not invertible.
+     */
+    public Vector applyNormal(Vector n) {
+        double[] i = inverseMatrix();
+        return new Vector(
+                i[0]*n.x + i[4]*n.y + i[8]*n.z,
+                i[1]*n.x + i[5]*n.y + i[9]*n.z,
+                i[2]*n.x + i[6]*n.y + i[10]*n.z);
+    }
+
+    /**
+     * Computes the box enclosing a transformed box, from its 8 transformed corners.
+     * @param box a box
+     * @return The axis-aligned box around the transformed box, empty if the box is empty.
+     */
+    public BoundingBox apply(BoundingBox box) {
+        BoundingBox result = new BoundingBox();
+        if (box.isEmpty()) return result;
+        for (int corner = 0; corner < 8; corner++) {
+            double x = (corner & 1) == 0 ? box.minX : box.maxX;
+            double y = (corner & 2) == 0 ? box.minY : box.maxY;
+            double z = (corner & 4) == 0 ? box.minZ : box.maxZ;
+            result.expand(
+                    m[0]*x + m[1]*y + m[2]*z + m[3],
+                    m[4]*x + m[5]*y + m[6]*z + m[7],
+                    m[8]*x + m[9]*y + m[10]*z + m[11]);
+        }
+        return result;
+    }
+
+    private double[] inverseMatrix() {
+        if (inv == null)
+            throw new IllegalStateException("Transform is not invertible");
+        return inv;
+    }
+
+    /**
+     * Inverts an affine matrix: the 3x3 part with its adjugate, then the translation.
+     * @return The inverse, or null if the matrix is singular.
+     */
+    private static double[] invert(double[] m) {
+        double a = m[0], b = m[1], c = m[2];
+        double d = m[4], e = m[5], f = m[6];
+        double g = m[8], h = m[9], k = m[10];
+
+        double A = e*k - f*h, B = f*g - d*k, C = d*h - e*g;
+        double det = a*A + b*B + c*C;
+        if (det == 0 || !Double.isFinite(det)) return null;
+        double s = 1.0 / det;
+
+        double[] r = new double[12];
+        r[0] = A * s;            r[1] = (c*h - b*k) * s; r[2]  = (b*f - c*e) * s;
+        r[4] = B * s;            r[5] = (a*k - c*g) * s; r[6]  = (c*d - a*f) * s;
+        r[8] = C * s;            r[9] = (b*g - a*h) * s; r[10] = (a*e - b*d) * s;
+        r[3]  = -(r[0]*m[3] + r[1]*m[7] + r[2]*m[11]);
+        r[7]  = -(r[4]*m[3] + r[5]*m[7] + r[6]*m[11]);
+        r[11] = -(r[8]*m[3] + r[9]*m[7] + r[10]*m[11]);
+        return r;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Transform && Arrays.equals(m, ((Transform) obj).m);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(m);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%.4f %.4f %.4f %.4f | %.4f %.4f %.4f %.4f | %.4f %.4f %.4f %.4f]",
+                m[0], m[1], m[2], m[3], m[4], m[5], m[6], m[7], m[8], m[9], m[10], m[11]);
+    }
+}
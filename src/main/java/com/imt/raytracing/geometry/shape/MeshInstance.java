@@ -0,0 +1,111 @@
+package com.imt.raytracing.geometry.shape;
+
+import java.util.Optional;
+
+import com.imt.raytracing.geometry.BoundingBox;
+import com.imt.raytracing.geometry.Transform;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+import com.imt.raytracing.raytracer.scene.Intersection;
+
+/**
+ * A placement of a {@link MeshPrototype} in the scene, through an affine transform
+ * from the object space of the mesh to the world.
+ *
+ * Rays are moved into object space and tested against the structure of the mesh, so
+ * that the triangles are stored only once however many times the mesh appears. The
+ * object-space ray is normalized like any other ray, hence distances are converted
+ * with the length of the transformed direction. For the scene, an instance is a single
+ * primitive whose box encloses the transformed mesh; the materials are those of the
+ * shapes of the mesh.
+ */
+public class MeshInstance extends Shape {
+
+    /** The instanced mesh. */
+    public final MeshPrototype mesh;
+    /** From the object space of the mesh to the world. */
+    public final Transform transform;
+
+    private final BoundingBox bounds;
+
+    /** Record of the object-space search, reused by every query of a thread. */
+    private static final ThreadLocal<HitRecord> LOCAL_HIT = ThreadLocal.withInitial(HitRecord::new);
+
+    /**
+     * @param mesh The mesh to place.
+     * @param transform From the object space of the mesh to the world.
+     * @throws IllegalArgumentException If the transform is not invertible.
+     */
+    public MeshInstance(MeshPrototype mesh, Transform transform) {
+        super(null, null, 0);
+        if (!transform.isInvertible())
+            throw new IllegalArgumentException("Instance transform is not invertible: " + transform);
+        this.mesh = mesh;
+        this.transform = transform;
+        this.bounds = transform.apply(mesh.getBoundingBox());
+    }
+
+    @Override
+    public Optional<Intersection> intersect(Ray ray) {
+        HitRecord hit = new HitRecord();
+        if (!intersect(ray, hit)) return Optional.empty();
+        return Optional.of(hit.toIntersection(ray));
+    }
+
+    @Override
+    public boolean intersect(Ray ray, HitRecord hit) {
+        Vector direction = transform.applyInverse(ray.direction);
+        double scale = direction.length();
+        Ray local = new Ray(transform.applyInverse(ray.origin), direction);
+
+        HitRecord localHit = LOCAL_HIT.get();
+        localHit.reset(hit.t * scale);
+        if (!mesh.closestHit(local, localHit)) return false;
+
+        int shapeIndex = (int) (localHit.order >>> 32);
+        return hit.record(localHit.t / scale, this, mesh.getPrimitiveOffset(shapeIndex) + localHit.primitive);
+    }
+
+    @Override
+    public boolean anyIntersection(Ray ray, double tMax) {
+        Vector direction = transform.applyInverse(ray.direction);
+        double scale = direction.length();
+        return mesh.anyIntersection(new Ray(transform.applyInverse(ray.origin), direction), tMax * scale);
+    }
+
+    @Override
+    public Intersection createIntersection(Ray ray, double t, int primitive) {
+        int shapeIndex = mesh.getShapeIndex(primitive);
+        Shape shape = mesh.shapes.get(shapeIndex);
+
+        Vector direction = transform.applyInverse(ray.direction);
+        double scale = direction.length();
+        Ray local = new Ray(transform.applyInverse(ray.origin), direction);
+        Intersection inter = shape.createIntersection(local, t * scale,
+                primitive - mesh.getPrimitiveOffset(shapeIndex));
+
+        return new IntersectionInstance(t, this, shape, ray, transform.applyNormal(inter.normal).normalize());
+    }
+
+    @Override
+    public BoundingBox getBoundingBox() {
+        // An empty mesh has no box: it is then tested apart, and never hit
+        return bounds.isEmpty() ? null : bounds;
+    }
+
+    /**
+     * Intersection with a shape of an instanced mesh, in world space. Its shape is
+     * the shape of the mesh that was hit, which carries the material.
+     */
+    public static class IntersectionInstance extends Intersection {
+
+        /** The instance that was hit. */
+        public final MeshInstance instance;
+
+        public IntersectionInstance(double t, MeshInstance instance, Shape shape, Ray ray, Vector normal) {
+            super(t, shape, ray, normal);
+            this.instance = instance;
+        }
+    }
+}
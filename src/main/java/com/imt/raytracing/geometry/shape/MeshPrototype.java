@@ -0,0 +1,142 @@
+package com.imt.raytracing.geometry.shape;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.imt.raytracing.geometry.BoundingBox;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Counter;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.acceleration.Accelerator;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+
+/**
+ * A group of shapes defined once, in its own object space, and placed in the scene
+ * any number of times by {@link MeshInstance}s. It carries its own acceleration
+ * structure (the bottom level), shared by all its instances, while the scene
+ * structure (the top level) only sees the boxes of the instances.
+ *
+ * The primitives of all the shapes are numbered one after the other, so that an
+ * instance can identify a hit with a single int.
+ */
+public final class MeshPrototype {
+
+    /** The name the instances refer to. */
+    public final String name;
+    /** The shapes of the mesh, in object space. They must all be bounded. */
+    public final List<Shape> shapes;
+
+    /** Number of primitives before each shape, plus the total at the end. */
+    private final int[] primitiveOffsets;
+    private final BoundingBox bounds = new BoundingBox();
+    private Accelerator accelerator;
+
+    /**
+     * @param name The name of the mesh.
+     * @param shapes The shapes of the mesh, in object space.
+     * @throws IllegalArgumentException If a shape is unbounded (e.g. a plane).
+     */
+    public MeshPrototype(String name, List<Shape> shapes) {
+        this.name = name;
+        this.shapes = shapes;
+        this.primitiveOffsets = new int[shapes.size() + 1];
+        for (int i = 0; i < shapes.size(); i++) {
+            BoundingBox box = shapes.get(i).getBoundingBox();
+            if (box == null)
+                throw new IllegalArgumentException("Unbounded shape in mesh " + name);
+            bounds.expand(box);
+            primitiveOffsets[i + 1] = primitiveOffsets[i] + shapes.get(i).getPrimitiveCount();
+        }
+    }
+
+    /**
+     * @return The acceleration structure over the shapes, or null to scan them linearly.
+     */
+    public Accelerator getAccelerator() {
+        return accelerator;
+    }
+
+    /**
+     * Replaces the acceleration structure over the shapes. Must not be called while rendering.
+     * @param accelerator The structure, built over {@link #shapes}, or null to scan them linearly.
+     */
+    public void setAccelerator(Accelerator accelerator) {
+        this.accelerator = accelerator;
+    }
+
+    /**
+     * @return The box around all the shapes, in object space (empty if the mesh has no shape).
+     */
+    public BoundingBox getBoundingBox() {
+        return bounds;
+    }
+
+    /**
+     * @return The number of primitives of all the shapes together.
+     */
+    public int getPrimitiveCount() {
+        return primitiveOffsets[shapes.size()];
+    }
+
+    /**
+     * @param shapeIndex The index of a shape of the mesh.
+     * @return The number of the first primitive of that shape in the mesh.
+     */
+    public int getPrimitiveOffset(int shapeIndex) {
+        return primitiveOffsets[shapeIndex];
+    }
+
+    /**
+     * @param primitive A primitive number of the mesh, in [0, getPrimitiveCount()).
+     * @return The index of the shape holding that primitive.
+     */
+    public int getShapeIndex(int primitive) {
+        int i = Arrays.binarySearch(primitiveOffsets, primitive);
+        if (i < 0) return -i - 2;
+        // Skip the shapes without any primitive
+        while (primitiveOffsets[i + 1] == primitive) i++;
+        return i;
+    }
+
+    /**
+     * Closest-hit search among the shapes, in object space. The record order of the
+     * hit holds the index of the shape in its high 32 bits, see {@link HitRecord#order(int, int)}.
+     * @param ray The ray, in object space.
+     * @param hit The record to fill.
+     * @return true if a hit was recorded.
+     */
+    public boolean closestHit(Ray ray, HitRecord hit) {
+        if (accelerator != null)
+            return accelerator.closestHit(ray, hit);
+
+        boolean found = false;
+        for (int i = 0; i < shapes.size(); i++) {
+            hit.nextOrder = HitRecord.order(i, 0);
+            found |= shapes.get(i).intersect(ray, hit);
+        }
+        RenderMetrics.count(Counter.INTERSECTION_TESTS, getPrimitiveCount());
+        return found;
+    }
+
+    /**
+     * Any-hit search among the shapes, in object space.
+     * @param ray The ray, in object space.
+     * @param tMax The exclusive upper bound of the interval.
+     * @return true if at least one shape lies in the interval.
+     */
+    public boolean anyIntersection(Ray ray, double tMax) {
+        if (accelerator != null)
+            return accelerator.anyIntersection(ray, tMax);
+
+        long tests = 0;
+        for (Shape s : shapes) {
+            tests += s.getPrimitiveCount();
+            if (s.anyIntersection(ray, tMax)) {
+                RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+                return true;
+            }
+        }
+        RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+        return false;
+    }
+}
@@ -2,10 +2,12 @@ package com.imt.raytracing.geometry.shape;
 
 import java.util.Optional;
 
+import com.imt.raytracing.geometry.BoundingBox;
 import com.imt.raytracing.geometry.Point;
 import com.imt.raytracing.geometry.Vector;
 import com.imt.raytracing.imaging.Color;
 import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.HitRecord;
 import com.imt.raytracing.raytracer.scene.Intersection;
 
 /**
@@ -60,16 +62,58 @@ public class Plane extends Shape {
      */
     @Override
     public Optional<Intersection> intersect(Ray ray) {
+        double t = hitDistance(ray);
 
-        double denom = normal.dot(ray.direction);
+        if (t == Double.POSITIVE_INFINITY) return Optional.empty();
 
-        if (Math.abs(denom) < 1e-8) return Optional.empty();
+        return Optional.of(new IntersectionPlane(t, this, ray));
+    }
+
+    @Override
+    public boolean intersect(Ray ray, HitRecord hit) {
+        double t = hitDistance(ray);
+        return t != Double.POSITIVE_INFINITY && hit.record(t, this, 0);
+    }
 
-        double t = p0.sub(ray.origin).dot(normal) / denom;
+    @Override
+    public Intersection createIntersection(Ray ray, double t, int primitive) {
+        return new IntersectionPlane(t, this, ray);
+    }
 
-        if (t <= 0) return Optional.empty();
+    @Override
+    public boolean anyIntersection(Ray ray, double tMax) {
+        return hitDistance(ray) < tMax;
+    }
 
-        return Optional.of(new IntersectionPlane(t, this, ray));
+    /**
+     * Analytic ray-plane solution written with scalars.
+     *
+     * @param ray the ray to test
+     * @return the distance of the hit, or +infinity if the plane is missed
+     */
+    private double hitDistance(Ray ray) {
+        double denom = normal.x * ray.direction.x + normal.y * ray.direction.y + normal.z * ray.direction.z;
+
+        if (Math.abs(denom) < 1e-8) return Double.POSITIVE_INFINITY;
+
+        // t = (p0 - origin) · n / denom
+        double t = ((p0.x - ray.origin.x) * normal.x
+                  + (p0.y - ray.origin.y) * normal.y
+                  + (p0.z - ray.origin.z) * normal.z) / denom;
+
+        if (t <= 0) return Double.POSITIVE_INFINITY;
+
+        return t;
+    }
+
+    /**
+     * A plane is infinite and therefore has no bounding box.
+     *
+     * @return always null
+     */
+    @Override
+    public BoundingBox getBoundingBox() {
+        return null;
     }
 
     /** 
@@ -81,8 +125,7 @@ public class Plane extends Shape {
     public static class IntersectionPlane extends Intersection {
 
         public IntersectionPlane(double t, Plane plane, Ray ray) {
-            super(t, plane, ray);
-            this.normal = plane.normal;
+            super(t, plane, ray, plane.normal);
         }
     }
 }
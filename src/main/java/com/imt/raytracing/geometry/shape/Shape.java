@@ -2,8 +2,10 @@ package com.imt.raytracing.geometry.shape;
 
 import java.util.Optional;
 
+import com.imt.raytracing.geometry.BoundingBox;
 import com.imt.raytracing.imaging.Color;
 import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.HitRecord;
 import com.imt.raytracing.raytracer.scene.Intersection;
 
 
@@ -51,4 +53,107 @@ public class Shape {
     public Optional<Intersection> intersect(Ray ray) {
         return Optional.empty();
     }
+
+    /**
+     * Closest-hit test that writes into a caller-owned record instead of building
+     * an Intersection: if the ray hits this shape closer than {@code hit.t}, the
+     * distance and the primitive are recorded with {@link HitRecord#record}.
+     *
+     * Concrete shapes override it with an allocation-free version; this default
+     * falls back on {@link #intersect(Ray)}.
+     *
+     * @param ray the ray to test
+     * @param hit the record of the closest hit so far
+     * @return true if the record was updated
+     */
+    public boolean intersect(Ray ray, HitRecord hit) {
+        Optional<Intersection> inter = intersect(ray);
+        return inter.isPresent() && hit.record(inter.get().t, this, 0);
+    }
+
+    /**
+     * Build the full Intersection for a hit previously found by
+     * {@link #intersect(Ray, HitRecord)}.
+     *
+     * @param ray the ray that hit the shape
+     * @param t the distance of the hit
+     * @param primitive the primitive that was hit
+     * @return the Intersection, with point and normal computed
+     */
+    public Intersection createIntersection(Ray ray, double t, int primitive) {
+        return new Intersection(t, this, ray);
+    }
+
+    /**
+     * Test whether the ray hits this shape at a distance t with 0 &lt; t &lt; tMax.
+     *
+     * This is the query used by shadow rays: it only answers yes or no, so it
+     * does not need to build an Intersection. Concrete shapes override it with an
+     * allocation-free version; this default falls back on {@link #intersect(Ray)}.
+     *
+     * @param ray the ray to test
+     * @param tMax the exclusive upper bound of the interval
+     * @return true if the shape is hit inside the interval
+     */
+    public boolean anyIntersection(Ray ray, double tMax) {
+        Optional<Intersection> inter = intersect(ray);
+        return inter.isPresent() && inter.get().t < tMax;
+    }
+
+    /**
+     * Number of primitives making up this shape. Simple shapes are a single
+     * primitive; meshes expose each triangle as a primitive so that acceleration
+     * structures can index them separately.
+     *
+     * @return the number of primitives
+     */
+    public int getPrimitiveCount() {
+        return 1;
+    }
+
+    /**
+     * Closest-hit test restricted to one primitive of this shape.
+     *
+     * @param ray the ray to test
+     * @param primitive the primitive to test, in [0, getPrimitiveCount())
+     * @param hit the record of the closest hit so far
+     * @return true if the record was updated
+     */
+    public boolean intersect(Ray ray, int primitive, HitRecord hit) {
+        return intersect(ray, hit);
+    }
+
+    /**
+     * Any-hit test restricted to one primitive of this shape.
+     *
+     * @param ray the ray to test
+     * @param primitive the primitive to test, in [0, getPrimitiveCount())
+     * @param tMax the exclusive upper bound of the interval
+     * @return true if the primitive is hit inside the interval
+     */
+    public boolean anyIntersection(Ray ray, int primitive, double tMax) {
+        return anyIntersection(ray, tMax);
+    }
+
+    /**
+     * Compute the bounding box of one primitive of this shape.
+     *
+     * @param primitive the primitive, in [0, getPrimitiveCount())
+     * @return the bounding box, or null if the shape is unbounded
+     */
+    public BoundingBox getPrimitiveBounds(int primitive) {
+        return getBoundingBox();
+    }
+
+    /**
+     * Compute the axis-aligned bounding box of this shape.
+     *
+     * Shapes that cannot be enclosed in a finite box (e.g. planes) return null,
+     * and are then tested separately by the acceleration structures.
+     *
+     * @return the bounding box, or null if the shape is unbounded
+     */
+    public BoundingBox getBoundingBox() {
+        return null;
+    }
 }
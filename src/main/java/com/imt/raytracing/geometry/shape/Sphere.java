@@ -2,10 +2,11 @@ package com.imt.raytracing.geometry.shape;
 
 import java.util.Optional;
 
+import com.imt.raytracing.geometry.BoundingBox;
 import com.imt.raytracing.geometry.Point;
-import com.imt.raytracing.geometry.Vector;
 import com.imt.raytracing.imaging.Color;
 import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.HitRecord;
 import com.imt.raytracing.raytracer.scene.Intersection;
 
 /**
@@ -53,15 +54,45 @@ public class Sphere extends Shape {
      */
     @Override
     public Optional<Intersection> intersect(Ray ray) {
+        double t = hitDistance(ray);
 
-        Vector oc = ray.origin.sub(center);
+        if (t == Double.POSITIVE_INFINITY)
+            return Optional.empty();
+
+        return Optional.of(new Intersection(t, this, ray));
+    }
+
+    @Override
+    public boolean intersect(Ray ray, HitRecord hit) {
+        double t = hitDistance(ray);
+        return t != Double.POSITIVE_INFINITY && hit.record(t, this, 0);
+    }
+
+    @Override
+    public boolean anyIntersection(Ray ray, double tMax) {
+        return hitDistance(ray) < tMax;
+    }
+
+    /**
+     * Solves the ray-sphere quadratic with scalar arithmetic, so that no
+     * temporary vector is allocated.
+     *
+     * @param ray the ray to test
+     * @return the nearest positive root, or +infinity if the sphere is missed
+     */
+    private double hitDistance(Ray ray) {
+        // oc = origin - center
+        double ocx = ray.origin.x - center.x;
+        double ocy = ray.origin.y - center.y;
+        double ocz = ray.origin.z - center.z;
+        double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
 
-        double a = ray.direction.dot(ray.direction);
-        double b = 2.0 * oc.dot(ray.direction);
-        double c = oc.dot(oc) - radius * radius;
+        double a = dx*dx + dy*dy + dz*dz;
+        double b = 2.0 * (ocx*dx + ocy*dy + ocz*dz);
+        double c = (ocx*ocx + ocy*ocy + ocz*ocz) - radius * radius;
 
         double delta = b*b - 4*a*c;
-        if (delta < 0) return Optional.empty();
+        if (delta < 0) return Double.POSITIVE_INFINITY;
 
         double sqrt = Math.sqrt(delta);
         double t1 = (-b - sqrt) / (2*a);
@@ -72,9 +103,19 @@ public class Sphere extends Shape {
         if (t1 > 0) t = t1;
         if (t2 > 0 && t2 < t) t = t2;
 
-        if (t == Double.POSITIVE_INFINITY)
-            return Optional.empty();
+        return t;
+    }
 
-        return Optional.of(new Intersection(t, this, ray));
+    /**
+     * The sphere is enclosed in the cube center ± radius.
+     *
+     * @return the bounding box of the sphere
+     */
+    @Override
+    public BoundingBox getBoundingBox() {
+        return new BoundingBox(
+            center.x - radius, center.y - radius, center.z - radius,
+            center.x + radius, center.y + radius, center.z + radius
+        );
     }
 }
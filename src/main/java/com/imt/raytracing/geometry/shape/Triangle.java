@@ -2,10 +2,12 @@ package com.imt.raytracing.geometry.shape;
 
 import java.util.Optional;
 
+import com.imt.raytracing.geometry.BoundingBox;
 import com.imt.raytracing.geometry.Point;
 import com.imt.raytracing.geometry.Vector;
 import com.imt.raytracing.imaging.Color;
 import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.HitRecord;
 import com.imt.raytracing.raytracer.scene.Intersection;
 
 /**
@@ -61,36 +63,87 @@ public class Triangle extends Shape {
      */
     @Override
     public Optional<Intersection> intersect(Ray ray) {
+        double t = hitDistance(ray);
 
-        Vector ab = b.sub(a);
-        Vector ac = c.sub(a);
+        if (t == Double.POSITIVE_INFINITY) return Optional.empty();
 
-        Vector pvec = ray.direction.cross(ac);
-        double det = ab.dot(pvec);
+        return Optional.of(new IntersectionTriangle(t, this, ray));
+    }
+
+    @Override
+    public boolean intersect(Ray ray, HitRecord hit) {
+        double t = hitDistance(ray);
+        return t != Double.POSITIVE_INFINITY && hit.record(t, this, 0);
+    }
+
+    @Override
+    public Intersection createIntersection(Ray ray, double t, int primitive) {
+        return new IntersectionTriangle(t, this, ray);
+    }
+
+    @Override
+    public boolean anyIntersection(Ray ray, double tMax) {
+        return hitDistance(ray) < tMax;
+    }
+
+    /**
+     * Möller–Trumbore test written with scalars, so that no temporary vector
+     * is allocated.
+     *
+     * @param ray the ray to test
+     * @return the distance of the hit, or +infinity if the triangle is missed
+     */
+    private double hitDistance(Ray ray) {
+        double abx = b.x - a.x, aby = b.y - a.y, abz = b.z - a.z;
+        double acx = c.x - a.x, acy = c.y - a.y, acz = c.z - a.z;
+        double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+
+        // pvec = direction × ac
+        double px = dy*acz - dz*acy;
+        double py = dz*acx - dx*acz;
+        double pz = dx*acy - dy*acx;
+        double det = abx*px + aby*py + abz*pz;
 
-        if (Math.abs(det) < 1e-8) return Optional.empty();
+        if (Math.abs(det) < 1e-8) return Double.POSITIVE_INFINITY;
 
         double invDet = 1.0 / det;
 
-        Vector tvec = ray.origin.sub(a);
-        double u = tvec.dot(pvec) * invDet;
-        if (u < 0 || u > 1) return Optional.empty();
+        // tvec = origin - a
+        double tx = ray.origin.x - a.x, ty = ray.origin.y - a.y, tz = ray.origin.z - a.z;
+        double u = (tx*px + ty*py + tz*pz) * invDet;
+        if (u < 0 || u > 1) return Double.POSITIVE_INFINITY;
 
-        Vector qvec = tvec.cross(ab);
-        double v = ray.direction.dot(qvec) * invDet;
-        if (v < 0 || u + v > 1) return Optional.empty();
+        // qvec = tvec × ab
+        double qx = ty*abz - tz*aby;
+        double qy = tz*abx - tx*abz;
+        double qz = tx*aby - ty*abx;
+        double v = (dx*qx + dy*qy + dz*qz) * invDet;
+        if (v < 0 || u + v > 1) return Double.POSITIVE_INFINITY;
 
-        double t = ac.dot(qvec) * invDet;
-        if (t <= 0) return Optional.empty();
+        double t = (acx*qx + acy*qy + acz*qz) * invDet;
+        if (t <= 0) return Double.POSITIVE_INFINITY;
 
-        return Optional.of(new IntersectionTriangle(t, this, ray));
+        return t;
+    }
+
+    /**
+     * The bounding box of a triangle is the box spanned by its three vertices.
+     *
+     * @return the bounding box of the triangle
+     */
+    @Override
+    public BoundingBox getBoundingBox() {
+        BoundingBox box = new BoundingBox();
+        box.expand(a.x, a.y, a.z);
+        box.expand(b.x, b.y, b.z);
+        box.expand(c.x, c.y, c.z);
+        return box;
     }
 
     public static class IntersectionTriangle extends Intersection {
 
         public IntersectionTriangle(double t, Triangle tri, Ray ray) {
-            super(t, tri, ray);
-            this.normal = tri.normal; 
+            super(t, tri, ray, tri.normal);
         }
     }
 }
@@ -0,0 +1,236 @@
+package com.imt.raytracing.geometry.shape;
+
+import java.util.Optional;
+
+import com.imt.raytracing.geometry.BoundingBox;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+import com.imt.raytracing.raytracer.scene.Intersection;
+
+/**
+ * Mesh of triangles sharing a single material.
+ *
+ * Instead of one Triangle object per face, the mesh stores its data in flat
+ * primitive arrays (struct of arrays): vertex positions, vertex indices, and for
+ * every triangle its first vertex, its two edges and its unit face normal, all
+ * precomputed. Each triangle is a primitive of the shape, so acceleration
+ * structures index the triangles individually.
+ *
+ * Every triangle gives exactly the same hits and normals as the equivalent
+ * {@link Triangle}.
+ */
+public class TriangleMesh extends Shape {
+
+    /** Vertex positions, 3 doubles (x, y, z) per vertex. */
+    public final double[] positions;
+
+    /** Vertex indices into {@link #positions}, 3 per triangle (a, b, c). */
+    public final int[] indices;
+
+    /**
+     * Per-triangle intersection data, 9 doubles per triangle:
+     * vertex a, edge ab = b - a and edge ac = c - a.
+     */
+    private final double[] edges;
+
+    /** Unit face normals, 3 doubles per triangle. */
+    private final double[] normals;
+
+    private final int triangleCount;
+
+    /**
+     * Create a mesh from vertex positions and triangle indices.
+     *
+     * @param positions vertex positions, 3 doubles per vertex
+     * @param indices vertex indices, 3 per triangle, in counter-clockwise order
+     * @param diffuse diffuse color of the whole mesh
+     * @param specular specular color of the whole mesh
+     * @param shininess Phong shininess coefficient of the whole mesh
+     */
+    public TriangleMesh(double[] positions, int[] indices,
+                        Color diffuse, Color specular, double shininess) {
+        super(diffuse, specular, shininess);
+        if (indices.length % 3 != 0)
+            throw new IllegalArgumentException("Triangle indices must come in groups of 3: " + indices.length);
+
+        this.positions = positions;
+        this.indices = indices;
+        this.triangleCount = indices.length / 3;
+        this.edges = new double[triangleCount * 9];
+        this.normals = new double[triangleCount * 3];
+        updateGeometry();
+    }
+
+    /**
+     * Computes again the per-triangle data after the vertex positions have been
+     * modified in place, e.g. between two frames of an animation. The acceleration
+     * structure of the scene must then be updated too.
+     */
+    public void updateGeometry() {
+        for (int p = 0; p < triangleCount; p++) {
+            int a = 3 * indices[3 * p], b = 3 * indices[3 * p + 1], c = 3 * indices[3 * p + 2];
+            double ax = positions[a], ay = positions[a + 1], az = positions[a + 2];
+            double abx = positions[b] - ax, aby = positions[b + 1] - ay, abz = positions[b + 2] - az;
+            double acx = positions[c] - ax, acy = positions[c + 1] - ay, acz = positions[c + 2] - az;
+
+            int e = 9 * p;
+            edges[e] = ax; edges[e + 1] = ay; edges[e + 2] = az;
+            edges[e + 3] = abx; edges[e + 4] = aby; edges[e + 5] = abz;
+            edges[e + 6] = acx; edges[e + 7] = acy; edges[e + 8] = acz;
+
+            // normal = normalize(ab × ac), computed exactly as Triangle does
+            Vector n = new Vector(aby*acz - abz*acy, abz*acx - abx*acz, abx*acy - aby*acx).normalize();
+            normals[3 * p] = n.x;
+            normals[3 * p + 1] = n.y;
+            normals[3 * p + 2] = n.z;
+        }
+    }
+
+    /**
+     * @return the number of triangles of the mesh
+     */
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+     * Returns the unit face normal of a triangle.
+     *
+     * @param triangle the triangle index
+     * @return a new Vector holding the normal
+     */
+    public Vector getNormal(int triangle) {
+        return new Vector(normals[3 * triangle], normals[3 * triangle + 1], normals[3 * triangle + 2]);
+    }
+
+    @Override
+    public int getPrimitiveCount() {
+        return triangleCount;
+    }
+
+    /**
+     * Intersect the ray with every triangle of the mesh and return the closest hit.
+     *
+     * @param ray the ray to test
+     * @return Optional containing an IntersectionMesh if hit, otherwise Optional.empty()
+     */
+    @Override
+    public Optional<Intersection> intersect(Ray ray) {
+        HitRecord hit = new HitRecord();
+        if (!intersect(ray, hit)) return Optional.empty();
+        return Optional.of(hit.toIntersection(ray));
+    }
+
+    @Override
+    public boolean intersect(Ray ray, HitRecord hit) {
+        long base = hit.nextOrder;
+        boolean found = false;
+        for (int p = 0; p < triangleCount; p++) {
+            hit.nextOrder = base + p;
+            found |= intersect(ray, p, hit);
+        }
+        return found;
+    }
+
+    @Override
+    public boolean intersect(Ray ray, int primitive, HitRecord hit) {
+        double t = hitDistance(ray, primitive);
+        return t != Double.POSITIVE_INFINITY && hit.record(t, this, primitive);
+    }
+
+    @Override
+    public Intersection createIntersection(Ray ray, double t, int primitive) {
+        return new IntersectionMesh(t, this, primitive, ray);
+    }
+
+    @Override
+    public boolean anyIntersection(Ray ray, double tMax) {
+        for (int p = 0; p < triangleCount; p++) {
+            if (hitDistance(ray, p) < tMax) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean anyIntersection(Ray ray, int primitive, double tMax) {
+        return hitDistance(ray, primitive) < tMax;
+    }
+
+    /**
+     * Möller–Trumbore test of one triangle against the ray, using the
+     * precomputed vertex and edges.
+     *
+     * @param ray the ray to test
+     * @param p the triangle index
+     * @return the distance of the hit, or +infinity if the triangle is missed
+     */
+    private double hitDistance(Ray ray, int p) {
+        int e = 9 * p;
+        double abx = edges[e + 3], aby = edges[e + 4], abz = edges[e + 5];
+        double acx = edges[e + 6], acy = edges[e + 7], acz = edges[e + 8];
+        double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+
+        // pvec = direction × ac
+        double px = dy*acz - dz*acy;
+        double py = dz*acx - dx*acz;
+        double pz = dx*acy - dy*acx;
+        double det = abx*px + aby*py + abz*pz;
+
+        if (Math.abs(det) < 1e-8) return Double.POSITIVE_INFINITY;
+
+        double invDet = 1.0 / det;
+
+        // tvec = origin - a
+        double tx = ray.origin.x - edges[e], ty = ray.origin.y - edges[e + 1], tz = ray.origin.z - edges[e + 2];
+        double u = (tx*px + ty*py + tz*pz) * invDet;
+        if (u < 0 || u > 1) return Double.POSITIVE_INFINITY;
+
+        // qvec = tvec × ab
+        double qx = ty*abz - tz*aby;
+        double qy = tz*abx - tx*abz;
+        double qz = tx*aby - ty*abx;
+        double v = (dx*qx + dy*qy + dz*qz) * invDet;
+        if (v < 0 || u + v > 1) return Double.POSITIVE_INFINITY;
+
+        double t = (acx*qx + acy*qy + acz*qz) * invDet;
+        if (t <= 0) return Double.POSITIVE_INFINITY;
+
+        return t;
+    }
+
+    @Override
+    public BoundingBox getBoundingBox() {
+        BoundingBox box = new BoundingBox();
+        for (int i : indices) {
+            box.expand(positions[3 * i], positions[3 * i + 1], positions[3 * i + 2]);
+        }
+        return box;
+    }
+
+    @Override
+    public BoundingBox getPrimitiveBounds(int primitive) {
+        BoundingBox box = new BoundingBox();
+        for (int k = 0; k < 3; k++) {
+            int i = 3 * indices[3 * primitive + k];
+            box.expand(positions[i], positions[i + 1], positions[i + 2]);
+        }
+        return box;
+    }
+
+    /**
+     * Intersection with one triangle of a mesh, carrying the constant face normal
+     * of that triangle.
+     */
+    public static class IntersectionMesh extends Intersection {
+
+        /** Index of the triangle that was hit. */
+        public final int triangle;
+
+        public IntersectionMesh(double t, TriangleMesh mesh, int triangle, Ray ray) {
+            super(t, mesh, ray, mesh.getNormal(triangle));
+            this.triangle = triangle;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.imt.raytracing.imaging;
+
+import com.imt.raytracing.geometry.Orthonormal;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Counter;
+import com.imt.raytracing.raytracer.RayTracer;
+import com.imt.raytracing.raytracer.RayTracer.Sample;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Adaptive anti-aliasing: every pixel is first traced through its center, then only the
+ * pixels on an edge are traced again with a grid of samples, whose colors are averaged.
+ *
+ * A pixel is on an edge when one of its 4 neighbours sees another shape of the scene
+ * (another instance, for the instances of a mesh), or a color farther from its own than
+ * the threshold on any channel. The samples of an edge pixel are stratified: one per
+ * cell of a grid laid over the pixel, at a position jittered in its cell. The jitter only depends on the pixel, so the image does not depend on the
+ * threads, the tiles or the order of the render.
+ *
+ * A rectangle of the image is rendered with the centers of the pixels around it, which
+ * are traced again by the neighbouring rectangles: about 4 / (tile size) more rays.
+ * The sampler holds no state, so a single instance can be shared by all rendering threads.
+ */
+public final class AdaptiveSampler {
+
+    /** Default number of samples along each edge of an edge pixel. */
+    public static final int DEFAULT_GRID = 4;
+
+    /** Default difference of color between neighbours making an edge, on [0, 1]. */
+    public static final double DEFAULT_THRESHOLD = 0.1;
+
+    private final int grid;
+    private final double threshold;
+    /** The threshold, in levels of the 8-bit channels. */
+    private final int levels;
+
+    /**
+     * Creates a sampler with the default threshold.
+     * @param grid The number of samples along each edge of an edge pixel, which gets grid squared.
+     */
+    public AdaptiveSampler(int grid) {
+        this(grid, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param grid The number of samples along each edge of an edge pixel, which gets grid squared.
+     * @param threshold The difference of color between neighbours making an edge, on [0, 1].
+     */
+    public AdaptiveSampler(int grid, double threshold) {
+        if (grid < 2)
+            throw new IllegalArgumentException("Sample grid must be at least 2: " + grid);
+        if (!(threshold >= 0 && threshold <= 1))
+            throw new IllegalArgumentException("Threshold must be between 0 and 1: " + threshold);
+        this.grid = grid;
+        this.threshold = threshold;
+        this.levels = (int) Math.round(threshold * 255);
+    }
+
+    public int getGrid() {
+        return grid;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof AdaptiveSampler other && grid == other.grid
+                && Double.compare(threshold, other.threshold) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * grid + Double.hashCode(threshold);
+    }
+
+    @Override
+    public String toString() {
+        return "adaptive " + grid + "x" + grid + " threshold " + threshold;
+    }
+
+    /**
+     * Renders a rectangle of the image, counting the edge pixels and their samples in
+     * the metrics.
+     * @param x0 The first column of the rectangle.
+     * @param y0 The first row of the rectangle, in the rows of the camera which go bottom-up.
+     * @param x1 The column after the rectangle.
+     * @param y1 The row after the rectangle.
+     * @param pixels Receives pixel (i, j) at {@code (height - 1 - j - top) * stride + i - left}.
+     * @param top The row of the image stored first in the pixels, counted from the top.
+     * @param left The column of the image stored first in every row of the pixels.
+     * @param stride The number of pixels of a row.
+     */
+    void render(RayTracer rt, Scene scene, Orthonormal basis, int x0, int y0, int x1, int y1,
+                int[] pixels, int top, int left, int stride) {
+        int width = scene.getWidth();
+        int height = scene.getHeight();
+
+        // The centers of the rectangle and of its neighbours in the image
+        int ax0 = Math.max(x0 - 1, 0), ax1 = Math.min(x1 + 1, width);
+        int ay0 = Math.max(y0 - 1, 0), ay1 = Math.min(y1 + 1, height);
+        int columns = ax1 - ax0;
+        int[] centers = new int[columns * (ay1 - ay0)];
+        Shape[] shapes = new Shape[centers.length];
+        for (int j = ay0; j < ay1; j++) {
+            boolean outsideRow = j < y0 || j >= y1;
+            for (int i = ax0; i < ax1; i++) {
+                // The corners are nobody's neighbour
+                if (outsideRow && (i < x0 || i >= x1)) continue;
+                Sample sample = rt.getSample(i, j, 0.5, 0.5, scene, basis);
+                int k = (j - ay0) * columns + i - ax0;
+                centers[k] = sample.color().toRGB();
+                shapes[k] = sample.shape();
+            }
+        }
+
+        long edges = 0;
+        for (int j = y0; j < y1; j++) {
+            int row = (height - 1 - j - top) * stride - left;
+            for (int i = x0; i < x1; i++) {
+                int k = (j - ay0) * columns + i - ax0;
+                boolean edge = (i > ax0 && differ(centers, shapes, k, k - 1))
+                        || (i < ax1 - 1 && differ(centers, shapes, k, k + 1))
+                        || (j > ay0 && differ(centers, shapes, k, k - columns))
+                        || (j < ay1 - 1 && differ(centers, shapes, k, k + columns));
+                if (edge) {
+                    pixels[row + i] = supersample(rt, scene, basis, i, j);
+                    edges++;
+                } else {
+                    pixels[row + i] = centers[k];
+                }
+            }
+        }
+        RenderMetrics.count(Counter.ANTIALIASED_PIXELS, edges);
+        RenderMetrics.count(Counter.ANTIALIASING_SAMPLES, edges * grid * grid);
+    }
+
+    private boolean differ(int[] centers, Shape[] shapes, int a, int b) {
+        if (shapes[a] != shapes[b]) return true;
+        int p = centers[a], q = centers[b];
+        return Math.abs((p >> 16 & 0xff) - (q >> 16 & 0xff)) > levels
+                || Math.abs((p >> 8 & 0xff) - (q >> 8 & 0xff)) > levels
+                || Math.abs((p & 0xff) - (q & 0xff)) > levels;
+    }
+
+    /**
+     * @return The average of the samples of a pixel, one per cell of the grid, each
+     * clamped so that a very bright sample does not make up the whole pixel.
+     */
+    private int supersample(RayTracer rt, Scene scene, Orthonormal basis, int i, int j) {
+        Color sum = new Color();
+        for (int sy = 0; sy < grid; sy++) {
+            for (int sx = 0; sx < grid; sx++) {
+                int cell = sy * grid + sx;
+                double dx = (sx + jitter(i, j, 2 * cell)) / grid;
+                double dy = (sy + jitter(i, j, 2 * cell + 1)) / grid;
+                sum.addLocal(rt.getSample(i, j, dx, dy, scene, basis).color().clamp());
+            }
+        }
+        double n = grid * grid;
+        return new Color(sum.x / n, sum.y / n, sum.z / n).toRGB();
+    }
+
+    /**
+     * @return A number in [0, 1) which only depends on the pixel and the index,
+     * from a hash of them.
+     */
+    static double jitter(int i, int j, int index) {
+        int h = i * 0x9E3779B1 ^ j * 0x85EBCA77 ^ index * 0xC2B2AE3D;
+        h ^= h >>> 16;
+        h *= 0x7FEB352D;
+        h ^= h >>> 15;
+        h *= 0x846CA68B;
+        h ^= h >>> 16;
+        return (h >>> 8) * 0x1p-24;
+    }
+}
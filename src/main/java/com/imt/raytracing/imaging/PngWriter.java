@@ -0,0 +1,461 @@
+package com.imt.raytracing.imaging;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder compressing the image on several threads.
+ *
+ * The scanlines are split in chunks of about {@link #CHUNK_BYTES} which are filtered and
+ * deflated independently, each one by its own {@link Deflater}. Every chunk but the last
+ * ends on a byte boundary with a sync flush, so their raw deflate streams can simply be
+ * concatenated into the zlib stream of the image; the Adler-32 checksums of the chunks
+ * are combined into the checksum of the whole stream. Chunks are written to the output,
+ * in order, as soon as they are compressed, and only a few are in flight at once: the
+ * encoder never holds a copy of the whole image.
+ *
+ * The image does not even have to be complete: a {@link RowWriter} takes it band of rows
+ * by band of rows, top-down, and writes each one out as soon as it is compressed, so an
+ * image can be encoded while it is being rendered, without ever being held in memory.
+ *
+ * The image is written as 8-bit RGB (the alpha channel, if any, is dropped), each scanline
+ * with the filter giving the smallest sum of absolute differences, as most encoders do.
+ */
+public class PngWriter {
+
+    /** Raw (filtered) bytes compressed by one task. */
+    static final int CHUNK_BYTES = 1 << 18;
+
+    /** Deflate level: the fastest one, the filters already make the rows compress well. */
+    private static final int LEVEL = 1;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    /** Number of threads compressing the chunks. */
+    private final int threads;
+    /** Scanlines per chunk, 0 to derive them from {@link #CHUNK_BYTES}. */
+    private final int chunkRows;
+
+    /**
+     * Creates a writer compressing on the given number of threads.
+     * @param threads The number of threads (1 compresses on the calling thread).
+     */
+    public PngWriter(int threads) {
+        this(threads, 0);
+    }
+
+    /**
+     * Creates a writer with chunks of a fixed number of scanlines.
+     */
+    PngWriter(int threads, int chunkRows) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+        this.threads = threads;
+        this.chunkRows = chunkRows;
+    }
+
+    /**
+     * Writes an image to a PNG file, through a temporary file renamed into place: the file
+     * is never seen half-written, and a failed write leaves the previous one intact.
+     * @param image The image to write.
+     * @param file The path of the file, replaced if it exists.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(BufferedImage image, Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16)) {
+                write(image, out);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes an image as a PNG stream. An image of type TYPE_INT_RGB, such as the ones of
+     * the {@link Renderer}, is read straight from its raster; any other image is first
+     * converted to packed RGB.
+     * @param image The image to write.
+     * @param out The stream to write to, left open.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void write(BufferedImage image, OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = packedPixels(image);
+        if (pixels == null)
+            pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        write(pixels, width, height, out);
+    }
+
+    /**
+     * @return the pixels backing an image of type TYPE_INT_RGB, one int per pixel and
+     * row after row, or null if the image is stored differently
+     */
+    static int[] packedPixels(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB
+                || !(image.getRaster().getDataBuffer() instanceof DataBufferInt buffer)
+                || !(image.getSampleModel() instanceof SinglePixelPackedSampleModel model)
+                || model.getScanlineStride() != image.getWidth()
+                || image.getRaster().getSampleModelTranslateX() != 0
+                || image.getRaster().getSampleModelTranslateY() != 0
+                || buffer.getOffset() != 0)
+            return null;
+        return buffer.getData();
+    }
+
+    /**
+     * Writes packed RGB pixels as a PNG stream.
+     * @param pixels The pixels, 0xRRGGBB, row after row from the top of the image.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param out The stream to write to, left open.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void write(int[] pixels, int width, int height, OutputStream out) throws IOException {
+        if (pixels.length < (long) width * height)
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        try (RowWriter rows = open(out, width, height)) {
+            rows.write(pixels, height);
+        }
+    }
+
+    /**
+     * Starts a PNG stream whose rows are given later, band by band.
+     * @param out The stream to write to, left open.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @return The writer taking the rows of the image.
+     * @throws IOException If the stream cannot be written.
+     */
+    public RowWriter open(OutputStream out, int width, int height) throws IOException {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+        return new RowWriter(out, width, height);
+    }
+
+    /**
+     * Writes the rows of a PNG stream, top-down, as they are given. Once the last row is
+     * given, the stream is complete. Closing the writer releases its threads.
+     */
+    public final class RowWriter implements Closeable {
+        private final OutputStream out;
+        private final int width;
+        private final int height;
+        /** Scanlines compressed by one task. */
+        private final int rows;
+        private final ExecutorService pool;
+        /** The chunks being compressed, in the order of the image. */
+        private final Deque<Future<Chunk>> pending = new ArrayDeque<>();
+        /** Number of rows given so far. */
+        private int written;
+        /** The band holding the last row given, and the offset of that row in it. */
+        private int[] previousBand;
+        private int previousOffset = -1;
+        /** Checksum of the raw bytes of the chunks written so far. */
+        private long adler = 1;
+
+        private RowWriter(OutputStream out, int width, int height) throws IOException {
+            this.out = out;
+            this.width = width;
+            this.height = height;
+            int rowBytes = 3 * width + 1;
+            this.rows = chunkRows > 0 ? chunkRows : Math.max(1, CHUNK_BYTES / rowBytes);
+
+            out.write(SIGNATURE);
+            byte[] header = new byte[13];
+            putInt(header, 0, width);
+            putInt(header, 4, height);
+            header[8] = 8;  // bit depth
+            header[9] = 2;  // color type: RGB
+            writeChunk(out, "IHDR", header, 0, header.length);
+            // zlib header: deflate with a 32K window, fastest compression flags
+            writeChunk(out, "IDAT", new byte[] {0x78, 0x01}, 0, 2);
+
+            pool = threads > 1 ? Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "png-encoder");
+                thread.setDaemon(true);
+                return thread;
+            }) : null;
+        }
+
+        /**
+         * Gives the next rows of the image. They are compressed, and written out as soon as
+         * they are, in the background with more than one thread: the array must not be
+         * modified afterwards.
+         * @param band The pixels, 0xRRGGBB, row after row from the top of the band.
+         * @param count The number of rows of the band.
+         * @throws IOException If the stream cannot be written.
+         */
+        public void write(int[] band, int count) throws IOException {
+            if (count < 0 || written + count > height || band.length < (long) width * count)
+                throw new IllegalArgumentException("Invalid band of " + count + " rows at row " + written);
+
+            for (int y0 = 0; y0 < count; y0 += rows) {
+                int first = y0;
+                int last = Math.min(y0 + rows, count);
+                boolean end = written + last == height;
+                // The row above the chunk, for the filters
+                int[] above = first > 0 ? band : previousBand;
+                int aboveOffset = first > 0 ? (first - 1) * width : previousOffset;
+                if (pool == null) {
+                    writeData(compress(band, width, first, last, above, aboveOffset, end));
+                } else {
+                    // A few chunks ahead of the one being written, no more
+                    while (pending.size() >= 2 * threads)
+                        writeData(get(pending.poll()));
+                    pending.add(pool.submit(() -> compress(band, width, first, last, above, aboveOffset, end)));
+                }
+            }
+            if (count > 0) {
+                written += count;
+                previousBand = band;
+                previousOffset = (count - 1) * width;
+            }
+
+            // What is ready goes out now
+            while (!pending.isEmpty() && (pending.peek().isDone() || written == height))
+                writeData(get(pending.poll()));
+            if (written == height) {
+                byte[] trailer = new byte[4];
+                putInt(trailer, 0, (int) adler);
+                writeChunk(out, "IDAT", trailer, 0, 4);
+                writeChunk(out, "IEND", new byte[0], 0, 0);
+            }
+            out.flush();
+        }
+
+        private void writeData(Chunk chunk) throws IOException {
+            writeChunk(out, "IDAT", chunk.data, 0, chunk.length);
+            adler = combineAdler32(adler, chunk.adler, chunk.rawLength);
+        }
+
+        /**
+         * @return true once every row of the image has been given.
+         */
+        public boolean isComplete() {
+            return written == height;
+        }
+
+        /**
+         * Releases the threads. The stream is only a valid PNG if it is complete.
+         */
+        @Override
+        public void close() {
+            if (pool != null) pool.shutdownNow();
+        }
+    }
+
+    private static Chunk get(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding the image", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to encode the image", e.getCause());
+        }
+    }
+
+    /** The compressed bytes of a range of scanlines. */
+    private static final class Chunk {
+        final byte[] data;
+        final int length;
+        final long adler;
+        final long rawLength;
+
+        Chunk(byte[] data, int length, long adler, long rawLength) {
+            this.data = data;
+            this.length = length;
+            this.adler = adler;
+            this.rawLength = rawLength;
+        }
+    }
+
+    /**
+     * Filters and deflates the scanlines [y0, y1) of a band. The row above y0 is given
+     * with them, so that every chunk can be filtered on its own.
+     * @param above The array holding the row above y0, null for the top of the image.
+     * @param aboveOffset The offset of that row in its array.
+     * @param last true for the last chunk, which ends the deflate stream.
+     */
+    private static Chunk compress(int[] pixels, int width, int y0, int y1,
+                                  int[] above, int aboveOffset, boolean last) {
+        int rowBytes = 3 * width;
+        byte[] raw = new byte[(rowBytes + 1) * (y1 - y0)];
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        byte[][] filtered = new byte[5][rowBytes];
+        if (above != null) unpack(above, aboveOffset, width, previous);
+
+        int offset = 0;
+        for (int y = y0; y < y1; y++) {
+            unpack(pixels, y * width, width, current);
+            int filter = filter(current, previous, filtered);
+            raw[offset++] = (byte) filter;
+            System.arraycopy(filtered[filter], 0, raw, offset, rowBytes);
+            offset += rowBytes;
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(raw, 0, raw.length);
+
+        Deflater deflater = new Deflater(LEVEL, true);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+        byte[] buffer = new byte[1 << 16];
+        try {
+            deflater.setInput(raw);
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int n = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, n);
+                }
+            } else {
+                // Ends on a byte boundary without ending the stream
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new Chunk(compressed.toByteArray(), compressed.size(), adler.getValue(), raw.length);
+    }
+
+    /** Writes the RGB bytes of the row of pixels starting at the given offset. */
+    private static void unpack(int[] pixels, int p, int width, byte[] row) {
+        for (int x = 0, i = 0; x < width; x++, i += 3) {
+            int rgb = pixels[p + x];
+            row[i] = (byte) (rgb >> 16);
+            row[i + 1] = (byte) (rgb >> 8);
+            row[i + 2] = (byte) rgb;
+        }
+    }
+
+    /**
+     * Applies the five PNG filters to a row.
+     * @param filtered Receives the row filtered with each filter.
+     * @return The filter whose output has the smallest sum of absolute values.
+     */
+    private static int filter(byte[] row, byte[] above, byte[][] filtered) {
+        int bpp = 3;
+        long[] sums = new long[5];
+        for (int i = 0; i < row.length; i++) {
+            int x = row[i] & 0xff;
+            int a = i >= bpp ? row[i - bpp] & 0xff : 0;
+            int b = above[i] & 0xff;
+            int c = i >= bpp ? above[i - bpp] & 0xff : 0;
+
+            byte none = (byte) x;
+            byte sub = (byte) (x - a);
+            byte up = (byte) (x - b);
+            byte average = (byte) (x - ((a + b) >> 1));
+            byte paeth = (byte) (x - paeth(a, b, c));
+            filtered[0][i] = none;
+            filtered[1][i] = sub;
+            filtered[2][i] = up;
+            filtered[3][i] = average;
+            filtered[4][i] = paeth;
+            // Bytes read as signed values: small differences of either sign are cheap
+            sums[0] += Math.abs(none);
+            sums[1] += Math.abs(sub);
+            sums[2] += Math.abs(up);
+            sums[3] += Math.abs(average);
+            sums[4] += Math.abs(paeth);
+        }
+        int best = 0;
+        for (int f = 1; f < 5; f++) {
+            if (sums[f] < sums[best]) best = f;
+        }
+        return best;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) return a;
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two sequences into the checksum of their
+     * concatenation, as zlib's adler32_combine.
+     * @param adler1 The checksum of the first sequence.
+     * @param adler2 The checksum of the second sequence.
+     * @param length2 The length of the second sequence.
+     * @return The checksum of the first sequence followed by the second one.
+     */
+    static long combineAdler32(long adler1, long adler2, long length2) {
+        final long base = 65521;
+        long remainder = length2 % base;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (adler2 & 0xffff) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + base - remainder;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | (sum2 << 16);
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+        byte[] header = new byte[8];
+        putInt(header, 0, length);
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(name, 0, header, 4, 4);
+        out.write(header);
+        out.write(data, offset, length);
+
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, offset, length);
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) crc.getValue());
+        out.write(trailer);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
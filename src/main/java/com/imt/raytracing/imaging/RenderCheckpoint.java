@@ -0,0 +1,315 @@
+package com.imt.raytracing.imaging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.zip.CRC32;
+
+import com.imt.raytracing.parsing.BinarySceneFormat;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Checkpoint file of a long render, so that a render killed before the end can be
+ * resumed instead of started over.
+ *
+ * While the {@link Renderer} traces the tiles, the finished ones are saved at a fixed
+ * interval (and once more if the JVM is shut down): a small manifest (the SHA-256 hash
+ * of the scene compiled by {@link BinarySceneFormat} and of the settings of the renderer
+ * which change the pixels, the size of the image and of the
+ * tiles, and the bitmap of the finished tiles) followed by the pixels, and a CRC-32 of
+ * it all. The file is written next to the previous one and renamed into place, so a
+ * process killed while saving leaves the previous checkpoint intact. A render of the
+ * same scene, at the same size, with the same tiles, starts from the saved tiles; any
+ * other file is ignored. A complete render is saved too: the checkpoint is only deleted,
+ * with {@link #delete}, once the image is safely written, so a process killed while
+ * encoding the image writes it again from the checkpoint instead of tracing it again.
+ *
+ * Failures of the checkpoint never fail a render, which then simply goes on without it.
+ */
+public final class RenderCheckpoint {
+
+    /** Interval between two saves when none is given, in milliseconds. */
+    public static final long DEFAULT_INTERVAL_MILLIS = 30_000;
+
+    private static final byte[] MAGIC = {'R', 'T', 'C', 'K', 'P', 'T', 0, 0};
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = 32;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path file;
+    private final long intervalMillis;
+
+    /** What the render in progress saves, set by {@link #begin}. */
+    private byte[] hash;
+    private int width, height, tileSize;
+    private int[] framebuffer;
+    /** 1 for every finished tile. */
+    private AtomicIntegerArray done;
+    private ScheduledExecutorService timer;
+    private Thread shutdownHook;
+    /** The tiles of the last render, and how many of them were restored. */
+    private int tileCount, restoredTiles;
+
+    /**
+     * @param file The path of the checkpoint file.
+     * @param intervalMillis The interval between two saves, in milliseconds.
+     */
+    public RenderCheckpoint(Path file, long intervalMillis) {
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + intervalMillis);
+        this.file = file;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * @return The path of the checkpoint file.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return The number of tiles of the last render.
+     */
+    public synchronized int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * @return The number of tiles of the last render restored from the checkpoint,
+     * instead of being traced.
+     */
+    public synchronized int getRestoredTiles() {
+        return restoredTiles;
+    }
+
+    /**
+     * Starts a render: restores the tiles of a matching checkpoint into the framebuffer,
+     * then saves the finished tiles at every interval until {@link #finish}.
+     * @param scene The scene being rendered.
+     * @param settings The settings of the renderer which change the pixels, empty for none.
+     * @param tileSize The edge length of the tiles.
+     * @param tileCount The number of tiles.
+     * @param framebuffer The pixels of the image, rows stored top-down.
+     * @return The number of tiles restored, which need not be traced again.
+     */
+    synchronized int begin(Scene scene, String settings, int tileSize, int tileCount, int[] framebuffer) {
+        this.width = scene.getWidth();
+        this.height = scene.getHeight();
+        this.tileSize = tileSize;
+        this.framebuffer = framebuffer;
+        this.done = new AtomicIntegerArray(tileCount);
+        this.tileCount = tileCount;
+        this.restoredTiles = 0;
+        try {
+            this.hash = hash(scene, settings);
+        } catch (RuntimeException e) {
+            System.err.println("Render will not be checkpointed: " + e.getMessage());
+            this.hash = null;
+            return 0;
+        }
+
+        restoredTiles = restore();
+
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "render-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::save, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        // A preempted process is usually told to stop first
+        shutdownHook = new Thread(this::save, "render-checkpoint-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        return restoredTiles;
+    }
+
+    /**
+     * @return true if the tile was restored from the checkpoint or rendered since.
+     */
+    boolean isDone(int tile) {
+        return done != null && done.get(tile) != 0;
+    }
+
+    /**
+     * Records a finished tile, once its pixels are all in the framebuffer.
+     */
+    void markDone(int tile) {
+        if (done != null) done.set(tile, 1);
+    }
+
+    /**
+     * Ends the render: stops saving, and saves the finished tiles a last time.
+     */
+    synchronized void finish() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // Already shutting down
+            }
+            shutdownHook = null;
+        }
+        save();
+        // A save already waiting for the lock must not write it again
+        hash = null;
+    }
+
+    /**
+     * Deletes the checkpoint, once the image of the render is written.
+     */
+    public synchronized void delete() {
+        try {
+            Files.deleteIfExists(file);
+            // Left behind by a process killed while saving
+            Files.deleteIfExists(temp());
+        } catch (IOException e) {
+            System.err.println("Cannot delete the render checkpoint " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The SHA-256 hash of the scene compiled without its acceleration structure,
+     * followed by the settings.
+     */
+    static byte[] hash(Scene scene, String settings) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (DigestOutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+                BinarySceneFormat.write(scene, out, false);
+                out.write(settings.getBytes(StandardCharsets.UTF_8));
+            }
+            return digest.digest();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException("Cannot hash the scene", e);
+        }
+    }
+
+    /**
+     * Writes the finished tiles to a temporary file, then renames it over the checkpoint.
+     */
+    synchronized void save() {
+        if (hash == null) return;
+        int tiles = done.length();
+        // The bitmap first: the pixels of a tile marked done are all written
+        byte[] bitmap = new byte[(tiles + 7) / 8];
+        int finished = 0;
+        for (int t = 0; t < tiles; t++) {
+            if (done.get(t) != 0) {
+                bitmap[t >> 3] |= (byte) (1 << (t & 7));
+                finished++;
+            }
+        }
+        if (finished == 0) return;
+
+        ByteBuffer buffer = ByteBuffer.allocate(headerBytes(tiles) + 4 * framebuffer.length + 8);
+        buffer.put(MAGIC).putInt(VERSION).put(hash)
+                .putInt(width).putInt(height).putInt(tileSize).putInt(tiles).put(bitmap);
+        buffer.asIntBuffer().put(framebuffer);
+        buffer.position(buffer.position() + 4 * framebuffer.length);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+
+        Path temp = temp();
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+                // On disk before it replaces the previous checkpoint
+                channel.force(true);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot save the render checkpoint " + file + ": " + e.getMessage());
+        }
+    }
+
+    private Path temp() {
+        return file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+    }
+
+    private static int headerBytes(int tiles) {
+        return MAGIC.length + 4 + HASH_BYTES + 4 * 4 + (tiles + 7) / 8;
+    }
+
+    /**
+     * Reads the manifest of a checkpoint.
+     * @return true if it was saved by the same render.
+     */
+    private boolean matches(ByteBuffer in, int tiles) {
+        byte[] magic = new byte[MAGIC.length];
+        in.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || in.getInt() != VERSION) return false;
+        byte[] savedHash = new byte[HASH_BYTES];
+        in.get(savedHash);
+        return Arrays.equals(savedHash, hash) && in.getInt() == width && in.getInt() == height
+                && in.getInt() == tileSize && in.getInt() == tiles;
+    }
+
+    /**
+     * Reads the checkpoint file, if it matches the render.
+     * @return The number of tiles restored.
+     */
+    private int restore() {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable render checkpoint " + file + ": " + e.getMessage());
+            return 0;
+        }
+
+        int tiles = done.length();
+        int expected = headerBytes(tiles) + 4 * framebuffer.length + 8;
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (bytes.length != expected || !matches(in, tiles)) {
+            System.err.println("Ignoring render checkpoint " + file + " of another render");
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        if (crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong()) {
+            System.err.println("Ignoring damaged render checkpoint " + file);
+            return 0;
+        }
+
+        byte[] bitmap = new byte[(tiles + 7) / 8];
+        in.get(bitmap);
+        in.asIntBuffer().get(framebuffer);
+        int restored = 0;
+        for (int t = 0; t < tiles; t++) {
+            if ((bitmap[t >> 3] & (1 << (t & 7))) != 0) {
+                done.set(t, 1);
+                restored++;
+            }
+        }
+        return restored;
+    }
+}
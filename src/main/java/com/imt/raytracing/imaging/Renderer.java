@@ -1,51 +1,627 @@
 package com.imt.raytracing.imaging;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.imt.raytracing.geometry.Orthonormal;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Phase;
+import com.imt.raytracing.metrics.RenderTileEvent;
 import com.imt.raytracing.raytracer.RayTracer;
+import com.imt.raytracing.raytracer.WavefrontTracer;
 import com.imt.raytracing.raytracer.scene.Scene;
 
 /**
  * The main rendering class responsible for processing a Scene and producing a final 
  * BufferedImage by shooting rays through every pixel.
+ *
+ * With more than one thread, the frame is split into square tiles which are rendered 
+ * on a ForkJoinPool (idle workers steal tiles from busy ones). The Scene, its 
+ * acceleration structure and the RayTracer are only read during rendering, so they 
+ * are shared by all workers. Every pixel is computed independently, so the output 
+ * is identical to the serial path.
+ *
+ * In packet mode, the pixels are traced by blocks of {@link RayTracer#PACKET_SIZE} 
+ * squared, whose primary rays go through the acceleration structure together. 
+ * In wavefront mode, every tile (or band of rows of the serial path) is traced 
+ * generation by generation with a {@link WavefrontTracer}. The image is the same.
+ * With an {@link AdaptiveSampler}, the pixels on an edge are traced again with more 
+ * samples, which replaces the packet and wavefront modes.
+ *
+ * A progressive render traces every fourth pixel of every fourth row first, then every 
+ * second one, then the rest, handing the image out after each pass: every pixel is 
+ * traced once, and the last image is that of the plain render.
+ *
+ * Images too large to be held in memory are streamed: the rows are rendered in bands, 
+ * from the top of the image, each band being encoded and written out by a 
+ * {@link PngWriter} while the next one is rendered.
  */
 public class Renderer {
 
+    /** Default edge length of a tile, in pixels. */
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    /** Pixels of a band of a streamed render, before rounding to whole rows of tiles. */
+    public static final int BAND_PIXELS = 1 << 20;
+
+    /** Spacing of the pixels traced by the passes of a progressive render, the last one full. */
+    static final int[] PROGRESSIVE_STEPS = {4, 2, 1};
+
+    /**
+     * Receives the image of a progressive render after each of its passes.
+     */
+    @FunctionalInterface
+    public interface PassListener {
+        /**
+         * @param step The spacing of the pixels traced so far, in both directions: 4, 2, 
+         * then 1 once the image is complete.
+         * @param image The image, where every pixel not traced yet shows the traced pixel 
+         * above and to the left of it. This is the image being rendered, which the next 
+         * passes change: it must be copied to be kept.
+         * @throws IOException If the image cannot be handed out, which stops the render.
+         */
+        void passRendered(int step, BufferedImage image) throws IOException;
+    }
+
+    /** Number of worker threads (1 means the serial path). */
+    private final int threads;
+    /** Edge length of a tile, in pixels. */
+    private final int tileSize;
+    /** Whether the primary rays are traced by packets. */
+    private final boolean packets;
+    /** Whether the rays are traced by generations instead of recursively. */
+    private final boolean wavefront;
+    /** The anti-aliasing of the edges, null for one ray through the center of every pixel. */
+    private final AdaptiveSampler sampler;
+
+    /**
+     * Creates a serial renderer.
+     */
+    public Renderer() {
+        this(1, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a renderer using the given number of threads.
+     * @param threads The number of worker threads (1 renders on the calling thread).
+     * @param tileSize The edge length of the tiles distributed to the workers.
+     */
+    public Renderer(int threads, int tileSize) {
+        this(threads, tileSize, false);
+    }
+
+    /**
+     * Creates a renderer using the given number of threads.
+     * @param threads The number of worker threads (1 renders on the calling thread).
+     * @param tileSize The edge length of the tiles distributed to the workers.
+     * @param packets true to trace the primary rays by packets of pixel blocks.
+     */
+    public Renderer(int threads, int tileSize, boolean packets) {
+        this(threads, tileSize, packets, false);
+    }
+
+    /**
+     * Creates a renderer using the given number of threads.
+     * @param threads The number of worker threads (1 renders on the calling thread).
+     * @param tileSize The edge length of the tiles distributed to the workers.
+     * @param packets true to trace the primary rays by packets of pixel blocks.
+     * @param wavefront true to trace the rays generation by generation.
+     */
+    public Renderer(int threads, int tileSize, boolean packets, boolean wavefront) {
+        this(threads, tileSize, packets, wavefront, null);
+    }
+
+    /**
+     * Creates a renderer using the given number of threads.
+     * @param threads The number of worker threads (1 renders on the calling thread).
+     * @param tileSize The edge length of the tiles distributed to the workers.
+     * @param packets true to trace the primary rays by packets of pixel blocks.
+     * @param wavefront true to trace the rays generation by generation.
+     * @param sampler The anti-aliasing of the edges, null for none. Replaces the packets and the wavefront.
+     */
+    public Renderer(int threads, int tileSize, boolean packets, boolean wavefront, AdaptiveSampler sampler) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+        if (tileSize < 1)
+            throw new IllegalArgumentException("Tile size must be at least 1: " + tileSize);
+        this.threads = threads;
+        this.tileSize = tileSize;
+        this.packets = packets;
+        this.wavefront = wavefront;
+        this.sampler = sampler;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public boolean usesPackets() {
+        return packets;
+    }
+
+    public boolean usesWavefront() {
+        return wavefront;
+    }
+
+    public AdaptiveSampler getSampler() {
+        return sampler;
+    }
+
+    /**
+     * @param sampler The anti-aliasing of the edges, null for none.
+     * @return A renderer with the settings of this one but the sampler, this renderer
+     * itself if it already has that sampler.
+     */
+    public Renderer withSampler(AdaptiveSampler sampler) {
+        if (Objects.equals(sampler, this.sampler)) return this;
+        return new Renderer(threads, tileSize, packets, wavefront, sampler);
+    }
+
     /**
      * Renders the given scene by iterating over all pixels and calculating the color 
-     * using the RayTracer.
+     * using the RayTracer. The render is timed as the RENDER phase of the metrics.
      * @param scene The Scene object containing the camera, objects, and lighting.
      * @return A BufferedImage representing the final rendered image.
      */
     public BufferedImage render(Scene scene) {
+        return render(scene, (RenderCheckpoint) null);
+    }
 
-        // Instantiate the RayTracer engine to calculate ray-object intersections and shading.
-        RayTracer rt = new RayTracer();
+    /**
+     * Renders the given scene, saving the finished tiles to a checkpoint as it goes, and
+     * starting from the tiles of an earlier checkpoint of the same render. The image is
+     * rendered tile by tile, even on a single thread. The render is timed as the RENDER
+     * phase of the metrics.
+     * @param scene The Scene object containing the camera, objects, and lighting.
+     * @param checkpoint The checkpoint of the render, null for none. It is kept once the
+     * render is complete, for the caller to {@link RenderCheckpoint#delete} after writing the image.
+     * @return A BufferedImage representing the final rendered image.
+     */
+    public BufferedImage render(Scene scene, RenderCheckpoint checkpoint) {
+        // Create the image buffer that will store the final output,
+        // and write the pixels straight into its raster.
+        BufferedImage img = new BufferedImage(scene.getWidth(), scene.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        int[] framebuffer = framebuffer(img);
+
+        ForkJoinPool pool = threads > 1 || checkpoint != null ? new ForkJoinPool(threads) : null;
+        try {
+            RenderMetrics.time(Phase.RENDER, () -> {
+                if (checkpoint != null) {
+                    int tiles = ((scene.getWidth() + tileSize - 1) / tileSize)
+                            * ((scene.getHeight() + tileSize - 1) / tileSize);
+                    String settings = sampler == null ? "" : sampler.toString();
+                    checkpoint.begin(scene, settings, tileSize, tiles, framebuffer);
+                }
+                renderBand(scene, new RayTracer(), createBasis(scene), pool, 0, scene.getHeight(), framebuffer, checkpoint);
+            });
+        } finally {
+            if (pool != null) pool.shutdown();
+            if (checkpoint != null) checkpoint.finish();
+        }
 
-        // Create the image buffer that will store the final output.
+        commitSummary();
+        return img;
+    }
+
+    /**
+     * Renders the given scene progressively: the pixels spaced by 4 then by 2 are traced 
+     * first, each filling the square it stands for, then the rest. The image goes to the 
+     * listener after every pass, the last one being the image of {@link #render(Scene)}. 
+     * A pass only traces the pixels the previous ones did not. The pixels are traced one 
+     * at a time, without packets, wavefront or anti-aliasing. The passes are timed as the 
+     * RENDER phase of the metrics, the listener is not.
+     * @param scene The Scene object containing the camera, objects, and lighting.
+     * @param listener Receives the image after every pass.
+     * @return A BufferedImage representing the final rendered image.
+     * @throws IOException If the listener fails.
+     */
+    public BufferedImage renderProgressive(Scene scene, PassListener listener) throws IOException {
         BufferedImage img = new BufferedImage(scene.getWidth(), scene.getHeight(),
                 BufferedImage.TYPE_INT_RGB);
+        int[] framebuffer = framebuffer(img);
 
-        // Calculate the Orthonormal Basis for the camera's view transformation.
-        // This defines the coordinate system (u, v, w vectors) for generating view rays.
-        Orthonormal basis = new Orthonormal(
-                scene.getCamera().getLookFrom(),
-                scene.getCamera().getLookAt(),
-                scene.getCamera().getUp()
-        );
+        RayTracer rt = new RayTracer();
+        Orthonormal basis = createBasis(scene);
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            for (int pass = 0; pass < PROGRESSIVE_STEPS.length; pass++) {
+                int step = PROGRESSIVE_STEPS[pass];
+                // The pixels traced by the previous pass, none for the first one
+                int previous = pass == 0 ? 0 : PROGRESSIVE_STEPS[pass - 1];
+                RenderMetrics.time(Phase.RENDER, () -> {
+                    if (pool == null) {
+                        renderPass(scene, rt, basis, step, previous, 0, 0, scene.getWidth(), scene.getHeight(), framebuffer);
+                    } else {
+                        int tilesX = (scene.getWidth() + tileSize - 1) / tileSize;
+                        int tilesY = (scene.getHeight() + tileSize - 1) / tileSize;
+                        pool.invoke(new PassTask(0, tilesX * tilesY, tilesX, scene, rt, basis, step, previous, framebuffer));
+                    }
+                });
+                listener.passRendered(step, img);
+            }
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
+
+        commitSummary();
+        return img;
+    }
+
+    /**
+     * Traces the pixels of a rectangle of the image spaced by step, except those already 
+     * traced by the previous pass, and fills the square of step pixels each one stands for.
+     * @param previous The spacing of the pixels already traced, 0 if none.
+     * @param x0 The first column of the rectangle.
+     * @param y0 The first row of the rectangle, counted from the top of the image.
+     * @param x1 The column after the rectangle.
+     * @param y1 The row after the rectangle.
+     * @param framebuffer The pixels of the image, rows stored top-down.
+     */
+    private static void renderPass(Scene scene, RayTracer rt, Orthonormal basis, int step, int previous,
+                                   int x0, int y0, int x1, int y1, int[] framebuffer) {
+        int width = scene.getWidth();
+        int height = scene.getHeight();
+        for (int y = (y0 + step - 1) / step * step; y < y1; y += step) {
+            boolean previousRow = previous > 0 && y % previous == 0;
+            for (int x = (x0 + step - 1) / step * step; x < x1; x += step) {
+                if (previousRow && x % previous == 0) continue;
+                // Image rows are stored top-down, while the rows of the camera go bottom-up.
+                int rgb = rt.getPixelColor(x, height - y - 1, scene, basis).toRGB();
+                int right = Math.min(x + step, width);
+                for (int row = y; row < Math.min(y + step, height); row++)
+                    Arrays.fill(framebuffer, row * width + x, row * width + right, rgb);
+            }
+        }
+    }
+
+    /**
+     * Renders the given scene band of rows by band of rows, from the top of the image, 
+     * and gives every band to the PNG writer as soon as it is rendered. Only a few bands 
+     * are held at once, whatever the size of the image. The render, and the encoding 
+     * that goes along, are timed as the RENDER phase of the metrics.
+     * @param scene The Scene object containing the camera, objects, and lighting.
+     * @param out The writer of the image, opened with the size of the scene.
+     * @throws IOException If the image cannot be written.
+     */
+    public void render(Scene scene, PngWriter.RowWriter out) throws IOException {
+        render(scene, out, bandRows(scene.getWidth()));
+    }
+
+    /**
+     * Renders the given scene in bands of the given number of rows, given to the PNG writer.
+     */
+    void render(Scene scene, PngWriter.RowWriter out, int rows) throws IOException {
+        int width = scene.getWidth();
+        int height = scene.getHeight();
+
+        RayTracer rt = new RayTracer();
+        Orthonormal basis = createBasis(scene);
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            RenderMetrics.time(Phase.RENDER, () -> {
+                for (int top = 0; top < height; top += rows) {
+                    int bottom = Math.min(top + rows, height);
+                    // A new band every time: the writer may still be compressing the previous one
+                    int[] band = new int[(bottom - top) * width];
+                    renderBand(scene, rt, basis, pool, top, bottom, band, null);
+                    out.write(band, bottom - top);
+                }
+            });
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
+
+        commitSummary();
+    }
+
+    /**
+     * Renders a rectangle of the image on the calling thread, as the full render would, 
+     * e.g. for a tile sent by another process. The primary rays are traced by packets in 
+     * packet mode, and the edges anti-aliased with the sampler; the wavefront mode only 
+     * applies to full renders.
+     * @param scene The Scene to render.
+     * @param x0 The first column of the rectangle.
+     * @param y0 The first row of the rectangle, counted from the top of the image.
+     * @param x1 The column after the rectangle.
+     * @param y1 The row after the rectangle.
+     * @param pixels Receives the pixels of the rectangle, 0xRRGGBB, rows stored top-down.
+     */
+    public void renderTile(Scene scene, int x0, int y0, int x1, int y1, int[] pixels) {
+        RayTracer rt = new RayTracer();
+        Orthonormal basis = createBasis(scene);
+        int height = scene.getHeight();
+        int columns = x1 - x0;
+        if (sampler != null) {
+            sampler.render(rt, scene, basis, x0, height - y1, x1, height - y0, pixels, y0, x0, columns);
+            return;
+        }
+        if (packets) {
+            int size = RayTracer.PACKET_SIZE;
+            // Blocks in the rows of the camera, which go bottom-up
+            for (int by = height - y1; by < height - y0; by += size) {
+                for (int bx = x0; bx < x1; bx += size) {
+                    int ex = Math.min(bx + size, x1);
+                    int ey = Math.min(by + size, height - y0);
+                    Color[] colors = rt.getPixelColors(bx, by, ex, ey, scene, basis);
+                    int k = 0;
+                    for (int j = by; j < ey; j++) {
+                        int row = (height - j - 1 - y0) * columns;
+                        for (int i = bx; i < ex; i++)
+                            pixels[row + i - x0] = colors[k++].toRGB();
+                    }
+                }
+            }
+            return;
+        }
+        for (int y = y0; y < y1; y++) {
+            int j = height - y - 1;
+            for (int i = x0; i < x1; i++)
+                pixels[(y - y0) * columns + i - x0] = rt.getPixelColor(i, j, scene, basis).toRGB();
+        }
+    }
+
+    /**
+     * @return The number of rows of the bands of a streamed render: about 
+     * {@link #BAND_PIXELS} pixels, rounded up to whole rows of tiles.
+     */
+    int bandRows(int width) {
+        int rows = Math.max(1, BAND_PIXELS / Math.max(width, 1));
+        return (rows + tileSize - 1) / tileSize * tileSize;
+    }
+
+    private static void commitSummary() {
+        RenderMetrics metrics = RenderMetrics.getActive();
+        if (metrics != null)
+            metrics.commitSummaryEvent();
+    }
+
+    /**
+     * Renders the rows [top, bottom) of the image, counted from the top, on the calling 
+     * thread row by row, or tile by tile on the pool. Workers write straight into the 
+     * framebuffer (each tile owns a disjoint set of pixels).
+     * @param pool The pool of the workers, null to render on the calling thread.
+     * @param framebuffer The pixels of the band, rows stored top-down.
+     * @param checkpoint The checkpoint of the finished tiles, null for none. Only used on the pool.
+     */
+    private void renderBand(Scene scene, RayTracer rt, Orthonormal basis, ForkJoinPool pool,
+                            int top, int bottom, int[] framebuffer, RenderCheckpoint checkpoint) {
+        int width = scene.getWidth();
+        int height = scene.getHeight();
+        // The rows of the camera, which go bottom-up
+        int yStart = height - bottom;
+        int yEnd = height - top;
+
+        if (pool != null) {
+            int tilesX = (width + tileSize - 1) / tileSize;
+            int tilesY = (yEnd - yStart + tileSize - 1) / tileSize;
+            WavefrontTracer tracer = wavefront && sampler == null ? new WavefrontTracer(packets) : null;
+            Band band = new Band(scene, rt, tracer, basis, tilesX, yStart, yEnd, framebuffer, top, checkpoint);
+            pool.invoke(new TileTask(0, tilesX * tilesY, band));
+            return;
+        }
+
+        if (sampler != null) {
+            sampler.render(rt, scene, basis, 0, yStart, width, yEnd, framebuffer, top, 0, width);
+            return;
+        }
+
+        if (wavefront) {
+            // Bands of rows as large as a wavefront can usefully be
+            WavefrontTracer tracer = new WavefrontTracer(packets);
+            int rows = Math.max(1, WavefrontTracer.MAX_PIXELS / Math.max(width, 1));
+            for (int y0 = yStart; y0 < yEnd; y0 += rows)
+                tracer.render(scene, basis, 0, y0, width, Math.min(y0 + rows, yEnd), framebuffer, top);
+            return;
+        }
+
+        if (packets) {
+            renderPackets(rt, scene, basis, 0, yStart, width, yEnd, framebuffer, top);
+            return;
+        }
 
         // Start the main rendering loop: iterate over all rows (j) and columns (i).
-        for (int j = 0; j < scene.getHeight(); j++) {
-            for (int i = 0; i < scene.getWidth(); i++) {
+        for (int j = yStart; j < yEnd; j++) {
+            // Image rows are stored top-down, while j goes bottom-up.
+            int row = (height - j - 1 - top) * width;
+            for (int i = 0; i < width; i++) {
                 // Calculate the color for the current pixel (i, j).
                 Color c = rt.getPixelColor(i, j, scene, basis);
                 
                 // Set the pixel color in the image buffer.
-                img.setRGB(i, scene.getHeight() - j - 1, c.toRGB());
+                framebuffer[row + i] = c.toRGB();
             }
         }
+    }
 
-        return img;
+    /**
+     * @param img An image of type TYPE_INT_RGB, freshly created.
+     * @return The array backing its raster: one 0xRRGGBB int per pixel, rows stored top-down.
+     */
+    private static int[] framebuffer(BufferedImage img) {
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Renders a rectangle of the image block by block, each block being traced as a packet.
+     * @param framebuffer The pixels of the band, rows stored top-down.
+     * @param top The row of the image stored first in the framebuffer, counted from the top.
+     */
+    private static void renderPackets(RayTracer rt, Scene scene, Orthonormal basis,
+                                      int x0, int y0, int x1, int y1, int[] framebuffer, int top) {
+        int width = scene.getWidth();
+        int height = scene.getHeight();
+        int size = RayTracer.PACKET_SIZE;
+        for (int by = y0; by < y1; by += size) {
+            for (int bx = x0; bx < x1; bx += size) {
+                int ex = Math.min(bx + size, x1);
+                int ey = Math.min(by + size, y1);
+                Color[] colors = rt.getPixelColors(bx, by, ex, ey, scene, basis);
+                int k = 0;
+                for (int j = by; j < ey; j++) {
+                    int row = (height - j - 1 - top) * width;
+                    for (int i = bx; i < ex; i++)
+                        framebuffer[row + i] = colors[k++].toRGB();
+                }
+            }
+        }
+    }
+
+    private static Orthonormal createBasis(Scene scene) {
+        return new Orthonormal(
+                scene.getCamera().getLookFrom(),
+                scene.getCamera().getLookAt(),
+                scene.getCamera().getUp()
+        );
+    }
+
+    /**
+     * What the tiles of a band share: the scene, the tracers and the framebuffer. The 
+     * band covers the rows [yStart, yEnd) of the camera, which go bottom-up.
+     */
+    private static final class Band {
+        final Scene scene;
+        final RayTracer rt;
+        /** The wavefront tracer, null to trace recursively. */
+        final WavefrontTracer tracer;
+        final Orthonormal basis;
+        final int tilesX, yStart, yEnd;
+        final int[] framebuffer;
+        /** The row of the image stored first in the framebuffer, counted from the top. */
+        final int top;
+        /** The checkpoint of the finished tiles, null for none. */
+        final RenderCheckpoint checkpoint;
+
+        Band(Scene scene, RayTracer rt, WavefrontTracer tracer, Orthonormal basis,
+             int tilesX, int yStart, int yEnd, int[] framebuffer, int top, RenderCheckpoint checkpoint) {
+            this.scene = scene;
+            this.rt = rt;
+            this.tracer = tracer;
+            this.basis = basis;
+            this.tilesX = tilesX;
+            this.yStart = yStart;
+            this.yEnd = yEnd;
+            this.framebuffer = framebuffer;
+            this.top = top;
+            this.checkpoint = checkpoint;
+        }
+    }
+
+    /**
+     * Renders a pass of a progressive render over a range of tiles, splitting it in two 
+     * until a single tile remains. Every pixel traced fills its own square, so the tasks 
+     * write disjoint sets of pixels.
+     */
+    private class PassTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int firstTile, lastTile, tilesX;
+        private final Scene scene;
+        private final RayTracer rt;
+        private final Orthonormal basis;
+        private final int step, previous;
+        private final int[] framebuffer;
+
+        PassTask(int firstTile, int lastTile, int tilesX, Scene scene, RayTracer rt, Orthonormal basis,
+                 int step, int previous, int[] framebuffer) {
+            this.firstTile = firstTile;
+            this.lastTile = lastTile;
+            this.tilesX = tilesX;
+            this.scene = scene;
+            this.rt = rt;
+            this.basis = basis;
+            this.step = step;
+            this.previous = previous;
+            this.framebuffer = framebuffer;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastTile - firstTile > 1) {
+                int mid = (firstTile + lastTile) >>> 1;
+                invokeAll(new PassTask(firstTile, mid, tilesX, scene, rt, basis, step, previous, framebuffer),
+                        new PassTask(mid, lastTile, tilesX, scene, rt, basis, step, previous, framebuffer));
+                return;
+            }
+            int x0 = (firstTile % tilesX) * tileSize;
+            int y0 = (firstTile / tilesX) * tileSize;
+            renderPass(scene, rt, basis, step, previous, x0, y0,
+                    Math.min(x0 + tileSize, scene.getWidth()), Math.min(y0 + tileSize, scene.getHeight()), framebuffer);
+        }
+    }
+
+    /**
+     * Renders a range of tiles, splitting it in two until a single tile remains,
+     * so that the pool can balance the work between its threads.
+     */
+    private class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int firstTile, lastTile;
+        private final Band band;
+
+        TileTask(int firstTile, int lastTile, Band band) {
+            this.firstTile = firstTile;
+            this.lastTile = lastTile;
+            this.band = band;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastTile - firstTile > 1) {
+                int mid = (firstTile + lastTile) >>> 1;
+                invokeAll(new TileTask(firstTile, mid, band), new TileTask(mid, lastTile, band));
+                return;
+            }
+
+            // Restored from the checkpoint
+            if (band.checkpoint != null && band.checkpoint.isDone(firstTile)) return;
+
+            Scene scene = band.scene;
+            int width = scene.getWidth();
+            int height = scene.getHeight();
+            int x0 = (firstTile % band.tilesX) * tileSize;
+            int y0 = band.yStart + (firstTile / band.tilesX) * tileSize;
+            int x1 = Math.min(x0 + tileSize, width);
+            int y1 = Math.min(y0 + tileSize, band.yEnd);
+
+            RenderTileEvent event = new RenderTileEvent();
+            event.begin();
+
+            if (sampler != null) {
+                sampler.render(band.rt, scene, band.basis, x0, y0, x1, y1, band.framebuffer, band.top, 0, width);
+            } else if (band.tracer != null) {
+                band.tracer.render(scene, band.basis, x0, y0, x1, y1, band.framebuffer, band.top);
+            } else if (packets) {
+                renderPackets(band.rt, scene, band.basis, x0, y0, x1, y1, band.framebuffer, band.top);
+            } else {
+                for (int j = y0; j < y1; j++) {
+                    // Image rows are stored top-down, while j goes bottom-up.
+                    int row = (height - j - 1 - band.top) * width;
+                    for (int i = x0; i < x1; i++) {
+                        band.framebuffer[row + i] = band.rt.getPixelColor(i, j, scene, band.basis).toRGB();
+                    }
+                }
+            }
+
+            if (band.checkpoint != null) band.checkpoint.markDone(firstTile);
+
+            if (event.shouldCommit()) {
+                event.x = x0;
+                event.y = y0;
+                event.width = x1 - x0;
+                event.height = y1 - y0;
+                event.commit();
+            }
+        }
     }
-}
\ No newline at end of file
+}
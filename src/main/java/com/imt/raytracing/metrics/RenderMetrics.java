@@ -0,0 +1,269 @@
+package com.imt.raytracing.metrics;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and timings of a render: rays traced by kind, hits, intersection tests
+ * and the time spent in every phase (see {@link Counter} and {@link Phase}).
+ *
+ * Counters are striped: every thread increments its own array, found through a
+ * ThreadLocal, so the workers of a parallel render never contend on a shared
+ * counter. The stripes are only summed when the values are read.
+ *
+ * The code being measured reports through the static methods, which do nothing
+ * unless a RenderMetrics has been made active with {@link #setActive(RenderMetrics)}.
+ * Timed phases also emit JDK Flight Recorder events, whether metrics are active or not.
+ *
+ * The active metrics are process-wide: everything rendered while they are active is
+ * counted in them, so they only make sense for one render at a time. The render daemon
+ * and the render workers, which run several jobs at once, do not collect them.
+ */
+public final class RenderMetrics {
+
+    /** What is counted. */
+    public enum Counter {
+        PRIMARY_RAYS, PRIMARY_HITS,
+        SHADOW_RAYS, SHADOW_HITS,
+        REFLECTION_RAYS, REFLECTION_HITS,
+        /** Ray/primitive intersection tests, all ray kinds together. */
+        INTERSECTION_TESTS,
+        /** Pixels on an edge, given more samples by the adaptive anti-aliasing. */
+        ANTIALIASED_PIXELS,
+        /** Samples of the pixels on an edge, also counted as primary rays. */
+        ANTIALIASING_SAMPLES
+    }
+
+    /** What is timed. */
+    public enum Phase {
+        PARSE("parse"),
+        ACCELERATION_BUILD("accelerationBuild"),
+        RENDER("render"),
+        PNG_ENCODE("pngEncode");
+
+        /** Name of the phase in the JSON summary and in the Flight Recorder events. */
+        public final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+    }
+
+    private static volatile RenderMetrics active;
+
+    private final List<long[]> stripes = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<long[]> localStripe = ThreadLocal.withInitial(() -> {
+        long[] stripe = new long[Counter.values().length];
+        stripes.add(stripe);
+        return stripe;
+    });
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+
+    /**
+     * Makes the given metrics receive all the counts and timings reported from now on.
+     * @param metrics The metrics to fill, or null to stop collecting.
+     */
+    public static void setActive(RenderMetrics metrics) {
+        active = metrics;
+    }
+
+    /**
+     * @return the metrics currently collecting, or null if none
+     */
+    public static RenderMetrics getActive() {
+        return active;
+    }
+
+    /**
+     * Adds one to a counter of the active metrics, if any.
+     * @param counter The counter to increment.
+     */
+    public static void count(Counter counter) {
+        RenderMetrics m = active;
+        if (m != null) m.add(counter, 1);
+    }
+
+    /**
+     * Adds a value to a counter of the active metrics, if any.
+     * @param counter The counter to increment.
+     * @param n The value to add.
+     */
+    public static void count(Counter counter, long n) {
+        RenderMetrics m = active;
+        if (m != null) m.add(counter, n);
+    }
+
+    /**
+     * @return true if some metrics are collecting, so that callers can skip the work
+     * of computing a count nobody will read
+     */
+    public static boolean isActive() {
+        return active != null;
+    }
+
+    /**
+     * Runs a phase, then adds the elapsed time to the active metrics (if any) and commits
+     * a {@link RenderPhaseEvent}, even if the phase fails.
+     * @param phase The phase being timed.
+     * @param body The work of the phase.
+     * @throws E If the phase fails.
+     */
+    public static <E extends Exception> void time(Phase phase, PhaseAction<E> body) throws E {
+        time(phase, () -> {
+            body.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs a phase giving a result, timed as {@link #time(Phase, PhaseAction)} does.
+     * @param phase The phase being timed.
+     * @param body The work of the phase.
+     * @return The result of the phase.
+     * @throws E If the phase fails.
+     */
+    public static <T, E extends Exception> T time(Phase phase, PhaseBody<T, E> body) throws E {
+        RenderPhaseEvent event = new RenderPhaseEvent();
+        event.phase = phase.label;
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            return body.run();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            event.commit();
+            RenderMetrics m = active;
+            if (m != null) m.addTime(phase, elapsed);
+        }
+    }
+
+    /**
+     * Adds a value to a counter of this thread's stripe.
+     * @param counter The counter to increment.
+     * @param n The value to add.
+     */
+    public void add(Counter counter, long n) {
+        localStripe.get()[counter.ordinal()] += n;
+    }
+
+    /**
+     * Adds time to a phase.
+     * @param phase The phase.
+     * @param nanos The elapsed time, in nanoseconds.
+     */
+    public void addTime(Phase phase, long nanos) {
+        phaseNanos.addAndGet(phase.ordinal(), nanos);
+    }
+
+    /**
+     * Sums the stripes of all threads. The value is exact once the threads that 
+     * counted are done (e.g. after {@code Renderer.render} returns).
+     * @param counter The counter to read.
+     * @return The total count.
+     */
+    public long get(Counter counter) {
+        long total = 0;
+        for (long[] stripe : stripes) total += stripe[counter.ordinal()];
+        return total;
+    }
+
+    /**
+     * @param phase The phase to read.
+     * @return The total time spent in the phase, in nanoseconds.
+     */
+    public long getTimeNanos(Phase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    /**
+     * @return the number of rays traced, all kinds together
+     */
+    public long getTotalRays() {
+        return get(Counter.PRIMARY_RAYS) + get(Counter.SHADOW_RAYS) + get(Counter.REFLECTION_RAYS);
+    }
+
+    /**
+     * Commits a {@link RenderSummaryEvent} holding the current counter values.
+     */
+    public void commitSummaryEvent() {
+        RenderSummaryEvent event = new RenderSummaryEvent();
+        if (!event.isEnabled()) return;
+        event.primaryRays = get(Counter.PRIMARY_RAYS);
+        event.primaryHits = get(Counter.PRIMARY_HITS);
+        event.shadowRays = get(Counter.SHADOW_RAYS);
+        event.shadowHits = get(Counter.SHADOW_HITS);
+        event.reflectionRays = get(Counter.REFLECTION_RAYS);
+        event.reflectionHits = get(Counter.REFLECTION_HITS);
+        event.intersectionTests = get(Counter.INTERSECTION_TESTS);
+        event.antialiasedPixels = get(Counter.ANTIALIASED_PIXELS);
+        event.antialiasingSamples = get(Counter.ANTIALIASING_SAMPLES);
+        event.commit();
+    }
+
+    /**
+     * Builds a JSON summary of the counters, of the hit and miss ratios, of the samples
+     * of the adaptive anti-aliasing, and of the phase timings in milliseconds.
+     * @return The JSON document.
+     */
+    public String toJson() {
+        long primary = get(Counter.PRIMARY_RAYS), shadow = get(Counter.SHADOW_RAYS),
+                reflection = get(Counter.REFLECTION_RAYS);
+        long primaryHits = get(Counter.PRIMARY_HITS), shadowHits = get(Counter.SHADOW_HITS),
+                reflectionHits = get(Counter.REFLECTION_HITS);
+        long total = primary + shadow + reflection;
+        long tests = get(Counter.INTERSECTION_TESTS);
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"rays\": {")
+            .append("\"primary\": ").append(primary)
+            .append(", \"shadow\": ").append(shadow)
+            .append(", \"reflection\": ").append(reflection)
+            .append(", \"total\": ").append(total).append("},\n");
+        json.append("  \"hits\": {")
+            .append("\"primary\": ").append(primaryHits)
+            .append(", \"shadow\": ").append(shadowHits)
+            .append(", \"reflection\": ").append(reflectionHits).append("},\n");
+        json.append("  \"hitRatio\": {")
+            .append("\"primary\": ").append(ratio(primaryHits, primary))
+            .append(", \"shadow\": ").append(ratio(shadowHits, shadow))
+            .append(", \"reflection\": ").append(ratio(reflectionHits, reflection)).append("},\n");
+        json.append("  \"missRatio\": {")
+            .append("\"primary\": ").append(ratio(primary - primaryHits, primary))
+            .append(", \"shadow\": ").append(ratio(shadow - shadowHits, shadow))
+            .append(", \"reflection\": ").append(ratio(reflection - reflectionHits, reflection)).append("},\n");
+        json.append("  \"intersectionTests\": ").append(tests).append(",\n");
+        json.append("  \"intersectionTestsPerRay\": ").append(ratio(tests, total)).append(",\n");
+        json.append("  \"antialiasing\": {")
+            .append("\"pixels\": ").append(get(Counter.ANTIALIASED_PIXELS))
+            .append(", \"samples\": ").append(get(Counter.ANTIALIASING_SAMPLES)).append("},\n");
+        json.append("  \"timingsMs\": {");
+        Phase[] phases = Phase.values();
+        for (int i = 0; i < phases.length; i++) {
+            if (i > 0) json.append(", ");
+            json.append('"').append(phases[i].label).append("\": ")
+                .append(String.format(Locale.ROOT, "%.3f", getTimeNanos(phases[i]) / 1e6));
+        }
+        json.append("}\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static String ratio(long part, long whole) {
+        return whole == 0 ? "0" : String.format(Locale.ROOT, "%.6f", (double) part / whole);
+    }
+
+    /** The work of a phase, see {@link RenderMetrics#time(Phase, PhaseAction)}. */
+    @FunctionalInterface
+    public interface PhaseAction<E extends Exception> {
+        void run() throws E;
+    }
+
+    /** The work of a phase giving a result, see {@link RenderMetrics#time(Phase, PhaseBody)}. */
+    @FunctionalInterface
+    public interface PhaseBody<T, E extends Exception> {
+        T run() throws E;
+    }
+}
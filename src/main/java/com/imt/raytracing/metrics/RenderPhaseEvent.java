@@ -0,0 +1,21 @@
+package com.imt.raytracing.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event spanning one phase of the program (parse, acceleration
+ * build, render or PNG encode).
+ */
+@Name("com.imt.raytracing.RenderPhase")
+@Label("Render Phase")
+@Category("Ray Tracing")
+@Description("A phase of the ray tracer: parse, acceleration build, render or PNG encode")
+public class RenderPhaseEvent extends Event {
+
+    @Label("Phase")
+    public String phase;
+}
@@ -0,0 +1,47 @@
+package com.imt.raytracing.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event holding the ray counters of a render, committed when the
+ * render ends and metrics are active.
+ */
+@Name("com.imt.raytracing.RenderSummary")
+@Label("Render Summary")
+@Category("Ray Tracing")
+@Description("Ray, intersection test and anti-aliasing sample counts of a render")
+public class RenderSummaryEvent extends Event {
+
+    @Label("Primary Rays")
+    public long primaryRays;
+
+    @Label("Primary Hits")
+    public long primaryHits;
+
+    @Label("Shadow Rays")
+    public long shadowRays;
+
+    @Label("Shadow Hits")
+    @Description("Shadow rays blocked by an object")
+    public long shadowHits;
+
+    @Label("Reflection Rays")
+    public long reflectionRays;
+
+    @Label("Reflection Hits")
+    public long reflectionHits;
+
+    @Label("Intersection Tests")
+    public long intersectionTests;
+
+    @Label("Antialiased Pixels")
+    @Description("Pixels on an edge, given more samples by the adaptive anti-aliasing")
+    public long antialiasedPixels;
+
+    @Label("Antialiasing Samples")
+    public long antialiasingSamples;
+}
@@ -0,0 +1,31 @@
+package com.imt.raytracing.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event spanning the render of one tile by a worker thread.
+ */
+@Name("com.imt.raytracing.RenderTile")
+@Label("Render Tile")
+@Category("Ray Tracing")
+@Description("The render of one tile of the image")
+public class RenderTileEvent extends Event {
+
+    @Label("X")
+    @Description("Left column of the tile")
+    public int x;
+
+    @Label("Y")
+    @Description("Bottom row of the tile")
+    public int y;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+}
@@ -0,0 +1,448 @@
+package com.imt.raytracing.parsing;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Transform;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.MeshInstance;
+import com.imt.raytracing.geometry.shape.MeshPrototype;
+import com.imt.raytracing.geometry.shape.Plane;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.geometry.shape.Triangle;
+import com.imt.raytracing.geometry.shape.TriangleMesh;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Phase;
+import com.imt.raytracing.raytracer.Camera;
+import com.imt.raytracing.raytracer.acceleration.AcceleratorType;
+import com.imt.raytracing.raytracer.acceleration.BVH;
+import com.imt.raytracing.raytracer.light.DirectionalLight;
+import com.imt.raytracing.raytracer.light.Light;
+import com.imt.raytracing.raytracer.light.PointLight;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Compiled binary form of a scene, loaded with a memory map instead of being parsed.
+ *
+ * The file starts with an 8-byte magic and a version number, followed by the image
+ * settings, the camera, the lights, the vertex list, the instanced meshes and the shapes 
+ * with their materials; a triangle mesh is stored as its raw position and index arrays, 
+ * an instance as the index of its mesh and its matrix. The BVH of the scene, followed 
+ * by the BVH of every instanced mesh, can be appended, in which case loading does not 
+ * rebuild them. All values are
+ * big-endian. Every number is stored exactly, so a loaded scene renders exactly
+ * like the scene it was compiled from.
+ *
+ * The parsers recognize the magic and load such files directly.
+ */
+public final class BinarySceneFormat {
+
+    /** First bytes of every compiled scene. */
+    private static final byte[] MAGIC = {'R', 'T', 'S', 'C', 'E', 'N', 'E', 0};
+    /** Version of the layout written by this class. Files of another version are rejected. */
+    public static final int VERSION = 3;
+
+    /** Flag set when the file ends with a prebuilt BVH. */
+    private static final int FLAG_BVH = 1;
+
+    private static final byte LIGHT_DIRECTIONAL = 1;
+    private static final byte LIGHT_POINT = 2;
+
+    private static final byte SHAPE_SPHERE = 1;
+    private static final byte SHAPE_PLANE = 2;
+    private static final byte SHAPE_TRIANGLE = 3;
+    private static final byte SHAPE_MESH = 4;
+    private static final byte SHAPE_INSTANCE = 5;
+
+    private BinarySceneFormat() {
+    }
+
+    /**
+     * Tells whether a file is a compiled scene, by looking at its first bytes.
+     * @param filename The path of the file.
+     * @return true if the file starts with the magic of compiled scenes.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isBinary(String filename) throws IOException {
+        byte[] head = new byte[MAGIC.length];
+        try (InputStream in = Files.newInputStream(Path.of(filename))) {
+            return in.readNBytes(head, 0, head.length) == head.length && Arrays.equals(head, MAGIC);
+        }
+    }
+
+    /**
+     * Tells whether a buffer holds a compiled scene, without moving its position.
+     * @param buffer The bytes of the file, from its position.
+     * @return true if the bytes start with the magic of compiled scenes.
+     */
+    public static boolean isBinary(ByteBuffer buffer) {
+        if (buffer.remaining() < MAGIC.length) return false;
+        for (int k = 0; k < MAGIC.length; k++) {
+            if (buffer.get(buffer.position() + k) != MAGIC[k]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compiles a scene into a binary file.
+     * @param scene The scene to write.
+     * @param filename The path of the binary file, overwritten if it exists.
+     * @param withAccelerator true to store the BVH of the scene (built if needed).
+     * @throws IOException If the file cannot be written.
+     * @throws IllegalArgumentException If the scene holds a shape or light that the format cannot store.
+     */
+    public static void write(Scene scene, String filename, boolean withAccelerator) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16)) {
+            write(scene, out, withAccelerator);
+        }
+    }
+
+    /**
+     * Compiles a scene into a stream, e.g. to send it to another process.
+     * @param scene The scene to write.
+     * @param stream The stream to write to, flushed and left open.
+     * @param withAccelerator true to store the BVH of the scene (built if needed).
+     * @throws IOException If the stream cannot be written.
+     * @throws IllegalArgumentException If the scene holds a shape or light that the format cannot store.
+     */
+    public static void write(Scene scene, OutputStream stream, boolean withAccelerator) throws IOException {
+        BVH bvh = null;
+        if (withAccelerator)
+            bvh = scene.getAccelerator() instanceof BVH ? (BVH) scene.getAccelerator() : new BVH(scene.shapes);
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(bvh != null ? FLAG_BVH : 0);
+
+        out.writeInt(scene.width);
+        out.writeInt(scene.height);
+        out.writeInt(scene.maxdepth);
+        out.writeDouble(scene.minweight);
+        out.writeInt(scene.maxverts);
+        writeString(out, scene.output);
+
+        out.writeBoolean(scene.camera != null);
+        if (scene.camera != null) {
+            writeTriple(out, scene.camera.lookFrom.x, scene.camera.lookFrom.y, scene.camera.lookFrom.z);
+            writeTriple(out, scene.camera.lookAt.x, scene.camera.lookAt.y, scene.camera.lookAt.z);
+            writeTriple(out, scene.camera.up.x, scene.camera.up.y, scene.camera.up.z);
+            out.writeDouble(scene.camera.fov);
+        }
+        writeColor(out, scene.ambient);
+
+        out.writeInt(scene.lights.size());
+        for (Light light : scene.lights) {
+            if (light instanceof DirectionalLight) {
+                Vector d = ((DirectionalLight) light).direction;
+                out.writeByte(LIGHT_DIRECTIONAL);
+                writeTriple(out, d.x, d.y, d.z);
+            } else if (light instanceof PointLight) {
+                Point o = ((PointLight) light).origin;
+                out.writeByte(LIGHT_POINT);
+                writeTriple(out, o.x, o.y, o.z);
+            } else {
+                throw new IllegalArgumentException("Cannot compile light: " + light.getClass().getSimpleName());
+            }
+            writeColor(out, light.color);
+        }
+
+        out.writeInt(scene.vertices.size());
+        for (Point p : scene.vertices) writeTriple(out, p.x, p.y, p.z);
+
+        out.writeInt(scene.meshes.size());
+        for (MeshPrototype mesh : scene.meshes) {
+            writeString(out, mesh.name);
+            out.writeInt(mesh.shapes.size());
+            for (Shape shape : mesh.shapes) writeShape(out, shape, scene.meshes);
+        }
+
+        out.writeInt(scene.shapes.size());
+        for (Shape shape : scene.shapes) writeShape(out, shape, scene.meshes);
+
+        if (bvh != null) {
+            bvh.write(out);
+            for (MeshPrototype mesh : scene.meshes) {
+                BVH meshBvh = mesh.getAccelerator() instanceof BVH ? (BVH) mesh.getAccelerator() : new BVH(mesh.shapes);
+                meshBvh.write(out);
+            }
+        }
+        out.flush();
+    }
+
+    private static void writeShape(DataOutputStream out, Shape shape, List<MeshPrototype> meshes) throws IOException {
+        if (shape instanceof MeshInstance) {
+            MeshInstance instance = (MeshInstance) shape;
+            int index = meshes.indexOf(instance.mesh);
+            if (index < 0)
+                throw new IllegalArgumentException("Instance of a mesh missing from the scene: " + instance.mesh.name);
+            // An instance has no material of its own
+            out.writeByte(SHAPE_INSTANCE);
+            out.writeInt(index);
+            for (double v : instance.transform.getMatrix()) out.writeDouble(v);
+        } else if (shape instanceof Sphere) {
+            Sphere s = (Sphere) shape;
+            out.writeByte(SHAPE_SPHERE);
+            writeMaterial(out, shape);
+            writeTriple(out, s.center.x, s.center.y, s.center.z);
+            out.writeDouble(s.radius);
+        } else if (shape instanceof Plane) {
+            Plane p = (Plane) shape;
+            out.writeByte(SHAPE_PLANE);
+            writeMaterial(out, shape);
+            writeTriple(out, p.p0.x, p.p0.y, p.p0.z);
+            writeTriple(out, p.normal.x, p.normal.y, p.normal.z);
+        } else if (shape instanceof Triangle) {
+            Triangle t = (Triangle) shape;
+            out.writeByte(SHAPE_TRIANGLE);
+            writeMaterial(out, shape);
+            writeTriple(out, t.a.x, t.a.y, t.a.z);
+            writeTriple(out, t.b.x, t.b.y, t.b.z);
+            writeTriple(out, t.c.x, t.c.y, t.c.z);
+        } else if (shape instanceof TriangleMesh) {
+            TriangleMesh m = (TriangleMesh) shape;
+            out.writeByte(SHAPE_MESH);
+            writeMaterial(out, shape);
+            out.writeInt(m.positions.length);
+            for (double v : m.positions) out.writeDouble(v);
+            out.writeInt(m.indices.length);
+            for (int i : m.indices) out.writeInt(i);
+        } else {
+            throw new IllegalArgumentException("Cannot compile shape: " + shape.getClass().getSimpleName());
+        }
+    }
+
+    private static void writeMaterial(DataOutputStream out, Shape shape) throws IOException {
+        writeColor(out, shape.diffuse);
+        writeColor(out, shape.specular);
+        out.writeDouble(shape.shininess);
+    }
+
+    private static void writeColor(DataOutputStream out, Color c) throws IOException {
+        writeTriple(out, c.x, c.y, c.z);
+    }
+
+    private static void writeTriple(DataOutputStream out, double x, double y, double z) throws IOException {
+        out.writeDouble(x);
+        out.writeDouble(y);
+        out.writeDouble(z);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Loads a compiled scene by memory-mapping the file.
+     * @param filename The path of the binary file.
+     * @return The scene, with its acceleration structure ready.
+     * @throws IOException If the file cannot be read, is not a compiled scene of this version, or is damaged.
+     */
+    public static Scene read(String filename) throws IOException {
+        return read(filename, AcceleratorType.BVH);
+    }
+
+    /**
+     * Loads a compiled scene by memory-mapping the file.
+     * @param filename The path of the binary file.
+     * @param acceleratorType The structure to render the scene with. A stored BVH is only 
+     * used for {@link AcceleratorType#BVH}, other structures are built on load.
+     * @return The scene, with its acceleration structure ready.
+     * @throws IOException If the file cannot be read, is not a compiled scene of this version, or is damaged.
+     */
+    public static Scene read(String filename, AcceleratorType acceleratorType) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Scene file too large to be mapped: " + filename);
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), acceleratorType);
+        }
+    }
+
+    /**
+     * Loads a compiled scene from a buffer, starting at its position.
+     * @param in The bytes of the file.
+     * @return The scene, with its acceleration structure ready.
+     * @throws IOException If the bytes are not a compiled scene of this version, or are damaged.
+     */
+    public static Scene read(ByteBuffer in) throws IOException {
+        return read(in, AcceleratorType.BVH);
+    }
+
+    /**
+     * Loads a compiled scene from a buffer, starting at its position.
+     * @param in The bytes of the file.
+     * @param acceleratorType The structure to render the scene with. A stored BVH is only 
+     * used for {@link AcceleratorType#BVH}, other structures are built on load.
+     * @return The scene, with its acceleration structure ready.
+     * @throws IOException If the bytes are not a compiled scene of this version, or are damaged.
+     */
+    public static Scene read(ByteBuffer in, AcceleratorType acceleratorType) throws IOException {
+        Scene scene = RenderMetrics.time(Phase.PARSE, () -> readScene(in));
+        // Without a stored BVH, the structure is built as after a text parse
+        if (scene.accelerator == null || acceleratorType != AcceleratorType.BVH)
+            scene.buildAccelerationStructure(acceleratorType);
+        return scene;
+    }
+
+    private static Scene readScene(ByteBuffer in) throws IOException {
+        if (!isBinary(in))
+            throw new IOException("Not a compiled scene");
+        in.position(in.position() + MAGIC.length);
+        try {
+            int version = in.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported compiled scene version " + version + " (expected " + VERSION + ")");
+            int flags = in.getInt();
+
+            Scene scene = new Scene();
+            scene.width = in.getInt();
+            scene.height = in.getInt();
+            scene.maxdepth = in.getInt();
+            scene.minweight = in.getDouble();
+            scene.maxverts = in.getInt();
+            scene.output = readString(in);
+
+            if (in.get() != 0) {
+                scene.camera = new Camera(readPoint(in), readPoint(in), readVector(in), in.getDouble());
+            }
+            scene.ambient = readColor(in);
+
+            int lightCount = readCount(in, 49);
+            for (int i = 0; i < lightCount; i++) {
+                byte type = in.get();
+                if (type == LIGHT_DIRECTIONAL)
+                    scene.lights.add(new DirectionalLight(readVector(in), readColor(in)));
+                else if (type == LIGHT_POINT)
+                    scene.lights.add(new PointLight(readPoint(in), readColor(in)));
+                else
+                    throw new IOException("Unknown light type " + type);
+            }
+
+            int vertexCount = readCount(in, 24);
+            scene.vertices = new ArrayList<>(vertexCount);
+            for (int i = 0; i < vertexCount; i++) scene.vertices.add(readPoint(in));
+
+            int meshCount = readCount(in, 8);
+            for (int i = 0; i < meshCount; i++) {
+                String name = readString(in);
+                int count = readCount(in, 57);
+                List<Shape> shapes = new ArrayList<>(count);
+                // Meshes cannot hold instances
+                for (int k = 0; k < count; k++) shapes.add(readShape(in, List.of()));
+                scene.meshes.add(new MeshPrototype(name, shapes));
+            }
+
+            int shapeCount = readCount(in, 57);
+            for (int i = 0; i < shapeCount; i++) scene.shapes.add(readShape(in, scene.meshes));
+
+            if ((flags & FLAG_BVH) != 0) {
+                scene.accelerator = BVH.read(in, scene.shapes);
+                for (MeshPrototype mesh : scene.meshes)
+                    mesh.setAccelerator(BVH.read(in, mesh.shapes));
+            }
+            return scene;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Damaged compiled scene", e);
+        }
+    }
+
+    private static Shape readShape(ByteBuffer in, List<MeshPrototype> meshes) throws IOException {
+        byte type = in.get();
+        if (type == SHAPE_INSTANCE) {
+            // The mesh is read before its instances
+            int index = in.getInt();
+            if (index < 0 || index >= meshes.size())
+                throw new IOException("Instance of an unknown mesh: " + index);
+            double[] matrix = new double[12];
+            for (int k = 0; k < matrix.length; k++) matrix[k] = in.getDouble();
+            return new MeshInstance(meshes.get(index), Transform.of(matrix));
+        }
+        Color diffuse = readColor(in);
+        Color specular = readColor(in);
+        double shininess = in.getDouble();
+
+        switch (type) {
+            case SHAPE_SPHERE:
+                return new Sphere(readPoint(in), in.getDouble(), diffuse, specular, shininess);
+            case SHAPE_PLANE:
+                Plane plane = new Plane(readPoint(in), new Vector(0, 1, 0), diffuse, specular, shininess);
+                // The stored normal is already normalized: normalizing it again could change its last bits
+                plane.normal = readVector(in);
+                return plane;
+            case SHAPE_TRIANGLE:
+                return new Triangle(readPoint(in), readPoint(in), readPoint(in), diffuse, specular, shininess);
+            case SHAPE_MESH:
+                double[] positions = new double[readCount(in, 8)];
+                in.asDoubleBuffer().get(positions);
+                in.position(in.position() + 8 * positions.length);
+                int[] indices = new int[readCount(in, 4)];
+                in.asIntBuffer().get(indices);
+                in.position(in.position() + 4 * indices.length);
+                int vertexCount = positions.length / 3;
+                for (int index : indices) {
+                    if (index < 0 || index >= vertexCount)
+                        throw new IOException("Mesh index out of range: " + index);
+                }
+                return new TriangleMesh(positions, indices, diffuse, specular, shininess);
+            default:
+                throw new IOException("Unknown shape type " + type);
+        }
+    }
+
+    /**
+     * Reads an element count and checks that the buffer can hold that many
+     * elements, so that a damaged count cannot trigger a huge allocation.
+     */
+    private static int readCount(ByteBuffer in, int minElementSize) throws IOException {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining() / minElementSize)
+            throw new IOException("Invalid element count " + count);
+        return count;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length < 0) return null;
+        if (length > in.remaining())
+            throw new IOException("Invalid string length " + length);
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Point readPoint(ByteBuffer in) {
+        return new Point(in.getDouble(), in.getDouble(), in.getDouble());
+    }
+
+    private static Vector readVector(ByteBuffer in) {
+        return new Vector(in.getDouble(), in.getDouble(), in.getDouble());
+    }
+
+    private static Color readColor(ByteBuffer in) {
+        return new Color(in.getDouble(), in.getDouble(), in.getDouble());
+    }
+}
@@ -0,0 +1,410 @@
+package com.imt.raytracing.parsing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Phase;
+import com.imt.raytracing.raytracer.acceleration.AccelerationCache;
+import com.imt.raytracing.raytracer.acceleration.AcceleratorType;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * A faster parser for the same plain-text scene description as {@link SceneFileParser}.
+ *
+ * The file is memory-mapped and tokenized in place: a token is only a pair of offsets
+ * into the mapped bytes, keywords are compared byte by byte, and numbers are decoded
+ * straight from the bytes. Apart from the objects of the Scene itself, nothing is
+ * allocated per line.
+ *
+ * Both parsers apply the commands through the same {@link SceneBuilder}, and numbers
+ * are decoded to exactly the value {@code Double.parseDouble} gives, so the resulting
+ * Scene is the same. Tokens are separated by any byte up to the space character
+ * (spaces, tabs and control characters), and the file is expected to be UTF-8.
+ */
+public class MappedSceneFileParser {
+
+    /** Maximum number of tokens kept per line; extra tokens are ignored, as no command uses them. */
+    private static final int MAX_TOKENS = 16;
+
+    /**
+     * Exact powers of ten. Any integer below 2^53 multiplied or divided by one of
+     * them is correctly rounded in a single operation.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /** Largest number of significant digits whose value is always below 2^53. */
+    private static final int MAX_FAST_DIGITS = 15;
+
+    private static final byte[] SIZE = keyword("size");
+    private static final byte[] OUTPUT = keyword("output");
+    private static final byte[] CAMERA = keyword("camera");
+    private static final byte[] MAXDEPTH = keyword("maxdepth");
+    private static final byte[] MINWEIGHT = keyword("minweight");
+    private static final byte[] AMBIENT = keyword("ambient");
+    private static final byte[] DIFFUSE = keyword("diffuse");
+    private static final byte[] SPECULAR = keyword("specular");
+    private static final byte[] SHININESS = keyword("shininess");
+    private static final byte[] DIRECTIONAL = keyword("directional");
+    private static final byte[] POINT = keyword("point");
+    private static final byte[] SPHERE = keyword("sphere");
+    private static final byte[] MAXVERTS = keyword("maxverts");
+    private static final byte[] VERTEX = keyword("vertex");
+    private static final byte[] TRI = keyword("tri");
+    private static final byte[] PLANE = keyword("plane");
+    private static final byte[] MESH = keyword("mesh");
+    private static final byte[] ENDMESH = keyword("endmesh");
+    private static final byte[] INSTANCE = keyword("instance");
+    private static final byte[] TRANSLATE = keyword("translate");
+    private static final byte[] ROTATE = keyword("rotate");
+    private static final byte[] SCALE = keyword("scale");
+    private static final byte[] PUSH_TRANSFORM = keyword("pushTransform");
+    private static final byte[] POP_TRANSFORM = keyword("popTransform");
+
+    // Tokens of the current line, as [start, end) offsets into the buffer
+    private final int[] tokenStart = new int[MAX_TOKENS];
+    private final int[] tokenEnd = new int[MAX_TOKENS];
+    private int tokenCount;
+    private ByteBuffer buffer;
+
+    private final AcceleratorType acceleratorType;
+    private final AccelerationCache cache;
+
+    /**
+     * Creates a parser whose scenes are accelerated with a BVH.
+     */
+    public MappedSceneFileParser() {
+        this(AcceleratorType.BVH);
+    }
+
+    /**
+     * Creates a parser whose scenes are accelerated with the given structure.
+     * @param acceleratorType The structure built once the scene is parsed.
+     */
+    public MappedSceneFileParser(AcceleratorType acceleratorType) {
+        this(acceleratorType, null);
+    }
+
+    /**
+     * Creates a parser whose scenes are accelerated with the given structure, taken 
+     * from a cache when the same geometry was already seen.
+     * @param acceleratorType The structure built once the scene is parsed.
+     * @param cache The cache of structures built earlier, or null to always build the structure. 
+     * Compiled scenes do not use it, they carry their own BVH.
+     */
+    public MappedSceneFileParser(AcceleratorType acceleratorType, AccelerationCache cache) {
+        this.acceleratorType = acceleratorType;
+        this.cache = cache;
+    }
+
+    /**
+     * Reads a scene description from a file, parses the commands, and constructs
+     * a complete Scene object.
+     * @param filename The path to the scene file (e.g., a .txt or .scene file), or to a 
+     * scene compiled with {@link BinarySceneFormat}.
+     * @return A fully constructed Scene object.
+     * @throws Exception If there is a file error or a syntax error in the scene file.
+     */
+    public Scene parse(String filename) throws Exception {
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("Scene file too large to be mapped: " + filename);
+            return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Parses a scene description held in a buffer, from its position to its limit.
+     * @param input The bytes of the scene description, or of a compiled scene.
+     * @return A fully constructed Scene object.
+     * @throws Exception If there is a syntax error in the scene description.
+     */
+    public Scene parse(ByteBuffer input) throws Exception {
+        // Compiled scenes are loaded directly, without any text parsing
+        if (BinarySceneFormat.isBinary(input))
+            return BinarySceneFormat.read(input, acceleratorType);
+
+        SceneBuilder builder = new SceneBuilder(acceleratorType, cache);
+        buffer = input;
+        try {
+            RenderMetrics.time(Phase.PARSE, () -> {
+                int pos = input.position();
+                int limit = input.limit();
+                while (pos < limit) {
+                    pos = tokenizeLine(pos, limit);
+                    // Skip empty lines or lines starting with a comment '#'
+                    if (tokenCount == 0 || buffer.get(tokenStart[0]) == '#') continue;
+                    apply(builder);
+                }
+            });
+        } finally {
+            buffer = null;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Splits the line starting at pos into tokens. Lines end with '\n', '\r' or
+     * "\r\n" like with {@code BufferedReader.readLine}; a "\r\n" simply yields an
+     * extra empty line.
+     * @return The position of the next line.
+     */
+    private int tokenizeLine(int pos, int limit) {
+        tokenCount = 0;
+        while (pos < limit) {
+            int b = buffer.get(pos) & 0xFF;
+            if (b == '\n' || b == '\r') return pos + 1;
+            if (b <= ' ') {
+                pos++;
+                continue;
+            }
+            int start = pos;
+            while (pos < limit && (buffer.get(pos) & 0xFF) > ' ') pos++;
+            if (tokenCount < MAX_TOKENS) {
+                tokenStart[tokenCount] = start;
+                tokenEnd[tokenCount] = pos;
+            }
+            tokenCount++;
+        }
+        return pos;
+    }
+
+    private void apply(SceneBuilder builder) throws Exception {
+        // The most frequent commands come first
+        if (isKeyword(VERTEX)) {
+            builder.vertex(number(1), number(2), number(3));
+        } else if (isKeyword(TRI)) {
+            builder.tri(integer(1), integer(2), integer(3));
+        } else if (isKeyword(SIZE)) {
+            builder.size(integer(1), integer(2));
+        } else if (isKeyword(OUTPUT)) {
+            builder.output(string(1));
+        } else if (isKeyword(CAMERA)) {
+            builder.camera(number(1), number(2), number(3),
+                    number(4), number(5), number(6),
+                    number(7), number(8), number(9),
+                    number(10));
+        } else if (isKeyword(MAXDEPTH)) {
+            builder.maxdepth(integer(1));
+        } else if (isKeyword(MINWEIGHT)) {
+            builder.minweight(number(1));
+        } else if (isKeyword(AMBIENT)) {
+            builder.ambient(number(1), number(2), number(3));
+        } else if (isKeyword(DIFFUSE)) {
+            builder.diffuse(number(1), number(2), number(3));
+        } else if (isKeyword(SPECULAR)) {
+            builder.specular(number(1), number(2), number(3));
+        } else if (isKeyword(SHININESS)) {
+            builder.shininess(number(1));
+        } else if (isKeyword(DIRECTIONAL)) {
+            builder.directional(number(1), number(2), number(3), number(4), number(5), number(6));
+        } else if (isKeyword(POINT)) {
+            builder.point(number(1), number(2), number(3), number(4), number(5), number(6));
+        } else if (isKeyword(SPHERE)) {
+            builder.sphere(number(1), number(2), number(3), number(4));
+        } else if (isKeyword(MAXVERTS)) {
+            builder.maxverts(integer(1));
+        } else if (isKeyword(PLANE)) {
+            builder.plane(number(1), number(2), number(3), number(4), number(5), number(6));
+        } else if (isKeyword(MESH)) {
+            builder.mesh(string(1));
+        } else if (isKeyword(ENDMESH)) {
+            builder.endmesh();
+        } else if (isKeyword(INSTANCE)) {
+            builder.instance(string(1));
+        } else if (isKeyword(TRANSLATE)) {
+            builder.translate(number(1), number(2), number(3));
+        } else if (isKeyword(ROTATE)) {
+            builder.rotate(number(1), number(2), number(3), number(4));
+        } else if (isKeyword(SCALE)) {
+            builder.scale(number(1), number(2), number(3));
+        } else if (isKeyword(PUSH_TRANSFORM)) {
+            builder.pushTransform();
+        } else if (isKeyword(POP_TRANSFORM)) {
+            builder.popTransform();
+        } else {
+            builder.unknown(string(0));
+        }
+    }
+
+    private boolean isKeyword(byte[] keyword) {
+        int start = tokenStart[0];
+        if (tokenEnd[0] - start != keyword.length) return false;
+        for (int k = 0; k < keyword.length; k++) {
+            if (buffer.get(start + k) != keyword[k]) return false;
+        }
+        return true;
+    }
+
+    private void checkToken(int index) {
+        // Same failure as indexing the token array of the text parser
+        if (index >= tokenCount)
+            throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds for length " + tokenCount);
+    }
+
+    private double number(int index) {
+        checkToken(index);
+        return parseDouble(buffer, tokenStart[index], tokenEnd[index]);
+    }
+
+    private int integer(int index) {
+        checkToken(index);
+        return parseInt(buffer, tokenStart[index], tokenEnd[index]);
+    }
+
+    private String string(int index) {
+        checkToken(index);
+        return decode(buffer, tokenStart[index], tokenEnd[index]);
+    }
+
+    /**
+     * Decodes a decimal number from bytes [start, end) of the buffer.
+     *
+     * Plain decimals with at most 15 significant digits and a small exponent, which is
+     * what scene files contain, are computed with a single exact multiplication or
+     * division and are therefore correctly rounded. Anything else falls back to
+     * {@code Double.parseDouble}, so the result is always the same as its result.
+     * @param buffer The buffer holding the text.
+     * @param start Offset of the first byte of the number.
+     * @param end Offset just past the last byte of the number.
+     * @return The decoded value.
+     * @throws NumberFormatException If the bytes are not a valid number.
+     */
+    static double parseDouble(ByteBuffer buffer, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end) {
+            byte sign = buffer.get(pos);
+            if (sign == '-' || sign == '+') {
+                negative = sign == '-';
+                pos++;
+            }
+        }
+
+        long mantissa = 0;
+        int digits = 0;          // significant digits accumulated in the mantissa
+        int exponent = 0;
+        boolean anyDigit = false;
+
+        // Integer part
+        while (pos < end) {
+            int d = buffer.get(pos) - '0';
+            if (d < 0 || d > 9) break;
+            anyDigit = true;
+            if (mantissa != 0 || d != 0) {
+                if (++digits > MAX_FAST_DIGITS) return fallbackDouble(buffer, start, end);
+                mantissa = mantissa * 10 + d;
+            }
+            pos++;
+        }
+
+        // Fractional part
+        if (pos < end && buffer.get(pos) == '.') {
+            pos++;
+            while (pos < end) {
+                int d = buffer.get(pos) - '0';
+                if (d < 0 || d > 9) break;
+                anyDigit = true;
+                if (mantissa != 0 || d != 0) {
+                    if (++digits > MAX_FAST_DIGITS) return fallbackDouble(buffer, start, end);
+                    mantissa = mantissa * 10 + d;
+                }
+                exponent--;
+                pos++;
+            }
+        }
+        if (!anyDigit) return fallbackDouble(buffer, start, end);
+
+        // Exponent part
+        if (pos < end && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+                negativeExponent = buffer.get(pos) == '-';
+                pos++;
+            }
+            int value = 0;
+            int exponentStart = pos;
+            while (pos < end) {
+                int d = buffer.get(pos) - '0';
+                if (d < 0 || d > 9) break;
+                if (pos - exponentStart >= 4) return fallbackDouble(buffer, start, end);
+                value = value * 10 + d;
+                pos++;
+            }
+            if (pos == exponentStart) return fallbackDouble(buffer, start, end);
+            exponent += negativeExponent ? -value : value;
+        }
+
+        // Trailing characters (suffixes, hexadecimal, ...) are left to the JDK
+        if (pos != end) return fallbackDouble(buffer, start, end);
+
+        double result;
+        if (mantissa == 0) {
+            result = 0.0;
+        } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+            result = mantissa * POWERS_OF_TEN[exponent];
+        } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+            result = mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return fallbackDouble(buffer, start, end);
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Decodes a decimal integer from bytes [start, end) of the buffer, with the
+     * same result and failures as {@code Integer.parseInt}.
+     * @param buffer The buffer holding the text.
+     * @param start Offset of the first byte of the number.
+     * @param end Offset just past the last byte of the number.
+     * @return The decoded value.
+     * @throws NumberFormatException If the bytes are not a valid int.
+     */
+    static int parseInt(ByteBuffer buffer, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end) {
+            byte sign = buffer.get(pos);
+            if (sign == '-' || sign == '+') {
+                negative = sign == '-';
+                pos++;
+            }
+        }
+        // Up to 9 digits always fit in an int; longer values are checked by the JDK
+        if (pos == end || end - pos > 9) return Integer.parseInt(decode(buffer, start, end));
+
+        int value = 0;
+        while (pos < end) {
+            int d = buffer.get(pos) - '0';
+            if (d < 0 || d > 9) return Integer.parseInt(decode(buffer, start, end));
+            value = value * 10 + d;
+            pos++;
+        }
+        return negative ? -value : value;
+    }
+
+    private static double fallbackDouble(ByteBuffer buffer, int start, int end) {
+        return Double.parseDouble(decode(buffer, start, end));
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int k = 0; k < bytes.length; k++) {
+            bytes[k] = buffer.get(start + k);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] keyword(String name) {
+        return name.getBytes(StandardCharsets.US_ASCII);
+    }
+}
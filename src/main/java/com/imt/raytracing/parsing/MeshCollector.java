@@ -0,0 +1,93 @@
+package com.imt.raytracing.parsing;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.geometry.shape.Triangle;
+import com.imt.raytracing.geometry.shape.TriangleMesh;
+import com.imt.raytracing.imaging.Color;
+
+/**
+ * Collects a run of consecutive "tri" commands, which all share the current material, 
+ * and adds them to the scene (or to the mesh being defined) as a single TriangleMesh once the run ends.
+ * A run made of a single triangle is added as a plain Triangle.
+ */
+class MeshCollector {
+
+    /** Pending vertex indices, 3 per triangle. */
+    private int[] indices = new int[48];
+    private int count = 0;
+    /**
+     * New index of every vertex in the mesh of the run, -1 if not used yet. Kept from
+     * run to run, and only the entries of the vertices of a run are reset after it.
+     */
+    private int[] remap = new int[0];
+
+    /**
+     * Adds a triangle to the current run.
+     * @param i1 index of the first vertex
+     * @param i2 index of the second vertex
+     * @param i3 index of the third vertex
+     */
+    void add(int i1, int i2, int i3) {
+        if (count + 3 > indices.length)
+            indices = Arrays.copyOf(indices, indices.length * 2);
+        indices[count++] = i1;
+        indices[count++] = i2;
+        indices[count++] = i3;
+    }
+
+    /**
+     * Ends the current run: its triangles are added to the shape list with the given material.
+     * Does nothing if no triangle is pending.
+     * @param vertices The vertex list the indices refer to.
+     * @param shapes The shape list receiving the run.
+     * @param diffuse The diffuse color of the run.
+     * @param specular The specular color of the run.
+     * @param shininess The shininess of the run.
+     */
+    void flush(List<Point> vertices, List<Shape> shapes, Color diffuse, Color specular, double shininess) {
+        if (count == 0) return;
+
+        if (count == 3) {
+            shapes.add(new Triangle(
+                    vertices.get(indices[0]),
+                    vertices.get(indices[1]),
+                    vertices.get(indices[2]),
+                    diffuse, specular, shininess));
+            count = 0;
+            return;
+        }
+
+        // Only copy the vertices used by the run, renumbered in order of first use
+        if (remap.length < vertices.size()) {
+            int length = remap.length;
+            remap = Arrays.copyOf(remap, Math.max(vertices.size(), length * 2));
+            Arrays.fill(remap, length, remap.length, -1);
+        }
+        double[] positions = new double[Math.min(count, vertices.size()) * 3];
+        int[] meshIndices = new int[count];
+        int vertexCount = 0;
+
+        for (int k = 0; k < count; k++) {
+            int v = indices[k];
+            if (remap[v] < 0) {
+                Point p = vertices.get(v);
+                positions[3 * vertexCount] = p.x;
+                positions[3 * vertexCount + 1] = p.y;
+                positions[3 * vertexCount + 2] = p.z;
+                remap[v] = vertexCount++;
+            }
+            meshIndices[k] = remap[v];
+        }
+        for (int k = 0; k < count; k++)
+            remap[indices[k]] = -1;
+
+        shapes.add(new TriangleMesh(
+                Arrays.copyOf(positions, vertexCount * 3), meshIndices,
+                diffuse, specular, shininess));
+        count = 0;
+    }
+}
@@ -0,0 +1,269 @@
+package com.imt.raytracing.parsing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Transform;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.MeshInstance;
+import com.imt.raytracing.geometry.shape.MeshPrototype;
+import com.imt.raytracing.geometry.shape.Plane;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.raytracer.Camera;
+import com.imt.raytracing.raytracer.acceleration.AccelerationCache;
+import com.imt.raytracing.raytracer.acceleration.AcceleratorType;
+import com.imt.raytracing.raytracer.light.DirectionalLight;
+import com.imt.raytracing.raytracer.light.PointLight;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Applies the commands of a scene description to a Scene under construction.
+ * It holds the parsing state (current material, pending run of triangles), so that
+ * every parser only has to tokenize its input and call the matching method: all of
+ * them build exactly the same Scene from the same file.
+ */
+class SceneBuilder {
+
+    private final Scene scene = new Scene();
+    private final AcceleratorType acceleratorType;
+    private final AccelerationCache cache;
+
+    // Current material properties. These are state variables that apply to the
+    // next shape defined (e.g., sphere, triangle, plane).
+    private Color currentDiffuse = new Color(0,0,0);
+    private Color currentSpecular = new Color(0,0,0);
+    private double currentShininess = 10.0;
+
+    // Consecutive triangles are gathered into a single mesh sharing the current material
+    private final MeshCollector mesh = new MeshCollector();
+
+    // Shapes go to the scene, or to the mesh being defined between "mesh" and "endmesh"
+    private List<Shape> currentShapes = scene.shapes;
+    private String currentMeshName;
+    private final Map<String, MeshPrototype> meshes = new HashMap<>();
+
+    // Transform applied to the next instances, and the transforms saved by pushTransform
+    private Transform currentTransform = Transform.IDENTITY;
+    private final Deque<Transform> transformStack = new ArrayDeque<>();
+
+    /**
+     * @param acceleratorType The acceleration structure built at the end of the description.
+     * @param cache The cache of structures built earlier, or null to always build the structure.
+     */
+    SceneBuilder(AcceleratorType acceleratorType, AccelerationCache cache) {
+        this.acceleratorType = acceleratorType;
+        this.cache = cache;
+    }
+
+    /**
+     * Ends the current run of triangles. Called by every command other than tri/vertex.
+     */
+    private void endTriangleRun() {
+        mesh.flush(scene.vertices, currentShapes, currentDiffuse, currentSpecular, currentShininess);
+    }
+
+    void size(int width, int height) {
+        endTriangleRun();
+        // Set the width and height of the final image
+        scene.width = width;
+        scene.height = height;
+    }
+
+    void output(String output) {
+        endTriangleRun();
+        scene.output = output;
+    }
+
+    void camera(double fromX, double fromY, double fromZ,
+                double atX, double atY, double atZ,
+                double upX, double upY, double upZ, double fov) {
+        endTriangleRun();
+        // Define the camera with lookFrom, lookAt, up vector, and field of view (fov)
+        scene.camera = new Camera(
+                new Point(fromX, fromY, fromZ),
+                new Point(atX, atY, atZ),
+                new Vector(upX, upY, upZ),
+                fov
+        );
+    }
+
+    void maxdepth(int maxdepth) {
+        endTriangleRun();
+        scene.maxdepth = maxdepth;
+    }
+
+    void minweight(double minweight) {
+        endTriangleRun();
+        // Reflections weighing less than this in their pixel are not traced
+        scene.minweight = minweight;
+    }
+
+    void ambient(double r, double g, double b) {
+        endTriangleRun();
+        // Set the global ambient light color
+        scene.ambient = new Color(r, g, b);
+    }
+
+    void diffuse(double r, double g, double b) {
+        endTriangleRun();
+        currentDiffuse = new Color(r, g, b);
+    }
+
+    void specular(double r, double g, double b) {
+        endTriangleRun();
+        currentSpecular = new Color(r, g, b);
+    }
+
+    void shininess(double shininess) {
+        endTriangleRun();
+        currentShininess = shininess;
+    }
+
+    void directional(double dx, double dy, double dz, double r, double g, double b) {
+        endTriangleRun();
+        scene.lights.add(new DirectionalLight(new Vector(dx, dy, dz), new Color(r, g, b)));
+    }
+
+    void point(double x, double y, double z, double r, double g, double b) {
+        endTriangleRun();
+        scene.lights.add(new PointLight(new Point(x, y, z), new Color(r, g, b)));
+    }
+
+    void sphere(double x, double y, double z, double radius) {
+        endTriangleRun();
+        // Add a sphere using the current material properties
+        currentShapes.add(new Sphere(new Point(x, y, z), radius,
+                currentDiffuse, currentSpecular, currentShininess));
+    }
+
+    void maxverts(int maxverts) {
+        endTriangleRun();
+        // Define the maximum number of vertices that can be stored for triangle meshes
+        scene.maxverts = maxverts;
+        scene.vertices = new ArrayList<>(maxverts);
+    }
+
+    void vertex(double x, double y, double z) throws Exception {
+        // Store a single vertex point in the list for later use by 'tri' commands
+        if (scene.vertices.size() >= scene.maxverts)
+            throw new Exception("Error: Too many vertices defined compared to maxverts limit.");
+        scene.vertices.add(new Point(x, y, z));
+    }
+
+    void tri(int i1, int i2, int i3) throws Exception {
+        // Check if indices are valid
+        if (i1 >= scene.maxverts || i2 >= scene.maxverts || i3 >= scene.maxverts)
+            throw new Exception("Error: Vertex index out of bounds (>= maxverts).");
+
+        // Check that the vertices have already been defined
+        int defined = scene.vertices.size();
+        if (i1 < 0 || i2 < 0 || i3 < 0 || i1 >= defined || i2 >= defined || i3 >= defined)
+            throw new Exception("Error: Vertex index refers to an undefined vertex.");
+
+        // The triangle joins the current run, which becomes a mesh using the
+        // stored vertex points and current material properties
+        mesh.add(i1, i2, i3);
+    }
+
+    void plane(double x, double y, double z, double nx, double ny, double nz) throws Exception {
+        endTriangleRun();
+        // Meshes are bounded, so that their instances can be enclosed in a box
+        if (currentMeshName != null)
+            throw new Exception("Error: A plane cannot be part of a mesh.");
+        // Add a plane defined by a point on the plane and its normal vector
+        scene.shapes.add(new Plane(new Point(x, y, z), new Vector(nx, ny, nz),
+                currentDiffuse, currentSpecular, currentShininess));
+    }
+
+    void mesh(String name) throws Exception {
+        endTriangleRun();
+        if (currentMeshName != null)
+            throw new Exception("Error: Mesh " + name + " defined inside mesh " + currentMeshName + ".");
+        if (meshes.containsKey(name))
+            throw new Exception("Error: Mesh " + name + " is already defined.");
+        // The next spheres and triangles belong to the mesh, in its own object space
+        currentMeshName = name;
+        currentShapes = new ArrayList<>();
+    }
+
+    void endmesh() throws Exception {
+        endTriangleRun();
+        if (currentMeshName == null)
+            throw new Exception("Error: endmesh without a matching mesh.");
+        MeshPrototype prototype = new MeshPrototype(currentMeshName, currentShapes);
+        meshes.put(currentMeshName, prototype);
+        scene.meshes.add(prototype);
+        currentMeshName = null;
+        currentShapes = scene.shapes;
+    }
+
+    void instance(String name) throws Exception {
+        endTriangleRun();
+        if (currentMeshName != null)
+            throw new Exception("Error: Instances cannot be placed inside mesh " + currentMeshName + ".");
+        MeshPrototype prototype = meshes.get(name);
+        if (prototype == null)
+            throw new Exception("Error: Unknown mesh " + name + ".");
+        if (!currentTransform.isInvertible())
+            throw new Exception("Error: The transform of the instance of " + name + " is not invertible.");
+        // Place the mesh with the current transform
+        scene.shapes.add(new MeshInstance(prototype, currentTransform));
+    }
+
+    void translate(double x, double y, double z) {
+        endTriangleRun();
+        // Like the other transforms, it applies to the object before the previous ones
+        currentTransform = currentTransform.multiply(Transform.translation(x, y, z));
+    }
+
+    void rotate(double x, double y, double z, double degrees) throws Exception {
+        endTriangleRun();
+        if (x == 0 && y == 0 && z == 0)
+            throw new Exception("Error: The rotation axis cannot be the null vector.");
+        currentTransform = currentTransform.multiply(Transform.rotation(x, y, z, degrees));
+    }
+
+    void scale(double x, double y, double z) {
+        endTriangleRun();
+        currentTransform = currentTransform.multiply(Transform.scaling(x, y, z));
+    }
+
+    void pushTransform() {
+        endTriangleRun();
+        transformStack.push(currentTransform);
+    }
+
+    void popTransform() throws Exception {
+        endTriangleRun();
+        if (transformStack.isEmpty())
+            throw new Exception("Error: popTransform without a matching pushTransform.");
+        currentTransform = transformStack.pop();
+    }
+
+    void unknown(String keyword) {
+        endTriangleRun();
+        // Log unknown instructions but continue parsing
+        System.out.println("Ignore instruction: " + keyword);
+    }
+
+    /**
+     * Ends the description: flushes the pending triangles and builds the
+     * acceleration structure once, now that all shapes are known.
+     * @return The completed Scene.
+     * @throws Exception If a mesh definition is not closed.
+     */
+    Scene build() throws Exception {
+        endTriangleRun();
+        if (currentMeshName != null)
+            throw new Exception("Error: Mesh " + currentMeshName + " is missing its endmesh.");
+        scene.buildAccelerationStructure(acceleratorType, cache);
+        return scene;
+    }
+}
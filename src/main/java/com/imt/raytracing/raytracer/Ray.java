@@ -25,4 +25,13 @@ public class Ray {
         this.origin = origin;
         this.direction = direction.normalize();
     }
+
+    /**
+     * Rebuilds a Ray from the components of another one, whose direction is already 
+     * normalized: it is used as given, so the copy is exactly the original ray.
+     */
+    Ray(double ox, double oy, double oz, double dx, double dy, double dz) {
+        this.origin = new Point(ox, oy, oz);
+        this.direction = new Vector(dx, dy, dz);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,140 @@
+package com.imt.raytracing.raytracer;
+
+/**
+ * A bundle of rays leaving from the same point, such as the primary rays of a block of
+ * pixels, traced together through the acceleration structure.
+ *
+ * The rays are enclosed in a frustum: four planes through their common origin. A box
+ * lying entirely outside one of the planes is missed by every ray of the packet, so a
+ * single test culls it for all of them. Rays that do not share their origin, or that
+ * spread over more than a half space, get no frustum and are traced one by one.
+ */
+public class RayPacket {
+
+    /** Largest number of rays in a packet, an 8x8 block of pixels. */
+    public static final int MAX_SIZE = 64;
+
+    /** Relative tolerance of the plane tests, far above their rounding errors. */
+    private static final double SLACK = 1e-9;
+    /** Smallest cosine between a ray and the axis of the frustum. */
+    private static final double MIN_COSINE = 1e-3;
+
+    /** The rays of the packet. */
+    public final Ray[] rays;
+    /** The inverse of the direction of every ray, for the slab tests. */
+    public final double[] inverseX, inverseY, inverseZ;
+    /** Inward normals of the four planes, 3 doubles each, or null without a frustum. */
+    private final double[] planes;
+    /** The common origin of the rays, meaningful with a frustum only. */
+    private final double ox, oy, oz;
+
+    /**
+     * Creates a packet and encloses its rays in a frustum if they allow it.
+     * @param rays The rays, at least one and at most {@link #MAX_SIZE}.
+     */
+    public RayPacket(Ray... rays) {
+        if (rays.length == 0 || rays.length > MAX_SIZE)
+            throw new IllegalArgumentException("A packet holds 1 to " + MAX_SIZE + " rays: " + rays.length);
+        this.rays = rays;
+        int n = rays.length;
+        inverseX = new double[n];
+        inverseY = new double[n];
+        inverseZ = new double[n];
+        for (int k = 0; k < n; k++) {
+            inverseX[k] = 1.0 / rays[k].direction.x;
+            inverseY[k] = 1.0 / rays[k].direction.y;
+            inverseZ[k] = 1.0 / rays[k].direction.z;
+        }
+        ox = rays[0].origin.x;
+        oy = rays[0].origin.y;
+        oz = rays[0].origin.z;
+        planes = frustum();
+    }
+
+    /**
+     * Computes the planes of the frustum: the axis is the mean direction, and the rays are
+     * bounded by their extent on the plane one unit away along it.
+     * @return the inward normals, or null if the rays diverge.
+     */
+    private double[] frustum() {
+        double cx = 0, cy = 0, cz = 0;
+        for (Ray ray : rays) {
+            if (ray.origin.x != ox || ray.origin.y != oy || ray.origin.z != oz) return null;
+            cx += ray.direction.x;
+            cy += ray.direction.y;
+            cz += ray.direction.z;
+        }
+        double length = Math.sqrt(cx*cx + cy*cy + cz*cz);
+        if (!(length > 0)) return null;
+        cx /= length; cy /= length; cz /= length;
+
+        // u = c × (x or y axis, whichever is further from c), v = c × u
+        double ax = Math.abs(cx) < 0.9 ? 1 : 0, ay = 1 - ax;
+        double ux = -cz*ay, uy = cz*ax, uz = cx*ay - cy*ax;
+        double ul = Math.sqrt(ux*ux + uy*uy + uz*uz);
+        ux /= ul; uy /= ul; uz /= ul;
+        double vx = cy*uz - cz*uy, vy = cz*ux - cx*uz, vz = cx*uy - cy*ux;
+
+        double minU = Double.POSITIVE_INFINITY, maxU = Double.NEGATIVE_INFINITY;
+        double minV = Double.POSITIVE_INFINITY, maxV = Double.NEGATIVE_INFINITY;
+        for (Ray ray : rays) {
+            double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+            double w = dx*cx + dy*cy + dz*cz;
+            if (!(w > MIN_COSINE)) return null;
+            double u = (dx*ux + dy*uy + dz*uz) / w;
+            double v = (dx*vx + dy*vy + dz*vz) / w;
+            minU = Math.min(minU, u); maxU = Math.max(maxU, u);
+            minV = Math.min(minV, v); maxV = Math.max(maxV, v);
+        }
+
+        // A direction d is inside when d.u >= minU * d.c, and so on
+        double[] normals = {
+            ux - minU*cx, uy - minU*cy, uz - minU*cz,
+            maxU*cx - ux, maxU*cy - uy, maxU*cz - uz,
+            vx - minV*cx, vy - minV*cy, vz - minV*cz,
+            maxV*cx - vx, maxV*cy - vy, maxV*cz - vz,
+        };
+        for (int p = 0; p < 12; p += 3) {
+            double l = Math.sqrt(normals[p]*normals[p] + normals[p + 1]*normals[p + 1] + normals[p + 2]*normals[p + 2]);
+            normals[p] /= l;
+            normals[p + 1] /= l;
+            normals[p + 2] /= l;
+        }
+        return normals;
+    }
+
+    /**
+     * @return the number of rays in the packet
+     */
+    public int size() {
+        return rays.length;
+    }
+
+    /**
+     * @return true if the rays are enclosed in a frustum, false if they must be traced one by one
+     */
+    public boolean hasFrustum() {
+        return planes != null;
+    }
+
+    /**
+     * Tests a box against the frustum: the box is culled when its corner furthest along the
+     * normal of a plane is still outside it. The test is conservative, a box is only culled
+     * when no ray of the packet can reach it.
+     * @param bounds Boxes stored as min x, y, z then max x, y, z.
+     * @param offset The index of the first coordinate of the box.
+     * @return true if no ray of the packet hits the box, false if some may or there is no frustum.
+     */
+    public boolean cullsBox(double[] bounds, int offset) {
+        if (planes == null) return false;
+        for (int p = 0; p < 12; p += 3) {
+            double nx = planes[p], ny = planes[p + 1], nz = planes[p + 2];
+            double px = (nx >= 0 ? bounds[offset + 3] : bounds[offset]) - ox;
+            double py = (ny >= 0 ? bounds[offset + 4] : bounds[offset + 1]) - oy;
+            double pz = (nz >= 0 ? bounds[offset + 5] : bounds[offset + 2]) - oz;
+            if (nx*px + ny*py + nz*pz < -SLACK * (Math.abs(px) + Math.abs(py) + Math.abs(pz)))
+                return true;
+        }
+        return false;
+    }
+}
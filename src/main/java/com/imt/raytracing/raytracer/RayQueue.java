@@ -0,0 +1,77 @@
+package com.imt.raytracing.raytracer;
+
+import java.util.Arrays;
+
+/**
+ * Queue of the rays of one generation of a {@link WavefrontTracer}, stored as a structure 
+ * of arrays: one array per component, so that a pass over the queue reads memory in order.
+ */
+final class RayQueue {
+
+    double[] originX, originY, originZ;
+    double[] directionX, directionY, directionZ;
+    /** The distance up to which every ray is tested. */
+    double[] tMax;
+    /** The entry of the previous generation (or the pixel) every ray comes from. */
+    int[] owner;
+    /** The weight of every ray in its pixel, channel by channel. */
+    double[] weightR, weightG, weightB;
+    /** The number of rays in the queue. */
+    int size;
+
+    RayQueue(int capacity) {
+        capacity = Math.max(capacity, 16);
+        originX = new double[capacity];
+        originY = new double[capacity];
+        originZ = new double[capacity];
+        directionX = new double[capacity];
+        directionY = new double[capacity];
+        directionZ = new double[capacity];
+        tMax = new double[capacity];
+        owner = new int[capacity];
+        weightR = new double[capacity];
+        weightG = new double[capacity];
+        weightB = new double[capacity];
+    }
+
+    /**
+     * Appends a ray, growing the arrays when they are full.
+     */
+    void add(Ray ray, double distance, int from, double wR, double wG, double wB) {
+        if (size == owner.length) grow();
+        int i = size++;
+        originX[i] = ray.origin.x;
+        originY[i] = ray.origin.y;
+        originZ[i] = ray.origin.z;
+        directionX[i] = ray.direction.x;
+        directionY[i] = ray.direction.y;
+        directionZ[i] = ray.direction.z;
+        tMax[i] = distance;
+        owner[i] = from;
+        weightR[i] = wR;
+        weightG[i] = wG;
+        weightB[i] = wB;
+    }
+
+    private void grow() {
+        int capacity = 2 * owner.length;
+        originX = Arrays.copyOf(originX, capacity);
+        originY = Arrays.copyOf(originY, capacity);
+        originZ = Arrays.copyOf(originZ, capacity);
+        directionX = Arrays.copyOf(directionX, capacity);
+        directionY = Arrays.copyOf(directionY, capacity);
+        directionZ = Arrays.copyOf(directionZ, capacity);
+        tMax = Arrays.copyOf(tMax, capacity);
+        owner = Arrays.copyOf(owner, capacity);
+        weightR = Arrays.copyOf(weightR, capacity);
+        weightG = Arrays.copyOf(weightG, capacity);
+        weightB = Arrays.copyOf(weightB, capacity);
+    }
+
+    /**
+     * @return the ray at index i, exactly as it was added
+     */
+    Ray ray(int i) {
+        return new Ray(originX[i], originY[i], originZ[i], directionX[i], directionY[i], directionZ[i]);
+    }
+}
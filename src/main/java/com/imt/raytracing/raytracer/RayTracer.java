@@ -5,7 +5,13 @@ import java.util.Optional;
 
 import com.imt.raytracing.geometry.Orthonormal;
 import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.MeshInstance;
+import com.imt.raytracing.geometry.shape.MeshInstance.IntersectionInstance;
+import com.imt.raytracing.geometry.shape.Shape;
 import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Counter;
+import com.imt.raytracing.raytracer.scene.HitRecord;
 import com.imt.raytracing.raytracer.scene.Intersection;
 import com.imt.raytracing.raytracer.scene.Scene;
 
@@ -13,9 +19,20 @@ import com.imt.raytracing.raytracer.scene.Scene;
  * The core engine of the ray tracing system.
  * It is responsible for generating the primary rays that go from the camera through 
  * the image plane (pixel grid) into the scene, and for determining the color of each pixel.
+ * It holds no state, so a single instance can be shared by all rendering threads.
  */
 public class RayTracer {
 
+    /** Edge length of the blocks of pixels traced as one packet. */
+    public static final int PACKET_SIZE = 8;
+
+    /**
+     * The color seen by one primary ray, with the shape of the scene it hit (null if none):
+     * for a shape of an instanced mesh, the {@link MeshInstance}, since the shapes of
+     * the mesh are shared by all its instances.
+     */
+    public record Sample(Color color, Shape shape) {}
+
     /**
      * Calculates the color for a specific pixel (i, j) on the image plane.
      * This involves generating the viewing ray, checking for intersection, and shading the result.
@@ -27,6 +44,110 @@ public class RayTracer {
      */
     public Color getPixelColor(int i, int j, Scene scene, Orthonormal basis) {
 
+        // Create the primary ray going through the center of the pixel
+        Ray ray = getPrimaryRay(i, j, scene, basis);
+
+        // Find the closest intersection of this ray with any object in the scene
+        Optional<Intersection> inter = scene.closestIntersection(ray);
+        RenderMetrics.count(Counter.PRIMARY_RAYS);
+
+        // If the ray hits nothing, return black
+        if (inter.isEmpty())
+            return new Color(0,0,0);
+
+        // If the ray hits an object, calculate the final color using the shading model
+        RenderMetrics.count(Counter.PRIMARY_HITS);
+        return inter.get().shade(scene, 0);
+    }
+
+    /**
+     * Calculates the color seen through any point of pixel (i, j), and the shape of the
+     * scene seen there.
+     * Through the center of the pixel, the color is exactly that of {@link #getPixelColor}.
+     * @param i The pixel's column index (x-coordinate).
+     * @param j The pixel's row index (y-coordinate).
+     * @param dx The horizontal position of the point in the pixel, in [0, 1].
+     * @param dy The vertical position of the point in the pixel, in [0, 1].
+     * @param scene The Scene containing the camera, lights, and shapes.
+     * @param basis The Orthonormal basis (u, v, w vectors) defining the camera's orientation.
+     * @return The Sample of the point.
+     */
+    public Sample getSample(int i, int j, double dx, double dy, Scene scene, Orthonormal basis) {
+        Ray ray = getPrimaryRay(i, j, dx, dy, scene, basis);
+        Optional<Intersection> inter = scene.closestIntersection(ray);
+        RenderMetrics.count(Counter.PRIMARY_RAYS);
+
+        if (inter.isEmpty())
+            return new Sample(new Color(0,0,0), null);
+
+        RenderMetrics.count(Counter.PRIMARY_HITS);
+        Shape shape = inter.get() instanceof IntersectionInstance hit ? hit.instance : inter.get().shape;
+        return new Sample(inter.get().shade(scene, 0), shape);
+    }
+
+    /**
+     * Calculates the colors of a block of pixels, tracing their primary rays together as 
+     * one {@link RayPacket}. The colors are exactly those of {@link #getPixelColor}.
+     * @param x0 The first column of the block.
+     * @param y0 The first row of the block.
+     * @param x1 The column after the block, at most {@link #PACKET_SIZE} after x0.
+     * @param y1 The row after the block, at most {@link #PACKET_SIZE} after y0.
+     * @param scene The Scene containing the camera, lights, and shapes.
+     * @param basis The Orthonormal basis (u, v, w vectors) defining the camera's orientation.
+     * @return The Colors of the block, row by row.
+     */
+    public Color[] getPixelColors(int x0, int y0, int x1, int y1, Scene scene, Orthonormal basis) {
+        int columns = x1 - x0;
+        int n = columns * (y1 - y0);
+
+        // Every primary ray leaves from the camera, so the block forms a narrow frustum
+        Ray[] rays = new Ray[n];
+        HitRecord[] hits = new HitRecord[n];
+        for (int k = 0; k < n; k++) {
+            rays[k] = getPrimaryRay(x0 + k % columns, y0 + k / columns, scene, basis);
+            hits[k] = new HitRecord();
+        }
+        scene.closestHits(new RayPacket(rays), hits);
+        RenderMetrics.count(Counter.PRIMARY_RAYS, n);
+
+        Color[] colors = new Color[n];
+        for (int k = 0; k < n; k++) {
+            if (!hits[k].isHit()) {
+                colors[k] = new Color(0,0,0);
+                continue;
+            }
+            RenderMetrics.count(Counter.PRIMARY_HITS);
+            colors[k] = hits[k].toIntersection(rays[k]).shade(scene, 0);
+        }
+        return colors;
+    }
+
+    /**
+     * Generates the primary (viewing) ray going from the camera through the center 
+     * of pixel (i, j).
+     * @param i The pixel's column index (x-coordinate).
+     * @param j The pixel's row index (y-coordinate).
+     * @param scene The Scene containing the camera and the image size.
+     * @param basis The Orthonormal basis (u, v, w vectors) defining the camera's orientation.
+     * @return The primary Ray of the pixel.
+     */
+    public Ray getPrimaryRay(int i, int j, Scene scene, Orthonormal basis) {
+        return getPrimaryRay(i, j, 0.5, 0.5, scene, basis);
+    }
+
+    /**
+     * Generates the primary (viewing) ray going from the camera through any point 
+     * of pixel (i, j).
+     * @param i The pixel's column index (x-coordinate).
+     * @param j The pixel's row index (y-coordinate).
+     * @param dx The horizontal position of the point in the pixel, in [0, 1] (0.5 for the center).
+     * @param dy The vertical position of the point in the pixel, in [0, 1] (0.5 for the center).
+     * @param scene The Scene containing the camera and the image size.
+     * @param basis The Orthonormal basis (u, v, w vectors) defining the camera's orientation.
+     * @return The primary Ray through the point.
+     */
+    public Ray getPrimaryRay(int i, int j, double dx, double dy, Scene scene, Orthonormal basis) {
+
         // Convert the camera's field of view (FOV) from degrees to radians
         double fovr = Math.toRadians(scene.camera.fov);
         
@@ -38,9 +159,9 @@ public class RayTracer {
         // Map pixel coordinates (i, j) to continuous coordinates (a, b) on the image plane.
         // The image center is (width/2.0, height/2.0).
         // 'a' is the horizontal coordinate, scaled by half the width of the image plane (pixelW).
-        double a = pixelW * ((i - scene.width/2.0) + 0.5) / (scene.width/2.0);
+        double a = pixelW * ((i - scene.width/2.0) + dx) / (scene.width/2.0);
         // 'b' is the vertical coordinate, scaled by half the height of the image plane (pixelH).
-        double b = pixelH * ((j - scene.height/2.0) + 0.5) / (scene.height/2.0);
+        double b = pixelH * ((j - scene.height/2.0) + dy) / (scene.height/2.0);
 
         // Calculate the ray direction vector in world space:
         // Ray_Dir = a*u + b*v - 1*w (w is the depth axis, multiplied by -1 to point into the scene)
@@ -50,16 +171,6 @@ public class RayTracer {
                 .normalize();
 
         // Create the primary ray starting at the camera's position (lookFrom)
-        Ray ray = new Ray(scene.camera.lookFrom, dir);
-
-        // Find the closest intersection of this ray with any object in the scene
-        Optional<Intersection> inter = scene.closestIntersection(ray);
-
-        // If the ray hits nothing, return black
-        if (inter.isEmpty())
-            return new Color(0,0,0);
-
-        // If the ray hits an object, calculate the final color using the shading model
-        return inter.get().shade(scene, 0);
+        return new Ray(scene.camera.lookFrom, dir);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,245 @@
+package com.imt.raytracing.raytracer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.imt.raytracing.geometry.Orthonormal;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Counter;
+import com.imt.raytracing.raytracer.light.Light;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+import com.imt.raytracing.raytracer.scene.Intersection;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Breadth-first alternative to the recursive shading of {@link RayTracer#getPixelColor}.
+ * Instead of following every pixel down its shadow and reflected rays one at a time, the
+ * rays of one generation are collected in a {@link RayQueue} and traced in bulk, one kind
+ * at a time: the primary rays, then the shadow rays of each light, then the reflected rays
+ * of depth 1 and their shadow rays, and so on. Shading is a separate pass over the hits of
+ * a generation; the reflected colors are added back generation by generation, from the
+ * deepest one, once all rays are traced.
+ *
+ * Every color is computed by the same operations, in the same order, as
+ * {@link Intersection#shade(Scene, int)}, so the image is identical to the recursive one.
+ * It holds no state, so a single instance can be shared by all rendering threads.
+ */
+public class WavefrontTracer {
+
+    /**
+     * Number of pixels of the wavefronts of the serial path. Larger wavefronts trace more
+     * rays in bulk, but their buffers no longer fit in the caches, and it shows.
+     */
+    public static final int MAX_PIXELS = 1 << 12;
+
+    private final RayTracer rayTracer = new RayTracer();
+    /** Whether the primary rays are traced by packets. */
+    private final boolean packets;
+
+    /**
+     * @param packets true to trace the primary rays by packets of
+     * {@link RayTracer#PACKET_SIZE} squared pixels.
+     */
+    public WavefrontTracer(boolean packets) {
+        this.packets = packets;
+    }
+
+    /**
+     * What is left of a generation once shaded, until the colors of the reflections are added back.
+     */
+    private static final class Generation {
+        /** The entry of the previous generation (or the pixel) every ray comes from. */
+        final int[] owner;
+        /** The specular color of the surface hit by every ray, null for a miss, one per ray. */
+        final Color[] specular;
+        /** The shaded color of every hit. */
+        final double[] red, green, blue;
+
+        Generation(RayQueue queue) {
+            owner = queue.owner;
+            specular = new Color[queue.size];
+            red = new double[queue.size];
+            green = new double[queue.size];
+            blue = new double[queue.size];
+        }
+    }
+
+    /**
+     * Renders a rectangle of pixels as one wavefront.
+     * @param scene The Scene to render.
+     * @param basis The Orthonormal basis (u, v, w vectors) defining the camera's orientation.
+     * @param x0 The first column of the rectangle.
+     * @param y0 The first row of the rectangle.
+     * @param x1 The column after the rectangle.
+     * @param y1 The row after the rectangle.
+     * @param framebuffer The pixels of the whole image, rows stored top-down.
+     */
+    public void render(Scene scene, Orthonormal basis, int x0, int y0, int x1, int y1, int[] framebuffer) {
+        render(scene, basis, x0, y0, x1, y1, framebuffer, 0);
+    }
+
+    /**
+     * Renders a rectangle of pixels as one wavefront, into a band of rows of the image.
+     * @param framebuffer The pixels of the band, rows stored top-down.
+     * @param top The row of the image stored first in the framebuffer, counted from the top.
+     */
+    public void render(Scene scene, Orthonormal basis, int x0, int y0, int x1, int y1, int[] framebuffer, int top) {
+        int columns = x1 - x0;
+        int n = columns * (y1 - y0);
+
+        RayQueue queue = new RayQueue(n);
+        for (int k = 0; k < n; k++)
+            queue.add(rayTracer.getPrimaryRay(x0 + k % columns, y0 + k / columns, scene, basis),
+                    Double.POSITIVE_INFINITY, k, 1, 1, 1);
+        Intersection[] hits = packets ? tracePackets(scene, queue, columns)
+                : trace(scene, queue, Counter.PRIMARY_RAYS, Counter.PRIMARY_HITS);
+
+        List<Generation> generations = new ArrayList<>();
+        for (int depth = 0; ; depth++) {
+            generations.add(shade(scene, queue, hits));
+            queue = reflections(scene, queue, hits, depth);
+            if (queue.size == 0) break;
+            hits = trace(scene, queue, Counter.REFLECTION_RAYS, Counter.REFLECTION_HITS);
+        }
+
+        // The color of a reflection is complete once the deeper ones are added to it
+        for (int g = generations.size() - 1; g > 0; g--) {
+            Generation child = generations.get(g);
+            Generation parent = generations.get(g - 1);
+            for (int i = 0; i < child.specular.length; i++) {
+                if (child.specular[i] == null) continue;
+                int p = child.owner[i];
+                Color specular = parent.specular[p];
+                parent.red[p] += child.red[i] * specular.x;
+                parent.green[p] += child.green[i] * specular.y;
+                parent.blue[p] += child.blue[i] * specular.z;
+            }
+        }
+
+        Generation primary = generations.get(0);
+        int width = scene.getWidth();
+        int height = scene.getHeight();
+        for (int k = 0; k < n; k++) {
+            Color c = primary.specular[k] == null ? new Color(0, 0, 0)
+                    : new Color(primary.red[k], primary.green[k], primary.blue[k]);
+            // Image rows are stored top-down, while j goes bottom-up.
+            int j = y0 + k / columns;
+            framebuffer[(height - j - 1 - top) * width + x0 + k % columns] = c.toRGB();
+        }
+    }
+
+    /**
+     * Finds the closest hit of every ray of a queue.
+     * @return The intersection of every ray, null for a miss.
+     */
+    private static Intersection[] trace(Scene scene, RayQueue queue, Counter rays, Counter hits) {
+        Intersection[] result = new Intersection[queue.size];
+        HitRecord hit = new HitRecord();
+        long found = 0;
+        for (int i = 0; i < queue.size; i++) {
+            Ray ray = queue.ray(i);
+            hit.reset(queue.tMax[i]);
+            if (scene.closestHit(ray, hit)) {
+                result[i] = hit.toIntersection(ray);
+                found++;
+            }
+        }
+        RenderMetrics.count(rays, queue.size);
+        RenderMetrics.count(hits, found);
+        return result;
+    }
+
+    /**
+     * Finds the closest hit of the primary rays, block by block, each block as a packet.
+     * @param columns The width of the rectangle of pixels, the rays being stored row by row.
+     */
+    private static Intersection[] tracePackets(Scene scene, RayQueue queue, int columns) {
+        Intersection[] result = new Intersection[queue.size];
+        int rows = queue.size / columns;
+        int size = RayTracer.PACKET_SIZE;
+        long found = 0;
+        for (int by = 0; by < rows; by += size) {
+            for (int bx = 0; bx < columns; bx += size) {
+                int blockColumns = Math.min(size, columns - bx);
+                int count = blockColumns * Math.min(size, rows - by);
+                Ray[] rays = new Ray[count];
+                HitRecord[] hits = new HitRecord[count];
+                for (int k = 0; k < count; k++) {
+                    rays[k] = queue.ray((by + k / blockColumns) * columns + bx + k % blockColumns);
+                    hits[k] = new HitRecord();
+                }
+                scene.closestHits(new RayPacket(rays), hits);
+                for (int k = 0; k < count; k++) {
+                    if (!hits[k].isHit()) continue;
+                    result[(by + k / blockColumns) * columns + bx + k % blockColumns] = hits[k].toIntersection(rays[k]);
+                    found++;
+                }
+            }
+        }
+        RenderMetrics.count(Counter.PRIMARY_RAYS, queue.size);
+        RenderMetrics.count(Counter.PRIMARY_HITS, found);
+        return result;
+    }
+
+    /**
+     * Traces the shadow rays of the hits of a generation, light by light, then shades the hits.
+     */
+    private static Generation shade(Scene scene, RayQueue queue, Intersection[] hits) {
+        List<Light> lights = scene.lights;
+        int lightCount = lights.size();
+
+        // Shadow rays, owned by hit * lightCount + light
+        RayQueue shadows = new RayQueue(queue.size * lightCount);
+        for (int l = 0; l < lightCount; l++) {
+            Light light = lights.get(l);
+            for (int i = 0; i < queue.size; i++) {
+                if (hits[i] != null)
+                    shadows.add(hits[i].shadowRay(light), hits[i].lightDistance(light), i * lightCount + l, 1, 1, 1);
+            }
+        }
+        boolean[] shadowed = new boolean[queue.size * lightCount];
+        long blocked = 0;
+        for (int s = 0; s < shadows.size; s++) {
+            if (scene.anyIntersection(shadows.ray(s), shadows.tMax[s])) {
+                shadowed[shadows.owner[s]] = true;
+                blocked++;
+            }
+        }
+        RenderMetrics.count(Counter.SHADOW_RAYS, shadows.size);
+        RenderMetrics.count(Counter.SHADOW_HITS, blocked);
+
+        Generation generation = new Generation(queue);
+        for (int i = 0; i < queue.size; i++) {
+            Intersection hit = hits[i];
+            if (hit == null) continue;
+            Color col = hit.ambient(scene);
+            for (int l = 0; l < lightCount; l++) {
+                if (!shadowed[i * lightCount + l])
+                    hit.addDirectLight(col, lights.get(l));
+            }
+            generation.specular[i] = hit.shape.specular;
+            generation.red[i] = col.x;
+            generation.green[i] = col.y;
+            generation.blue[i] = col.z;
+        }
+        return generation;
+    }
+
+    /**
+     * Collects the rays reflected by the hits of a generation.
+     * @param depth The number of reflections that led to the hits.
+     */
+    private static RayQueue reflections(Scene scene, RayQueue queue, Intersection[] hits, int depth) {
+        RayQueue next = new RayQueue(queue.size);
+        for (int i = 0; i < queue.size; i++) {
+            Intersection hit = hits[i];
+            if (hit == null || !hit.tracesReflection(scene, depth, queue.weightR[i], queue.weightG[i], queue.weightB[i]))
+                continue;
+            Color specular = hit.shape.specular;
+            next.add(hit.reflectedRay(), Double.POSITIVE_INFINITY, i,
+                    queue.weightR[i] * specular.x, queue.weightG[i] * specular.y, queue.weightB[i] * specular.z);
+        }
+        return next;
+    }
+}
@@ -0,0 +1,251 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+
+import com.imt.raytracing.geometry.BoundingBox;
+import com.imt.raytracing.geometry.shape.Shape;
+
+/**
+ * Directory of hierarchies built for earlier renders, so that a scene whose geometry
+ * did not change is not built again.
+ *
+ * An entry is the output of {@link BVH#write} behind a small header, in a file named
+ * after a SHA-256 hash of the structure type and of the box of every primitive: this
+ * is all the builders look at, so equal keys give equal trees. Loading maps the file
+ * and checks every link of the tree against the shapes; a damaged entry is deleted
+ * and counts as a miss. Only hierarchies ({@link AcceleratorType#BVH} and
+ * {@link AcceleratorType#LBVH}) are cached.
+ *
+ * Several renders may share the directory: entries are written to a temporary file
+ * and renamed into place, so readers only ever see complete files. Once the entries
+ * exceed the size limit, the least recently used ones are deleted. Failures of the
+ * cache never fail a render, the structure is then simply built.
+ */
+public final class AccelerationCache {
+
+    /** Size limit used when none is given, in bytes. */
+    public static final long DEFAULT_MAX_SIZE = 512L << 20;
+
+    private static final byte[] MAGIC = {'R', 'T', 'B', 'V', 'H', 0, 0, 0};
+    /** Version of the entries, also part of the key so that old entries are never read. */
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".bvh";
+    private static final String TEMP_SUFFIX = ".tmp";
+    /** Age after which a temporary file is considered left behind by a crashed render. */
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000;
+
+    private final Path directory;
+    private final long maxSize;
+
+    /**
+     * @param directory The cache directory, created if it does not exist.
+     * @param maxSize The total size of the entries above which the oldest ones are deleted, in bytes.
+     * @throws IOException If the directory cannot be created.
+     */
+    public AccelerationCache(Path directory, long maxSize) throws IOException {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        this.directory = Files.createDirectories(directory);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return The cache directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Looks for a structure built earlier over the same geometry.
+     * @param type The type of the structure.
+     * @param shapes The shapes the structure must index, in scene order.
+     * @return The cached structure, or null on a miss or if the type is not cached.
+     */
+    public Accelerator load(AcceleratorType type, List<Shape> shapes) {
+        if (!isCached(type)) return null;
+        Path file = entry(key(type, shapes));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            for (byte b : MAGIC) {
+                if (in.get() != b) throw new IOException("Not a cache entry");
+            }
+            if (in.getInt() != VERSION) throw new IOException("Unsupported cache entry version");
+            BVH bvh = BVH.read(in, shapes);
+            touch(file);
+            return bvh;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("Ignoring damaged acceleration cache entry " + file + ": " + e.getMessage());
+            deleteQuietly(file);
+            return null;
+        }
+    }
+
+    /**
+     * Adds a structure to the cache, then deletes the least recently used entries if
+     * the cache is too large. Does nothing for structures that are not cached.
+     * @param type The type the structure was built as.
+     * @param shapes The shapes the structure indexes, in scene order.
+     * @param accelerator The structure.
+     */
+    public void store(AcceleratorType type, List<Shape> shapes, Accelerator accelerator) {
+        if (!isCached(type) || !(accelerator instanceof BVH)) return;
+        Path file = entry(key(type, shapes));
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(directory, file.getFileName().toString(), TEMP_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                ((BVH) accelerator).write(out);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            evict(file);
+        } catch (IOException e) {
+            System.err.println("Could not write acceleration cache entry " + file + ": " + e.getMessage());
+        } finally {
+            if (temp != null) deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * Computes the key of a structure: a hash of its type and of the box of every
+     * primitive, in scene order (unbounded shapes only count as such).
+     * @param type The type of the structure.
+     * @param shapes The shapes of the scene.
+     * @return The key, as 64 hexadecimal digits.
+     */
+    static String key(AcceleratorType type, List<Shape> shapes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        buffer.putInt(VERSION).putInt(type.ordinal()).putInt(shapes.size());
+        for (Shape shape : shapes) {
+            if (buffer.remaining() < 4) flush(digest, buffer);
+            if (shape.getBoundingBox() == null) {
+                buffer.putInt(-1);
+                continue;
+            }
+            int count = shape.getPrimitiveCount();
+            buffer.putInt(count);
+            for (int p = 0; p < count; p++) {
+                if (buffer.remaining() < 48) flush(digest, buffer);
+                BoundingBox box = shape.getPrimitiveBounds(p);
+                buffer.putDouble(box.minX).putDouble(box.minY).putDouble(box.minZ)
+                      .putDouble(box.maxX).putDouble(box.maxY).putDouble(box.maxZ);
+            }
+        }
+        flush(digest, buffer);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void flush(MessageDigest digest, ByteBuffer buffer) {
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+    }
+
+    private static boolean isCached(AcceleratorType type) {
+        return type == AcceleratorType.BVH || type == AcceleratorType.LBVH;
+    }
+
+    private Path entry(String key) {
+        return directory.resolve(key + SUFFIX);
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits in its size limit,
+     * as well as the temporary files left behind by crashed renders.
+     * @param keep The entry just written, which is never deleted.
+     */
+    private void evict(Path keep) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    // Deleted by another render meanwhile
+                    continue;
+                }
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    if (now - attrs.lastModifiedTime().toMillis() > STALE_TEMP_MILLIS)
+                        deleteQuietly(path);
+                } else if (name.endsWith(SUFFIX)) {
+                    entries.add(path);
+                    attributes.add(attrs);
+                    total += attrs.size();
+                }
+            }
+        }
+        if (total <= maxSize) return;
+
+        Integer[] byAge = new Integer[entries.size()];
+        for (int i = 0; i < byAge.length; i++) byAge[i] = i;
+        Arrays.sort(byAge, Comparator.comparing(i -> attributes.get(i).lastModifiedTime()));
+        for (int i : byAge) {
+            if (total <= maxSize) break;
+            if (entries.get(i).equals(keep)) continue;
+            deleteQuietly(entries.get(i));
+            total -= attributes.get(i).size();
+        }
+    }
+
+    /**
+     * Marks an entry as used, so that eviction keeps it longer.
+     */
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only affects the eviction order
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Another render may hold or have removed it, the next eviction retries
+        }
+    }
+}
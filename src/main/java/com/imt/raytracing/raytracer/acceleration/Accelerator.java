@@ -0,0 +1,67 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import java.util.Optional;
+
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.RayPacket;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+import com.imt.raytracing.raytracer.scene.Intersection;
+
+/**
+ * A spatial acceleration structure built over the shapes of a scene.
+ * It answers the same queries as the linear scan of {@code Scene.shapes},
+ * but only tests the shapes the ray can actually reach.
+ *
+ * The queries do not modify the structure, so it can be shared between threads. A
+ * {@link BVH} can however be refitted in place when shapes move (see
+ * {@link BVH#refit(java.util.List, int[], double)}, called by {@code Scene.updateShapes}
+ * and {@code Scene.loadFrame}), and must not be queried while that happens.
+ */
+public interface Accelerator {
+
+    /**
+     * Finds the closest hit between the ray and the shapes of the structure, and writes 
+     * it into the record. Only hits closer than {@code hit.t} are accepted, so a record 
+     * reset with a bound restricts the search. When several shapes are hit at exactly 
+     * the same distance, the one that comes first in the original shape list wins, as 
+     * with the linear scan.
+     * @param ray The Ray to test.
+     * @param hit The caller-owned record, updated in place.
+     * @return true if a hit was recorded.
+     */
+    boolean closestHit(Ray ray, HitRecord hit);
+
+    /**
+     * Finds the closest intersection and builds the full Intersection for it.
+     * @param ray The Ray to test.
+     * @return An Optional containing the closest Intersection, or empty if nothing is hit.
+     */
+    default Optional<Intersection> closestIntersection(Ray ray) {
+        HitRecord hit = new HitRecord();
+        if (!closestHit(ray, hit))
+            return Optional.empty();
+        return Optional.of(hit.toIntersection(ray));
+    }
+
+    /**
+     * Finds the closest hit of every ray of a packet, exactly as {@link #closestHit} would
+     * one ray after the other, which is what this default implementation does. Structures
+     * that can share their traversal between the rays override it.
+     * @param packet The rays to test.
+     * @param hits The caller-owned records, one per ray of the packet, updated in place.
+     */
+    default void closestHits(RayPacket packet, HitRecord[] hits) {
+        for (int k = 0; k < packet.size(); k++)
+            closestHit(packet.rays[k], hits[k]);
+    }
+
+    /**
+     * Tests whether any shape is hit at a distance t with 0 &lt; t &lt; tMax.
+     * The traversal stops at the first occluder found and allocates nothing,
+     * which makes it the query of choice for shadow rays.
+     * @param ray The Ray to test.
+     * @param tMax The exclusive upper bound of the interval.
+     * @return true if at least one shape is hit inside the interval.
+     */
+    boolean anyIntersection(Ray ray, double tMax);
+}
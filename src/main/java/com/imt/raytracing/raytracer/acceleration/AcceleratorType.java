@@ -0,0 +1,28 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import java.util.Locale;
+
+/**
+ * The acceleration structures a scene can be rendered with,
+ * see {@code Scene.buildAccelerationStructure(AcceleratorType)}.
+ */
+public enum AcceleratorType {
+    /** Bounding volume hierarchy, the default: robust on any distribution of shapes. */
+    BVH,
+    /** BVH built from Morton codes on all cores: much faster to build, a little slower to trace. */
+    LBVH,
+    /** Uniform grid, cheap to build and fast on evenly spread shapes. */
+    GRID,
+    /** No structure: every shape is tested for every ray. */
+    NONE;
+
+    /**
+     * Finds the type matching a name given on the command line, e.g. "grid".
+     * @param name The name, in any case.
+     * @return The matching type.
+     * @throws IllegalArgumentException If no type has this name.
+     */
+    public static AcceleratorType fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
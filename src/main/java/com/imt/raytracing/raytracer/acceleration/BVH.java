@@ -0,0 +1,969 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.imt.raytracing.geometry.BoundingBox;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Counter;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.RayPacket;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+
+/**
+ * Bounding volume hierarchy built with the binned surface area heuristic (SAH).
+ *
+ * The tree is stored in flat arrays in depth-first order: the left child of an
+ * interior node is always the next node, only the right child index is stored.
+ * Unbounded shapes (planes) cannot be put in a box, so they are kept in a small
+ * side list which is tested linearly for every ray.
+ */
+public class BVH implements Accelerator {
+
+    /** Number of bins used to evaluate candidate splits along each axis. */
+    private static final int BIN_COUNT = 16;
+    /** Maximum number of shapes stored in a leaf. */
+    static final int MAX_LEAF_SIZE = 4;
+    /** Depth at which the build stops splitting, which bounds the traversal stack. */
+    static final int MAX_DEPTH = 60;
+    /** Relative cost of visiting a node compared to testing one shape. */
+    static final double TRAVERSAL_COST = 0.5;
+    /** Relative padding added to boxes so that rounding never culls a genuine hit. */
+    private static final double PADDING = 1e-9;
+    /**
+     * Default ratio between the SAH cost of a refitted subtree and its cost when it was
+     * built, above which {@link #refit} rebuilds the subtree.
+     */
+    public static final double DEFAULT_REBUILD_THRESHOLD = 1.3;
+
+    /** Node boxes, 6 doubles per node: minX, minY, minZ, maxX, maxY, maxZ. */
+    private double[] bounds;
+    /**
+     * Node links, 2 ints per node.
+     * Leaf: first shape offset and shape count (count &gt; 0).
+     * Interior: right child index and -(split axis + 1).
+     */
+    private int[] nodes;
+    private int nodeCount;
+
+    /** Shape of each bounded primitive, ordered so that every leaf references a contiguous range. */
+    private final Shape[] shapes;
+    /** Primitive index inside its shape (e.g. the triangle of a mesh). */
+    private final int[] primitives;
+    /** Position of each primitive in the scene, used to break ties (see HitRecord.order). */
+    private final long[] order;
+
+    /** Unbounded shapes tested for every ray. */
+    private final Shape[] unbounded;
+    private final long[] unboundedOrder;
+
+    /** The leaves packed for the vector {@link LeafKernel}, or null to test the entries one by one. */
+    private LeafBlocks blocks;
+
+    /** SAH cost of every subtree when it was built, relative to its area, computed by the first refit. */
+    private double[] baselineCost;
+
+    /** Per-thread traversal stack, so that queries do not allocate. */
+    private final ThreadLocal<int[]> stacks = ThreadLocal.withInitial(() -> new int[2 * MAX_DEPTH + 2]);
+    /** Distances of the primitives of a leaf block, one array per thread. */
+    private final ThreadLocal<double[]> distances = ThreadLocal.withInitial(() -> new double[LeafKernel.LANES]);
+    /** Per-thread traversal stack of the packets, pairs of a node and its first ray. */
+    private final ThreadLocal<int[]> packetStacks = ThreadLocal.withInitial(() -> new int[2 * (2 * MAX_DEPTH + 2)]);
+    /** Per-thread list of the rays of a packet reaching a leaf. */
+    private final ThreadLocal<int[]> activeRays = ThreadLocal.withInitial(() -> new int[RayPacket.MAX_SIZE]);
+    /** Padded box of every entry, see {@link #entryBounds()}. */
+    private volatile double[] entryBounds;
+
+    // Build-time data, released once the tree is finished.
+    private double[] boxes;
+    private double[] centroids;
+    private int[] ids;
+
+    /**
+     * Builds the hierarchy over the given shapes.
+     * @param sceneShapes The shapes of the scene, in scene order.
+     */
+    public BVH(List<Shape> sceneShapes) {
+        List<Shape> boundedShapes = new ArrayList<>();
+        List<Integer> boundedPrimitives = new ArrayList<>();
+        List<Long> boundedOrder = new ArrayList<>();
+        List<BoundingBox> primitiveBoxes = new ArrayList<>();
+        List<Integer> others = new ArrayList<>();
+
+        for (int i = 0; i < sceneShapes.size(); i++) {
+            Shape shape = sceneShapes.get(i);
+            BoundingBox box = shape.getBoundingBox();
+            if (box == null || box.isEmpty()) {
+                others.add(i);
+                continue;
+            }
+            // Every primitive of the shape (e.g. each triangle of a mesh) gets its own entry
+            for (int p = 0; p < shape.getPrimitiveCount(); p++) {
+                boundedShapes.add(shape);
+                boundedPrimitives.add(p);
+                boundedOrder.add(HitRecord.order(i, p));
+                primitiveBoxes.add(shape.getPrimitiveCount() == 1 ? box : shape.getPrimitiveBounds(p));
+            }
+        }
+
+        unbounded = new Shape[others.size()];
+        unboundedOrder = new long[others.size()];
+        for (int i = 0; i < others.size(); i++) {
+            unboundedOrder[i] = HitRecord.order(others.get(i), 0);
+            unbounded[i] = sceneShapes.get(others.get(i));
+        }
+
+        int n = boundedShapes.size();
+        boxes = new double[n * 6];
+        centroids = new double[n * 3];
+        ids = new int[n];
+        for (int i = 0; i < n; i++) {
+            BoundingBox b = primitiveBoxes.get(i);
+            boxes[6 * i] = b.minX; boxes[6 * i + 1] = b.minY; boxes[6 * i + 2] = b.minZ;
+            boxes[6 * i + 3] = b.maxX; boxes[6 * i + 4] = b.maxY; boxes[6 * i + 5] = b.maxZ;
+            centroids[3 * i] = 0.5 * (b.minX + b.maxX);
+            centroids[3 * i + 1] = 0.5 * (b.minY + b.maxY);
+            centroids[3 * i + 2] = 0.5 * (b.minZ + b.maxZ);
+            ids[i] = i;
+        }
+
+        int maxNodes = Math.max(1, 2 * n - 1);
+        bounds = new double[maxNodes * 6];
+        nodes = new int[maxNodes * 2];
+        nodeCount = 0;
+        if (n > 0) build(0, n, 0);
+
+        shapes = new Shape[n];
+        primitives = new int[n];
+        order = new long[n];
+        for (int i = 0; i < n; i++) {
+            shapes[i] = boundedShapes.get(ids[i]);
+            primitives[i] = boundedPrimitives.get(ids[i]);
+            order[i] = boundedOrder.get(ids[i]);
+        }
+
+        bounds = Arrays.copyOf(bounds, nodeCount * 6);
+        nodes = Arrays.copyOf(nodes, nodeCount * 2);
+        boxes = null;
+        centroids = null;
+        ids = null;
+        blocks = LeafBlocks.pack(nodes, nodeCount, shapes, primitives, order);
+    }
+
+    /**
+     * Wraps a hierarchy built elsewhere (see {@link LinearBVHBuilder}), already in the
+     * flat layout described above.
+     */
+    BVH(double[] bounds, int[] nodes, Shape[] shapes, int[] primitives, long[] order,
+        Shape[] unbounded, long[] unboundedOrder) {
+        this.bounds = bounds;
+        this.nodes = nodes;
+        this.nodeCount = nodes.length / 2;
+        this.shapes = shapes;
+        this.primitives = primitives;
+        this.order = order;
+        this.unbounded = unbounded;
+        this.unboundedOrder = unboundedOrder;
+        this.blocks = LeafBlocks.pack(nodes, nodeCount, shapes, primitives, order);
+    }
+
+    /**
+     * Restores a hierarchy from its arrays, as written by {@link #write(DataOutput)}.
+     * The shape and primitive of every entry are found back from its scene order.
+     */
+    private BVH(double[] bounds, int[] nodes, long[] order, long[] unboundedOrder, List<Shape> sceneShapes) {
+        this.bounds = bounds;
+        this.nodes = nodes;
+        this.nodeCount = nodes.length / 2;
+        this.order = order;
+        this.unboundedOrder = unboundedOrder;
+
+        shapes = new Shape[order.length];
+        primitives = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            shapes[i] = sceneShapes.get((int) (order[i] >>> 32));
+            primitives[i] = (int) order[i];
+        }
+        unbounded = new Shape[unboundedOrder.length];
+        for (int i = 0; i < unboundedOrder.length; i++) {
+            unbounded[i] = sceneShapes.get((int) (unboundedOrder[i] >>> 32));
+        }
+        blocks = LeafBlocks.pack(nodes, nodeCount, shapes, primitives, order);
+    }
+
+    /**
+     * Writes the tree, so that it can be restored with {@link #read(ByteBuffer, List)}
+     * without being rebuilt. Shapes are referenced by their index in the scene.
+     * @param out The destination.
+     * @throws IOException If the destination cannot be written.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(nodeCount);
+        for (int i = 0; i < nodeCount * 6; i++) out.writeDouble(bounds[i]);
+        for (int i = 0; i < nodeCount * 2; i++) out.writeInt(nodes[i]);
+        out.writeInt(order.length);
+        for (long o : order) out.writeLong(o);
+        out.writeInt(unboundedOrder.length);
+        for (long o : unboundedOrder) out.writeLong(o);
+    }
+
+    /**
+     * Reads a tree written by {@link #write(DataOutput)}, from the current position
+     * of the buffer. The links of the tree are checked, so that a damaged file
+     * cannot make a traversal loop or go out of bounds.
+     * @param in The source, positioned at the start of the tree.
+     * @param sceneShapes The shapes of the scene the tree was built for, in scene order.
+     * @return The restored hierarchy.
+     * @throws IOException If the data does not describe a valid tree for these shapes.
+     */
+    public static BVH read(ByteBuffer in, List<Shape> sceneShapes) throws IOException {
+        int nodeCount = in.getInt();
+        if (nodeCount < 0 || nodeCount > in.remaining() / 56)
+            throw new IOException("Invalid BVH node count: " + nodeCount);
+        double[] bounds = new double[nodeCount * 6];
+        in.asDoubleBuffer().get(bounds);
+        in.position(in.position() + 8 * bounds.length);
+        int[] nodes = new int[nodeCount * 2];
+        in.asIntBuffer().get(nodes);
+        in.position(in.position() + 4 * nodes.length);
+
+        long[] order = readOrder(in, sceneShapes);
+        long[] unboundedOrder = readOrder(in, sceneShapes);
+
+        // Children always come after their parent, so depths can be checked in one pass
+        int[] depth = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            int link = nodes[2 * node], info = nodes[2 * node + 1];
+            boolean valid = info > 0
+                    ? link >= 0 && link <= order.length - info
+                    : info < 0 && info >= -3 && link > node + 1 && link < nodeCount && depth[node] < MAX_DEPTH;
+            if (!valid)
+                throw new IOException("Invalid BVH node " + node);
+            if (info < 0) {
+                depth[node + 1] = depth[node] + 1;
+                depth[link] = depth[node] + 1;
+            }
+        }
+        return new BVH(bounds, nodes, order, unboundedOrder, sceneShapes);
+    }
+
+    private static long[] readOrder(ByteBuffer in, List<Shape> sceneShapes) throws IOException {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining() / 8)
+            throw new IOException("Invalid BVH primitive count: " + count);
+        long[] order = new long[count];
+        in.asLongBuffer().get(order);
+        in.position(in.position() + 8 * count);
+        for (long o : order) {
+            int shape = (int) (o >>> 32), primitive = (int) o;
+            if (shape < 0 || shape >= sceneShapes.size()
+                    || primitive < 0 || primitive >= sceneShapes.get(shape).getPrimitiveCount())
+                throw new IOException("BVH entry refers to a missing shape: " + shape + "/" + primitive);
+        }
+        return order;
+    }
+
+    /**
+     * Recursively builds the subtree for the shapes ids[start..end).
+     * @return the index of the created node
+     */
+    private int build(int start, int end, int depth) {
+        int node = nodeCount++;
+        int count = end - start;
+
+        BoundingBox box = new BoundingBox();
+        BoundingBox centroidBox = new BoundingBox();
+        for (int i = start; i < end; i++) {
+            int id = ids[i];
+            box.expand(boxes[6 * id], boxes[6 * id + 1], boxes[6 * id + 2]);
+            box.expand(boxes[6 * id + 3], boxes[6 * id + 4], boxes[6 * id + 5]);
+            centroidBox.expand(centroids[3 * id], centroids[3 * id + 1], centroids[3 * id + 2]);
+        }
+        setBounds(bounds, node, box);
+
+        if (count <= 1 || depth >= MAX_DEPTH) {
+            makeLeaf(node, start, count);
+            return node;
+        }
+
+        // Evaluate the SAH cost of every bin boundary on the three axes.
+        int[] binCounts = new int[BIN_COUNT];
+        BoundingBox[] binBoxes = new BoundingBox[BIN_COUNT];
+        double[] rightAreas = new double[BIN_COUNT];
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestAxis = -1;
+        int bestSplit = -1;
+
+        for (int axis = 0; axis < 3; axis++) {
+            double cmin = centroidBox.min(axis);
+            double cmax = centroidBox.max(axis);
+            if (cmax <= cmin) continue;
+
+            double scale = BIN_COUNT / (cmax - cmin);
+            Arrays.fill(binCounts, 0);
+            for (int b = 0; b < BIN_COUNT; b++) binBoxes[b] = new BoundingBox();
+
+            for (int i = start; i < end; i++) {
+                int id = ids[i];
+                int b = binIndex(centroids[3 * id + axis], cmin, scale);
+                binCounts[b]++;
+                binBoxes[b].expand(boxes[6 * id], boxes[6 * id + 1], boxes[6 * id + 2]);
+                binBoxes[b].expand(boxes[6 * id + 3], boxes[6 * id + 4], boxes[6 * id + 5]);
+            }
+
+            // Sweep from the right to get the area of every right-hand side.
+            BoundingBox right = new BoundingBox();
+            int[] rightCounts = new int[BIN_COUNT];
+            int rightCount = 0;
+            for (int b = BIN_COUNT - 1; b > 0; b--) {
+                right.expand(binBoxes[b]);
+                rightCount += binCounts[b];
+                rightAreas[b] = right.surfaceArea();
+                rightCounts[b] = rightCount;
+            }
+
+            // Sweep from the left and combine.
+            BoundingBox left = new BoundingBox();
+            int leftCount = 0;
+            for (int b = 0; b < BIN_COUNT - 1; b++) {
+                left.expand(binBoxes[b]);
+                leftCount += binCounts[b];
+                int rc = rightCounts[b + 1];
+                if (leftCount == 0 || rc == 0) continue;
+                double cost = left.surfaceArea() * leftCount + rightAreas[b + 1] * rc;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestSplit = b;
+                }
+            }
+        }
+
+        if (bestAxis < 0) {
+            // All centroids coincide: nothing can separate these shapes.
+            makeLeaf(node, start, count);
+            return node;
+        }
+
+        double area = box.surfaceArea();
+        double splitCost = area > 0 ? TRAVERSAL_COST + bestCost / area : TRAVERSAL_COST + count;
+        if (count <= MAX_LEAF_SIZE && splitCost >= count) {
+            makeLeaf(node, start, count);
+            return node;
+        }
+
+        // Partition ids[start..end) around the chosen bin boundary.
+        double cmin = centroidBox.min(bestAxis);
+        double scale = BIN_COUNT / (centroidBox.max(bestAxis) - cmin);
+        int mid = start;
+        for (int i = start; i < end; i++) {
+            int id = ids[i];
+            if (binIndex(centroids[3 * id + bestAxis], cmin, scale) <= bestSplit) {
+                ids[i] = ids[mid];
+                ids[mid] = id;
+                mid++;
+            }
+        }
+
+        build(start, mid, depth + 1);
+        int rightChild = build(mid, end, depth + 1);
+        nodes[2 * node] = rightChild;
+        nodes[2 * node + 1] = -(bestAxis + 1);
+        return node;
+    }
+
+    private static int binIndex(double centroid, double cmin, double scale) {
+        int b = (int) ((centroid - cmin) * scale);
+        return Math.min(BIN_COUNT - 1, Math.max(0, b));
+    }
+
+    private void makeLeaf(int node, int start, int count) {
+        nodes[2 * node] = start;
+        nodes[2 * node + 1] = count;
+    }
+
+    /**
+     * Writes the box of a node, padded so that rounding never culls a genuine hit.
+     */
+    static void setBounds(double[] bounds, int node, BoundingBox box) {
+        double pad = PADDING * (1 + Math.max(
+                Math.max(Math.abs(box.minX), Math.abs(box.maxX)),
+                Math.max(Math.max(Math.abs(box.minY), Math.abs(box.maxY)),
+                         Math.max(Math.abs(box.minZ), Math.abs(box.maxZ)))));
+        int b = 6 * node;
+        bounds[b] = box.minX - pad;
+        bounds[b + 1] = box.minY - pad;
+        bounds[b + 2] = box.minZ - pad;
+        bounds[b + 3] = box.maxX + pad;
+        bounds[b + 4] = box.maxY + pad;
+        bounds[b + 5] = box.maxZ + pad;
+    }
+
+    /**
+     * Follows the moves of some shapes without building the tree again: the boxes of the
+     * leaves holding their primitives and of the ancestors of these leaves are recomputed
+     * bottom-up. A refitted subtree may become much slower to traverse than a subtree built
+     * for the new positions; the smallest subtrees whose SAH cost grew past the threshold,
+     * compared to their cost when they were built, are rebuilt in place.
+     *
+     * The references to the shapes are all taken again from the list, so shapes may also
+     * be replaced by other objects with the same number of primitives. Must not be called
+     * while the tree is being traversed.
+     * @param sceneShapes The shapes of the scene, in the same order as when the tree was built.
+     * @param changedShapes The indices of the shapes whose geometry changed.
+     * @param rebuildThreshold Cost ratio above which a subtree is rebuilt, e.g.
+     * {@link #DEFAULT_REBUILD_THRESHOLD}; infinity only refits.
+     * @return false if the tree cannot follow the change (a shape added or removed, a shape 
+     * whose number of primitives changed or that became unbounded...), in which case it was 
+     * left untouched and must be replaced by a new tree.
+     */
+    public boolean refit(List<Shape> sceneShapes, int[] changedShapes, double rebuildThreshold) {
+        int n = order.length;
+
+        // Entries of every scene shape, grouped by shape
+        int shapeCount = sceneShapes.size();
+        int[] entryStart = new int[shapeCount + 2];
+        boolean[] isUnbounded = new boolean[shapeCount];
+        for (long o : order) {
+            int shape = (int) (o >>> 32);
+            if (shape >= shapeCount) return false;
+            entryStart[shape + 2]++;
+        }
+        for (long o : unboundedOrder) {
+            int shape = (int) (o >>> 32);
+            if (shape >= shapeCount) return false;
+            isUnbounded[shape] = true;
+        }
+        for (int i = 0; i < shapeCount; i++) {
+            // Every shape must still be indexed, as a bounded or an unbounded shape
+            if (entryStart[i + 2] == 0 && !isUnbounded[i]) return false;
+            entryStart[i + 2] += entryStart[i + 1];
+        }
+        int[] entries = new int[n];
+        for (int i = 0; i < n; i++) entries[entryStart[(int) (order[i] >>> 32) + 1]++] = i;
+
+        for (int shape : changedShapes) {
+            BoundingBox box = sceneShapes.get(shape).getBoundingBox();
+            boolean nowUnbounded = box == null || box.isEmpty();
+            if (nowUnbounded != isUnbounded[shape]) return false;
+            if (!nowUnbounded && sceneShapes.get(shape).getPrimitiveCount() != entryStart[shape + 1] - entryStart[shape])
+                return false;
+        }
+
+        // From here on, the tree follows the new shapes
+        for (int i = 0; i < n; i++) shapes[i] = sceneShapes.get((int) (order[i] >>> 32));
+        for (int i = 0; i < unbounded.length; i++) unbounded[i] = sceneShapes.get((int) (unboundedOrder[i] >>> 32));
+        if (nodeCount == 0) return true;
+        if (baselineCost == null) baselineCost = normalizedCosts(subtreeCosts(0, nodeCount), 0, nodeCount);
+
+        // Leaf of every entry and parent of every node
+        int[] leafOf = new int[n];
+        int[] parent = new int[nodeCount];
+        int[] depth = new int[nodeCount];
+        parent[0] = -1;
+        for (int node = 0; node < nodeCount; node++) {
+            int info = nodes[2 * node + 1];
+            if (info > 0) {
+                int first = nodes[2 * node];
+                for (int i = first; i < first + info; i++) leafOf[i] = node;
+            } else {
+                parent[node + 1] = node;
+                parent[nodes[2 * node]] = node;
+                depth[node + 1] = depth[nodes[2 * node]] = depth[node] + 1;
+            }
+        }
+
+        // Mark the leaves of the changed primitives and their ancestors
+        boolean[] dirty = new boolean[nodeCount];
+        int lowest = nodeCount;
+        for (int shape : changedShapes) {
+            for (int k = entryStart[shape]; k < entryStart[shape + 1]; k++) {
+                for (int node = leafOf[entries[k]]; node >= 0 && !dirty[node]; node = parent[node]) {
+                    dirty[node] = true;
+                    lowest = Math.min(lowest, node);
+                }
+            }
+        }
+
+        // Children come after their parent: a backward pass refits them first
+        BoundingBox box = new BoundingBox();
+        for (int node = nodeCount - 1; node >= lowest; node--) {
+            if (!dirty[node]) continue;
+            int info = nodes[2 * node + 1];
+            if (info > 0) {
+                box.minX = box.minY = box.minZ = Double.POSITIVE_INFINITY;
+                box.maxX = box.maxY = box.maxZ = Double.NEGATIVE_INFINITY;
+                int first = nodes[2 * node];
+                for (int i = first; i < first + info; i++) box.expand(shapes[i].getPrimitiveBounds(primitives[i]));
+                setBounds(bounds, node, box);
+            } else {
+                // The children are already padded
+                int b = 6 * node, l = 6 * (node + 1), r = 6 * nodes[2 * node];
+                for (int k = 0; k < 3; k++) {
+                    bounds[b + k] = Math.min(bounds[l + k], bounds[r + k]);
+                    bounds[b + 3 + k] = Math.max(bounds[l + 3 + k], bounds[r + 3 + k]);
+                }
+            }
+        }
+
+        if (rebuildThreshold < Double.POSITIVE_INFINITY) {
+            double[] cost = normalizedCosts(subtreeCosts(0, nodeCount), 0, nodeCount);
+            List<Integer> degraded = new ArrayList<>();
+            findDegraded(0, cost, dirty, rebuildThreshold, degraded);
+            // Rebuilding a subtree moves the nodes after it: start from the last one
+            for (int k = degraded.size() - 1; k >= 0; k--) {
+                int node = degraded.get(k);
+                rebuildSubtree(node, depth[node]);
+            }
+        }
+        blocks = LeafBlocks.pack(nodes, nodeCount, shapes, primitives, order);
+        entryBounds = null;
+        return true;
+    }
+
+    /**
+     * Collects the subtrees worth rebuilding: the highest subtrees whose cost grew past
+     * the threshold, unless the growth comes from a single child only, which is then
+     * rebuilt alone.
+     */
+    private void findDegraded(int node, double[] cost, boolean[] dirty, double threshold, List<Integer> result) {
+        if (!dirty[node] || nodes[2 * node + 1] > 0) return;
+
+        int left = node + 1, right = nodes[2 * node];
+        if (!isDegraded(node, cost, dirty, threshold)) {
+            findDegraded(left, cost, dirty, threshold, result);
+            findDegraded(right, cost, dirty, threshold, result);
+            return;
+        }
+        boolean leftDegraded = isDegraded(left, cost, dirty, threshold);
+        boolean rightDegraded = isDegraded(right, cost, dirty, threshold);
+        if (leftDegraded != rightDegraded)
+            findDegraded(leftDegraded ? left : right, cost, dirty, threshold, result);
+        else
+            result.add(node);
+    }
+
+    private boolean isDegraded(int node, double[] cost, boolean[] dirty, double threshold) {
+        // The cost of a leaf does not depend on its box
+        return dirty[node] && nodes[2 * node + 1] < 0 && cost[node] > threshold * baselineCost[node];
+    }
+
+    /**
+     * Builds again the subtree of a node, over the same primitives, and splices it into
+     * the flat arrays in place of the old one.
+     */
+    private void rebuildSubtree(int root, int rootDepth) {
+        int end = root;
+        while (nodes[2 * end + 1] < 0) end = nodes[2 * end];
+        end++;
+
+        // The leaves of a subtree cover a contiguous range of entries
+        int firstEntry = Integer.MAX_VALUE, lastEntry = 0, total = 0;
+        for (int node = root; node < end; node++) {
+            int info = nodes[2 * node + 1];
+            if (info > 0) {
+                firstEntry = Math.min(firstEntry, nodes[2 * node]);
+                lastEntry = Math.max(lastEntry, nodes[2 * node] + info);
+                total += info;
+            }
+        }
+        if (total != lastEntry - firstEntry) return;
+
+        double[] oldBounds = bounds;
+        int[] oldNodes = nodes;
+        int oldNodeCount = nodeCount;
+
+        // Build the subtree alone, with entries and nodes numbered from 0
+        boxes = new double[total * 6];
+        centroids = new double[total * 3];
+        ids = new int[total];
+        for (int i = 0; i < total; i++) {
+            BoundingBox b = shapes[firstEntry + i].getPrimitiveBounds(primitives[firstEntry + i]);
+            boxes[6 * i] = b.minX; boxes[6 * i + 1] = b.minY; boxes[6 * i + 2] = b.minZ;
+            boxes[6 * i + 3] = b.maxX; boxes[6 * i + 4] = b.maxY; boxes[6 * i + 5] = b.maxZ;
+            centroids[3 * i] = 0.5 * (b.minX + b.maxX);
+            centroids[3 * i + 1] = 0.5 * (b.minY + b.maxY);
+            centroids[3 * i + 2] = 0.5 * (b.minZ + b.maxZ);
+            ids[i] = i;
+        }
+        bounds = new double[(2 * total - 1) * 6];
+        nodes = new int[(2 * total - 1) * 2];
+        nodeCount = 0;
+        build(0, total, rootDepth);
+        double[] subBounds = bounds;
+        int[] subNodes = nodes;
+        int subCount = nodeCount;
+        int[] permutation = ids;
+        boxes = null;
+        centroids = null;
+        ids = null;
+
+        // Reorder the entries of the subtree as the build left them
+        Shape[] oldShapes = Arrays.copyOfRange(shapes, firstEntry, lastEntry);
+        int[] oldPrimitives = Arrays.copyOfRange(primitives, firstEntry, lastEntry);
+        long[] oldOrder = Arrays.copyOfRange(order, firstEntry, lastEntry);
+        for (int i = 0; i < total; i++) {
+            shapes[firstEntry + i] = oldShapes[permutation[i]];
+            primitives[firstEntry + i] = oldPrimitives[permutation[i]];
+            order[firstEntry + i] = oldOrder[permutation[i]];
+        }
+
+        // Splice: nodes before the subtree, the new subtree, then the nodes after it
+        int delta = subCount - (end - root);
+        nodeCount = oldNodeCount + delta;
+        bounds = new double[nodeCount * 6];
+        nodes = new int[nodeCount * 2];
+        double[] baseline = new double[nodeCount];
+
+        System.arraycopy(oldBounds, 0, bounds, 0, root * 6);
+        System.arraycopy(oldNodes, 0, nodes, 0, root * 2);
+        System.arraycopy(baselineCost, 0, baseline, 0, root);
+        System.arraycopy(subBounds, 0, bounds, root * 6, subCount * 6);
+        System.arraycopy(oldBounds, end * 6, bounds, (end + delta) * 6, (oldNodeCount - end) * 6);
+        System.arraycopy(oldNodes, end * 2, nodes, (end + delta) * 2, (oldNodeCount - end) * 2);
+        System.arraycopy(baselineCost, end, baseline, end + delta, oldNodeCount - end);
+
+        for (int k = 0; k < subCount; k++) {
+            int info = subNodes[2 * k + 1];
+            nodes[2 * (root + k)] = subNodes[2 * k] + (info > 0 ? firstEntry : root);
+            nodes[2 * (root + k) + 1] = info;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            if ((node < root || node >= root + subCount) && nodes[2 * node + 1] < 0 && nodes[2 * node] >= end)
+                nodes[2 * node] += delta;
+        }
+
+        // The new subtree is the reference for the next refits
+        double[] subCosts = normalizedCosts(subtreeCosts(root, root + subCount), root, root + subCount);
+        System.arraycopy(subCosts, 0, baseline, root, subCount);
+        baselineCost = baseline;
+    }
+
+    /**
+     * Computes the SAH cost of the subtrees of the nodes [from, to), which must hold whole
+     * subtrees: area of the box times the number of primitives for a leaf, plus the
+     * traversal cost times the area for an interior node.
+     * @return the costs, indexed from {@code from}
+     */
+    private double[] subtreeCosts(int from, int to) {
+        double[] cost = new double[to - from];
+        for (int node = to - 1; node >= from; node--) {
+            double area = area(node);
+            int info = nodes[2 * node + 1];
+            cost[node - from] = info > 0
+                    ? area * info
+                    : TRAVERSAL_COST * area + cost[node + 1 - from] + cost[nodes[2 * node] - from];
+        }
+        return cost;
+    }
+
+    /**
+     * Divides the cost of every subtree by the area of its root, which gives the expected
+     * cost of a ray going through its box (NaN for a flat box).
+     */
+    private double[] normalizedCosts(double[] cost, int from, int to) {
+        for (int node = from; node < to; node++) cost[node - from] /= area(node);
+        return cost;
+    }
+
+    private double area(int node) {
+        int b = 6 * node;
+        double dx = bounds[b + 3] - bounds[b], dy = bounds[b + 4] - bounds[b + 1], dz = bounds[b + 5] - bounds[b + 2];
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Computes the SAH cost of the tree: the expected number of node visits (weighted by
+     * {@link #TRAVERSAL_COST}) and primitive tests of a ray crossing the root box.
+     * @return the cost, 0 for an empty tree
+     */
+    public double getCost() {
+        if (nodeCount == 0) return 0;
+        return subtreeCosts(0, nodeCount)[0] / area(0);
+    }
+
+    /**
+     * @return the number of nodes of the tree
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the number of primitives stored in the tree (unbounded shapes excluded)
+     */
+    public int getPrimitiveCount() {
+        return shapes.length;
+    }
+
+    @Override
+    public boolean closestHit(Ray ray, HitRecord hit) {
+        boolean found = false;
+
+        for (int i = 0; i < unbounded.length; i++) {
+            hit.nextOrder = unboundedOrder[i];
+            found |= unbounded[i].intersect(ray, hit);
+        }
+        // Primitive tests, reported to the metrics once per query
+        long tests = unbounded.length;
+
+        if (nodeCount == 0) {
+            RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+            return found;
+        }
+        return traverse(0, ray, hit, tests) | found;
+    }
+
+    /**
+     * Offers to the record the hits of the primitives of a subtree reached by the ray.
+     * @param tests The tests done so far by the query, reported with those of the subtree.
+     * @return true if a hit was recorded.
+     */
+    private boolean traverse(int root, Ray ray, HitRecord hit, long tests) {
+        boolean found = false;
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double ix = 1.0 / ray.direction.x, iy = 1.0 / ray.direction.y, iz = 1.0 / ray.direction.z;
+
+        int[] stack = stacks.get();
+        double[] distance = distances.get();
+        int sp = 0;
+        stack[sp++] = root;
+
+        while (sp > 0) {
+            int node = stack[--sp];
+            // Ties are allowed through so that the scene order can decide between them.
+            if (!hitsBox(node, ox, oy, oz, ix, iy, iz, hit.t)) continue;
+
+            int info = nodes[2 * node + 1];
+            if (info > 0) {
+                if (blocks != null) {
+                    found |= blocks.closestHit(node, ray, hit, distance);
+                } else {
+                    int first = nodes[2 * node];
+                    for (int i = first; i < first + info; i++) {
+                        hit.nextOrder = order[i];
+                        found |= shapes[i].intersect(ray, primitives[i], hit);
+                    }
+                }
+                tests += info;
+            } else {
+                int axis = -info - 1;
+                int left = node + 1;
+                int right = nodes[2 * node];
+                boolean negative = axis == 0 ? ix < 0 : axis == 1 ? iy < 0 : iz < 0;
+                // Push the far child first so that the near one is visited first.
+                if (negative) {
+                    stack[sp++] = left;
+                    stack[sp++] = right;
+                } else {
+                    stack[sp++] = right;
+                    stack[sp++] = left;
+                }
+            }
+        }
+        RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+        return found;
+    }
+
+    /**
+     * Traces the rays of a packet together. Every node is tested once against the frustum
+     * of the packet, then the slab tests only start from the first ray that reaches the
+     * node box: the rays before it are done with the subtree. In a leaf, the primitives
+     * outside the frustum are skipped for the whole packet. The packet splits back into
+     * single rays when only its last ray is left in a subtree, or when it has no frustum.
+     *
+     * Every ray still tests every primitive it could hit closer than its current hit, so
+     * the records end up exactly as with {@link #closestHit}.
+     */
+    @Override
+    public void closestHits(RayPacket packet, HitRecord[] hits) {
+        int n = packet.size();
+        if (nodeCount == 0 || !packet.hasFrustum()) {
+            for (int k = 0; k < n; k++)
+                closestHit(packet.rays[k], hits[k]);
+            return;
+        }
+
+        for (int k = 0; k < n; k++) {
+            for (int i = 0; i < unbounded.length; i++) {
+                hits[k].nextOrder = unboundedOrder[i];
+                unbounded[i].intersect(packet.rays[k], hits[k]);
+            }
+        }
+        long tests = (long) unbounded.length * n;
+
+        double[] entryBounds = entryBounds();
+        int[] stack = packetStacks.get();
+        int[] active = activeRays.get();
+        double[] distance = distances.get();
+        int sp = 0;
+        // Pairs of a node and the first ray that may still reach it
+        stack[sp++] = 0;
+        stack[sp++] = 0;
+
+        while (sp > 0) {
+            int first = stack[--sp];
+            int node = stack[--sp];
+            if (packet.cullsBox(bounds, 6 * node)) continue;
+            while (first < n && !hitsBox(node, packet, first, hits[first].t)) first++;
+            if (first == n) continue;
+            if (first == n - 1) {
+                // A single ray is faster on its own
+                traverse(node, packet.rays[first], hits[first], 0);
+                continue;
+            }
+
+            int info = nodes[2 * node + 1];
+            if (info > 0) {
+                int count = 0;
+                active[count++] = first;
+                for (int k = first + 1; k < n; k++) {
+                    if (hitsBox(node, packet, k, hits[k].t)) active[count++] = k;
+                }
+                if (blocks != null) {
+                    for (int a = 0; a < count; a++) {
+                        int k = active[a];
+                        blocks.closestHit(node, packet.rays[k], hits[k], distance);
+                    }
+                    tests += (long) info * count;
+                    continue;
+                }
+                int entry = nodes[2 * node];
+                for (int i = entry; i < entry + info; i++) {
+                    if (packet.cullsBox(entryBounds, 6 * i)) continue;
+                    for (int a = 0; a < count; a++) {
+                        int k = active[a];
+                        hits[k].nextOrder = order[i];
+                        shapes[i].intersect(packet.rays[k], primitives[i], hits[k]);
+                    }
+                    tests += count;
+                }
+            } else {
+                int axis = -info - 1;
+                int left = node + 1;
+                int right = nodes[2 * node];
+                double direction = axis == 0 ? packet.inverseX[first]
+                        : axis == 1 ? packet.inverseY[first] : packet.inverseZ[first];
+                // Push the far child first so that the near one is visited first.
+                int near = direction < 0 ? right : left;
+                int far = direction < 0 ? left : right;
+                stack[sp++] = far;
+                stack[sp++] = first;
+                stack[sp++] = near;
+                stack[sp++] = first;
+            }
+        }
+        RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+    }
+
+    /**
+     * The padded box of every entry, for the frustum tests of the packets. Computed on the
+     * first packet: threads racing to do it compute the same boxes.
+     */
+    private double[] entryBounds() {
+        double[] result = entryBounds;
+        if (result == null) {
+            result = new double[6 * shapes.length];
+            for (int i = 0; i < shapes.length; i++)
+                setBounds(result, i, shapes[i].getPrimitiveBounds(primitives[i]));
+            entryBounds = result;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean anyIntersection(Ray ray, double tMax) {
+        long tests = 0;
+        for (Shape s : unbounded) {
+            tests++;
+            if (s.anyIntersection(ray, tMax)) {
+                RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+                return true;
+            }
+        }
+
+        if (nodeCount == 0) {
+            RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+            return false;
+        }
+
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double ix = 1.0 / ray.direction.x, iy = 1.0 / ray.direction.y, iz = 1.0 / ray.direction.z;
+
+        int[] stack = stacks.get();
+        double[] distance = distances.get();
+        int sp = 0;
+        stack[sp++] = 0;
+
+        while (sp > 0) {
+            int node = stack[--sp];
+            if (!hitsBox(node, ox, oy, oz, ix, iy, iz, tMax)) continue;
+
+            int info = nodes[2 * node + 1];
+            if (info > 0) {
+                if (blocks != null) {
+                    tests += info;
+                    if (blocks.anyIntersection(node, ray, tMax, distance)) {
+                        RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+                        return true;
+                    }
+                    continue;
+                }
+                int first = nodes[2 * node];
+                for (int i = first; i < first + info; i++) {
+                    tests++;
+                    if (shapes[i].anyIntersection(ray, primitives[i], tMax)) {
+                        RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+                        return true;
+                    }
+                }
+            } else {
+                // Any order will do: the first occluder found ends the query.
+                stack[sp++] = nodes[2 * node];
+                stack[sp++] = node + 1;
+            }
+        }
+        RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+        return false;
+    }
+
+    private boolean hitsBox(int node, RayPacket packet, int k, double tMax) {
+        Ray ray = packet.rays[k];
+        return hitsBox(node, ray.origin.x, ray.origin.y, ray.origin.z,
+                packet.inverseX[k], packet.inverseY[k], packet.inverseZ[k], tMax);
+    }
+
+    /**
+     * Slab test between the ray and the box of a node, restricted to [0, tMax].
+     * A NaN produced by a zero direction component on a slab boundary is ignored,
+     * which keeps the test conservative.
+     */
+    private boolean hitsBox(int node, double ox, double oy, double oz,
+                            double ix, double iy, double iz, double tMax) {
+        int b = 6 * node;
+        double tmin = 0;
+        double tmax = tMax;
+
+        double t0 = (bounds[b] - ox) * ix, t1 = (bounds[b + 3] - ox) * ix;
+        if (t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        t0 = (bounds[b + 1] - oy) * iy; t1 = (bounds[b + 4] - oy) * iy;
+        if (t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        t0 = (bounds[b + 2] - oz) * iz; t1 = (bounds[b + 5] - oz) * iz;
+        if (t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        return tmin <= tmax;
+    }
+}
@@ -0,0 +1,247 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import java.util.Arrays;
+
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.geometry.shape.Triangle;
+import com.imt.raytracing.geometry.shape.TriangleMesh;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+
+/**
+ * Copy of the triangles and spheres of the leaves of a {@link BVH}, packed lane by lane
+ * in blocks of {@link LeafKernel#LANES}, so that a {@link LeafKernel} tests a whole
+ * block at once. The triangles of {@link Triangle}s and {@link TriangleMesh}es share
+ * the same blocks; the other entries of a leaf (and the subclasses of these shapes,
+ * which may test differently) are tested one by one. Unused lanes are padded with
+ * primitives that are never hit.
+ *
+ * The blocks copy the geometry: they must be packed again when the shapes move.
+ */
+final class LeafBlocks {
+
+    private static final LeafKernel KERNEL = LeafKernel.select();
+
+    private final LeafKernel kernel;
+
+    private final Shape[] shapes;
+    private final int[] primitives;
+    private final long[] order;
+
+    /** Packed triangles, {@link LeafKernel#TRIANGLE_BLOCK} doubles per block. */
+    private final double[] triangles;
+    /** Entry of every triangle lane, -1 for padding. */
+    private final int[] triangleEntries;
+    /** Packed spheres, {@link LeafKernel#SPHERE_BLOCK} doubles per block. */
+    private final double[] spheres;
+    /** Entry of every sphere lane, -1 for padding. */
+    private final int[] sphereEntries;
+    /** Entries tested one by one. */
+    private final int[] others;
+    /**
+     * Per node: first triangle block, first sphere block and first other entry, each
+     * range ending where the range of the next node starts.
+     */
+    private final int[] ranges;
+
+    /**
+     * Packs the leaves of a hierarchy for the vector kernel.
+     * @return The packed leaves, or null when the vector kernel is not available: testing
+     * the entries one by one is then as fast and needs no copy.
+     */
+    static LeafBlocks pack(int[] nodes, int nodeCount, Shape[] shapes, int[] primitives, long[] order) {
+        if (!KERNEL.isAccelerated()) return null;
+        return new LeafBlocks(KERNEL, nodes, nodeCount, shapes, primitives, order);
+    }
+
+    /**
+     * Packs the leaves of a hierarchy, in the flat layout of {@link BVH}.
+     */
+    LeafBlocks(LeafKernel kernel, int[] nodes, int nodeCount, Shape[] shapes, int[] primitives, long[] order) {
+        this.kernel = kernel;
+        this.shapes = shapes;
+        this.primitives = primitives;
+        this.order = order;
+
+        // Count the blocks first
+        int triangleBlocks = 0, sphereBlocks = 0, otherCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            int count = nodes[2 * node + 1];
+            if (count <= 0) continue;
+            int tri = 0, sph = 0;
+            for (int i = nodes[2 * node]; i < nodes[2 * node] + count; i++) {
+                if (isTriangle(shapes[i])) tri++;
+                else if (isSphere(shapes[i])) sph++;
+                else otherCount++;
+            }
+            triangleBlocks += blocks(tri);
+            sphereBlocks += blocks(sph);
+        }
+
+        triangles = new double[triangleBlocks * LeafKernel.TRIANGLE_BLOCK];
+        triangleEntries = new int[triangleBlocks * LeafKernel.LANES];
+        spheres = new double[sphereBlocks * LeafKernel.SPHERE_BLOCK];
+        sphereEntries = new int[sphereBlocks * LeafKernel.LANES];
+        others = new int[otherCount];
+        ranges = new int[3 * (nodeCount + 1)];
+        Arrays.fill(triangleEntries, -1);
+        Arrays.fill(sphereEntries, -1);
+        // Padding spheres: a NaN center makes every test miss
+        Arrays.fill(spheres, Double.NaN);
+
+        int tri = 0, sph = 0, other = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            ranges[3 * node] = tri;
+            ranges[3 * node + 1] = sph;
+            ranges[3 * node + 2] = other;
+            int count = nodes[2 * node + 1];
+            if (count <= 0) continue;
+
+            int triLanes = 0, sphLanes = 0;
+            for (int i = nodes[2 * node]; i < nodes[2 * node] + count; i++) {
+                if (isTriangle(shapes[i])) {
+                    packTriangle(tri * LeafKernel.LANES + triLanes, i);
+                    triLanes++;
+                } else if (isSphere(shapes[i])) {
+                    packSphere(sph * LeafKernel.LANES + sphLanes, i);
+                    sphLanes++;
+                } else {
+                    others[other++] = i;
+                }
+            }
+            tri += blocks(triLanes);
+            sph += blocks(sphLanes);
+        }
+        ranges[3 * nodeCount] = tri;
+        ranges[3 * nodeCount + 1] = sph;
+        ranges[3 * nodeCount + 2] = other;
+    }
+
+    private static int blocks(int lanes) {
+        return (lanes + LeafKernel.LANES - 1) / LeafKernel.LANES;
+    }
+
+    private static boolean isTriangle(Shape shape) {
+        return shape.getClass() == Triangle.class || shape.getClass() == TriangleMesh.class;
+    }
+
+    private static boolean isSphere(Shape shape) {
+        return shape.getClass() == Sphere.class;
+    }
+
+    /**
+     * Writes an entry into a lane, given as block * LANES + lane.
+     * The edges are computed exactly as the shapes compute them.
+     */
+    private void packTriangle(int slot, int entry) {
+        double ax, ay, az, bx, by, bz, cx, cy, cz;
+        if (shapes[entry] instanceof Triangle) {
+            Triangle triangle = (Triangle) shapes[entry];
+            ax = triangle.a.x; ay = triangle.a.y; az = triangle.a.z;
+            bx = triangle.b.x; by = triangle.b.y; bz = triangle.b.z;
+            cx = triangle.c.x; cy = triangle.c.y; cz = triangle.c.z;
+        } else {
+            TriangleMesh mesh = (TriangleMesh) shapes[entry];
+            int p = primitives[entry];
+            int a = 3 * mesh.indices[3 * p], b = 3 * mesh.indices[3 * p + 1], c = 3 * mesh.indices[3 * p + 2];
+            ax = mesh.positions[a]; ay = mesh.positions[a + 1]; az = mesh.positions[a + 2];
+            bx = mesh.positions[b]; by = mesh.positions[b + 1]; bz = mesh.positions[b + 2];
+            cx = mesh.positions[c]; cy = mesh.positions[c + 1]; cz = mesh.positions[c + 2];
+        }
+        int block = slot / LeafKernel.LANES, lane = slot % LeafKernel.LANES;
+        int d = block * LeafKernel.TRIANGLE_BLOCK + lane;
+        int n = LeafKernel.LANES;
+        triangles[d] = ax; triangles[d + n] = ay; triangles[d + 2 * n] = az;
+        triangles[d + 3 * n] = bx - ax; triangles[d + 4 * n] = by - ay; triangles[d + 5 * n] = bz - az;
+        triangles[d + 6 * n] = cx - ax; triangles[d + 7 * n] = cy - ay; triangles[d + 8 * n] = cz - az;
+        triangleEntries[slot] = entry;
+    }
+
+    private void packSphere(int slot, int entry) {
+        Sphere sphere = (Sphere) shapes[entry];
+        int block = slot / LeafKernel.LANES, lane = slot % LeafKernel.LANES;
+        int d = block * LeafKernel.SPHERE_BLOCK + lane;
+        int n = LeafKernel.LANES;
+        spheres[d] = sphere.center.x;
+        spheres[d + n] = sphere.center.y;
+        spheres[d + 2 * n] = sphere.center.z;
+        spheres[d + 3 * n] = sphere.radius;
+        sphereEntries[slot] = entry;
+    }
+
+    /**
+     * Offers the hits of the entries of a leaf to the record.
+     * @param t Scratch array of {@link LeafKernel#LANES} distances, owned by the calling thread.
+     * @return true if a hit was recorded.
+     */
+    boolean closestHit(int node, Ray ray, HitRecord hit, double[] t) {
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+        boolean found = false;
+
+        for (int block = ranges[3 * node]; block < ranges[3 * node + 3]; block++) {
+            kernel.triangles(triangles, block * LeafKernel.TRIANGLE_BLOCK, ox, oy, oz, dx, dy, dz, t);
+            found |= record(t, triangleEntries, block, hit);
+        }
+        for (int block = ranges[3 * node + 1]; block < ranges[3 * node + 4]; block++) {
+            kernel.spheres(spheres, block * LeafKernel.SPHERE_BLOCK, ox, oy, oz, dx, dy, dz, t);
+            found |= record(t, sphereEntries, block, hit);
+        }
+        for (int k = ranges[3 * node + 2]; k < ranges[3 * node + 5]; k++) {
+            int i = others[k];
+            hit.nextOrder = order[i];
+            found |= shapes[i].intersect(ray, primitives[i], hit);
+        }
+        return found;
+    }
+
+    private boolean record(double[] t, int[] entries, int block, HitRecord hit) {
+        boolean found = false;
+        for (int lane = 0; lane < LeafKernel.LANES; lane++) {
+            // Misses and padding lanes are infinite, or NaN for degenerate rays
+            if (!(t[lane] <= hit.t) || t[lane] == Double.POSITIVE_INFINITY) continue;
+            int i = entries[block * LeafKernel.LANES + lane];
+            hit.nextOrder = order[i];
+            found |= hit.record(t[lane], shapes[i], primitives[i]);
+        }
+        return found;
+    }
+
+    /**
+     * Tests whether an entry of a leaf is hit closer than tMax.
+     * @param t Scratch array of {@link LeafKernel#LANES} distances, owned by the calling thread.
+     */
+    boolean anyIntersection(int node, Ray ray, double tMax, double[] t) {
+        double ox = ray.origin.x, oy = ray.origin.y, oz = ray.origin.z;
+        double dx = ray.direction.x, dy = ray.direction.y, dz = ray.direction.z;
+
+        for (int block = ranges[3 * node]; block < ranges[3 * node + 3]; block++) {
+            kernel.triangles(triangles, block * LeafKernel.TRIANGLE_BLOCK, ox, oy, oz, dx, dy, dz, t);
+            if (anyBelow(t, tMax)) return true;
+        }
+        for (int block = ranges[3 * node + 1]; block < ranges[3 * node + 4]; block++) {
+            kernel.spheres(spheres, block * LeafKernel.SPHERE_BLOCK, ox, oy, oz, dx, dy, dz, t);
+            if (anyBelow(t, tMax)) return true;
+        }
+        for (int k = ranges[3 * node + 2]; k < ranges[3 * node + 5]; k++) {
+            int i = others[k];
+            if (shapes[i].anyIntersection(ray, primitives[i], tMax)) return true;
+        }
+        return false;
+    }
+
+    private static boolean anyBelow(double[] t, double tMax) {
+        for (int lane = 0; lane < LeafKernel.LANES; lane++) {
+            if (t[lane] < tMax) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The kernel chosen for the whole application.
+     */
+    static LeafKernel kernel() {
+        return KERNEL;
+    }
+}
@@ -0,0 +1,69 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+/**
+ * Intersection tests of one ray against a block of {@link #LANES} primitives of the
+ * same kind, stored lane by lane (see {@link LeafBlocks}), so that an implementation
+ * can test all of them with a single vector instruction per operation.
+ *
+ * Every implementation must give, lane by lane, exactly the distances of the scalar
+ * tests of {@link com.imt.raytracing.geometry.shape.Triangle} and
+ * {@link com.imt.raytracing.geometry.shape.Sphere}: the same operations in the same
+ * order, so that switching kernels never changes an image.
+ */
+interface LeafKernel {
+
+    /** Number of primitives in a block. */
+    int LANES = 4;
+
+    /** Doubles per triangle block: a, ab = b - a and ac = c - a, one array of lanes per coordinate. */
+    int TRIANGLE_BLOCK = 9 * LANES;
+
+    /** Doubles per sphere block: the center, one array of lanes per coordinate, then the radius. */
+    int SPHERE_BLOCK = 4 * LANES;
+
+    /**
+     * Möller–Trumbore test of a block of triangles.
+     * @param data The packed triangles.
+     * @param offset The start of the block in {@code data}.
+     * @param t Receives the distance of the hit of every lane, +infinity (or NaN) for a miss.
+     */
+    void triangles(double[] data, int offset, double ox, double oy, double oz,
+                   double dx, double dy, double dz, double[] t);
+
+    /**
+     * Nearest positive root of the ray-sphere quadratic for a block of spheres.
+     * @param data The packed spheres.
+     * @param offset The start of the block in {@code data}.
+     * @param t Receives the distance of the hit of every lane, +infinity for a miss.
+     */
+    void spheres(double[] data, int offset, double ox, double oy, double oz,
+                 double dx, double dy, double dz, double[] t);
+
+    /**
+     * Chooses the kernel: the vector kernel when the application was built with the
+     * {@code simd} profile, runs with the {@code jdk.incubator.vector} module and the
+     * hardware has vectors of at least {@link #LANES} doubles, the scalar kernel otherwise.
+     * The property {@code -Draytracing.simd=false} forces the scalar kernel.
+     * @return The kernel to use.
+     */
+    static LeafKernel select() {
+        if (!Boolean.parseBoolean(System.getProperty("raytracing.simd", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return ScalarLeafKernel.INSTANCE;
+        try {
+            Class<?> type = Class.forName(LeafKernel.class.getPackageName() + ".VectorLeafKernel");
+            LeafKernel kernel = (LeafKernel) type.getDeclaredConstructor().newInstance();
+            return kernel.isAccelerated() ? kernel : ScalarLeafKernel.INSTANCE;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // Built without the simd profile
+            return ScalarLeafKernel.INSTANCE;
+        }
+    }
+
+    /**
+     * @return true if the kernel is faster than testing the primitives one by one on this machine.
+     */
+    default boolean isAccelerated() {
+        return false;
+    }
+}
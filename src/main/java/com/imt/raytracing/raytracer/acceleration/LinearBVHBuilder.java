@@ -0,0 +1,650 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+import com.imt.raytracing.geometry.BoundingBox;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+
+/**
+ * Builds a {@link BVH} from the Morton codes of the primitive centroids (linear BVH).
+ *
+ * The primitives are sorted along a Z-order curve with a parallel radix sort, and the
+ * hierarchy is the binary radix tree of their codes: every node splits its range at the
+ * highest bit on which the codes differ. Every step works on independent ranges, so the
+ * build runs on all cores and takes a fraction of the time of the SAH build, for a
+ * somewhat slower tree. An optional pass then restructures the treelets of the tree
+ * (up to {@value #TREELET_SIZE} leaves each) into their optimal SAH topology, which
+ * recovers about half of the difference.
+ *
+ * The result is an ordinary BVH, with the same layout and traversal as the SAH build.
+ */
+public final class LinearBVHBuilder {
+
+    /** Bits per axis of the Morton codes, which are 63 bits long. */
+    private static final int MORTON_BITS = 21;
+    /** Bits sorted by each pass of the radix sort. */
+    private static final int RADIX_BITS = 8;
+    /** Ranges smaller than this are handled by a single task. */
+    private static final int SEQUENTIAL_THRESHOLD = 4096;
+    /** Maximum number of leaves of a treelet. */
+    private static final int TREELET_SIZE = 5;
+
+    private LinearBVHBuilder() {
+    }
+
+    /**
+     * Builds the hierarchy over the given shapes, with the treelet optimization.
+     * @param sceneShapes The shapes of the scene, in scene order.
+     * @return The hierarchy.
+     */
+    public static BVH build(List<Shape> sceneShapes) {
+        return build(sceneShapes, true);
+    }
+
+    /**
+     * Builds the hierarchy over the given shapes.
+     * @param sceneShapes The shapes of the scene, in scene order.
+     * @param optimizeTreelets true to restructure the treelets of the radix tree, which
+     * makes the build slower and the traversal faster.
+     * @return The hierarchy.
+     */
+    public static BVH build(List<Shape> sceneShapes, boolean optimizeTreelets) {
+        List<Shape> boundedShapes = new ArrayList<>();
+        List<Integer> boundedPrimitives = new ArrayList<>();
+        List<Long> boundedOrder = new ArrayList<>();
+        List<BoundingBox> primitiveBoxes = new ArrayList<>();
+        List<Integer> others = new ArrayList<>();
+
+        for (int i = 0; i < sceneShapes.size(); i++) {
+            Shape shape = sceneShapes.get(i);
+            BoundingBox box = shape.getBoundingBox();
+            if (box == null || box.isEmpty()) {
+                others.add(i);
+                continue;
+            }
+            for (int p = 0; p < shape.getPrimitiveCount(); p++) {
+                boundedShapes.add(shape);
+                boundedPrimitives.add(p);
+                boundedOrder.add(HitRecord.order(i, p));
+                primitiveBoxes.add(shape.getPrimitiveCount() == 1 ? box : shape.getPrimitiveBounds(p));
+            }
+        }
+
+        Shape[] unbounded = new Shape[others.size()];
+        long[] unboundedOrder = new long[others.size()];
+        for (int i = 0; i < others.size(); i++) {
+            unboundedOrder[i] = HitRecord.order(others.get(i), 0);
+            unbounded[i] = sceneShapes.get(others.get(i));
+        }
+
+        int n = boundedShapes.size();
+        double[] boxes = new double[6 * n];
+        for (int i = 0; i < n; i++) {
+            BoundingBox b = primitiveBoxes.get(i);
+            boxes[6 * i] = b.minX; boxes[6 * i + 1] = b.minY; boxes[6 * i + 2] = b.minZ;
+            boxes[6 * i + 3] = b.maxX; boxes[6 * i + 4] = b.maxY; boxes[6 * i + 5] = b.maxZ;
+        }
+
+        Shape[] shapes = new Shape[n];
+        int[] primitives = new int[n];
+        long[] order = new long[n];
+        if (n == 0)
+            return new BVH(new double[0], new int[0], shapes, primitives, order, unbounded, unboundedOrder);
+
+        RadixTree tree = new RadixTree(boxes, n);
+        tree.sortByMortonCode();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        pool.invoke(tree.new Emit(0, 0, n));
+        if (optimizeTreelets)
+            pool.invoke(tree.new OptimizeTreelets(0));
+        int nodeCount = pool.invoke(tree.new Collapse(0, 0)).intValue();
+
+        // The flat layout lists the primitives of every leaf contiguously
+        Flat flat = new Flat(nodeCount, n);
+        pool.invoke(tree.new Flatten(flat, 0, 0, 0));
+        for (int i = 0; i < n; i++) {
+            int entry = flat.entries[i];
+            shapes[i] = boundedShapes.get(entry);
+            primitives[i] = boundedPrimitives.get(entry);
+            order[i] = boundedOrder.get(entry);
+        }
+        return new BVH(flat.bounds, flat.nodes, shapes, primitives, order, unbounded, unboundedOrder);
+    }
+
+    /**
+     * Interleaves the bits of three 21-bit coordinates into a 63-bit Morton code.
+     */
+    static long mortonCode(int x, int y, int z) {
+        return spread(x) | (spread(y) << 1) | (spread(z) << 2);
+    }
+
+    /**
+     * Spreads the 21 low bits of v so that two zero bits separate each of them.
+     */
+    private static long spread(int v) {
+        long x = v & 0x1fffffL;
+        x = (x | x << 32) & 0x1f00000000ffffL;
+        x = (x | x << 16) & 0x1f0000ff0000ffL;
+        x = (x | x << 8) & 0x100f00f00f00f00fL;
+        x = (x | x << 4) & 0x10c30c30c30c30c3L;
+        x = (x | x << 2) & 0x1249249249249249L;
+        return x;
+    }
+
+    /**
+     * Sorts non-negative keys in ascending order with a parallel least-significant-digit
+     * radix sort, moving the values along. The sort is stable.
+     * @param keys The keys, sorted in place.
+     * @param values The values attached to the keys, moved in place.
+     */
+    static void radixSort(long[] keys, int[] values) {
+        int n = keys.length;
+        int buckets = 1 << RADIX_BITS;
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism() * 4,
+                n / SEQUENTIAL_THRESHOLD));
+        int chunkSize = (n + chunks - 1) / chunks;
+
+        long[] srcKeys = keys, dstKeys = new long[n];
+        int[] srcValues = values, dstValues = new int[n];
+        int[][] offsets = new int[chunks][buckets];
+
+        for (int shift = 0; shift < 63; shift += RADIX_BITS) {
+            final int s = shift;
+            final long[] fromKeys = srcKeys, toKeys = dstKeys;
+            final int[] fromValues = srcValues, toValues = dstValues;
+
+            // Histogram of the digit in every chunk
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] histogram = offsets[c];
+                Arrays.fill(histogram, 0);
+                for (int i = c * chunkSize, end = Math.min(n, i + chunkSize); i < end; i++)
+                    histogram[(int) (fromKeys[i] >>> s) & (buckets - 1)]++;
+            });
+
+            // Each chunk writes a bucket after the same bucket of the previous chunks
+            int total = 0;
+            boolean single = false;
+            for (int b = 0; b < buckets; b++) {
+                int bucketTotal = 0;
+                for (int c = 0; c < chunks; c++) {
+                    int count = offsets[c][b];
+                    offsets[c][b] = total + bucketTotal;
+                    bucketTotal += count;
+                }
+                single |= bucketTotal == n;
+                total += bucketTotal;
+            }
+            // All the keys share this digit: the pass would not move anything
+            if (single) continue;
+
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] next = offsets[c];
+                for (int i = c * chunkSize, end = Math.min(n, i + chunkSize); i < end; i++) {
+                    int slot = next[(int) (fromKeys[i] >>> s) & (buckets - 1)]++;
+                    toKeys[slot] = fromKeys[i];
+                    toValues[slot] = fromValues[i];
+                }
+            });
+
+            srcKeys = toKeys; dstKeys = fromKeys;
+            srcValues = toValues; dstValues = fromValues;
+        }
+
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, n);
+            System.arraycopy(srcValues, 0, values, 0, n);
+        }
+    }
+
+    /**
+     * Working arrays of the restructuring of one treelet, indexed by subset of its leaves.
+     */
+    private static final class Treelet {
+        final int[] leaves = new int[TREELET_SIZE];
+        final int[] interior = new int[TREELET_SIZE - 1];
+        final double[] boxes = new double[6 << TREELET_SIZE];
+        final double[] costs = new double[1 << TREELET_SIZE];
+        final int[] counts = new int[1 << TREELET_SIZE];
+        final int[] partitions = new int[1 << TREELET_SIZE];
+        int nextInterior;
+    }
+
+    /**
+     * Destination of the flattening: the arrays of the final BVH, and the entry
+     * (index in the primitive list) stored at each position of the leaves.
+     */
+    private static final class Flat {
+        final double[] bounds;
+        final int[] nodes;
+        final int[] entries;
+
+        Flat(int nodeCount, int primitiveCount) {
+            bounds = new double[6 * nodeCount];
+            nodes = new int[2 * nodeCount];
+            entries = new int[primitiveCount];
+        }
+    }
+
+    /**
+     * Binary radix tree over the sorted primitives, stored with explicit child links:
+     * 2n - 1 nodes, the leaves holding a single primitive each.
+     */
+    private static final class RadixTree {
+        final int n;
+        /** Boxes of the primitives, 6 doubles per primitive. */
+        final double[] primitiveBoxes;
+        /** Primitives sorted by Morton code, and their codes. */
+        final int[] sorted;
+        final long[] codes;
+
+        /** Children of each node, -1 for a leaf. */
+        final int[] left, right;
+        /** Primitive of each leaf, as a position in {@link #sorted}. */
+        final int[] leafPrimitive;
+        /** Box, number of primitives and SAH cost of the subtree of each node. */
+        final double[] boxes;
+        final int[] counts;
+        final double[] costs;
+        /** Nodes turned into leaves of the final tree, and final node count of their subtree. */
+        final boolean[] collapsed;
+        final int[] flatCounts;
+
+        RadixTree(double[] primitiveBoxes, int n) {
+            this.n = n;
+            this.primitiveBoxes = primitiveBoxes;
+            sorted = new int[n];
+            codes = new long[n];
+            int nodes = 2 * n - 1;
+            left = new int[nodes];
+            right = new int[nodes];
+            leafPrimitive = new int[nodes];
+            boxes = new double[6 * nodes];
+            counts = new int[nodes];
+            costs = new double[nodes];
+            collapsed = new boolean[nodes];
+            flatCounts = new int[nodes];
+        }
+
+        /**
+         * Quantizes the centroids in their bounding box and sorts the primitives
+         * by the Morton codes of the cells they fall in.
+         */
+        void sortByMortonCode() {
+            double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+            double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (int i = 0; i < n; i++) {
+                for (int axis = 0; axis < 3; axis++) {
+                    double c = centroid(i, axis);
+                    min[axis] = Math.min(min[axis], c);
+                    max[axis] = Math.max(max[axis], c);
+                }
+            }
+            double cells = (1 << MORTON_BITS) - 1;
+            double[] scale = new double[3];
+            for (int axis = 0; axis < 3; axis++)
+                scale[axis] = max[axis] > min[axis] ? cells / (max[axis] - min[axis]) : 0;
+
+            IntStream.range(0, n).parallel().forEach(i -> {
+                int[] q = new int[3];
+                for (int axis = 0; axis < 3; axis++)
+                    q[axis] = (int) Math.min(cells, (centroid(i, axis) - min[axis]) * scale[axis]);
+                codes[i] = mortonCode(q[0], q[1], q[2]);
+                sorted[i] = i;
+            });
+            radixSort(codes, sorted);
+        }
+
+        private double centroid(int primitive, int axis) {
+            return 0.5 * (primitiveBoxes[6 * primitive + axis] + primitiveBoxes[6 * primitive + axis + 3]);
+        }
+
+        /**
+         * Finds where to split the sorted range [start, end) of at least two primitives:
+         * at the first code having the highest differing bit set, or in the middle if
+         * all the codes are equal.
+         */
+        int split(int start, int end) {
+            long first = codes[start], last = codes[end - 1];
+            if (first == last) return (start + end) >>> 1;
+
+            int bit = 63 - Long.numberOfLeadingZeros(first ^ last);
+            int lo = start + 1, hi = end - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if ((codes[mid] >>> bit & 1) != 0) hi = mid;
+                else lo = mid + 1;
+            }
+            return lo;
+        }
+
+        /**
+         * Computes the box, primitive count and SAH cost of an interior node from its
+         * children. The cost is the one of a leaf when a leaf would be cheaper.
+         */
+        void update(int node) {
+            int l = left[node], r = right[node];
+            for (int k = 0; k < 3; k++) {
+                boxes[6 * node + k] = Math.min(boxes[6 * l + k], boxes[6 * r + k]);
+                boxes[6 * node + k + 3] = Math.max(boxes[6 * l + k + 3], boxes[6 * r + k + 3]);
+            }
+            counts[node] = counts[l] + counts[r];
+            costs[node] = cost(area(boxes, 6 * node), counts[node], costs[l] + costs[r]);
+        }
+
+        /**
+         * Emits the subtree of the sorted range [start, end) at the given node index. Like
+         * the final layout, the tree is depth-first: a subtree over k primitives has 2k - 1
+         * nodes, so the index of every node is known before its siblings are built.
+         */
+        final class Emit extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final int node, start, end;
+
+            Emit(int node, int start, int end) {
+                this.node = node;
+                this.start = start;
+                this.end = end;
+            }
+
+            @Override
+            protected void compute() {
+                emit(node, start, end, end - start >= SEQUENTIAL_THRESHOLD);
+            }
+
+            private void emit(int node, int start, int end, boolean parallel) {
+                if (end - start == 1) {
+                    int primitive = sorted[start];
+                    left[node] = right[node] = -1;
+                    leafPrimitive[node] = start;
+                    System.arraycopy(primitiveBoxes, 6 * primitive, boxes, 6 * node, 6);
+                    counts[node] = 1;
+                    costs[node] = area(boxes, 6 * node);
+                    return;
+                }
+                int mid = split(start, end);
+                int l = node + 1, r = node + 2 * (mid - start);
+                left[node] = l;
+                right[node] = r;
+                if (parallel) {
+                    invokeAll(new Emit(l, start, mid), new Emit(r, mid, end));
+                } else {
+                    emit(l, start, mid, false);
+                    emit(r, mid, end, false);
+                }
+                update(node);
+            }
+        }
+
+        /**
+         * Restructures the treelets of the subtree, bottom-up, see {@link #restructure(int, Treelet)}.
+         */
+        final class OptimizeTreelets extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final int node;
+
+            OptimizeTreelets(int node) {
+                this.node = node;
+            }
+
+            /** Working arrays of the treelets restructured by this task. */
+            private final Treelet treelet = new Treelet();
+
+            @Override
+            protected void compute() {
+                optimize(node);
+            }
+
+            private void optimize(int node) {
+                // Small subtrees become leaves of the final tree, their topology does not matter
+                if (counts[node] <= BVH.MAX_LEAF_SIZE) return;
+                if (counts[node] >= SEQUENTIAL_THRESHOLD) {
+                    invokeAll(new OptimizeTreelets(left[node]), new OptimizeTreelets(right[node]));
+                } else {
+                    optimize(left[node]);
+                    optimize(right[node]);
+                }
+                // The children may have been restructured into cheaper subtrees
+                update(node);
+                restructure(node, treelet);
+            }
+        }
+
+        /**
+         * Replaces the treelet rooted at the node by its optimal topology (Karras and Aila,
+         * "Fast Parallel Construction of High-Quality Bounding Volume Hierarchies", 2013).
+         * The treelet grows from the node by repeatedly opening its largest leaf, up to
+         * {@value #TREELET_SIZE} leaves; dynamic programming over the subsets of these
+         * leaves then finds the cheapest binary tree over them. The subtrees below the
+         * treelet leaves are kept as they are, and the interior nodes of the treelet are
+         * reused, so the node count does not change.
+         */
+        void restructure(int root, Treelet treelet) {
+            int[] leaves = treelet.leaves;
+            int[] interior = treelet.interior;
+            int leafCount = 2, interiorCount = 1;
+            leaves[0] = left[root];
+            leaves[1] = right[root];
+            interior[0] = root;
+            while (leafCount < TREELET_SIZE) {
+                int largest = -1;
+                double largestArea = -1;
+                for (int i = 0; i < leafCount; i++) {
+                    int node = leaves[i];
+                    double a = area(boxes, 6 * node);
+                    if (left[node] >= 0 && a > largestArea) {
+                        largest = i;
+                        largestArea = a;
+                    }
+                }
+                if (largest < 0) break;
+                int opened = leaves[largest];
+                leaves[largest] = left[opened];
+                leaves[leafCount++] = right[opened];
+                interior[interiorCount++] = opened;
+            }
+            if (leafCount < 3) return;
+
+            int subsets = 1 << leafCount;
+            double[] subsetBoxes = treelet.boxes;
+            double[] subsetCosts = treelet.costs;
+            int[] subsetCounts = treelet.counts;
+            int[] partitions = treelet.partitions;
+
+            // Subsets only split into numerically smaller subsets: one increasing sweep is enough
+            for (int s = 1; s < subsets; s++) {
+                int lowest = Integer.numberOfTrailingZeros(s);
+                int rest = s & (s - 1);
+                int leaf = leaves[lowest];
+                if (rest == 0) {
+                    System.arraycopy(boxes, 6 * leaf, subsetBoxes, 6 * s, 6);
+                    subsetCosts[s] = costs[leaf];
+                    subsetCounts[s] = counts[leaf];
+                    continue;
+                }
+                for (int k = 0; k < 3; k++) {
+                    subsetBoxes[6 * s + k] = Math.min(subsetBoxes[6 * rest + k], boxes[6 * leaf + k]);
+                    subsetBoxes[6 * s + k + 3] = Math.max(subsetBoxes[6 * rest + k + 3], boxes[6 * leaf + k + 3]);
+                }
+                subsetCounts[s] = subsetCounts[rest] + counts[leaf];
+
+                // Every split {p, s \ p} is enumerated once, with p holding the lowest leaf
+                double best = Double.POSITIVE_INFINITY;
+                int bestPartition = 0;
+                for (int p = (s - 1) & s; p > 0; p = (p - 1) & s) {
+                    if ((p & (1 << lowest)) == 0) continue;
+                    double c = subsetCosts[p] + subsetCosts[s ^ p];
+                    if (c < best) {
+                        best = c;
+                        bestPartition = p;
+                    }
+                }
+                partitions[s] = bestPartition;
+                subsetCosts[s] = cost(area(subsetBoxes, 6 * s), subsetCounts[s], best);
+            }
+
+            int all = subsets - 1;
+            if (!(subsetCosts[all] < costs[root] * (1 - 1e-9))) return;
+            treelet.nextInterior = 1;
+            rebuild(all, root, treelet);
+        }
+
+        /**
+         * Rebuilds the subtree of a subset of treelet leaves from the chosen partitions.
+         * @return the node of the subtree
+         */
+        private int rebuild(int subset, int node, Treelet treelet) {
+            if ((subset & (subset - 1)) == 0)
+                return treelet.leaves[Integer.numberOfTrailingZeros(subset)];
+            if (node < 0) node = treelet.interior[treelet.nextInterior++];
+            int p = treelet.partitions[subset];
+            left[node] = rebuild(p, -1, treelet);
+            right[node] = rebuild(subset ^ p, -1, treelet);
+            update(node);
+            return node;
+        }
+
+        /**
+         * Decides which nodes become leaves of the final tree: the subtrees for which a
+         * leaf is cheaper, and all the subtrees at the maximum depth.
+         * Computes the final node count of every subtree on the way.
+         */
+        final class Collapse extends RecursiveTask<Integer> {
+            private static final long serialVersionUID = 1L;
+
+            private final int node, depth;
+
+            Collapse(int node, int depth) {
+                this.node = node;
+                this.depth = depth;
+            }
+
+            @Override
+            protected Integer compute() {
+                return collapse(node, depth);
+            }
+
+            private int collapse(int node, int depth) {
+                int l = left[node], r = right[node];
+                double leafCost = area(boxes, 6 * node) * counts[node];
+                if (l < 0 || depth >= BVH.MAX_DEPTH
+                        || (counts[node] <= BVH.MAX_LEAF_SIZE && leafCost <= costs[node])) {
+                    collapsed[node] = true;
+                    return flatCounts[node] = 1;
+                }
+                int total;
+                if (counts[node] >= SEQUENTIAL_THRESHOLD) {
+                    Collapse right = new Collapse(r, depth + 1);
+                    right.fork();
+                    total = 1 + collapse(l, depth + 1) + right.join();
+                } else {
+                    total = 1 + collapse(l, depth + 1) + collapse(r, depth + 1);
+                }
+                return flatCounts[node] = total;
+            }
+        }
+
+        /**
+         * Writes the subtree into the flat layout of the BVH, at the given node slot and
+         * primitive offset. The child on the lower side of the split axis goes first,
+         * which is the order the traversal expects.
+         */
+        final class Flatten extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final Flat flat;
+            private final int node, slot, offset;
+
+            Flatten(Flat flat, int node, int slot, int offset) {
+                this.flat = flat;
+                this.node = node;
+                this.slot = slot;
+                this.offset = offset;
+            }
+
+            @Override
+            protected void compute() {
+                flatten(node, slot, offset);
+            }
+
+            private void flatten(int node, int slot, int offset) {
+                BVH.setBounds(flat.bounds, slot, box(node));
+                if (collapsed[node]) {
+                    flat.nodes[2 * slot] = offset;
+                    flat.nodes[2 * slot + 1] = counts[node];
+                    collectPrimitives(node, offset);
+                    return;
+                }
+
+                int l = left[node], r = right[node];
+                int axis = 0;
+                double separation = -1;
+                for (int k = 0; k < 3; k++) {
+                    double d = Math.abs(center(r, k) - center(l, k));
+                    if (d > separation) {
+                        separation = d;
+                        axis = k;
+                    }
+                }
+                if (center(r, axis) < center(l, axis)) {
+                    int tmp = l; l = r; r = tmp;
+                }
+
+                int rightSlot = slot + 1 + flatCounts[l];
+                flat.nodes[2 * slot] = rightSlot;
+                flat.nodes[2 * slot + 1] = -(axis + 1);
+                if (counts[node] >= SEQUENTIAL_THRESHOLD) {
+                    invokeAll(new Flatten(flat, l, slot + 1, offset),
+                              new Flatten(flat, r, rightSlot, offset + counts[l]));
+                } else {
+                    flatten(l, slot + 1, offset);
+                    flatten(r, rightSlot, offset + counts[l]);
+                }
+            }
+
+            /**
+             * Lists the primitives of the subtree from the given offset.
+             * @return the offset following them
+             */
+            private int collectPrimitives(int node, int offset) {
+                if (left[node] < 0) {
+                    flat.entries[offset] = sorted[leafPrimitive[node]];
+                    return offset + 1;
+                }
+                return collectPrimitives(right[node], collectPrimitives(left[node], offset));
+            }
+        }
+
+        /** Twice the center of the box of a node along an axis, enough to compare centers. */
+        private double center(int node, int axis) {
+            return boxes[6 * node + axis] + boxes[6 * node + axis + 3];
+        }
+
+        private BoundingBox box(int node) {
+            int b = 6 * node;
+            return new BoundingBox(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4], boxes[b + 5]);
+        }
+    }
+
+    /**
+     * SAH cost of a subtree, in units of primitive tests per unit of area: the cost of
+     * visiting the node and its children, or of a leaf if one would be cheaper.
+     */
+    private static double cost(double area, int count, double childrenCost) {
+        double split = BVH.TRAVERSAL_COST * area + childrenCost;
+        return count <= BVH.MAX_LEAF_SIZE ? Math.min(area * count, split) : split;
+    }
+
+    private static double area(double[] boxes, int b) {
+        double dx = boxes[b + 3] - boxes[b], dy = boxes[b + 4] - boxes[b + 1], dz = boxes[b + 5] - boxes[b + 2];
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+}
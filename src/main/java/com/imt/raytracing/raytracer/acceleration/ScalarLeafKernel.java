@@ -0,0 +1,75 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+/**
+ * Kernel testing the lanes of a block one after the other: the reference for the
+ * vector kernel, and what {@link LeafKernel#select()} falls back to. A hierarchy does
+ * not pack its leaves for it, testing the shapes one by one is just as fast.
+ */
+final class ScalarLeafKernel implements LeafKernel {
+
+    static final ScalarLeafKernel INSTANCE = new ScalarLeafKernel();
+
+    private ScalarLeafKernel() {
+    }
+
+    @Override
+    public void triangles(double[] data, int offset, double ox, double oy, double oz,
+                          double dx, double dy, double dz, double[] t) {
+        for (int lane = 0; lane < LANES; lane++) {
+            int i = offset + lane;
+            double abx = data[i + 3 * LANES], aby = data[i + 4 * LANES], abz = data[i + 5 * LANES];
+            double acx = data[i + 6 * LANES], acy = data[i + 7 * LANES], acz = data[i + 8 * LANES];
+
+            // pvec = direction × ac
+            double px = dy*acz - dz*acy;
+            double py = dz*acx - dx*acz;
+            double pz = dx*acy - dy*acx;
+            double det = abx*px + aby*py + abz*pz;
+            if (Math.abs(det) < 1e-8) { t[lane] = Double.POSITIVE_INFINITY; continue; }
+
+            double invDet = 1.0 / det;
+
+            // tvec = origin - a
+            double tx = ox - data[i], ty = oy - data[i + LANES], tz = oz - data[i + 2 * LANES];
+            double u = (tx*px + ty*py + tz*pz) * invDet;
+            if (u < 0 || u > 1) { t[lane] = Double.POSITIVE_INFINITY; continue; }
+
+            // qvec = tvec × ab
+            double qx = ty*abz - tz*aby;
+            double qy = tz*abx - tx*abz;
+            double qz = tx*aby - ty*abx;
+            double v = (dx*qx + dy*qy + dz*qz) * invDet;
+            if (v < 0 || u + v > 1) { t[lane] = Double.POSITIVE_INFINITY; continue; }
+
+            double d = (acx*qx + acy*qy + acz*qz) * invDet;
+            t[lane] = d <= 0 ? Double.POSITIVE_INFINITY : d;
+        }
+    }
+
+    @Override
+    public void spheres(double[] data, int offset, double ox, double oy, double oz,
+                        double dx, double dy, double dz, double[] t) {
+        for (int lane = 0; lane < LANES; lane++) {
+            int i = offset + lane;
+            // oc = origin - center
+            double ocx = ox - data[i], ocy = oy - data[i + LANES], ocz = oz - data[i + 2 * LANES];
+            double radius = data[i + 3 * LANES];
+
+            double a = dx*dx + dy*dy + dz*dz;
+            double b = 2.0 * (ocx*dx + ocy*dy + ocz*dz);
+            double c = (ocx*ocx + ocy*ocy + ocz*ocz) - radius * radius;
+
+            double delta = b*b - 4*a*c;
+            if (delta < 0) { t[lane] = Double.POSITIVE_INFINITY; continue; }
+
+            double sqrt = Math.sqrt(delta);
+            double t1 = (-b - sqrt) / (2*a);
+            double t2 = (-b + sqrt) / (2*a);
+
+            double d = Double.POSITIVE_INFINITY;
+            if (t1 > 0) d = t1;
+            if (t2 > 0 && t2 < d) d = t2;
+            t[lane] = d;
+        }
+    }
+}
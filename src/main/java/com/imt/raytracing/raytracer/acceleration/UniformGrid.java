@@ -0,0 +1,448 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.imt.raytracing.geometry.BoundingBox;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Counter;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+
+/**
+ * Uniform voxel grid over the bounded primitives of a scene, traversed with 3D-DDA.
+ *
+ * The resolution is chosen from the number of primitives and the proportions of the
+ * scene box, so that a cell holds about {@link #DEFAULT_DENSITY} primitives on average.
+ * Every primitive is registered in all the cells its box overlaps, and a ray only tests
+ * the primitives of the cells it walks through, from front to back, stopping at the
+ * first cell that contains the closest hit. A primitive spanning several cells is
+ * remembered in a small per-ray mailbox so that it is not tested again in the next cells.
+ *
+ * Grids suit scenes whose primitives are evenly spread and of similar size (e.g. a
+ * cloud of spheres); a hierarchy adapts better to scenes with dense clusters.
+ * As with the {@link BVH}, unbounded shapes (planes) are tested linearly for every ray,
+ * and so are the few huge primitives (e.g. a background sphere) that would otherwise
+ * stretch the grid over empty space and crowd all the other primitives into a few cells.
+ */
+public class UniformGrid implements Accelerator {
+
+    /** Average number of primitives per cell targeted by the default resolution. */
+    public static final double DEFAULT_DENSITY = 1.0;
+    /** Maximum number of cells along one axis. */
+    private static final int MAX_RESOLUTION = 256;
+    /** Relative padding added to the boxes so that rounding never misses a cell. */
+    private static final double PADDING = 1e-9;
+    /** Primitives wider than this fraction of the scene box are kept out of the grid... */
+    private static final double OVERSIZE_FRACTION = 0.5;
+    /** ...as long as there are few of them, since they are tested for every ray. */
+    private static final int MAX_OVERSIZED = 8;
+    /** Number of entries of the mailbox, a power of two. */
+    private static final int MAILBOX_SIZE = 32;
+
+    /** Box of the grid: minX, minY, minZ, maxX, maxY, maxZ. */
+    private final double[] bounds = new double[6];
+    /** Number of cells along each axis. */
+    private final int[] resolution = new int[3];
+    /** Size of a cell along each axis. */
+    private final double[] cellSize = new double[3];
+
+    /** Start of the entries of each cell in {@link #cellEntries}, with one extra end marker. */
+    private final int[] cellStart;
+    /** Primitives registered in each cell, cell after cell, in scene order within a cell. */
+    private final int[] cellEntries;
+
+    /** Shape of each bounded primitive. */
+    private final Shape[] shapes;
+    /** Primitive index inside its shape (e.g. the triangle of a mesh). */
+    private final int[] primitives;
+    /** Position of each primitive in the scene, used to break ties (see HitRecord.order). */
+    private final long[] order;
+
+    /** Unbounded shapes and oversized primitives, tested for every ray. */
+    private final Shape[] unbounded;
+    private final int[] unboundedPrimitives;
+    private final long[] unboundedOrder;
+
+    /** Per-thread walk state and mailbox, so that queries do not allocate. */
+    private final ThreadLocal<Traversal> walks = ThreadLocal.withInitial(Traversal::new);
+
+    /**
+     * Builds the grid over the given shapes with the default density.
+     * @param sceneShapes The shapes of the scene, in scene order.
+     */
+    public UniformGrid(List<Shape> sceneShapes) {
+        this(sceneShapes, DEFAULT_DENSITY);
+    }
+
+    /**
+     * Builds the grid over the given shapes.
+     * @param sceneShapes The shapes of the scene, in scene order.
+     * @param density The average number of primitives per cell to aim for.
+     */
+    public UniformGrid(List<Shape> sceneShapes, double density) {
+        if (!(density > 0))
+            throw new IllegalArgumentException("The grid density must be positive: " + density);
+
+        List<Shape> candidateShapes = new ArrayList<>();
+        List<Integer> candidatePrimitives = new ArrayList<>();
+        List<Long> candidateOrder = new ArrayList<>();
+        List<BoundingBox> candidateBoxes = new ArrayList<>();
+        List<Long> others = new ArrayList<>();
+        BoundingBox sceneBox = new BoundingBox();
+
+        for (int i = 0; i < sceneShapes.size(); i++) {
+            Shape shape = sceneShapes.get(i);
+            BoundingBox box = shape.getBoundingBox();
+            if (box == null || box.isEmpty()) {
+                others.add(HitRecord.order(i, 0));
+                continue;
+            }
+            for (int p = 0; p < shape.getPrimitiveCount(); p++) {
+                BoundingBox primitiveBox = shape.getPrimitiveCount() == 1 ? box : shape.getPrimitiveBounds(p);
+                candidateShapes.add(shape);
+                candidatePrimitives.add(p);
+                candidateOrder.add(HitRecord.order(i, p));
+                candidateBoxes.add(primitiveBox);
+                sceneBox.expand(primitiveBox);
+            }
+        }
+
+        // Oversized primitives join the unbounded shapes, the grid spans the others
+        double limit = 0;
+        for (int axis = 0; axis < 3; axis++)
+            limit = Math.max(limit, OVERSIZE_FRACTION * (sceneBox.max(axis) - sceneBox.min(axis)));
+        int oversized = 0;
+        for (BoundingBox box : candidateBoxes)
+            if (isOversized(box, limit)) oversized++;
+        boolean separate = oversized <= MAX_OVERSIZED && oversized < candidateBoxes.size();
+
+        List<Integer> kept = new ArrayList<>();
+        BoundingBox gridBox = new BoundingBox();
+        for (int i = 0; i < candidateShapes.size(); i++) {
+            BoundingBox box = candidateBoxes.get(i);
+            if (separate && isOversized(box, limit)) {
+                others.add(candidateOrder.get(i));
+            } else {
+                kept.add(i);
+                gridBox.expand(box);
+            }
+        }
+
+        others.sort(null);
+        unbounded = new Shape[others.size()];
+        unboundedPrimitives = new int[others.size()];
+        unboundedOrder = new long[others.size()];
+        for (int i = 0; i < others.size(); i++) {
+            long position = others.get(i);
+            unboundedOrder[i] = position;
+            unbounded[i] = sceneShapes.get((int) (position >>> 32));
+            unboundedPrimitives[i] = (int) position;
+        }
+
+        int n = kept.size();
+        shapes = new Shape[n];
+        primitives = new int[n];
+        order = new long[n];
+        List<BoundingBox> primitiveBoxes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int candidate = kept.get(i);
+            shapes[i] = candidateShapes.get(candidate);
+            primitives[i] = candidatePrimitives.get(candidate);
+            order[i] = candidateOrder.get(candidate);
+            primitiveBoxes.add(candidateBoxes.get(candidate));
+        }
+
+        if (n == 0) {
+            cellStart = new int[1];
+            cellEntries = new int[0];
+            return;
+        }
+
+        chooseResolution(gridBox, n, density);
+        int cellCount = resolution[0] * resolution[1] * resolution[2];
+
+        // Two passes over the cell ranges of the primitives: count, then fill
+        int[] ranges = new int[6 * n];
+        cellStart = new int[cellCount + 1];
+        for (int i = 0; i < n; i++) {
+            cellRange(primitiveBoxes.get(i), ranges, 6 * i);
+            forEachCell(ranges, 6 * i, cell -> cellStart[cell + 1]++);
+        }
+        for (int c = 0; c < cellCount; c++)
+            cellStart[c + 1] += cellStart[c];
+
+        cellEntries = new int[cellStart[cellCount]];
+        int[] next = Arrays.copyOf(cellStart, cellCount);
+        for (int i = 0; i < n; i++) {
+            final int entry = i;
+            forEachCell(ranges, 6 * i, cell -> cellEntries[next[cell]++] = entry);
+        }
+    }
+
+    private static boolean isOversized(BoundingBox box, double limit) {
+        for (int axis = 0; axis < 3; axis++)
+            if (box.max(axis) - box.min(axis) > limit) return true;
+        return false;
+    }
+
+    /**
+     * Pads the scene box and sizes the cells so that the grid holds about
+     * {@code n / density} cells, as close to cubes as the box allows.
+     */
+    private void chooseResolution(BoundingBox box, int n, double density) {
+        double[] extent = new double[3];
+        double largest = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            double pad = PADDING * (1 + Math.max(Math.abs(box.min(axis)), Math.abs(box.max(axis))));
+            bounds[axis] = box.min(axis) - pad;
+            bounds[axis + 3] = box.max(axis) + pad;
+            extent[axis] = bounds[axis + 3] - bounds[axis];
+            largest = Math.max(largest, extent[axis]);
+        }
+
+        // A flat scene still needs a volume to spread the cells over
+        double volume = 1;
+        for (int axis = 0; axis < 3; axis++)
+            volume *= Math.max(extent[axis], largest * 1e-3);
+        double cellsPerUnit = Math.cbrt(n / density / volume);
+
+        for (int axis = 0; axis < 3; axis++) {
+            int r = (int) Math.round(extent[axis] * cellsPerUnit);
+            resolution[axis] = Math.min(MAX_RESOLUTION, Math.max(1, r));
+            cellSize[axis] = extent[axis] / resolution[axis];
+        }
+    }
+
+    /**
+     * Writes the first and last cell coordinates overlapped by a box into
+     * {@code range[offset..offset+6)}, as x0, y0, z0, x1, y1, z1.
+     */
+    private void cellRange(BoundingBox box, int[] range, int offset) {
+        for (int axis = 0; axis < 3; axis++) {
+            double pad = PADDING * (1 + Math.max(Math.abs(box.min(axis)), Math.abs(box.max(axis))));
+            range[offset + axis] = cellCoordinate(axis, box.min(axis) - pad);
+            range[offset + axis + 3] = cellCoordinate(axis, box.max(axis) + pad);
+        }
+    }
+
+    private int cellCoordinate(int axis, double position) {
+        int c = (int) Math.floor((position - bounds[axis]) / cellSize[axis]);
+        return Math.min(resolution[axis] - 1, Math.max(0, c));
+    }
+
+    private interface CellVisitor {
+        void visit(int cell);
+    }
+
+    private void forEachCell(int[] range, int offset, CellVisitor visitor) {
+        for (int z = range[offset + 2]; z <= range[offset + 5]; z++)
+            for (int y = range[offset + 1]; y <= range[offset + 4]; y++)
+                for (int x = range[offset]; x <= range[offset + 3]; x++)
+                    visitor.visit((z * resolution[1] + y) * resolution[0] + x);
+    }
+
+    /**
+     * @param axis The axis (0 = X, 1 = Y, 2 = Z).
+     * @return the number of cells of the grid along this axis
+     */
+    public int getResolution(int axis) {
+        return resolution[axis];
+    }
+
+    /**
+     * @return the number of cells of the grid (0 if no shape is bounded)
+     */
+    public int getCellCount() {
+        return cellStart.length - 1;
+    }
+
+    /**
+     * @return the number of primitives stored in the grid (unbounded and oversized ones excluded)
+     */
+    public int getPrimitiveCount() {
+        return shapes.length;
+    }
+
+    /**
+     * @return the number of primitive references over all the cells
+     */
+    public int getReferenceCount() {
+        return cellEntries.length;
+    }
+
+    @Override
+    public boolean closestHit(Ray ray, HitRecord hit) {
+        boolean found = false;
+
+        for (int i = 0; i < unbounded.length; i++) {
+            hit.nextOrder = unboundedOrder[i];
+            found |= unbounded[i].intersect(ray, unboundedPrimitives[i], hit);
+        }
+        // Primitive tests, reported to the metrics once per query
+        long tests = unbounded.length;
+
+        Traversal walk = walks.get();
+        if (!start(walk, ray, hit.t)) {
+            RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+            return found;
+        }
+
+        int[] mailbox = walk.mailbox;
+        do {
+            int cell = walk.cell();
+            for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                int entry = cellEntries[k];
+                int slot = entry & (MAILBOX_SIZE - 1);
+                if (mailbox[slot] == entry) continue;
+                mailbox[slot] = entry;
+                hit.nextOrder = order[entry];
+                found |= shapes[entry].intersect(ray, primitives[entry], hit);
+                tests++;
+            }
+            // A hit before the exit of the cell lies in the cell: the next cells cannot beat it.
+            // Ties on the boundary are left to the next cell, where the scene order decides.
+            if (hit.t < walk.exit()) break;
+        } while (walk.next());
+
+        RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+        return found;
+    }
+
+    @Override
+    public boolean anyIntersection(Ray ray, double tMax) {
+        long tests = 0;
+        for (int i = 0; i < unbounded.length; i++) {
+            tests++;
+            if (unbounded[i].anyIntersection(ray, unboundedPrimitives[i], tMax)) {
+                RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+                return true;
+            }
+        }
+
+        Traversal walk = walks.get();
+        if (!start(walk, ray, tMax)) {
+            RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+            return false;
+        }
+
+        int[] mailbox = walk.mailbox;
+        do {
+            int cell = walk.cell();
+            for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                int entry = cellEntries[k];
+                int slot = entry & (MAILBOX_SIZE - 1);
+                if (mailbox[slot] == entry) continue;
+                mailbox[slot] = entry;
+                tests++;
+                if (shapes[entry].anyIntersection(ray, primitives[entry], tMax)) {
+                    RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+                    return true;
+                }
+            }
+        } while (walk.next());
+
+        RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+        return false;
+    }
+
+    /**
+     * Clips the ray to the grid and sets up the walk through its cells.
+     * @param walk The walk state of the calling thread, reset for this ray.
+     * @param ray The ray to walk.
+     * @param tMax The end of the search along the ray.
+     * @return false if the ray misses the grid, otherwise the walk is on the first cell.
+     */
+    private boolean start(Traversal walk, Ray ray, double tMax) {
+        if (shapes.length == 0) return false;
+
+        double[] o = walk.origin, d = walk.direction;
+        o[0] = ray.origin.x; o[1] = ray.origin.y; o[2] = ray.origin.z;
+        d[0] = ray.direction.x; d[1] = ray.direction.y; d[2] = ray.direction.z;
+
+        // Slab test against the grid box. A NaN produced by a zero direction component
+        // on a slab boundary is ignored, which keeps the test conservative.
+        double tEnter = 0, tExit = tMax;
+        for (int axis = 0; axis < 3; axis++) {
+            double inv = 1.0 / d[axis];
+            double t0 = (bounds[axis] - o[axis]) * inv, t1 = (bounds[axis + 3] - o[axis]) * inv;
+            if (t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+            if (t0 > tEnter) tEnter = t0;
+            if (t1 < tExit) tExit = t1;
+        }
+        if (!(tEnter <= tExit)) return false;
+
+        Arrays.fill(walk.mailbox, -1);
+        walk.tExit = tExit;
+        for (int axis = 0; axis < 3; axis++) {
+            int c = cellCoordinate(axis, o[axis] + tEnter * d[axis]);
+            walk.coordinate[axis] = c;
+            if (d[axis] > 0) {
+                walk.step[axis] = 1;
+                walk.end[axis] = resolution[axis];
+                walk.tNext[axis] = (bounds[axis] + (c + 1) * cellSize[axis] - o[axis]) / d[axis];
+                walk.tDelta[axis] = cellSize[axis] / d[axis];
+            } else if (d[axis] < 0) {
+                walk.step[axis] = -1;
+                walk.end[axis] = -1;
+                walk.tNext[axis] = (bounds[axis] + c * cellSize[axis] - o[axis]) / d[axis];
+                walk.tDelta[axis] = -cellSize[axis] / d[axis];
+            } else {
+                // The ray never leaves the slab of cells it starts in along this axis
+                walk.step[axis] = 0;
+                walk.end[axis] = -1;
+                walk.tNext[axis] = Double.POSITIVE_INFINITY;
+                walk.tDelta[axis] = Double.POSITIVE_INFINITY;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * State of the 3D-DDA walk of one ray through the cells, from front to back.
+     */
+    private final class Traversal {
+        /** Primitives already tested by the ray, indexed by the low bits of their entry. */
+        final int[] mailbox = new int[MAILBOX_SIZE];
+        final double[] origin = new double[3];
+        final double[] direction = new double[3];
+        final int[] coordinate = new int[3];
+        final int[] step = new int[3];
+        /** Coordinate reached when the ray leaves the grid, along each axis. */
+        final int[] end = new int[3];
+        /** Distance at which the ray crosses the next cell boundary, along each axis. */
+        final double[] tNext = new double[3];
+        /** Distance between two cell boundaries, along each axis. */
+        final double[] tDelta = new double[3];
+        /** End of the walk: the exit of the grid, or the end of the search. */
+        double tExit;
+
+        int cell() {
+            return (coordinate[2] * resolution[1] + coordinate[1]) * resolution[0] + coordinate[0];
+        }
+
+        /**
+         * @return the distance at which the ray leaves the current cell
+         */
+        double exit() {
+            return Math.min(tNext[0], Math.min(tNext[1], tNext[2]));
+        }
+
+        /**
+         * Moves to the next cell along the ray.
+         * @return false if the walk is over.
+         */
+        boolean next() {
+            int axis = tNext[0] <= tNext[1]
+                    ? (tNext[0] <= tNext[2] ? 0 : 2)
+                    : (tNext[1] <= tNext[2] ? 1 : 2);
+            if (tNext[axis] >= tExit) return false;
+            coordinate[axis] += step[axis];
+            if (coordinate[axis] == end[axis]) return false;
+            tNext[axis] += tDelta[axis];
+            return true;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.imt.raytracing.raytracer.scene;
+
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.raytracer.Ray;
+
+/**
+ * Mutable record of the closest hit found so far along a ray.
+ * During a closest-hit search, shapes only write the distance and the primitive 
+ * that was hit into this record, so that nothing is allocated per candidate. The 
+ * full {@link Intersection} (point, normal, incoming ray) is built once, for the 
+ * winning hit, by {@link #toIntersection(Ray)}.
+ *
+ * A record belongs to the caller and must not be shared between threads.
+ */
+public class HitRecord {
+
+    /** Distance of the closest hit so far (or the search bound if nothing was hit). */
+    public double t;
+    /** The shape of the closest hit so far, null if nothing was hit. */
+    public Shape shape;
+    /** Identifier of the primitive hit inside the shape (0 for simple shapes). */
+    public int primitive;
+
+    /**
+     * Position in the scene of the recorded hit, used to break ties: the index of the 
+     * shape in the scene in the high 32 bits, the primitive in the low 32 bits.
+     */
+    public long order;
+    /**
+     * Position in the scene of the shape (or primitive) about to be tested, set by the 
+     * traversal before each test, see {@link #order(int, int)}. When two hits have exactly the same distance, the one that 
+     * comes first in the scene wins, as with a linear scan of the shape list.
+     */
+    public long nextOrder;
+
+    /**
+     * Computes the position used for tie-breaking of a primitive of a scene shape.
+     * @param shapeIndex The index of the shape in the scene shape list.
+     * @param primitive The primitive inside the shape.
+     * @return The combined position.
+     */
+    public static long order(int shapeIndex, int primitive) {
+        return ((long) shapeIndex << 32) | primitive;
+    }
+
+    /**
+     * Creates an empty record with no distance bound.
+     */
+    public HitRecord() {
+        reset();
+    }
+
+    /**
+     * Clears the record so that it can be reused for another ray.
+     */
+    public void reset() {
+        reset(Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Clears the record and only accepts hits closer than tMax.
+     * @param tMax The exclusive upper bound of the search.
+     */
+    public void reset(double tMax) {
+        t = tMax;
+        shape = null;
+        primitive = 0;
+        order = Long.MAX_VALUE;
+        nextOrder = 0;
+    }
+
+    /**
+     * Offers a hit found by a shape. It is kept if it is closer than the current one.
+     * @param t The distance of the hit along the ray.
+     * @param shape The shape that was hit.
+     * @param primitive The primitive hit inside the shape.
+     * @return true if the hit was recorded.
+     */
+    public boolean record(double t, Shape shape, int primitive) {
+        if (t < this.t || (t == this.t && this.shape != null && nextOrder < order)) {
+            this.t = t;
+            this.shape = shape;
+            this.primitive = primitive;
+            this.order = nextOrder;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a hit has been recorded
+     */
+    public boolean isHit() {
+        return shape != null;
+    }
+
+    /**
+     * Builds the full Intersection of the recorded hit.
+     * @param ray The ray that produced the hit.
+     * @return The Intersection, with its point and normal computed.
+     */
+    public Intersection toIntersection(Ray ray) {
+        return shape.createIntersection(ray, t, primitive);
+    }
+}
@@ -7,6 +7,8 @@ import com.imt.raytracing.geometry.shape.Sphere;
 import com.imt.raytracing.geometry.shape.Triangle;
 import com.imt.raytracing.geometry.shape.Plane;
 import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Counter;
 import com.imt.raytracing.raytracer.Ray;
 import com.imt.raytracing.raytracer.light.DirectionalLight;
 import com.imt.raytracing.raytracer.light.Light;
@@ -61,6 +63,22 @@ public class Intersection {
         }
     }
 
+    /**
+     * Constructs an Intersection whose normal is already known by the shape 
+     * (e.g. the constant normal of a triangle or a plane). The normal is used as given.
+     * @param t The distance along the ray where the hit occurred.
+     * @param shape The shape that was hit.
+     * @param incomingRay The ray that intersected the shape.
+     * @param normal The surface normal at the hit point.
+     */
+    protected Intersection(double t, Shape shape, Ray incomingRay, Vector normal) {
+        this.t = t;
+        this.shape = shape;
+        this.incomingRay = incomingRay;
+        this.point = incomingRay.origin.add(incomingRay.direction.mul(t));
+        this.normal = normal;
+    }
+
     /** * Checks if the intersection point is in shadow with respect to a specific light source. 
      * This is done by casting a shadow ray from the hit point towards the light.
      * @param scene The entire scene containing all objects.
@@ -69,30 +87,41 @@ public class Intersection {
      */
     public boolean isShadowed(Scene scene, Light light) {
 
-        Vector L; 
-        double maxDist = Double.POSITIVE_INFINITY;
+        // Any object between the point and the light (or infinity for directional light) 
+        // casts a shadow: there is no need to look for the closest one.
+        boolean blocked = scene.anyIntersection(shadowRay(light), lightDistance(light));
+        RenderMetrics.count(Counter.SHADOW_RAYS);
+        if (blocked) RenderMetrics.count(Counter.SHADOW_HITS);
+        return blocked;
+    }
 
-    if (light instanceof DirectionalLight dl) {
-            L = dl.direction.normalize(); 
-        } else {
-            PointLight pl = (PointLight) light;
-            L = pl.origin.sub(point).normalize();
-            maxDist = pl.origin.sub(point).length();
-        }
+    /**
+     * Builds the shadow ray cast from the intersection point towards a light.
+     * @param light The light source.
+     * @return The shadow Ray, to be tested up to {@link #lightDistance(Light)}.
+     */
+    public Ray shadowRay(Light light) {
+        Vector L = (light instanceof DirectionalLight dl)
+                    ? dl.direction.normalize() 
+                    : ((PointLight) light).origin.sub(point).normalize();
 
         // Apply an epsilon offset to the starting point to prevent the shadow ray from 
         // immediately intersecting its own shape (self-shadowing artifact).
-        Ray shadowRay = new Ray(
+        return new Ray(
                 point.add(normal.mul(1e-4)),
                 L
         );
+    }
 
-        var hit = scene.closestIntersection(shadowRay);
-
-        if (hit.isEmpty())
-            return false; // No object hit between the point and the light (or infinity for directional light)
-
-        return hit.get().t < maxDist;
+    /**
+     * @param light The light source.
+     * @return the distance from the intersection point to the light, infinite for a 
+     * directional light
+     */
+    public double lightDistance(Light light) {
+        if (light instanceof DirectionalLight)
+            return Double.POSITIVE_INFINITY;
+        return ((PointLight) light).origin.sub(point).length();
     }
 
     /** * Calculates the **Diffuse** illumination component using the Lambertian model.
@@ -145,16 +174,29 @@ public class Intersection {
     /** * Calculates the final shaded Color at the intersection point by summing the 
      * contributions of all lights (Diffuse + Specular) and checking for shadows.
      * @param scene The scene to access all light sources.
+     * @param depth The number of reflections that led to this intersection (0 for a primary ray).
      * @return The final illuminated Color (excluding Ambient).
      */
     public Color shade(Scene scene, int depth) {
+        return shade(scene, depth, 1, 1, 1);
+    }
 
-        Color col = new Color(0, 0, 0);
+    /** * Calculates the final shaded Color at the intersection point, knowing how much 
+     * this color still weighs in the pixel. The weight is the product of the specular 
+     * colors of the surfaces the ray was reflected on, channel by channel. A reflection 
+     * whose weight would fall below {@code scene.minweight} on every channel is not 
+     * traced: it could not change the pixel noticeably.
+     * @param scene The scene to access all light sources.
+     * @param depth The number of reflections that led to this intersection (0 for a primary ray).
+     * @param weightR The weight of this color in the pixel, red channel.
+     * @param weightG The weight of this color in the pixel, green channel.
+     * @param weightB The weight of this color in the pixel, blue channel.
+     * @return The final illuminated Color (excluding Ambient).
+     */
+    public Color shade(Scene scene, int depth, double weightR, double weightG, double weightB) {
 
         // ---------- AMBIENT ----------
-        col.x += scene.ambient.x * shape.diffuse.x;
-        col.y += scene.ambient.y * shape.diffuse.y;
-        col.z += scene.ambient.z * shape.diffuse.z;
+        Color col = ambient(scene);
 
         // ---------- DIRECT LIGHTING ----------
         for (Light light : scene.lights) {
@@ -162,31 +204,23 @@ public class Intersection {
             if (isShadowed(scene, light))
                 continue;
 
-            // diffuse
-            if (!shape.diffuse.isBlack()) {
-                Color d = diffuse(light);
-                col.addLocal(d);
-            }
-
-            // specular
-            Color s = specularPhong(light);
-            col.addLocal(s);
+            addDirectLight(col, light);
         }
 
         // ---------- REFLECTION ----------
-        if (depth < scene.maxdepth && !shape.specular.isBlack() && scene.maxdepth > 1) {
-
-            Vector r = computeReflectionDirection();
+        if (tracesReflection(scene, depth, weightR, weightG, weightB)) {
 
-            Ray reflected = new Ray(
-                    point.add(normal.mul(1e-4)),
-                    r
-            );
+            // Weight of the reflected color in the pixel
+            double nextR = weightR * shape.specular.x;
+            double nextG = weightG * shape.specular.y;
+            double nextB = weightB * shape.specular.z;
 
-            var hit = scene.closestIntersection(reflected);
+            var hit = scene.closestIntersection(reflectedRay());
+            RenderMetrics.count(Counter.REFLECTION_RAYS);
 
             if (hit.isPresent()) {
-                Color reflectedColor = hit.get().shade(scene, depth + 1);
+                RenderMetrics.count(Counter.REFLECTION_HITS);
+                Color reflectedColor = hit.get().shade(scene, depth + 1, nextR, nextG, nextB);
 
                 col.x += reflectedColor.x * shape.specular.x;
                 col.y += reflectedColor.y * shape.specular.y;
@@ -197,6 +231,67 @@ public class Intersection {
         return col;
     }
 
+    /**
+     * Calculates the **Ambient** component, the start of the shaded color.
+     * @param scene The scene, for its ambient light.
+     * @return A new Color holding the ambient component.
+     */
+    public Color ambient(Scene scene) {
+        Color col = new Color(0, 0, 0);
+        col.x += scene.ambient.x * shape.diffuse.x;
+        col.y += scene.ambient.y * shape.diffuse.y;
+        col.z += scene.ambient.z * shape.diffuse.z;
+        return col;
+    }
+
+    /**
+     * Adds the diffuse and specular contributions of a light that is not shadowed.
+     * @param col The color being shaded, updated in place.
+     * @param light The light source.
+     */
+    public void addDirectLight(Color col, Light light) {
+        // diffuse
+        if (!shape.diffuse.isBlack()) {
+            Color d = diffuse(light);
+            col.addLocal(d);
+        }
+
+        // specular
+        Color s = specularPhong(light);
+        col.addLocal(s);
+    }
+
+    /**
+     * Tells whether shading this intersection traces a reflected ray: the surface must 
+     * be specular, the depth below the maximum, and the reflection must weigh at least 
+     * {@code scene.minweight} on some channel.
+     * @param scene The scene, for its maxdepth and minweight.
+     * @param depth The number of reflections that led to this intersection.
+     * @param weightR The weight of this color in the pixel, red channel.
+     * @param weightG The weight of this color in the pixel, green channel.
+     * @param weightB The weight of this color in the pixel, blue channel.
+     * @return true if {@link #reflectedRay()} is traced.
+     */
+    public boolean tracesReflection(Scene scene, int depth, double weightR, double weightG, double weightB) {
+        if (depth >= scene.maxdepth || shape.specular.isBlack() || scene.maxdepth <= 1)
+            return false;
+        double nextR = weightR * shape.specular.x;
+        double nextG = weightG * shape.specular.y;
+        double nextB = weightB * shape.specular.z;
+        return Math.max(nextR, Math.max(nextG, nextB)) >= scene.minweight;
+    }
+
+    /**
+     * Builds the ray reflected by the surface at the intersection point.
+     * @return The reflected Ray, starting just off the surface.
+     */
+    public Ray reflectedRay() {
+        return new Ray(
+                point.add(normal.mul(1e-4)),
+                computeReflectionDirection()
+        );
+    }
+
 
     private Vector computeReflectionDirection() {
         Vector d = incomingRay.direction.normalize();
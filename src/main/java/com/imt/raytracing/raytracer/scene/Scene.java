@@ -4,18 +4,32 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
+import com.imt.raytracing.geometry.BoundingBox;
 import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.shape.MeshPrototype;
 import com.imt.raytracing.geometry.shape.Shape;
 import com.imt.raytracing.geometry.shape.Sphere;
 import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Counter;
+import com.imt.raytracing.metrics.RenderMetrics.Phase;
 import com.imt.raytracing.raytracer.Camera;
 import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.RayPacket;
+import com.imt.raytracing.raytracer.acceleration.AccelerationCache;
+import com.imt.raytracing.raytracer.acceleration.Accelerator;
+import com.imt.raytracing.raytracer.acceleration.AcceleratorType;
+import com.imt.raytracing.raytracer.acceleration.BVH;
+import com.imt.raytracing.raytracer.acceleration.LinearBVHBuilder;
+import com.imt.raytracing.raytracer.acceleration.UniformGrid;
 import com.imt.raytracing.raytracer.light.Light;
 
 
 /**
  * Represents the entire 3D environment to be rendered.
  * It holds the camera, image settings, global lighting, and all geometric objects (shapes).
+ * Once parsed, the scene is only read during rendering, so it can be shared by several 
+ * rendering threads as long as nobody modifies it concurrently.
  */
 public class Scene {
     public int width;
@@ -23,14 +37,33 @@ public class Scene {
     public Camera camera;
     public String output;
     public int maxdepth = 1;
+    /**
+     * Smallest weight a reflected ray must still have in its pixel to be traced 
+     * (see {@link Intersection#shade(Scene, int, double, double, double)}). 
+     * 0 traces every reflection up to maxdepth.
+     */
+    public double minweight = 0;
     
     public Color ambient = new Color();
     public List<Light> lights = new ArrayList<>();
     public List<Shape> shapes = new ArrayList<>();
+    /** Meshes defined once and placed in {@link #shapes} by instances. */
+    public List<MeshPrototype> meshes = new ArrayList<>();
     
     public List<Point> vertices = new ArrayList<>();
     public int maxverts = 0; 
 
+    /** Acceleration structure over {@link #shapes}, or null to use a linear scan. */
+    public Accelerator accelerator;
+    /** 
+     * Cost ratio above which a refitted subtree of a BVH is rebuilt when shapes move, 
+     * see {@link BVH#refit(List, int[], double)}.
+     */
+    public double rebuildThreshold = BVH.DEFAULT_REBUILD_THRESHOLD;
+
+    /** Type of the structures, to build them again when they cannot follow a change. */
+    private AcceleratorType acceleratorType = AcceleratorType.BVH;
+
 
     public Scene(int width, int height) {
         this.width = width;
@@ -60,6 +93,10 @@ public class Scene {
         return maxdepth;
     }
 
+    public double getMinweight() {
+        return minweight;
+    }
+
     public Color getAmbient() {
         return ambient;
     }
@@ -110,29 +147,240 @@ public class Scene {
      */
     public void addShape(Sphere shape) {
         this.shapes.add(shape);
+        // The structure no longer matches the shape list.
+        this.accelerator = null;
+    }
+
+    public Accelerator getAccelerator() {
+        return accelerator;
+    }
+
+    /**
+     * Builds the acceleration structure (a BVH) over the current shapes.
+     * Must be called again if the shape list is modified afterwards.
+     */
+    public void buildAccelerationStructure() {
+        buildAccelerationStructure(AcceleratorType.BVH);
+    }
+
+    /**
+     * Builds an acceleration structure of the given type over the current shapes, 
+     * replacing the previous one. Must be called again if the shape list is modified afterwards.
+     * Every mesh gets a structure of the same type over its own shapes.
+     * @param type The structure to build. {@link AcceleratorType#NONE} removes the structure, 
+     * so that the shapes are scanned linearly.
+     */
+    public void buildAccelerationStructure(AcceleratorType type) {
+        buildAccelerationStructure(type, null);
+    }
+
+    /**
+     * Builds an acceleration structure of the given type over the current shapes, 
+     * reusing the structures found in a cache and adding the ones that were built.
+     * @param type The structure to build. {@link AcceleratorType#NONE} removes the structure, 
+     * so that the shapes are scanned linearly.
+     * @param cache The cache of structures built earlier, or null to always build them.
+     */
+    public void buildAccelerationStructure(AcceleratorType type, AccelerationCache cache) {
+        RenderMetrics.time(Phase.ACCELERATION_BUILD, () -> {
+            for (MeshPrototype mesh : meshes)
+                mesh.setAccelerator(build(type, mesh.shapes, cache));
+            this.accelerator = build(type, shapes, cache);
+            this.acceleratorType = type;
+        });
+    }
+
+    /**
+     * Updates the acceleration structure after some shapes were modified in place, e.g. a 
+     * {@link Sphere#center} moved or the positions of a 
+     * {@link com.imt.raytracing.geometry.shape.TriangleMesh} edited (followed by its 
+     * {@code updateGeometry()}). A BVH is refitted to the new boxes and its subtrees that 
+     * became too slow are rebuilt; the other structures are built again. 
+     * Must not be called while rendering.
+     * @param shapeIndices The indices in {@link #shapes} of the modified shapes.
+     */
+    public void updateShapes(int... shapeIndices) {
+        RenderMetrics.time(Phase.ACCELERATION_BUILD, () -> {
+            this.accelerator = update(accelerator, shapes, shapeIndices);
+        });
+    }
+
+    /**
+     * Moves to the next frame of an animation: takes the settings, lights, shapes and 
+     * meshes of another scene, typically the same scene file with moved shapes, and 
+     * updates the acceleration structures of this scene to its geometry instead of 
+     * building new ones. Shapes are compared one by one, by index, so the frames should 
+     * list the same shapes in the same order; the shapes whose primitive boxes changed 
+     * are refitted. Must not be called while rendering.
+     * @param frame The scene of the next frame. Its own acceleration structures are not used.
+     */
+    public void loadFrame(Scene frame) {
+        width = frame.width;
+        height = frame.height;
+        camera = frame.camera;
+        output = frame.output;
+        maxdepth = frame.maxdepth;
+        minweight = frame.minweight;
+        ambient = frame.ambient;
+        lights = frame.lights;
+        vertices = frame.vertices;
+        maxverts = frame.maxverts;
+
+        RenderMetrics.time(Phase.ACCELERATION_BUILD, () -> {
+            for (int m = 0; m < frame.meshes.size(); m++) {
+                MeshPrototype next = frame.meshes.get(m);
+                if (m < meshes.size())
+                    next.setAccelerator(update(meshes.get(m).getAccelerator(), meshes.get(m).shapes, next.shapes));
+                else if (accelerator != null)
+                    next.setAccelerator(build(acceleratorType, next.shapes));
+            }
+            accelerator = update(accelerator, shapes, frame.shapes);
+        });
+        shapes = frame.shapes;
+        meshes = frame.meshes;
+    }
+
+    /**
+     * Updates a structure built over some shapes to the shapes of the next frame.
+     */
+    private Accelerator update(Accelerator current, List<Shape> previous, List<Shape> next) {
+        if (current == null) return null;
+        if (previous.size() != next.size()) return build(acceleratorType, next);
+
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < next.size(); i++) {
+            if (!sameGeometry(previous.get(i), next.get(i))) changed.add(i);
+        }
+        return update(current, next, changed.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * Refits a BVH to the modified shapes, or builds the structure again.
+     */
+    private Accelerator update(Accelerator current, List<Shape> next, int[] changed) {
+        if (current == null) return null;
+        if (current instanceof BVH && ((BVH) current).refit(next, changed, rebuildThreshold))
+            return current;
+        return build(acceleratorType, next);
+    }
+
+    /**
+     * Tests whether two shapes give the same primitive boxes, the only thing the 
+     * acceleration structures depend on.
+     */
+    private static boolean sameGeometry(Shape a, Shape b) {
+        if (a.getClass() != b.getClass()) return false;
+        BoundingBox boxA = a.getBoundingBox(), boxB = b.getBoundingBox();
+        if (boxA == null || boxB == null) return boxA == boxB;
+        if (a.getPrimitiveCount() != b.getPrimitiveCount()) return false;
+        for (int p = 0; p < a.getPrimitiveCount(); p++) {
+            BoundingBox pa = a.getPrimitiveBounds(p), pb = b.getPrimitiveBounds(p);
+            if (pa.minX != pb.minX || pa.minY != pb.minY || pa.minZ != pb.minZ
+                    || pa.maxX != pb.maxX || pa.maxY != pb.maxY || pa.maxZ != pb.maxZ)
+                return false;
+        }
+        return true;
+    }
+
+    private static Accelerator build(AcceleratorType type, List<Shape> shapes, AccelerationCache cache) {
+        if (cache == null) return build(type, shapes);
+        Accelerator cached = cache.load(type, shapes);
+        if (cached != null) return cached;
+        Accelerator built = build(type, shapes);
+        cache.store(type, shapes, built);
+        return built;
+    }
+
+    private static Accelerator build(AcceleratorType type, List<Shape> shapes) {
+        switch (type) {
+            case BVH:
+                return new BVH(shapes);
+            case LBVH:
+                return LinearBVHBuilder.build(shapes);
+            case GRID:
+                return new UniformGrid(shapes);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Finds the closest hit between a ray and the shapes of the scene, writing only its 
+     * distance, shape and primitive into the caller-owned record. Nothing is allocated 
+     * per candidate shape, which makes it the query of choice on hot paths.
+     * @param ray The Ray to test intersections against.
+     * @param hit The record to fill. Only hits closer than {@code hit.t} are accepted.
+     * @return true if a hit was recorded.
+     */
+    public boolean closestHit(Ray ray, HitRecord hit) {
+        if (accelerator != null)
+            return accelerator.closestHit(ray, hit);
+
+        // Iterate through all shapes in the scene, the record keeps the closest hit
+        boolean found = false;
+        long tests = 0;
+        for (int i = 0; i < shapes.size(); i++) {
+            hit.nextOrder = HitRecord.order(i, 0);
+            found |= shapes.get(i).intersect(ray, hit);
+            tests += shapes.get(i).getPrimitiveCount();
+        }
+        RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+        return found;
+    }
+
+    /**
+     * Finds the closest hit of every ray of a packet. The acceleration structure may trace
+     * the rays together, the records end up exactly as with {@link #closestHit} called
+     * for each ray.
+     * @param packet The rays to test.
+     * @param hits The records to fill, one per ray of the packet.
+     */
+    public void closestHits(RayPacket packet, HitRecord[] hits) {
+        if (accelerator != null) {
+            accelerator.closestHits(packet, hits);
+            return;
+        }
+        for (int k = 0; k < packet.size(); k++)
+            closestHit(packet.rays[k], hits[k]);
     }
 
     /**
      * Finds the closest valid intersection between a given ray and any shape in the scene.
      * This is the fundamental function for visibility testing (ray casting and shadow rays).
+     * The full Intersection is only built for the winning hit.
      * @param ray The Ray to test intersections against.
      * @return An Optional containing the closest Intersection object, or empty if no shape is hit.
      */
     public Optional<Intersection> closestIntersection(Ray ray) {
-        Intersection best = null;
+        HitRecord hit = new HitRecord();
+
+        if (!closestHit(ray, hit))
+            return Optional.empty();
+
+        return Optional.of(hit.toIntersection(ray));
+    }
+
+    /**
+     * Tests whether any shape is hit by the ray at a distance t with 0 &lt; t &lt; tMax.
+     * Unlike {@link #closestIntersection(Ray)}, the search stops at the first occluder 
+     * and no Intersection is built, which is all a shadow ray needs.
+     * @param ray The Ray to test.
+     * @param tMax The exclusive upper bound of the interval (e.g. the distance to a light).
+     * @return true if at least one shape lies in the interval.
+     */
+    public boolean anyIntersection(Ray ray, double tMax) {
+        if (accelerator != null)
+            return accelerator.anyIntersection(ray, tMax);
 
-        // Iterate through all shapes in the scene
+        long tests = 0;
         for (Shape s : shapes) {
-            Optional<Intersection> inter = s.intersect(ray);
-            
-            // If an intersection occurred
-            if (inter.isPresent()) {
-                // Check if this intersection is the closest one so far (smallest positive 't' value)
-                if (best == null || inter.get().t < best.t)
-                    best = inter.get();
+            tests += s.getPrimitiveCount();
+            if (s.anyIntersection(ray, tMax)) {
+                RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+                return true;
             }
         }
-        // Return the closest intersection found, or null/empty if none was found
-        return Optional.ofNullable(best);
+        RenderMetrics.count(Counter.INTERSECTION_TESTS, tests);
+        return false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package com.imt.raytracing.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Client of a {@link RenderServer} running on the same machine: it sends the path of a
+ * scene file, and writes the PNG image it receives.
+ */
+public final class RenderClient {
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final int port;
+
+    /**
+     * @param port The port of the server, on the loopback interface.
+     */
+    public RenderClient(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Has a scene rendered by the server, and writes its image.
+     * @param sceneFile The path of the scene file, sent as an absolute path.
+     * @param priority The priority of the job, higher first.
+     * @param output The path of the image, or null for the output named by the scene
+     * (relative to the working directory of the client).
+     * @return The path of the image written.
+     * @throws IOException If the server cannot be reached or fails to render the scene.
+     * @throws InterruptedException If interrupted while waiting for the image.
+     */
+    public Path render(Path sceneFile, int priority, Path output) throws IOException, InterruptedException {
+        String scene = URLEncoder.encode(sceneFile.toAbsolutePath().toString(), StandardCharsets.UTF_8);
+        URI uri = URI.create("http://127.0.0.1:" + port + "/render?scene=" + scene + "&priority=" + priority);
+        HttpResponse<InputStream> response = client.send(HttpRequest.newBuilder(uri).GET().build(),
+                HttpResponse.BodyHandlers.ofInputStream());
+
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                String message = new String(body.readAllBytes(), StandardCharsets.UTF_8).trim();
+                throw new IOException("Render server answered " + response.statusCode() + ": " + message);
+            }
+            Path image = output != null ? output
+                    : Path.of(response.headers().firstValue("X-Output")
+                            .orElseThrow(() -> new IOException("Render server did not name the output")));
+            Files.copy(body, image, StandardCopyOption.REPLACE_EXISTING);
+            return image;
+        }
+    }
+}
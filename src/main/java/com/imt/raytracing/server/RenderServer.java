@@ -0,0 +1,249 @@
+package com.imt.raytracing.server;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.imt.raytracing.imaging.PngWriter;
+import com.imt.raytracing.imaging.Renderer;
+import com.imt.raytracing.raytracer.scene.Scene;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Render daemon: a long-running process answering render requests on a loopback HTTP
+ * endpoint, so that the JVM start-up and the JIT warm-up are paid once, and the scenes
+ * and their acceleration structures are kept in a {@link SceneStore} between requests.
+ *
+ * {@code GET /render?scene=PATH&priority=P} renders the scene file PATH (as seen by the
+ * server) and answers with the PNG image; the {@code X-Output} header holds the output
+ * file named by the scene. Jobs wait in a priority queue, the highest priority first and
+ * in order of arrival for equal priorities, and at most a fixed number are rendered at
+ * once, each one with the threads of the {@link Renderer}. A request is refused with 503
+ * when the queue is full. The jobs are not measured: the active
+ * {@link com.imt.raytracing.metrics.RenderMetrics} would mix the concurrent renders.
+ */
+public final class RenderServer implements Closeable {
+
+    /** Number of jobs waiting to be rendered above which requests are refused. */
+    public static final int MAX_QUEUED_JOBS = 64;
+
+    private final SceneStore scenes;
+    private final Renderer renderer;
+    private final PngWriter pngWriter;
+    private final HttpServer server;
+    /** The threads running the jobs, one per job rendered at once. */
+    private final ThreadPoolExecutor workers;
+    /** The threads of the HTTP exchanges, mostly waiting for their job. */
+    private final ExecutorService exchanges;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Creates a server, listening on the loopback interface once started.
+     * @param scenes The scenes kept in memory.
+     * @param renderer The renderer of the jobs.
+     * @param pngWriter The encoder of the images.
+     * @param jobs The number of jobs rendered at once.
+     * @param port The port to listen on, 0 for any free port.
+     * @throws IOException If the port cannot be bound.
+     */
+    public RenderServer(SceneStore scenes, Renderer renderer, PngWriter pngWriter, int jobs, int port) throws IOException {
+        if (jobs < 1)
+            throw new IllegalArgumentException("Job count must be at least 1: " + jobs);
+        this.scenes = scenes;
+        this.renderer = renderer;
+        this.pngWriter = pngWriter;
+        this.workers = new ThreadPoolExecutor(jobs, jobs, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), daemon("render-job"));
+        this.exchanges = Executors.newCachedThreadPool(daemon("render-request"));
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(exchanges);
+        server.createContext("/render", this::handleRender);
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Starts answering requests, in the background.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The scenes kept in memory.
+     */
+    public SceneStore getScenes() {
+        return scenes;
+    }
+
+    /**
+     * Stops answering requests, and abandons the jobs not rendered yet.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        workers.shutdownNow();
+        exchanges.shutdownNow();
+    }
+
+    /**
+     * Queues the render of a scene file.
+     * @param file The path of the scene file.
+     * @param priority The priority of the job, higher first.
+     * @return The scene and its image, once rendered, or null if the queue is full.
+     */
+    CompletableFuture<Result> submit(Path file, int priority) {
+        if (queued.incrementAndGet() > MAX_QUEUED_JOBS) {
+            queued.decrementAndGet();
+            return null;
+        }
+        Job job = new Job(file, priority, sequence.getAndIncrement());
+        workers.execute(job);
+        return job.result;
+    }
+
+    /** The image of a job, with the scene it comes from. */
+    record Result(Scene scene, BufferedImage image) {}
+
+    /** A render waiting in the queue, ordered by priority then by arrival. */
+    private final class Job implements Runnable, Comparable<Job> {
+        final Path file;
+        final int priority;
+        final long order;
+        final CompletableFuture<Result> result = new CompletableFuture<>();
+
+        Job(Path file, int priority, long order) {
+            this.file = file;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority)
+                return Integer.compare(other.priority, priority);
+            return Long.compare(order, other.order);
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            try {
+                Scene scene = scenes.get(file);
+                result.complete(new Result(scene, renderer.render(scene)));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void handleRender(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                sendText(exchange, 405, "Only GET is supported");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String file = query.get("scene");
+            if (file == null) {
+                sendText(exchange, 400, "Missing scene parameter");
+                return;
+            }
+            int priority;
+            try {
+                priority = Integer.parseInt(query.getOrDefault("priority", "0"));
+            } catch (NumberFormatException e) {
+                sendText(exchange, 400, "Invalid priority: " + query.get("priority"));
+                return;
+            }
+
+            CompletableFuture<Result> job = submit(Path.of(file), priority);
+            if (job == null) {
+                sendText(exchange, 503, "Too many jobs waiting");
+                return;
+            }
+            Result result;
+            try {
+                result = job.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof NoSuchFileException)
+                    sendText(exchange, 404, "No such scene file: " + file);
+                else
+                    sendText(exchange, 500, "Failed to render " + file + ": " + cause);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.getResponseHeaders().set("X-Output", result.scene().getOutput());
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                pngWriter.write(result.image(), out);
+            }
+        }
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * @param rawQuery The query of a URI, still encoded, or null.
+     * @return The decoded parameters.
+     */
+    static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) return parameters;
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+}
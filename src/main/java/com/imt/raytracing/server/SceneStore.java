@@ -0,0 +1,129 @@
+package com.imt.raytracing.server;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Scenes kept in memory between renders, with their acceleration structures, keyed by
+ * the path of their file.
+ *
+ * An entry is valid as long as the modification time of its file is unchanged: a file
+ * modified since it was parsed is parsed again on the next request. A scene requested
+ * by several renders at once is only parsed once, the others wait for it. Once there are
+ * more than the maximum number of entries, the least recently used ones are dropped.
+ *
+ * The scenes are shared by all the renders using them, and must not be modified.
+ */
+public final class SceneStore {
+
+    /** Number of scenes kept when none is given. */
+    public static final int DEFAULT_MAX_SCENES = 16;
+
+    /** Parses a scene file. */
+    @FunctionalInterface
+    public interface Loader {
+        Scene load(Path file) throws Exception;
+    }
+
+    /** A scene, parsed or being parsed, from a given version of its file. */
+    private static final class Entry {
+        final FileTime modified;
+        final FutureTask<Scene> scene;
+        volatile long lastUsed;
+
+        Entry(FileTime modified, FutureTask<Scene> scene) {
+            this.modified = modified;
+            this.scene = scene;
+        }
+    }
+
+    private final Loader loader;
+    private final int maxScenes;
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    /** Logical clock ordering the uses of the entries. */
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    /**
+     * @param loader The parser of the scene files.
+     * @param maxScenes The number of scenes above which the least recently used ones are dropped.
+     */
+    public SceneStore(Loader loader, int maxScenes) {
+        if (maxScenes < 1)
+            throw new IllegalArgumentException("Scene count must be at least 1: " + maxScenes);
+        this.loader = loader;
+        this.maxScenes = maxScenes;
+    }
+
+    /**
+     * Returns the scene of a file, parsing it unless it is in memory and the file did
+     * not change since.
+     * @param file The path of the scene file.
+     * @return The scene, shared with the other users of the file.
+     * @throws Exception If the file cannot be read or parsed.
+     */
+    public Scene get(Path file) throws Exception {
+        Path key = file.toAbsolutePath().normalize();
+        FileTime modified = Files.getLastModifiedTime(key);
+        Entry entry = entries.compute(key, (k, old) -> old != null && old.modified.equals(modified) ? old
+                : new Entry(modified, new FutureTask<>(() -> {
+                    loads.incrementAndGet();
+                    return loader.load(k);
+                })));
+        entry.lastUsed = clock.incrementAndGet();
+        evict();
+
+        // Only the first caller parses, the others wait for it
+        entry.scene.run();
+        try {
+            return entry.scene.get();
+        } catch (ExecutionException e) {
+            // Parsed again on the next request
+            entries.remove(key, entry);
+            if (e.getCause() instanceof Exception cause)
+                throw cause;
+            throw e;
+        }
+    }
+
+    /** Drops the least recently used entries above the limit. */
+    private void evict() {
+        while (entries.size() > maxScenes) {
+            Map.Entry<Path, Entry> oldest = entries.entrySet().stream()
+                    .min(Comparator.comparingLong(e -> e.getValue().lastUsed))
+                    .orElse(null);
+            if (oldest == null) return;
+            entries.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    /**
+     * @return The number of scenes in memory.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of times a scene file was parsed.
+     */
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    /**
+     * Drops every scene.
+     */
+    public void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,103 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import java.util.Arrays;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernel testing the {@link #LANES} primitives of a block at once with the Vector API.
+ * Only compiled with the {@code simd} profile, and only loaded when the application
+ * runs with {@code --add-modules jdk.incubator.vector}, see {@link LeafKernel#select()}.
+ *
+ * The operations are the lanewise versions of those of {@link ScalarLeafKernel}, in
+ * the same order and without fused multiply-adds, so both kernels give the same bits.
+ */
+final class VectorLeafKernel implements LeafKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_256;
+
+    @Override
+    public boolean isAccelerated() {
+        // Wider hardware vectors hold a whole block, narrower ones would be emulated
+        return DoubleVector.SPECIES_PREFERRED.length() >= LANES;
+    }
+
+    @Override
+    public void triangles(double[] data, int offset, double ox, double oy, double oz,
+                          double dx, double dy, double dz, double[] t) {
+        DoubleVector abx = load(data, offset + 3 * LANES), aby = load(data, offset + 4 * LANES), abz = load(data, offset + 5 * LANES);
+        DoubleVector acx = load(data, offset + 6 * LANES), acy = load(data, offset + 7 * LANES), acz = load(data, offset + 8 * LANES);
+
+        // pvec = direction × ac
+        DoubleVector px = acz.mul(dy).sub(acy.mul(dz));
+        DoubleVector py = acx.mul(dz).sub(acz.mul(dx));
+        DoubleVector pz = acy.mul(dx).sub(acx.mul(dy));
+        DoubleVector det = abx.mul(px).add(aby.mul(py)).add(abz.mul(pz));
+        VectorMask<Double> miss = det.abs().compare(VectorOperators.LT, 1e-8);
+
+        DoubleVector invDet = DoubleVector.broadcast(SPECIES, 1.0).div(det);
+
+        // tvec = origin - a
+        DoubleVector tx = DoubleVector.broadcast(SPECIES, ox).sub(load(data, offset));
+        DoubleVector ty = DoubleVector.broadcast(SPECIES, oy).sub(load(data, offset + LANES));
+        DoubleVector tz = DoubleVector.broadcast(SPECIES, oz).sub(load(data, offset + 2 * LANES));
+        DoubleVector u = tx.mul(px).add(ty.mul(py)).add(tz.mul(pz)).mul(invDet);
+        miss = miss.or(u.compare(VectorOperators.LT, 0)).or(u.compare(VectorOperators.GT, 1));
+        // Most blocks are missed by most rays: stop as soon as every lane is
+        if (miss.allTrue()) {
+            Arrays.fill(t, Double.POSITIVE_INFINITY);
+            return;
+        }
+
+        // qvec = tvec × ab
+        DoubleVector qx = ty.mul(abz).sub(tz.mul(aby));
+        DoubleVector qy = tz.mul(abx).sub(tx.mul(abz));
+        DoubleVector qz = tx.mul(aby).sub(ty.mul(abx));
+        DoubleVector v = qx.mul(dx).add(qy.mul(dy)).add(qz.mul(dz)).mul(invDet);
+        miss = miss.or(v.compare(VectorOperators.LT, 0)).or(u.add(v).compare(VectorOperators.GT, 1));
+
+        DoubleVector d = acx.mul(qx).add(acy.mul(qy)).add(acz.mul(qz)).mul(invDet);
+        miss = miss.or(d.compare(VectorOperators.LE, 0));
+
+        d.blend(Double.POSITIVE_INFINITY, miss).intoArray(t, 0);
+    }
+
+    @Override
+    public void spheres(double[] data, int offset, double ox, double oy, double oz,
+                        double dx, double dy, double dz, double[] t) {
+        // oc = origin - center
+        DoubleVector ocx = DoubleVector.broadcast(SPECIES, ox).sub(load(data, offset));
+        DoubleVector ocy = DoubleVector.broadcast(SPECIES, oy).sub(load(data, offset + LANES));
+        DoubleVector ocz = DoubleVector.broadcast(SPECIES, oz).sub(load(data, offset + 2 * LANES));
+        DoubleVector radius = load(data, offset + 3 * LANES);
+
+        // The same for every lane
+        double a = dx*dx + dy*dy + dz*dz;
+        DoubleVector b = ocx.mul(dx).add(ocy.mul(dy)).add(ocz.mul(dz)).mul(2.0);
+        DoubleVector c = ocx.mul(ocx).add(ocy.mul(ocy)).add(ocz.mul(ocz)).sub(radius.mul(radius));
+
+        DoubleVector delta = b.mul(b).sub(c.mul(4 * a));
+        VectorMask<Double> miss = delta.compare(VectorOperators.LT, 0);
+        if (miss.allTrue()) {
+            Arrays.fill(t, Double.POSITIVE_INFINITY);
+            return;
+        }
+
+        DoubleVector sqrt = delta.lanewise(VectorOperators.SQRT);
+        DoubleVector t1 = b.neg().sub(sqrt).div(2 * a);
+        DoubleVector t2 = b.neg().add(sqrt).div(2 * a);
+
+        DoubleVector d = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        d = d.blend(t1, t1.compare(VectorOperators.GT, 0));
+        d = d.blend(t2, t2.compare(VectorOperators.GT, 0).and(t2.compare(VectorOperators.LT, d)));
+
+        d.blend(Double.POSITIVE_INFINITY, miss).intoArray(t, 0);
+    }
+
+    private static DoubleVector load(double[] data, int offset) {
+        return DoubleVector.fromArray(SPECIES, data, offset);
+    }
+}
@@ -0,0 +1,254 @@
+package com.imt.raytracing.distributed;
+
+import static com.imt.raytracing.imaging.ImageAssertions.assertSameImage;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.imt.raytracing.imaging.AdaptiveSampler;
+import com.imt.raytracing.imaging.Renderer;
+import com.imt.raytracing.parsing.BinarySceneFormat;
+import com.imt.raytracing.parsing.SceneFileParser;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Tests of the distributed render: whatever the workers do, the image must be the
+ * one of a local render, bit for bit.
+ */
+public class TileCoordinatorTest {
+
+    private static Scene scene;
+    private static BufferedImage expected;
+
+    @BeforeAll
+    static void renderLocally() throws Exception {
+        scene = new SceneFileParser().parse("src/test/resources/imagetest/tp62-1.test");
+        expected = new Renderer().render(scene);
+    }
+
+    private static InetSocketAddress loopback(int port) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    private static RenderWorker worker(Renderer renderer, int threads) throws IOException {
+        RenderWorker worker = new RenderWorker(loopback(0), renderer, threads);
+        worker.start();
+        return worker;
+    }
+
+    @Test
+    void testRender_IdenticalToLocalRender() throws Exception {
+        try (RenderWorker first = worker(new Renderer(), 2);
+             RenderWorker second = worker(new Renderer(1, 32, true), 1)) {
+            // A tile size that does not divide the image
+            TileCoordinator coordinator = new TileCoordinator(
+                    List.of(loopback(first.getPort()), loopback(second.getPort())), 37);
+            assertSameImage(expected, coordinator.render(scene));
+
+            // The workers keep the scene
+            assertSameImage(expected, coordinator.render(scene));
+            assertEquals(1, first.getScenesReceived());
+            assertEquals(1, second.getScenesReceived());
+        }
+    }
+
+    @Test
+    void testRender_WorkersUseCoordinatorSampler() throws Exception {
+        AdaptiveSampler sampler = new AdaptiveSampler(3, 0.05);
+        BufferedImage antialiased = new Renderer(1, 32, false, false, sampler).render(scene);
+        try (RenderWorker plain = worker(new Renderer(), 1);
+             RenderWorker other = worker(new Renderer(1, 32, false, false, new AdaptiveSampler(2)), 1)) {
+            List<InetSocketAddress> addresses = List.of(loopback(plain.getPort()), loopback(other.getPort()));
+            assertSameImage(antialiased, new TileCoordinator(addresses, 37, sampler).render(scene));
+            // The next session goes back to one ray per pixel
+            assertSameImage(expected, new TileCoordinator(addresses, 37).render(scene));
+        }
+    }
+
+    @Test
+    void testWorker_RefusesInvalidSampler() throws Exception {
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+        BinarySceneFormat.write(scene, compiled, true);
+        byte[] bytes = compiled.toByteArray();
+        try (RenderWorker worker = worker(new Renderer(), 1);
+             Socket socket = new Socket(InetAddress.getLoopbackAddress(), worker.getPort())) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            assertEquals(TileProtocol.MAGIC, in.readInt());
+            assertEquals(TileProtocol.VERSION, in.readInt());
+            in.readInt();
+            out.write(TileProtocol.hash(bytes));
+            out.flush();
+            assertFalse(in.readBoolean());
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            // A grid of a single sample
+            out.writeBoolean(true);
+            out.writeInt(1);
+            out.writeDouble(AdaptiveSampler.DEFAULT_THRESHOLD);
+            out.flush();
+            assertEquals(TileProtocol.FAILED, in.readByte());
+            assertTrue(in.readUTF().contains("grid"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    /**
+     * A fake worker which takes the scene and some tiles, then either never answers,
+     * or drops the connection.
+     */
+    private static Thread fakeWorker(ServerSocket server, boolean hang) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(TileProtocol.MAGIC);
+                out.writeInt(TileProtocol.VERSION);
+                out.writeInt(2);
+                in.readFully(new byte[TileProtocol.HASH_BYTES]);
+                out.writeBoolean(false);
+                in.readFully(new byte[in.readInt()]);
+                assertFalse(in.readBoolean(), "No anti-aliasing");
+                out.writeByte(TileProtocol.READY);
+                out.flush();
+                // Takes a first tile
+                in.readByte();
+                in.readFully(new byte[20]);
+                if (hang) {
+                    // Until the coordinator is done
+                    while (in.read() >= 0) {
+                    }
+                }
+            } catch (IOException e) {
+                // Closed by the coordinator
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    void testRender_StuckWorkerTilesAreReissued() throws Exception {
+        try (ServerSocket stuck = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             RenderWorker worker = worker(new Renderer(), 1)) {
+            Thread fake = fakeWorker(stuck, true);
+            TileCoordinator coordinator = new TileCoordinator(
+                    List.of(loopback(stuck.getLocalPort()), loopback(worker.getPort())), 64);
+            assertSameImage(expected, coordinator.render(scene));
+            fake.join(5000);
+            assertFalse(fake.isAlive(), "The coordinator should close the connection once done");
+        }
+    }
+
+    @Test
+    void testRender_FailedWorkerTilesGoBack() throws Exception {
+        try (ServerSocket failing = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             RenderWorker worker = worker(new Renderer(), 1)) {
+            fakeWorker(failing, false);
+            TileCoordinator coordinator = new TileCoordinator(
+                    List.of(loopback(failing.getLocalPort()), loopback(worker.getPort())), 64);
+            assertSameImage(expected, coordinator.render(scene));
+        }
+    }
+
+    @Test
+    void testRender_FailingTileGoesToOtherWorker() throws Exception {
+        Renderer failing = new Renderer() {
+            @Override
+            public void renderTile(Scene scene, int x0, int y0, int x1, int y1, int[] pixels) {
+                throw new IllegalStateException("Broken renderer");
+            }
+        };
+        try (RenderWorker broken = worker(failing, 1);
+             RenderWorker worker = worker(new Renderer(), 1)) {
+            TileCoordinator coordinator = new TileCoordinator(
+                    List.of(loopback(broken.getPort()), loopback(worker.getPort())), 64);
+            assertSameImage(expected, coordinator.render(scene));
+
+            // Alone, the broken worker fails the render instead of leaving it waiting
+            TileCoordinator alone = new TileCoordinator(List.of(loopback(broken.getPort())), 64);
+            assertThrows(IOException.class, () -> alone.render(scene));
+        }
+    }
+
+    @Test
+    void testWorker_RefusesInvalidSceneLength() throws Exception {
+        try (RenderWorker worker = worker(new Renderer(), 1)) {
+            for (int length : new int[] { -1, TileProtocol.MAX_SCENE_BYTES + 1 }) {
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), worker.getPort())) {
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    assertEquals(TileProtocol.MAGIC, in.readInt());
+                    assertEquals(TileProtocol.VERSION, in.readInt());
+                    in.readInt();
+                    out.write(new byte[TileProtocol.HASH_BYTES]);
+                    out.flush();
+                    assertFalse(in.readBoolean());
+                    out.writeInt(length);
+                    out.flush();
+                    assertEquals(TileProtocol.FAILED, in.readByte());
+                    assertTrue(in.readUTF().contains("Invalid scene length"));
+                    // The worker ends the session
+                    assertEquals(-1, in.read());
+                }
+            }
+            assertEquals(0, worker.getScenesReceived());
+        }
+    }
+
+    @Test
+    void testRender_NoWorkerLeft() throws Exception {
+        int port;
+        try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = closed.getLocalPort();
+        }
+        TileCoordinator coordinator = new TileCoordinator(List.of(loopback(port)), 64);
+        assertThrows(IOException.class, () -> coordinator.render(scene));
+    }
+
+    @Test
+    void testRender_LocalWorkerProcesses() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<>();
+        try {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        "com.imt.raytracing.Main", "--worker", "0", "--threads", "1")
+                        .redirectErrorStream(true).start();
+                processes.add(process);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                String line = reader.readLine();
+                assertNotNull(line, "The worker process should print its port");
+                addresses.add(loopback(Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1))));
+            }
+            assertSameImage(expected, new TileCoordinator(addresses, 32).render(scene));
+        } finally {
+            for (Process process : processes)
+                process.destroyForcibly();
+        }
+    }
+
+    @Test
+    void testConstructor_RejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new TileCoordinator(List.of(), 32));
+        assertThrows(IllegalArgumentException.class, () -> new TileCoordinator(List.of(loopback(1)), 0));
+    }
+}
@@ -0,0 +1,61 @@
+package com.imt.raytracing.geometry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for the BoundingBox class (growth, surface area and axis queries).
+ */
+public class BoundingBoxTest {
+
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    void testEmptyBox() {
+        BoundingBox box = new BoundingBox();
+        assertTrue(box.isEmpty(), "A new box should be empty.");
+        assertEquals(0.0, box.surfaceArea(), EPSILON);
+    }
+
+    @Test
+    void testExpandWithPoints() {
+        BoundingBox box = new BoundingBox();
+        box.expand(1, 2, 3);
+        box.expand(-1, 0, 5);
+
+        assertFalse(box.isEmpty());
+        assertEquals(-1.0, box.minX, EPSILON);
+        assertEquals(0.0, box.minY, EPSILON);
+        assertEquals(3.0, box.minZ, EPSILON);
+        assertEquals(1.0, box.maxX, EPSILON);
+        assertEquals(2.0, box.maxY, EPSILON);
+        assertEquals(5.0, box.maxZ, EPSILON);
+    }
+
+    @Test
+    void testExpandWithBox() {
+        BoundingBox box = new BoundingBox(0, 0, 0, 1, 1, 1);
+        box.expand(new BoundingBox(2, -1, 0, 3, 0, 1));
+
+        assertEquals(0.0, box.minX, EPSILON);
+        assertEquals(-1.0, box.minY, EPSILON);
+        assertEquals(3.0, box.maxX, EPSILON);
+        assertEquals(1.0, box.maxY, EPSILON);
+
+        // Expanding with an empty box changes nothing
+        box.expand(new BoundingBox());
+        assertEquals(3.0, box.maxX, EPSILON);
+    }
+
+    @Test
+    void testSurfaceAreaAndAxes() {
+        BoundingBox box = new BoundingBox(0, 0, 0, 4, 2, 1);
+
+        // 2 * (4*2 + 2*1 + 1*4) = 28
+        assertEquals(28.0, box.surfaceArea(), EPSILON);
+        assertEquals(0, box.largestAxis(), "X is the widest axis.");
+        assertEquals(1.0, box.center(1), EPSILON);
+        assertEquals(1.0, box.max(2), EPSILON);
+    }
+}
@@ -0,0 +1,112 @@
+package com.imt.raytracing.geometry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for the Transform class.
+ */
+public class TransformTest {
+
+    private static final double EPSILON = 1e-12;
+
+    private static void assertPoint(double x, double y, double z, Point p) {
+        assertEquals(x, p.x, EPSILON);
+        assertEquals(y, p.y, EPSILON);
+        assertEquals(z, p.z, EPSILON);
+    }
+
+    private static void assertVector(double x, double y, double z, Vector v) {
+        assertEquals(x, v.x, EPSILON);
+        assertEquals(y, v.y, EPSILON);
+        assertEquals(z, v.z, EPSILON);
+    }
+
+    @Test
+    void testTranslation_MovesPointsNotVectors() {
+        Transform t = Transform.translation(1, 2, 3);
+        assertPoint(2, 3, 4, t.apply(new Point(1, 1, 1)));
+        assertVector(1, 1, 1, t.apply(new Vector(1, 1, 1)));
+        assertPoint(1, 1, 1, t.applyInverse(new Point(2, 3, 4)));
+    }
+
+    @Test
+    void testRotation_QuarterTurnAroundZ() {
+        Transform r = Transform.rotation(0, 0, 2, 90);
+        assertVector(0, 1, 0, r.apply(new Vector(1, 0, 0)));
+        assertVector(-1, 0, 0, r.apply(new Vector(0, 1, 0)));
+        assertVector(0, 0, 1, r.apply(new Vector(0, 0, 1)));
+    }
+
+    @Test
+    void testMultiply_AppliesTheRightOperandFirst() {
+        // Scale first, then translate
+        Transform t = Transform.translation(10, 0, 0).multiply(Transform.scaling(2, 2, 2));
+        assertPoint(12, 2, 2, t.apply(new Point(1, 1, 1)));
+    }
+
+    @Test
+    void testInverse_UndoesTheTransform() {
+        Transform t = Transform.translation(1, -2, 3)
+                .multiply(Transform.rotation(1, 2, 3, 37))
+                .multiply(Transform.scaling(2, 0.5, 3));
+        Random random = new Random(3);
+        for (int k = 0; k < 100; k++) {
+            Point p = new Point(random.nextDouble(), random.nextDouble(), random.nextDouble());
+            Point back = t.inverse().apply(t.apply(p));
+            assertEquals(p.x, back.x, 1e-9);
+            assertEquals(p.y, back.y, 1e-9);
+            assertEquals(p.z, back.z, 1e-9);
+        }
+    }
+
+    @Test
+    void testApplyNormal_StaysPerpendicularToTheSurface() {
+        // Non-uniform scale: a plain transform of the normal would tilt it
+        Transform t = Transform.scaling(4, 1, 1).multiply(Transform.rotation(0, 0, 1, 30));
+        Vector tangent = new Vector(1, 1, 0);
+        Vector normal = new Vector(1, -1, 0);
+
+        assertEquals(0, t.apply(tangent).dot(t.applyNormal(normal)), EPSILON);
+    }
+
+    @Test
+    void testApplyBoundingBox_EnclosesTheTransformedCorners() {
+        Transform r = Transform.rotation(0, 0, 1, 45);
+        BoundingBox box = r.apply(new BoundingBox(0, 0, 0, 1, 1, 1));
+        double d = Math.sqrt(0.5);
+        assertEquals(-d, box.minX, EPSILON);
+        assertEquals(d, box.maxX, EPSILON);
+        assertEquals(0, box.minY, EPSILON);
+        assertEquals(2 * d, box.maxY, EPSILON);
+        assertEquals(1, box.maxZ, EPSILON);
+
+        assertTrue(r.apply(new BoundingBox()).isEmpty());
+    }
+
+    @Test
+    void testSingularTransform() {
+        Transform flat = Transform.scaling(1, 0, 1);
+        assertFalse(flat.isInvertible());
+        assertTrue(Transform.IDENTITY.isInvertible());
+        assertThrows(IllegalStateException.class, flat::inverse);
+        assertThrows(IllegalStateException.class, () -> flat.applyInverse(new Point(0, 0, 0)));
+    }
+
+    @Test
+    void testOf_RejectsInvalidMatrices() {
+        assertThrows(IllegalArgumentException.class, () -> Transform.of(1, 2, 3));
+        assertThrows(IllegalArgumentException.class,
+                () -> Transform.of(1, 0, 0, 0, 0, 1, 0, 0, 0, 0, Double.NaN, 0));
+        assertThrows(IllegalArgumentException.class, () -> Transform.rotation(0, 0, 0, 10));
+    }
+
+    @Test
+    void testGetMatrix_RoundTrip() {
+        Transform t = Transform.rotation(1, 1, 0, 20).multiply(Transform.translation(1, 2, 3));
+        assertEquals(t, Transform.of(t.getMatrix()));
+    }
+}
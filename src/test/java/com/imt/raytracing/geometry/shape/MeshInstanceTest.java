@@ -0,0 +1,202 @@
+package com.imt.raytracing.geometry.shape;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.imt.raytracing.geometry.BoundingBox;
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Transform;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.acceleration.AcceleratorType;
+import com.imt.raytracing.raytracer.acceleration.BVH;
+import com.imt.raytracing.raytracer.scene.Intersection;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Unit tests for the MeshInstance class. An instance must behave like a copy of its
+ * mesh whose geometry has been moved by the transform.
+ */
+public class MeshInstanceTest {
+
+    private static final double EPSILON = 1e-9;
+
+    private final Color red = new Color(1, 0, 0);
+    private final Color blue = new Color(0, 0, 1);
+    private final Color white = new Color(1, 1, 1);
+
+    // A unit square in the XZ plane, a tilted triangle and a sphere above them
+    private final double[] positions = {
+        0, 0, 0,   1, 0, 0,   1, 0, 1,   0, 0, 1,
+        0, 1, 0,   1, 2, 1
+    };
+    private final int[] indices = { 0, 1, 2,  0, 2, 3,  4, 5, 3 };
+
+    private MeshPrototype prototype() {
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(new TriangleMesh(positions, indices, red, white, 10));
+        shapes.add(new Sphere(new Point(0.5, 1, 0.5), 0.25, blue, white, 20));
+        MeshPrototype mesh = new MeshPrototype("thing", shapes);
+        mesh.setAccelerator(new BVH(shapes));
+        return mesh;
+    }
+
+    /** The same shapes as the prototype, moved by the transform (the sphere only for similarities). */
+    private List<Shape> transformedCopy(Transform t, double uniformScale) {
+        double[] moved = new double[positions.length];
+        for (int i = 0; i < positions.length; i += 3) {
+            Point p = t.apply(new Point(positions[i], positions[i + 1], positions[i + 2]));
+            moved[i] = p.x;
+            moved[i + 1] = p.y;
+            moved[i + 2] = p.z;
+        }
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(new TriangleMesh(moved, indices, red, white, 10));
+        if (uniformScale > 0)
+            shapes.add(new Sphere(t.apply(new Point(0.5, 1, 0.5)), 0.25 * uniformScale, blue, white, 20));
+        return shapes;
+    }
+
+    private void assertSameHits(MeshInstance instance, List<Shape> reference) {
+        Scene expected = new Scene();
+        expected.shapes = reference;
+        BoundingBox box = instance.getBoundingBox();
+
+        Random random = new Random(11);
+        int hits = 0;
+        for (int k = 0; k < 2000; k++) {
+            Point origin = new Point(box.center(0) + random.nextDouble() * 20 - 10,
+                    box.center(1) + random.nextDouble() * 20 - 10, box.center(2) + random.nextDouble() * 20 - 10);
+            Point target = new Point(box.minX + random.nextDouble() * (box.maxX - box.minX),
+                    box.minY + random.nextDouble() * (box.maxY - box.minY),
+                    box.minZ + random.nextDouble() * (box.maxZ - box.minZ));
+            Ray ray = new Ray(origin, target.sub(origin));
+
+            Optional<Intersection> e = expected.closestIntersection(ray);
+            Optional<Intersection> a = instance.intersect(ray);
+            assertEquals(e.isPresent(), a.isPresent(), "ray " + k);
+            if (e.isEmpty()) continue;
+            hits++;
+
+            assertEquals(e.get().t, a.get().t, EPSILON * Math.max(1, e.get().t));
+            assertSame(e.get().shape.diffuse, a.get().shape.diffuse, "The material comes from the mesh.");
+            assertEquals(e.get().point.x, a.get().point.x, EPSILON * 10);
+            assertEquals(e.get().point.z, a.get().point.z, EPSILON * 10);
+            // Face normals may point either way, the orientation follows the shape
+            assertEquals(1, Math.abs(e.get().normal.dot(a.get().normal)), 1e-6);
+
+            double tMax = e.get().t;
+            assertTrue(instance.anyIntersection(ray, tMax * 1.001));
+            assertEquals(expected.anyIntersection(ray, tMax * 0.999), instance.anyIntersection(ray, tMax * 0.999));
+        }
+        assertTrue(hits > 500, "Most rays aim at the instance.");
+    }
+
+    @Test
+    void testIdentity() {
+        MeshInstance instance = new MeshInstance(prototype(), Transform.IDENTITY);
+        assertSameHits(instance, transformedCopy(Transform.IDENTITY, 1));
+    }
+
+    @Test
+    void testRigidMotionAndUniformScale() {
+        Transform t = Transform.translation(5, -2, 3)
+                .multiply(Transform.rotation(1, 2, -1, 63))
+                .multiply(Transform.scaling(2.5, 2.5, 2.5));
+        assertSameHits(new MeshInstance(prototype(), t), transformedCopy(t, 2.5));
+    }
+
+    @Test
+    void testNonUniformScale() {
+        // A sphere does not stay a sphere: only the triangles are compared
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(new TriangleMesh(positions, indices, red, white, 10));
+        MeshPrototype mesh = new MeshPrototype("flat", shapes);
+        Transform t = Transform.rotation(0, 1, 0, 30).multiply(Transform.scaling(3, 0.5, 1));
+        assertSameHits(new MeshInstance(mesh, t), transformedCopy(t, 0));
+    }
+
+    @Test
+    void testNormal_IsUnitAndFacesTheRay() {
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(new Sphere(new Point(0.5, 1, 0.5), 0.25, blue, white, 20));
+        MeshInstance instance = new MeshInstance(new MeshPrototype("ball", shapes), Transform.scaling(1, 4, 1));
+        Ray ray = new Ray(new Point(0.5, 10, 0.5), new Vector(0, -1, 0));
+
+        Intersection hit = instance.intersect(ray).orElseThrow();
+        // The top of the stretched sphere, at 4 * (1 + 0.25)
+        assertEquals(5, hit.point.y, EPSILON);
+        assertEquals(10 - 5, hit.t, EPSILON);
+        assertEquals(1, hit.normal.length(), EPSILON);
+        assertEquals(1, hit.normal.y, EPSILON);
+        assertTrue(hit instanceof MeshInstance.IntersectionInstance);
+        assertSame(instance, ((MeshInstance.IntersectionInstance) hit).instance);
+    }
+
+    @Test
+    void testBoundingBox() {
+        MeshInstance instance = new MeshInstance(prototype(), Transform.translation(10, 0, 0));
+        BoundingBox box = instance.getBoundingBox();
+        assertEquals(10, box.minX, EPSILON);
+        assertEquals(11, box.maxX, EPSILON);
+        assertEquals(2, box.maxY, EPSILON);
+        assertEquals(1, instance.getPrimitiveCount());
+
+        MeshInstance empty = new MeshInstance(new MeshPrototype("empty", new ArrayList<>()), Transform.IDENTITY);
+        assertNull(empty.getBoundingBox());
+        assertTrue(empty.intersect(new Ray(new Point(0, 0, -1), new Vector(0, 0, 1))).isEmpty());
+    }
+
+    @Test
+    void testSingularTransformIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new MeshInstance(prototype(), Transform.scaling(0, 1, 1)));
+    }
+
+    @Test
+    void testScene_AllAcceleratorsAgree() {
+        MeshPrototype mesh = prototype();
+        Scene scene = new Scene();
+        scene.meshes.add(mesh);
+        for (int i = 0; i < 5; i++) {
+            scene.shapes.add(new MeshInstance(mesh, Transform.translation(2 * i, 0, 0)
+                    .multiply(Transform.rotation(0, 1, 0, 20 * i))));
+        }
+        scene.shapes.add(new Sphere(new Point(4, 5, 0), 1, blue, white, 20));
+
+        Random random = new Random(5);
+        Ray[] rays = new Ray[500];
+        for (int k = 0; k < rays.length; k++) {
+            rays[k] = new Ray(new Point(random.nextDouble() * 10 - 1, 8, random.nextDouble() * 4 - 2),
+                    new Vector(random.nextDouble() - 0.5, -1, random.nextDouble() - 0.5));
+        }
+
+        scene.buildAccelerationStructure(AcceleratorType.NONE);
+        assertNull(mesh.getAccelerator());
+        Intersection[] expected = new Intersection[rays.length];
+        for (int k = 0; k < rays.length; k++)
+            expected[k] = scene.closestIntersection(rays[k]).orElse(null);
+
+        for (AcceleratorType type : new AcceleratorType[] {AcceleratorType.BVH, AcceleratorType.LBVH, AcceleratorType.GRID}) {
+            scene.buildAccelerationStructure(type);
+            assertNotNull(mesh.getAccelerator(), type.name());
+            for (int k = 0; k < rays.length; k++) {
+                Intersection hit = scene.closestIntersection(rays[k]).orElse(null);
+                if (expected[k] == null) {
+                    assertNull(hit, type + " ray " + k);
+                } else {
+                    assertNotNull(hit, type + " ray " + k);
+                    assertEquals(expected[k].t, hit.t, 0.0, type + " ray " + k);
+                    assertSame(expected[k].shape, hit.shape, type + " ray " + k);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.imt.raytracing.geometry.shape;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.acceleration.BVH;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+
+/**
+ * Unit tests for the MeshPrototype class.
+ */
+public class MeshPrototypeTest {
+
+    private final Color color = new Color(0.5, 0.5, 0.5);
+
+    private MeshPrototype threeShapes() {
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(new Sphere(new Point(0, 0, 0), 1, color, color, 10));
+        shapes.add(new TriangleMesh(new double[] {0, 0, 5, 1, 0, 5, 0, 1, 5, 1, 1, 5},
+                new int[] {0, 1, 2, 1, 3, 2}, color, color, 10));
+        shapes.add(new Sphere(new Point(0, 0, 10), 1, color, color, 10));
+        return new MeshPrototype("three", shapes);
+    }
+
+    @Test
+    void testPrimitiveNumbering() {
+        MeshPrototype mesh = threeShapes();
+        assertEquals(4, mesh.getPrimitiveCount());
+        assertEquals(0, mesh.getPrimitiveOffset(0));
+        assertEquals(1, mesh.getPrimitiveOffset(1));
+        assertEquals(3, mesh.getPrimitiveOffset(2));
+
+        int[] expected = {0, 1, 1, 2};
+        for (int p = 0; p < expected.length; p++)
+            assertEquals(expected[p], mesh.getShapeIndex(p), "primitive " + p);
+    }
+
+    @Test
+    void testBoundingBox() {
+        MeshPrototype mesh = threeShapes();
+        assertEquals(-1, mesh.getBoundingBox().minZ, 1e-12);
+        assertEquals(11, mesh.getBoundingBox().maxZ, 1e-12);
+        assertTrue(new MeshPrototype("empty", new ArrayList<>()).getBoundingBox().isEmpty());
+    }
+
+    @Test
+    void testUnboundedShapeIsRejected() {
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(new Plane(new Point(0, 0, 0), new Vector(0, 1, 0), color, color, 10));
+        assertThrows(IllegalArgumentException.class, () -> new MeshPrototype("plane", shapes));
+    }
+
+    @Test
+    void testClosestHit_WithAndWithoutAccelerator() {
+        MeshPrototype mesh = threeShapes();
+        Ray ray = new Ray(new Point(0.2, 0.2, 20), new Vector(0, 0, -1));
+
+        for (int pass = 0; pass < 2; pass++) {
+            HitRecord hit = new HitRecord();
+            assertTrue(mesh.closestHit(ray, hit));
+            // The far sphere, seen from behind
+            assertSame(mesh.shapes.get(2), hit.shape);
+            assertEquals(2, hit.order >>> 32);
+            assertTrue(mesh.anyIntersection(ray, 20));
+            assertFalse(mesh.anyIntersection(ray, 5));
+            mesh.setAccelerator(new BVH(mesh.shapes));
+        }
+    }
+}
@@ -128,4 +128,15 @@ public class PlaneTest {
 
         assertFalse(inter.isPresent(), "Ray pointing away from the plane should not hit.");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testAnyIntersection_RespectsInterval() {
+        // Ray starts at (0, 10, 0) and points straight down: the hit is at t=10
+        Ray ray = new Ray(new Point(0, 10, 0), new Vector(0, -1, 0));
+
+        assertTrue(plane.anyIntersection(ray, 20.0));
+        assertFalse(plane.anyIntersection(ray, 5.0));
+        assertFalse(plane.anyIntersection(new Ray(new Point(1, 5, 0), new Vector(1, 0, 0)), 100.0),
+                "A parallel ray never hits the plane.");
+    }
+}
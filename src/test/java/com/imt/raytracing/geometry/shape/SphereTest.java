@@ -133,4 +133,23 @@ public class SphereTest {
         // Intersections: t1=0, t2=-10. t=0 should be ignored by t > epsilon check.
         assertFalse(inter.isPresent(), "Intersection exactly on the origin (t <= epsilon) should be ignored.");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testAnyIntersection_RespectsInterval() {
+        // Ray from (0, 0, -10) along +Z: roots at t=5 and t=15
+        Ray ray = new Ray(new Point(0, 0, -10), new Vector(0, 0, 1));
+
+        assertTrue(sphere.anyIntersection(ray, Double.POSITIVE_INFINITY));
+        assertTrue(sphere.anyIntersection(ray, 6.0), "The front hit at t=5 lies inside (0, 6).");
+        assertFalse(sphere.anyIntersection(ray, 5.0), "The interval upper bound is exclusive.");
+    }
+
+    @Test
+    void testAnyIntersection_FromInside() {
+        // From the center, only the far root (t=5) is positive
+        Ray ray = new Ray(new Point(0, 0, 0), new Vector(1, 0, 0));
+
+        assertTrue(sphere.anyIntersection(ray, 10.0));
+        assertFalse(sphere.anyIntersection(ray, 4.0));
+    }
+}
@@ -0,0 +1,136 @@
+package com.imt.raytracing.geometry.shape;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.imt.raytracing.geometry.BoundingBox;
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.TriangleMesh.IntersectionMesh;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+import com.imt.raytracing.raytracer.scene.Intersection;
+
+/**
+ * Unit tests for the TriangleMesh class. Every triangle of the mesh must behave
+ * exactly like the equivalent Triangle object.
+ */
+public class TriangleMeshTest {
+
+    private Color diffuse = new Color(0.8, 0.2, 0.2);
+    private Color specular = new Color(0.1, 0.1, 0.1);
+    private TriangleMesh mesh;
+    private Triangle[] triangles;
+
+    // A unit square in the XZ plane made of two triangles, plus a tilted triangle
+    private double[] positions = {
+        0, 0, 0,   1, 0, 0,   1, 0, 1,   0, 0, 1,
+        0, 1, 0,   1, 2, 1
+    };
+    private int[] indices = { 0, 1, 2,  0, 2, 3,  4, 5, 3 };
+
+    @BeforeEach
+    void setUp() {
+        mesh = new TriangleMesh(positions, indices, diffuse, specular, 20);
+        triangles = new Triangle[indices.length / 3];
+        for (int p = 0; p < triangles.length; p++) {
+            triangles[p] = new Triangle(vertex(indices[3 * p]), vertex(indices[3 * p + 1]),
+                    vertex(indices[3 * p + 2]), diffuse, specular, 20);
+        }
+    }
+
+    private Point vertex(int i) {
+        return new Point(positions[3 * i], positions[3 * i + 1], positions[3 * i + 2]);
+    }
+
+    @Test
+    void testConstruction() {
+        assertEquals(3, mesh.getTriangleCount());
+        assertEquals(3, mesh.getPrimitiveCount());
+
+        for (int p = 0; p < triangles.length; p++) {
+            Vector n = mesh.getNormal(p);
+            assertEquals(triangles[p].normal.x, n.x, 0.0);
+            assertEquals(triangles[p].normal.y, n.y, 0.0);
+            assertEquals(triangles[p].normal.z, n.z, 0.0);
+        }
+    }
+
+    @Test
+    void testBounds() {
+        BoundingBox all = mesh.getBoundingBox();
+        assertEquals(0.0, all.minY, 0.0);
+        assertEquals(2.0, all.maxY, 0.0);
+
+        BoundingBox first = mesh.getPrimitiveBounds(0);
+        assertEquals(0.0, first.maxY, 0.0, "The first triangle lies in the y=0 plane.");
+    }
+
+    @Test
+    void testIntersection_MatchesTriangles() {
+        Random random = new Random(7);
+        for (int k = 0; k < 500; k++) {
+            Ray ray = new Ray(
+                new Point(random.nextDouble() * 4 - 2, random.nextDouble() * 4 - 1, random.nextDouble() * 4 - 2),
+                new Vector(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()));
+
+            for (int p = 0; p < triangles.length; p++) {
+                HitRecord expected = new HitRecord();
+                HitRecord actual = new HitRecord();
+                triangles[p].intersect(ray, expected);
+                mesh.intersect(ray, p, actual);
+
+                assertEquals(expected.isHit(), actual.isHit());
+                assertEquals(expected.t, actual.t, 0.0);
+                assertEquals(triangles[p].anyIntersection(ray, 2.0), mesh.anyIntersection(ray, p, 2.0));
+            }
+        }
+    }
+
+    @Test
+    void testIntersection_ClosestTriangle() {
+        // Straight down through the square: the tilted triangle is hit first
+        Ray ray = new Ray(new Point(0.2, 5, 0.9), new Vector(0, -1, 0));
+
+        Optional<Intersection> inter = mesh.intersect(ray);
+
+        assertTrue(inter.isPresent());
+        assertTrue(inter.get() instanceof IntersectionMesh, "Intersection should be of type IntersectionMesh.");
+        assertEquals(2, ((IntersectionMesh) inter.get()).triangle);
+        assertSame(mesh, inter.get().shape);
+        assertTrue(mesh.anyIntersection(ray, 10));
+    }
+
+    @Test
+    void testInvalidIndices() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new TriangleMesh(positions, new int[] { 0, 1 }, diffuse, specular, 20));
+    }
+
+    @Test
+    void testUpdateGeometry_FollowsEditedPositions() {
+        // Lift the far edge of the square: both of its triangles tilt
+        mesh.positions[3 * 2 + 1] = 1;
+        mesh.positions[3 * 3 + 1] = 1;
+        mesh.updateGeometry();
+
+        Triangle tilted = new Triangle(vertex(0), vertex(1), vertex(2), diffuse, specular, 20);
+        Vector n = mesh.getNormal(0);
+        assertEquals(tilted.normal.y, n.y, 0.0);
+        assertEquals(tilted.normal.z, n.z, 0.0);
+        assertEquals(1, mesh.getPrimitiveBounds(0).maxY, 0.0);
+
+        Ray ray = new Ray(new Point(0.9, 5, 0.5), new Vector(0, -1, 0));
+        HitRecord expected = new HitRecord(), actual = new HitRecord();
+        tilted.intersect(ray, expected);
+        mesh.intersect(ray, 0, actual);
+        assertTrue(actual.isHit());
+        assertEquals(expected.t, actual.t, 0.0);
+    }
+}
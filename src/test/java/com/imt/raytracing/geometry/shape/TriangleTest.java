@@ -145,4 +145,14 @@ public class TriangleTest {
         // The intersection T value will be <= 0, which is correctly rejected.
         assertFalse(inter.isPresent(), "Ray starting on surface and pointing away (t <= 0) should be ignored.");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testAnyIntersection_MatchesIntersect() {
+        Ray hit = new Ray(new Point(1, 1, 1), new Vector(0, -1, 0));
+        Ray miss = new Ray(new Point(10, 5, 0), new Vector(0, -1, 0));
+
+        assertTrue(triangle.anyIntersection(hit, Double.POSITIVE_INFINITY));
+        assertFalse(triangle.anyIntersection(hit, 1.0), "The hit at t=1 is not strictly below tMax.");
+        assertFalse(triangle.anyIntersection(miss, Double.POSITIVE_INFINITY));
+    }
+}
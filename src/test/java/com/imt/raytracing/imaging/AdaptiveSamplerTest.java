@@ -0,0 +1,180 @@
+package com.imt.raytracing.imaging;
+
+import static com.imt.raytracing.imaging.ImageAssertions.assertSameImage;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.imt.raytracing.geometry.Orthonormal;
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Transform;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.MeshInstance;
+import com.imt.raytracing.geometry.shape.MeshPrototype;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.geometry.shape.TriangleMesh;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Counter;
+import com.imt.raytracing.parsing.SceneFileParser;
+import com.imt.raytracing.raytracer.Camera;
+import com.imt.raytracing.raytracer.RayTracer;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Tests of the adaptive anti-aliasing: only the edges change, and the image does not
+ * depend on how the render is split.
+ */
+public class AdaptiveSamplerTest {
+
+    private static Scene scene;
+    private static BufferedImage plain;
+    private static BufferedImage antialiased;
+
+    @BeforeAll
+    static void render() throws Exception {
+        scene = new SceneFileParser().parse("src/test/resources/imagetest/tp62-1.test");
+        plain = new Renderer().render(scene);
+        antialiased = new Renderer(1, 32, false, false, new AdaptiveSampler(4)).render(scene);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RenderMetrics.setActive(null);
+    }
+
+    @Test
+    void testRender_OnlyEdgesChange() {
+        RenderMetrics metrics = new RenderMetrics();
+        RenderMetrics.setActive(metrics);
+        BufferedImage img = new Renderer(1, 32, false, false, new AdaptiveSampler(4)).render(scene);
+        RenderMetrics.setActive(null);
+
+        int changed = 0;
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                if (img.getRGB(x, y) != plain.getRGB(x, y)) changed++;
+            }
+        }
+        long edges = metrics.get(Counter.ANTIALIASED_PIXELS);
+        assertTrue(changed > 0, "The edges should be smoothed");
+        assertTrue(changed <= edges, changed + " pixels changed, " + edges + " on an edge");
+        // A small part of the image
+        assertTrue(edges < (long) scene.getWidth() * scene.getHeight() / 4, edges + " pixels on an edge");
+    }
+
+    @Test
+    void testRender_IndependentOfThreadsAndTiles() {
+        assertSameImage(antialiased, new Renderer(3, 7, false, false, new AdaptiveSampler(4)).render(scene));
+        // The packets and the wavefront give way to the sampler
+        assertSameImage(antialiased, new Renderer(2, 16, true, true, new AdaptiveSampler(4)).render(scene));
+    }
+
+    @Test
+    void testRender_StreamedBandsMatchImage() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PngWriter.RowWriter rows = new PngWriter(1).open(out, scene.getWidth(), scene.getHeight())) {
+            new Renderer(1, 8, false, false, new AdaptiveSampler(4)).render(scene, rows, 8);
+        }
+        assertSameImage(antialiased, ImageIO.read(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    void testRenderTile_MatchesImage() {
+        Renderer renderer = new Renderer(1, 32, false, false, new AdaptiveSampler(4));
+        int x0 = 13, y0 = 21, x1 = 90, y1 = 64;
+        int[] pixels = new int[(x1 - x0) * (y1 - y0)];
+        renderer.renderTile(scene, x0, y0, x1, y1, pixels);
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++)
+                assertEquals(antialiased.getRGB(x, y) & 0xffffff, pixels[(y - y0) * (x1 - x0) + x - x0]);
+        }
+    }
+
+    /**
+     * Lit by the ambient light only, every pixel of two overlapping instances of a mesh
+     * has the same color, and the shape of the mesh hit is the same for both.
+     */
+    private static Scene overlappingInstances(boolean front) {
+        Scene flat = new Scene(40, 30);
+        flat.camera = new Camera(new Point(0, 0, 10), new Point(0, 0, 0), new Vector(0, 1, 0), 60);
+        flat.ambient = new Color(1, 1, 1);
+
+        List<Shape> meshShapes = new ArrayList<>();
+        meshShapes.add(new TriangleMesh(new double[] {-1, -1, 0, 1, -1, 0, -1, 1, 0, 1, 1, 0},
+                new int[] {0, 1, 2, 1, 3, 2}, new Color(0.5, 0.5, 0.5), new Color(0, 0, 0), 10));
+        MeshPrototype quad = new MeshPrototype("quad", meshShapes);
+        flat.meshes.add(quad);
+        // Wide enough to fill the image behind the other one
+        flat.shapes.add(new MeshInstance(quad, Transform.scaling(50, 50, 1)));
+        if (front)
+            flat.shapes.add(new MeshInstance(quad, Transform.translation(0, 0, 1)));
+        flat.buildAccelerationStructure();
+        return flat;
+    }
+
+    @Test
+    void testRender_EdgesBetweenInstancesOfOneMesh() {
+        RenderMetrics metrics = new RenderMetrics();
+        RenderMetrics.setActive(metrics);
+        new Renderer(1, 32, false, false, new AdaptiveSampler(4)).render(overlappingInstances(false));
+        assertEquals(0, metrics.get(Counter.ANTIALIASED_PIXELS));
+
+        new Renderer(1, 32, false, false, new AdaptiveSampler(4)).render(overlappingInstances(true));
+        assertTrue(metrics.get(Counter.ANTIALIASED_PIXELS) > 0, "The outline of the front instance is an edge");
+    }
+
+    @Test
+    void testGetSample_CenterIsPixelColor() {
+        RayTracer rt = new RayTracer();
+        Orthonormal basis = new Orthonormal(scene.getCamera().getLookFrom(),
+                scene.getCamera().getLookAt(), scene.getCamera().getUp());
+        for (int j = 0; j < scene.getHeight(); j += 17) {
+            for (int i = 0; i < scene.getWidth(); i += 13) {
+                assertEquals(rt.getPixelColor(i, j, scene, basis).toRGB(),
+                        rt.getSample(i, j, 0.5, 0.5, scene, basis).color().toRGB());
+            }
+        }
+    }
+
+    @Test
+    void testJitter_InUnitInterval() {
+        for (int i = 0; i < 50; i++) {
+            for (int index = 0; index < 32; index++) {
+                double jitter = AdaptiveSampler.jitter(i, 7, index);
+                assertTrue(jitter >= 0 && jitter < 1, "Jitter " + jitter);
+                assertEquals(jitter, AdaptiveSampler.jitter(i, 7, index));
+            }
+        }
+    }
+
+    @Test
+    void testWithSampler_KeepsOtherSettings() {
+        Renderer renderer = new Renderer(3, 7, true, false, new AdaptiveSampler(4));
+        assertSame(renderer, renderer.withSampler(new AdaptiveSampler(4, AdaptiveSampler.DEFAULT_THRESHOLD)));
+
+        Renderer other = renderer.withSampler(new AdaptiveSampler(2, 0.2));
+        assertEquals(new AdaptiveSampler(2, 0.2), other.getSampler());
+        assertEquals(3, other.getThreads());
+        assertEquals(7, other.getTileSize());
+        assertTrue(other.usesPackets());
+        assertFalse(other.usesWavefront());
+        assertNull(renderer.withSampler(null).getSampler());
+    }
+
+    @Test
+    void testConstructor_RejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveSampler(1));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveSampler(4, -0.1));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveSampler(4, Double.NaN));
+    }
+}
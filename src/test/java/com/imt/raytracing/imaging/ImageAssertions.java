@@ -0,0 +1,25 @@
+package com.imt.raytracing.imaging;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Exact comparison of two rendered images, pixel by pixel, shared by the tests
+ * of the different ways of rendering a scene.
+ */
+public final class ImageAssertions {
+
+    private ImageAssertions() {
+    }
+
+    public static void assertSameImage(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y), "Pixel mismatch at " + x + "," + y);
+            }
+        }
+    }
+}
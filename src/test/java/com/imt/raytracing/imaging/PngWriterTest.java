@@ -0,0 +1,164 @@
+package com.imt.raytracing.imaging;
+
+import static com.imt.raytracing.imaging.ImageAssertions.assertSameImage;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Unit tests for the PngWriter class: the files must decode to the exact pixels,
+ * whatever the number of threads and chunks.
+ */
+public class PngWriterTest {
+
+    @TempDir
+    Path dir;
+
+    /** An image mixing smooth gradients and noise, so that every filter gets used. */
+    private static BufferedImage image(int width, int height) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = y % 3 == 0 ? random.nextInt(1 << 24)
+                        : ((x * 7) & 0xff) << 16 | ((y * 5) & 0xff) << 8 | ((x + y) & 0xff);
+                img.setRGB(x, y, rgb);
+            }
+        }
+        return img;
+    }
+
+    private static byte[] encode(PngWriter writer, BufferedImage img) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(img, out);
+        return out.toByteArray();
+    }
+
+    private static void assertDecodesTo(BufferedImage expected, byte[] png) throws IOException {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+        assertNotNull(decoded, "The PNG should be readable");
+        assertSameImage(expected, decoded);
+    }
+
+    @Test
+    void testWrite_SinglePixel() throws IOException {
+        BufferedImage img = image(1, 1);
+        assertDecodesTo(img, encode(new PngWriter(1), img));
+    }
+
+    @Test
+    void testWrite_SeveralChunks() throws IOException {
+        // 3 rows per chunk: 17 chunks, the last one shorter
+        BufferedImage img = image(37, 50);
+        assertDecodesTo(img, encode(new PngWriter(4, 3), img));
+        assertDecodesTo(img, encode(new PngWriter(1, 3), img));
+    }
+
+    @Test
+    void testWrite_SameBytesOnAnyNumberOfThreads() throws IOException {
+        BufferedImage img = image(101, 64);
+        byte[] serial = encode(new PngWriter(1, 5), img);
+        byte[] parallel = encode(new PngWriter(4, 5), img);
+        assertArrayEquals(serial, parallel, "The chunks should not depend on the thread compressing them");
+    }
+
+    @Test
+    void testWrite_OtherImageType() throws IOException {
+        // Not read from the raster, but converted first
+        BufferedImage img = new BufferedImage(20, 10, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage expected = image(20, 10);
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 20; x++) {
+                img.setRGB(x, y, 0xff000000 | expected.getRGB(x, y));
+            }
+        }
+        assertNull(PngWriter.packedPixels(img));
+        assertDecodesTo(expected, encode(new PngWriter(2, 4), img));
+    }
+
+    @Test
+    void testPackedPixels_ReadsTheRaster() {
+        BufferedImage img = image(8, 4);
+        int[] pixels = PngWriter.packedPixels(img);
+        assertNotNull(pixels);
+        assertEquals(img.getRGB(3, 2) & 0xffffff, pixels[2 * 8 + 3]);
+    }
+
+    @Test
+    void testWrite_InvalidSize() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new PngWriter(1).write(new int[4], 4, 2, new ByteArrayOutputStream()));
+        assertThrows(IllegalArgumentException.class, () -> new PngWriter(0));
+    }
+
+    @Test
+    void testRowWriter_BandsOfAnySize() throws IOException {
+        BufferedImage img = image(29, 40);
+        int[] pixels = PngWriter.packedPixels(img);
+        int[] bands = {1, 6, 0, 13, 20};
+        for (int threads : new int[] {1, 3}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (PngWriter.RowWriter rows = new PngWriter(threads, 4).open(out, 29, 40)) {
+                int y = 0;
+                for (int count : bands) {
+                    // Every band in its own array, as the renderer gives them
+                    int[] band = new int[count * 29];
+                    System.arraycopy(pixels, y * 29, band, 0, band.length);
+                    assertFalse(rows.isComplete());
+                    rows.write(band, count);
+                    y += count;
+                }
+                assertTrue(rows.isComplete());
+            }
+            assertDecodesTo(img, out.toByteArray());
+        }
+    }
+
+    @Test
+    void testRowWriter_RejectsRowsPastTheImage() throws IOException {
+        try (PngWriter.RowWriter rows = new PngWriter(1).open(new ByteArrayOutputStream(), 3, 2)) {
+            rows.write(new int[3], 1);
+            assertThrows(IllegalArgumentException.class, () -> rows.write(new int[6], 2));
+        }
+    }
+
+    @Test
+    void testWrite_FileReplacedThroughTemporaryFile() throws IOException {
+        Path file = dir.resolve("image.png");
+        Files.writeString(file, "previous image");
+        BufferedImage img = image(40, 30);
+        new PngWriter(2).write(img, file);
+        assertDecodesTo(img, Files.readAllBytes(file));
+        assertFalse(Files.exists(dir.resolve("image.png.tmp")));
+    }
+
+    @Test
+    void testCombineAdler32_MatchesSequentialChecksum() {
+        byte[] data = new byte[200_000];
+        new Random(7).nextBytes(data);
+        int split = 123_457;
+
+        Adler32 whole = new Adler32();
+        whole.update(data, 0, data.length);
+        Adler32 first = new Adler32();
+        first.update(data, 0, split);
+        Adler32 second = new Adler32();
+        second.update(data, split, data.length - split);
+
+        assertEquals(whole.getValue(),
+                PngWriter.combineAdler32(first.getValue(), second.getValue(), data.length - split));
+        assertEquals(first.getValue(), PngWriter.combineAdler32(first.getValue(), 1, 0));
+    }
+}
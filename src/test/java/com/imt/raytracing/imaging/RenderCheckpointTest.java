@@ -0,0 +1,162 @@
+package com.imt.raytracing.imaging;
+
+import static com.imt.raytracing.imaging.ImageAssertions.assertSameImage;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.imt.raytracing.parsing.SceneFileParser;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Tests of the render checkpoints: a resumed render keeps the saved tiles, and gives
+ * the image of a render from scratch.
+ */
+public class RenderCheckpointTest {
+
+    private static final int TILE = 16;
+    /** A color no pixel of the test scene has. */
+    private static final int MARKER = 0x123456;
+
+    private static Scene scene;
+    private static BufferedImage expected;
+    private static int tiles;
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void renderFromScratch() throws Exception {
+        scene = new SceneFileParser().parse("src/test/resources/imagetest/tp62-1.test");
+        expected = new Renderer(1, TILE).render(scene);
+        tiles = ((scene.getWidth() + TILE - 1) / TILE) * ((scene.getHeight() + TILE - 1) / TILE);
+    }
+
+    private RenderCheckpoint checkpoint() {
+        return new RenderCheckpoint(dir.resolve("render.ckpt"), RenderCheckpoint.DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Saves a checkpoint of every tile but the last, all of them filled with the marker.
+     */
+    private RenderCheckpoint saveMarkedCheckpoint() {
+        RenderCheckpoint checkpoint = checkpoint();
+        int[] framebuffer = new int[scene.getWidth() * scene.getHeight()];
+        Arrays.fill(framebuffer, MARKER);
+        assertEquals(0, checkpoint.begin(scene, "", TILE, tiles, framebuffer));
+        for (int t = 0; t < tiles - 1; t++)
+            checkpoint.markDone(t);
+        // Incomplete, so saved
+        checkpoint.finish();
+        assertTrue(Files.exists(checkpoint.getFile()));
+        return checkpoint;
+    }
+
+    @Test
+    void testRender_ResumesFromSavedTiles() {
+        RenderCheckpoint checkpoint = saveMarkedCheckpoint();
+        BufferedImage img = new Renderer(1, TILE).render(scene, checkpoint);
+
+        // Only the last tile was traced, the others are the saved ones
+        int traced = 0;
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                if ((img.getRGB(x, y) & 0xffffff) != MARKER) {
+                    assertEquals(expected.getRGB(x, y), img.getRGB(x, y));
+                    traced++;
+                }
+            }
+        }
+        assertTrue(traced > 0 && traced <= TILE * TILE, "Traced " + traced + " pixels");
+        assertEquals(tiles - 1, checkpoint.getRestoredTiles());
+        assertEquals(tiles, checkpoint.getTileCount());
+        // Complete, but kept until the image is written
+        assertTrue(Files.exists(checkpoint.getFile()));
+        checkpoint.delete();
+        assertFalse(Files.exists(checkpoint.getFile()));
+        assertFalse(Files.exists(dir.resolve("render.ckpt.tmp")));
+    }
+
+    @Test
+    void testRender_CompleteCheckpointRestoresImage() {
+        RenderCheckpoint checkpoint = saveMarkedCheckpoint();
+        BufferedImage first = new Renderer(1, TILE).render(scene, checkpoint);
+        // Killed before the image was written: nothing is traced again
+        int[] framebuffer = new int[scene.getWidth() * scene.getHeight()];
+        assertEquals(tiles, checkpoint.begin(scene, "", TILE, tiles, framebuffer));
+        checkpoint.finish();
+        for (int y = 0; y < first.getHeight(); y++) {
+            for (int x = 0; x < first.getWidth(); x++)
+                assertEquals(first.getRGB(x, y) & 0xffffff, framebuffer[y * scene.getWidth() + x]);
+        }
+    }
+
+    @Test
+    void testRender_PartialRenderResumedIsIdentical() {
+        RenderCheckpoint checkpoint = checkpoint();
+        int[] framebuffer = new int[scene.getWidth() * scene.getHeight()];
+        checkpoint.begin(scene, "", TILE, tiles, framebuffer);
+        checkpoint.finish();
+        // Nothing finished, nothing saved
+        assertFalse(Files.exists(checkpoint.getFile()));
+
+        assertSameImage(expected, new Renderer(2, TILE).render(scene, checkpoint));
+        assertTrue(Files.exists(checkpoint.getFile()));
+    }
+
+    @Test
+    void testRender_OtherTileSizeIgnored() {
+        RenderCheckpoint checkpoint = saveMarkedCheckpoint();
+        assertSameImage(expected, new Renderer(1, TILE * 2).render(scene, checkpoint));
+        assertEquals(0, checkpoint.getRestoredTiles());
+    }
+
+    @Test
+    void testRender_OtherSceneIgnored() throws Exception {
+        RenderCheckpoint checkpoint = saveMarkedCheckpoint();
+        Scene other = new SceneFileParser().parse("src/test/resources/imagetest/tp62-1.test");
+        other.getLights().clear();
+        Renderer renderer = new Renderer(1, TILE);
+        BufferedImage unlit = renderer.render(other);
+        assertSameImage(unlit, renderer.render(other, checkpoint));
+    }
+
+    @Test
+    void testRender_OtherSamplingIgnored() {
+        RenderCheckpoint checkpoint = saveMarkedCheckpoint();
+        BufferedImage img = new Renderer(1, TILE, false, false, new AdaptiveSampler(2)).render(scene, checkpoint);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++)
+                assertNotEquals(MARKER, img.getRGB(x, y) & 0xffffff, "Restored pixel at " + x + "," + y);
+        }
+    }
+
+    @Test
+    void testRender_DamagedCheckpointIgnored() throws Exception {
+        RenderCheckpoint checkpoint = saveMarkedCheckpoint();
+        byte[] bytes = Files.readAllBytes(checkpoint.getFile());
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(checkpoint.getFile(), bytes);
+        assertSameImage(expected, new Renderer(1, TILE).render(scene, checkpoint));
+    }
+
+    @Test
+    void testRender_TruncatedCheckpointIgnored() throws Exception {
+        RenderCheckpoint checkpoint = saveMarkedCheckpoint();
+        byte[] bytes = Files.readAllBytes(checkpoint.getFile());
+        Files.write(checkpoint.getFile(), Arrays.copyOf(bytes, bytes.length - 100));
+        assertSameImage(expected, new Renderer(1, TILE).render(scene, checkpoint));
+    }
+
+    @Test
+    void testConstructor_RejectsInvalidInterval() {
+        assertThrows(IllegalArgumentException.class, () -> new RenderCheckpoint(dir.resolve("render.ckpt"), 0));
+    }
+}
@@ -1,9 +1,16 @@
 package com.imt.raytracing.imaging;
 
+import static com.imt.raytracing.imaging.ImageAssertions.assertSameImage;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -11,9 +18,14 @@ import org.junit.jupiter.api.Test;
 import com.imt.raytracing.geometry.Orthonormal;
 import com.imt.raytracing.geometry.Point;
 import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.Plane;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Counter;
 import com.imt.raytracing.raytracer.RayTracer;
 import com.imt.raytracing.raytracer.scene.Scene;
 import com.imt.raytracing.raytracer.Camera;
+import com.imt.raytracing.raytracer.light.PointLight;
 
 /**
  * Test Stubs (doubles de test) for dependencies.
@@ -94,4 +106,160 @@ public class RendererTest {
         assertEquals(BufferedImage.TYPE_INT_RGB, img.getType(), "BufferedImage type must be INT_RGB.");
     }
 
-}
\ No newline at end of file
+    /** A small scene with reflections and shadows. */
+    private static Scene litScene() {
+        Scene lit = new TestScene(45, 31);
+        lit.camera = new Camera(new Point(0, 1, 6), new Point(0, 0, 0), new Vector(0, 1, 0), 45);
+        lit.maxdepth = 3;
+        lit.ambient = new Color(0.1, 0.1, 0.1);
+        lit.lights.add(new PointLight(new Point(2, 4, 3), new Color(0.8, 0.8, 0.8)));
+        lit.shapes.add(new Plane(new Point(0, -1, 0), new Vector(0, 1, 0),
+                new Color(0.3, 0.3, 0.3), new Color(0.5, 0.5, 0.5), 10));
+        lit.shapes.add(new Sphere(new Point(0, 0, 0), 1, new Color(0.8, 0.1, 0.1), new Color(0.3, 0.3, 0.3), 20));
+        lit.shapes.add(new Sphere(new Point(1.5, 0, -1), 0.7, new Color(0.1, 0.8, 0.1), new Color(0, 0, 0), 5));
+        lit.buildAccelerationStructure();
+        return lit;
+    }
+
+    @Test
+    void testRenderParallel_IdenticalToSerial() {
+        // With a tile size that does not divide the image
+        Scene lit = litScene();
+        assertSameImage(new Renderer().render(lit), new Renderer(4, 7).render(lit));
+    }
+
+    @Test
+    void testRenderPackets_IdenticalToSerial() {
+        // Neither the image nor the tiles are made of whole packets
+        Scene lit = litScene();
+        BufferedImage serial = new Renderer().render(lit);
+        assertSameImage(serial, new Renderer(1, 7, true).render(lit));
+        assertSameImage(serial, new Renderer(4, 7, true).render(lit));
+        assertSameImage(serial, new Renderer(4, 20, true).render(lit));
+    }
+
+    @Test
+    void testRenderWavefront_IdenticalToSerial() {
+        Scene lit = litScene();
+        BufferedImage serial = new Renderer().render(lit);
+        assertSameImage(serial, new Renderer(1, 7, false, true).render(lit));
+        assertSameImage(serial, new Renderer(4, 7, false, true).render(lit));
+        assertSameImage(serial, new Renderer(4, 20, true, true).render(lit));
+    }
+
+    /** Renders the scene band by band into a PNG stream, and decodes it. */
+    private static BufferedImage renderStreamed(Renderer renderer, Scene scene, int rows) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PngWriter.RowWriter writer = new PngWriter(2, 2).open(out, scene.getWidth(), scene.getHeight())) {
+            renderer.render(scene, writer, rows);
+            assertTrue(writer.isComplete(), "Every row should have been written");
+        }
+        return ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    void testRenderStreamed_IdenticalToImage() throws IOException {
+        // Bands that do not divide the image, nor match the tiles
+        Scene lit = litScene();
+        BufferedImage serial = new Renderer().render(lit);
+        assertSameImage(serial, renderStreamed(new Renderer(), lit, 5));
+        assertSameImage(serial, renderStreamed(new Renderer(4, 7), lit, 7));
+        assertSameImage(serial, renderStreamed(new Renderer(4, 7, true), lit, 14));
+        assertSameImage(serial, renderStreamed(new Renderer(1, 7, false, true), lit, 5));
+        assertSameImage(serial, renderStreamed(new Renderer(4, 7, true, true), lit, 100));
+    }
+
+    @Test
+    void testRenderTile_MatchesImage() {
+        Scene lit = litScene();
+        BufferedImage serial = new Renderer().render(lit);
+        for (Renderer renderer : new Renderer[] {new Renderer(), new Renderer(1, 7, true)}) {
+            // A rectangle that is not made of whole packets
+            int x0 = 3, y0 = 5, x1 = 30, y1 = 24;
+            int[] pixels = new int[(x1 - x0) * (y1 - y0)];
+            renderer.renderTile(lit, x0, y0, x1, y1, pixels);
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    assertEquals(serial.getRGB(x, y) & 0xffffff, pixels[(y - y0) * (x1 - x0) + x - x0],
+                            "Pixel mismatch at " + x + "," + y);
+                }
+            }
+        }
+    }
+
+    /** Renders the scene progressively, keeping a copy of the image after every pass. */
+    private static List<BufferedImage> renderPasses(Renderer renderer, Scene scene, List<Integer> steps)
+            throws IOException {
+        List<BufferedImage> images = new ArrayList<>();
+        BufferedImage last = renderer.renderProgressive(scene, (step, image) -> {
+            steps.add(step);
+            BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            copy.setData(image.getData());
+            images.add(copy);
+        });
+        assertSameImage(last, images.get(images.size() - 1));
+        return images;
+    }
+
+    @Test
+    void testRenderProgressive_CoarsePassesThenImage() throws IOException {
+        Scene lit = litScene();
+        BufferedImage serial = new Renderer().render(lit);
+        for (Renderer renderer : new Renderer[] {new Renderer(), new Renderer(4, 7)}) {
+            List<Integer> steps = new ArrayList<>();
+            List<BufferedImage> images = renderPasses(renderer, lit, steps);
+            assertEquals(List.of(4, 2, 1), steps);
+            // Every pixel shows the traced pixel above and to the left of it
+            for (int pass = 0; pass < steps.size(); pass++) {
+                int step = steps.get(pass);
+                for (int y = 0; y < lit.getHeight(); y++) {
+                    for (int x = 0; x < lit.getWidth(); x++) {
+                        assertEquals(serial.getRGB(x / step * step, y / step * step), images.get(pass).getRGB(x, y),
+                                "Pixel mismatch at " + x + "," + y + " after the pass of step " + step);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testRenderProgressive_TracesEveryPixelOnce() throws IOException {
+        Scene lit = litScene();
+        RenderMetrics metrics = new RenderMetrics();
+        RenderMetrics.setActive(metrics);
+        try {
+            new Renderer(4, 7).renderProgressive(lit, (step, image) -> {});
+        } finally {
+            RenderMetrics.setActive(null);
+        }
+        assertEquals((long) lit.getWidth() * lit.getHeight(), metrics.get(Counter.PRIMARY_RAYS));
+    }
+
+    @Test
+    void testRenderProgressive_ListenerFailureStopsRender() {
+        Scene lit = litScene();
+        List<Integer> steps = new ArrayList<>();
+        Renderer.PassListener failing = (step, image) -> {
+            steps.add(step);
+            throw new IOException("Disk full");
+        };
+        IOException failure = assertThrows(IOException.class, () -> new Renderer(2, 7).renderProgressive(lit, failing));
+        assertEquals("Disk full", failure.getMessage());
+        assertEquals(List.of(4), steps);
+    }
+
+    @Test
+    void testBandRows_WholeRowsOfTiles() {
+        Renderer tiled = new Renderer(4, 32);
+        assertEquals(64, tiled.bandRows(30000));
+        assertEquals(0, tiled.bandRows(640) % 32);
+        assertTrue(tiled.bandRows(640) * 640 >= Renderer.BAND_PIXELS);
+        assertEquals(32, tiled.bandRows(Renderer.BAND_PIXELS * 2));
+    }
+
+    @Test
+    void testConstructor_RejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new Renderer(0, 32));
+        assertThrows(IllegalArgumentException.class, () -> new Renderer(2, 0));
+    }
+}
@@ -0,0 +1,143 @@
+package com.imt.raytracing.metrics;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.imt.raytracing.imaging.AdaptiveSampler;
+import com.imt.raytracing.imaging.Renderer;
+import com.imt.raytracing.metrics.RenderMetrics.Counter;
+import com.imt.raytracing.metrics.RenderMetrics.Phase;
+import com.imt.raytracing.parsing.SceneFileParser;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Unit tests for the RenderMetrics class.
+ * The counters are checked on real renders of a shipped scene.
+ */
+public class RenderMetricsTest {
+
+    private static final String SCENE = "src/test/resources/imagetest/tp61.test";
+
+    @AfterEach
+    void tearDown() {
+        RenderMetrics.setActive(null);
+    }
+
+    private static RenderMetrics renderWithMetrics(Renderer renderer) throws Exception {
+        RenderMetrics metrics = new RenderMetrics();
+        RenderMetrics.setActive(metrics);
+        Scene scene = new SceneFileParser().parse(SCENE);
+        renderer.render(scene);
+        RenderMetrics.setActive(null);
+        return metrics;
+    }
+
+    @Test
+    void testRender_CountsRays() throws Exception {
+        Scene scene = new SceneFileParser().parse(SCENE);
+        RenderMetrics metrics = renderWithMetrics(new Renderer(1, 16));
+
+        assertEquals((long) scene.getWidth() * scene.getHeight(), metrics.get(Counter.PRIMARY_RAYS));
+        assertTrue(metrics.get(Counter.PRIMARY_HITS) > 0);
+        assertTrue(metrics.get(Counter.PRIMARY_HITS) <= metrics.get(Counter.PRIMARY_RAYS));
+        assertTrue(metrics.get(Counter.SHADOW_RAYS) > 0);
+        assertTrue(metrics.get(Counter.SHADOW_HITS) <= metrics.get(Counter.SHADOW_RAYS));
+        assertTrue(metrics.get(Counter.INTERSECTION_TESTS) > 0);
+        assertEquals(metrics.get(Counter.PRIMARY_RAYS) + metrics.get(Counter.SHADOW_RAYS)
+                + metrics.get(Counter.REFLECTION_RAYS), metrics.getTotalRays());
+    }
+
+    @Test
+    void testRender_TimesPhases() throws Exception {
+        RenderMetrics metrics = renderWithMetrics(new Renderer(1, 16));
+
+        assertTrue(metrics.getTimeNanos(Phase.PARSE) > 0);
+        assertTrue(metrics.getTimeNanos(Phase.ACCELERATION_BUILD) > 0);
+        assertTrue(metrics.getTimeNanos(Phase.RENDER) > 0);
+        assertEquals(0, metrics.getTimeNanos(Phase.PNG_ENCODE));
+    }
+
+    @Test
+    void testRender_ParallelCountsMatchSerial() throws Exception {
+        RenderMetrics serial = renderWithMetrics(new Renderer(1, 16));
+        RenderMetrics parallel = renderWithMetrics(new Renderer(4, 8));
+
+        for (Counter counter : Counter.values())
+            assertEquals(serial.get(counter), parallel.get(counter), counter.name());
+    }
+
+    @Test
+    void testInactive_CountsNothing() throws Exception {
+        RenderMetrics metrics = new RenderMetrics();
+        Scene scene = new SceneFileParser().parse(SCENE);
+        new Renderer(2, 16).render(scene);
+
+        assertFalse(RenderMetrics.isActive());
+        for (Counter counter : Counter.values())
+            assertEquals(0, metrics.get(counter));
+        for (Phase phase : Phase.values())
+            assertEquals(0, metrics.getTimeNanos(phase));
+    }
+
+    @Test
+    void testTime_AddsToActiveMetrics() {
+        RenderMetrics metrics = new RenderMetrics();
+        RenderMetrics.setActive(metrics);
+        RenderMetrics.time(Phase.PNG_ENCODE, () -> RenderMetrics.count(Counter.PRIMARY_RAYS, 3));
+        RenderMetrics.count(Counter.PRIMARY_RAYS);
+
+        assertTrue(metrics.getTimeNanos(Phase.PNG_ENCODE) > 0);
+        assertEquals(4, metrics.get(Counter.PRIMARY_RAYS));
+    }
+
+    @Test
+    void testTime_ReturnsResultAndTimesFailures() {
+        RenderMetrics metrics = new RenderMetrics();
+        RenderMetrics.setActive(metrics);
+        assertEquals("scene", RenderMetrics.time(Phase.PARSE, () -> "scene"));
+        long parse = metrics.getTimeNanos(Phase.PARSE);
+        assertTrue(parse > 0);
+
+        IOException failure = assertThrows(IOException.class, () -> RenderMetrics.time(Phase.PARSE, () -> {
+            throw new IOException("damaged");
+        }));
+        assertEquals("damaged", failure.getMessage());
+        assertTrue(metrics.getTimeNanos(Phase.PARSE) > parse);
+    }
+
+    @Test
+    void testToJson_ContainsSummary() {
+        RenderMetrics metrics = new RenderMetrics();
+        metrics.add(Counter.PRIMARY_RAYS, 4);
+        metrics.add(Counter.PRIMARY_HITS, 3);
+        metrics.add(Counter.INTERSECTION_TESTS, 10);
+        metrics.addTime(Phase.RENDER, 2_500_000);
+
+        String json = metrics.toJson();
+
+        assertTrue(json.contains("\"primary\": 4"), json);
+        assertTrue(json.contains("\"total\": 4"), json);
+        assertTrue(json.contains("\"hitRatio\": {\"primary\": 0.75"), json);
+        assertTrue(json.contains("\"missRatio\": {\"primary\": 0.25"), json);
+        assertTrue(json.contains("\"intersectionTests\": 10"), json);
+        assertTrue(json.contains("\"intersectionTestsPerRay\": 2.5"), json);
+        assertTrue(json.contains("\"render\": 2.500"), json);
+    }
+
+    @Test
+    void testRender_CountsAntialiasingSamples() throws Exception {
+        Scene scene = new SceneFileParser().parse(SCENE);
+        RenderMetrics metrics = renderWithMetrics(new Renderer(1, 16, false, false, new AdaptiveSampler(3)));
+
+        long pixels = metrics.get(Counter.ANTIALIASED_PIXELS);
+        assertTrue(pixels > 0);
+        assertEquals(9 * pixels, metrics.get(Counter.ANTIALIASING_SAMPLES));
+        // The samples are primary rays, as are the centers of the pixels around the tiles
+        assertTrue(metrics.get(Counter.PRIMARY_RAYS) >= (long) scene.getWidth() * scene.getHeight() + 9 * pixels);
+        assertTrue(metrics.toJson().contains("\"antialiasing\": {\"pixels\": " + pixels + ", \"samples\": " + 9 * pixels + "}"));
+    }
+}
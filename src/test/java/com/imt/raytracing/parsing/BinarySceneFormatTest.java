@@ -0,0 +1,155 @@
+package com.imt.raytracing.parsing;
+
+import static com.imt.raytracing.imaging.ImageAssertions.assertSameImage;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.imt.raytracing.imaging.Renderer;
+import com.imt.raytracing.raytracer.acceleration.BVH;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Unit tests for the BinarySceneFormat class.
+ * A compiled scene must load back exactly as the scene it was compiled from.
+ */
+public class BinarySceneFormatTest {
+
+    private Path binaryFile;
+    private Path textFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        binaryFile = Files.createTempFile("binaryScene", ".rtscene");
+        textFile = Files.createTempFile("textScene", ".txt");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(binaryFile);
+        Files.deleteIfExists(textFile);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "src/test/resources/imagetest/tp51-diffuse.test",
+            "src/test/resources/imagetest/tp61-dir.test",
+            "src/test/resources/imagetest/tp61.test",
+            "src/test/resources/imagetest/tp62-1.test",
+            "final.scene",
+            "final_avec_bonus.scene"
+    })
+    void testRoundTrip_ShippedScenes(String file) throws Exception {
+        Scene original = new SceneFileParser().parse(file);
+        BinarySceneFormat.write(original, binaryFile.toString(), true);
+
+        Scene loaded = BinarySceneFormat.read(binaryFile.toString());
+
+        SceneAssertions.assertSameScene(original, loaded);
+        assertTrue(loaded.getAccelerator() instanceof BVH);
+        assertEquals(((BVH) original.getAccelerator()).getNodeCount(), ((BVH) loaded.getAccelerator()).getNodeCount());
+    }
+
+    @Test
+    void testRoundTrip_RendersIdentically() throws Exception {
+        Scene original = new SceneFileParser().parse("src/test/resources/imagetest/tp61.test");
+        BinarySceneFormat.write(original, binaryFile.toString(), true);
+        Scene loaded = BinarySceneFormat.read(binaryFile.toString());
+
+        BufferedImage expected = new Renderer().render(original);
+        BufferedImage actual = new Renderer().render(loaded);
+
+        int w = expected.getWidth(), h = expected.getHeight();
+        assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w), actual.getRGB(0, 0, w, h, null, 0, w));
+    }
+
+    @Test
+    void testWithoutAccelerator_BuildsItOnLoad() throws Exception {
+        Scene original = new SceneFileParser().parse("src/test/resources/imagetest/tp62-1.test");
+        BinarySceneFormat.write(original, binaryFile.toString(), false);
+
+        Scene loaded = BinarySceneFormat.read(binaryFile.toString());
+
+        SceneAssertions.assertSameScene(original, loaded);
+        assertNotNull(loaded.getAccelerator());
+    }
+
+    @Test
+    void testParsers_DetectCompiledScene() throws Exception {
+        Scene original = new SceneFileParser().parse("final.scene");
+        BinarySceneFormat.write(original, binaryFile.toString(), true);
+
+        assertTrue(BinarySceneFormat.isBinary(binaryFile.toString()));
+        assertFalse(BinarySceneFormat.isBinary("final.scene"));
+        SceneAssertions.assertSameScene(original, new SceneFileParser().parse(binaryFile.toString()));
+        SceneAssertions.assertSameScene(original, new MappedSceneFileParser().parse(binaryFile.toString()));
+    }
+
+    @Test
+    void testRoundTrip_MinimalScene() throws Exception {
+        try (PrintWriter writer = new PrintWriter(textFile.toFile())) {
+            writer.print("size 4 3\nplane 0 0 0 1 1 0\n");
+        }
+        Scene original = new SceneFileParser().parse(textFile.toString());
+        BinarySceneFormat.write(original, binaryFile.toString(), true);
+
+        Scene loaded = BinarySceneFormat.read(binaryFile.toString());
+
+        SceneAssertions.assertSameScene(original, loaded);
+        assertNull(loaded.output);
+        assertNull(loaded.camera);
+    }
+
+    @Test
+    void testRoundTrip_MeshInstances() throws Exception {
+        try (PrintWriter writer = new PrintWriter(textFile.toFile())) {
+            writer.print("size 40 30\ncamera 0 2 10 0 0 0 0 1 0 45\nmaxverts 3\n"
+                    + "vertex 0 0 0\nvertex 1 0 0\nvertex 0 1 0\n"
+                    + "directional 0 -1 -1 1 1 1\n"
+                    + "mesh piece\ndiffuse 1 0 0\ntri 0 1 2\nsphere 0 0 0 0.5\nendmesh\n"
+                    + "instance piece\ntranslate -2 0 0\nrotate 0 0 1 45\ninstance piece\n");
+        }
+        Scene original = new SceneFileParser().parse(textFile.toString());
+        BinarySceneFormat.write(original, binaryFile.toString(), true);
+
+        Scene loaded = BinarySceneFormat.read(binaryFile.toString());
+
+        SceneAssertions.assertSameScene(original, loaded);
+        assertTrue(loaded.meshes.get(0).getAccelerator() instanceof BVH, "The mesh BVH is stored too.");
+        assertSameImage(new Renderer().render(original), new Renderer().render(loaded));
+    }
+
+    @Test
+    void testRead_RejectsOtherVersion() throws Exception {
+        BinarySceneFormat.write(new SceneFileParser().parse("final.scene"), binaryFile.toString(), true);
+        byte[] bytes = Files.readAllBytes(binaryFile);
+        // The version follows the 8-byte magic
+        ByteBuffer.wrap(bytes).putInt(8, BinarySceneFormat.VERSION + 1);
+
+        IOException e = assertThrows(IOException.class, () -> BinarySceneFormat.read(ByteBuffer.wrap(bytes)));
+        assertTrue(e.getMessage().contains("version"));
+    }
+
+    @Test
+    void testRead_RejectsTruncatedFile() throws Exception {
+        BinarySceneFormat.write(new SceneFileParser().parse("final.scene"), binaryFile.toString(), true);
+        byte[] bytes = Files.readAllBytes(binaryFile);
+
+        for (int length : new int[] {4, 12, bytes.length / 2, bytes.length - 1}) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            assertThrows(IOException.class, () -> BinarySceneFormat.read(ByteBuffer.wrap(truncated)));
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.imt.raytracing.parsing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.imt.raytracing.geometry.shape.TriangleMesh;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Unit tests for the MappedSceneFileParser class.
+ * Every scene is also parsed with the SceneFileParser, and both scenes must be
+ * exactly the same, down to the bits of every number.
+ */
+public class MappedSceneFileParserTest {
+
+    private Path tempFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tempFile = Files.createTempFile("mappedSceneTest", ".txt");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(tempFile);
+    }
+
+    private void writeSceneContent(String content) throws IOException {
+        try (PrintWriter writer = new PrintWriter(tempFile.toFile(), StandardCharsets.UTF_8)) {
+            writer.print(content);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "src/test/resources/imagetest/tp51-diffuse.test",
+            "src/test/resources/imagetest/tp51-specular.test",
+            "src/test/resources/imagetest/tp61-dir.test",
+            "src/test/resources/imagetest/tp61.test",
+            "src/test/resources/imagetest/tp62-1.test",
+            "final.scene",
+            "final_avec_bonus.scene"
+    })
+    void testParse_ShippedScenesMatchTextParser(String file) throws Exception {
+        SceneAssertions.assertSameScene(new SceneFileParser().parse(file), new MappedSceneFileParser().parse(file));
+    }
+
+    @Test
+    void testParse_AllCommandsMatchTextParser() throws Exception {
+        writeSceneContent(
+                "# comment line\n" +
+                "size 320 240\n" +
+                "output out.png\n" +
+                "camera 0 0 5 0 0 0 0 1 0 45\n" +
+                "maxdepth 3\n" +
+                "minweight 0.01\n" +
+                "ambient .1 .2 .3\n" +
+                "\tdiffuse 0.5 0.25 1\n" +
+                "specular 1e-1 2E-1 0.3e0\n" +
+                "shininess 20.\n" +
+                "directional 0 -1 -1 0.5 0.5 0.5\n" +
+                "point 1 2 3 +1 1 1\n" +
+                "sphere -0.5 0 -3 0.75\n" +
+                "plane 0 -1 0 0 1 0\n" +
+                "maxverts 4\n" +
+                "vertex -1 -1 0\n" +
+                "vertex 1 -1 0\n" +
+                "vertex 1 1 0\n" +
+                "vertex -1 1 0\n" +
+                "tri 0 1 2\n" +
+                "tri 0 2 3\n" +
+                "tri 0 1 3   \n" +
+                "\n" +
+                "unknown 1 2 3\n");
+        String file = tempFile.toString();
+        Scene mapped = new MappedSceneFileParser().parse(file);
+
+        SceneAssertions.assertSameScene(new SceneFileParser().parse(file), mapped);
+        assertEquals("out.png", mapped.output);
+        assertEquals(0.01, mapped.minweight);
+        assertEquals(3, mapped.shapes.size());
+        assertTrue(mapped.shapes.get(2) instanceof TriangleMesh);
+    }
+
+    @Test
+    void testParse_MeshInstancesMatchTextParser() throws Exception {
+        writeSceneContent(
+                "maxverts 4\n" +
+                "vertex -1 -1 0\n" +
+                "vertex 1 -1 0\n" +
+                "vertex 1 1 0\n" +
+                "vertex -1 1 0\n" +
+                "mesh quad\n" +
+                "tri 0 1 2\n" +
+                "tri 0 2 3\n" +
+                "endmesh\n" +
+                "pushTransform\n" +
+                "translate 1 2 3\n" +
+                "rotate 0 1 0 30\n" +
+                "scale 2 1 0.5\n" +
+                "instance quad\n" +
+                "popTransform\n" +
+                "instance quad\n");
+        String file = tempFile.toString();
+        Scene mapped = new MappedSceneFileParser().parse(file);
+
+        SceneAssertions.assertSameScene(new SceneFileParser().parse(file), mapped);
+        assertEquals(1, mapped.meshes.size());
+        assertEquals(2, mapped.shapes.size());
+    }
+
+    @Test
+    void testParse_WindowsLineEndings() throws Exception {
+        writeSceneContent("size 10 20\r\noutput a.png\r\nsphere 1 2 3 4\r\n");
+        String file = tempFile.toString();
+        Scene mapped = new MappedSceneFileParser().parse(file);
+
+        SceneAssertions.assertSameScene(new SceneFileParser().parse(file), mapped);
+        assertEquals("a.png", mapped.output);
+        assertEquals(20, mapped.height);
+    }
+
+    @Test
+    void testParse_MissingArgumentFails() throws IOException {
+        writeSceneContent("sphere 1 2 3\n");
+        assertThrows(ArrayIndexOutOfBoundsException.class,
+                () -> new MappedSceneFileParser().parse(tempFile.toString()));
+    }
+
+    @Test
+    void testParse_InvalidNumberFails() throws IOException {
+        writeSceneContent("sphere 1 2 x 4\n");
+        assertThrows(NumberFormatException.class,
+                () -> new MappedSceneFileParser().parse(tempFile.toString()));
+    }
+
+    @Test
+    void testParse_TriangleWithUndefinedVertex() throws IOException {
+        writeSceneContent("maxverts 3\nvertex 0 0 0\ntri 0 1 2\n");
+        Exception e = assertThrows(Exception.class,
+                () -> new MappedSceneFileParser().parse(tempFile.toString()));
+        assertEquals("Error: Vertex index refers to an undefined vertex.", e.getMessage());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "0", "-0", "+0", "0.0", "-0.0", "1", "-1", "42", ".5", "5.", "-.25",
+            "0.1", "0.3", "3.14159", "1.6831", "-0.9792", "123456789012345",
+            "1234567890123456789", "0.1000000000000000055511151231257827",
+            "1e10", "1E-5", "2.5e+3", "1e22", "1e23", "1e-22", "1e-23", "4.9e-324",
+            "1.7976931348623157e308", "1e400", "1e-400", "00012.5000",
+            "Infinity", "-Infinity", "NaN", "1.5f", "2d", "0x1p3"
+    })
+    void testParseDouble_MatchesJdk(String text) {
+        assertEquals(Double.doubleToRawLongBits(Double.parseDouble(text)),
+                Double.doubleToRawLongBits(MappedSceneFileParser.parseDouble(bytes(text), 0, text.length())),
+                text);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "-", ".", "e5", "1e", "1.2.3", "1-2", "abc"})
+    void testParseDouble_RejectsInvalidNumbers(String text) {
+        assertThrows(NumberFormatException.class,
+                () -> MappedSceneFileParser.parseDouble(bytes(text), 0, text.length()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"0", "-0", "+7", "123456789", "-123456789", "2147483647", "-2147483648"})
+    void testParseInt_MatchesJdk(String text) {
+        assertEquals(Integer.parseInt(text), MappedSceneFileParser.parseInt(bytes(text), 0, text.length()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "-", "2147483648", "1.0", "12a"})
+    void testParseInt_RejectsInvalidNumbers(String text) {
+        assertThrows(NumberFormatException.class,
+                () -> MappedSceneFileParser.parseInt(bytes(text), 0, text.length()));
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,123 @@
+package com.imt.raytracing.parsing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.MeshInstance;
+import com.imt.raytracing.geometry.shape.MeshPrototype;
+import com.imt.raytracing.geometry.shape.Plane;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.geometry.shape.Triangle;
+import com.imt.raytracing.geometry.shape.TriangleMesh;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.raytracer.light.DirectionalLight;
+import com.imt.raytracing.raytracer.light.Light;
+import com.imt.raytracing.raytracer.light.PointLight;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Exact comparison of two scenes, down to the bits of every number,
+ * shared by the tests of the different scene loaders.
+ */
+final class SceneAssertions {
+
+    private SceneAssertions() {
+    }
+
+    static void assertSameScene(Scene expected, Scene actual) {
+        assertEquals(expected.width, actual.width);
+        assertEquals(expected.height, actual.height);
+        assertEquals(expected.output, actual.output);
+        assertEquals(expected.maxdepth, actual.maxdepth);
+        assertEquals(expected.minweight, actual.minweight);
+        assertEquals(expected.maxverts, actual.maxverts);
+        assertSameColor(expected.ambient, actual.ambient);
+
+        if (expected.camera == null) {
+            assertNull(actual.camera);
+        } else {
+            assertSamePoint(expected.camera.lookFrom, actual.camera.lookFrom);
+            assertSamePoint(expected.camera.lookAt, actual.camera.lookAt);
+            assertSameVector(expected.camera.up, actual.camera.up);
+            assertEquals(expected.camera.fov, actual.camera.fov);
+        }
+
+        assertEquals(expected.lights.size(), actual.lights.size());
+        for (int i = 0; i < expected.lights.size(); i++) {
+            Light e = expected.lights.get(i), a = actual.lights.get(i);
+            assertEquals(e.getClass(), a.getClass());
+            assertSameColor(e.color, a.color);
+            if (e instanceof PointLight)
+                assertSamePoint(((PointLight) e).origin, ((PointLight) a).origin);
+            else
+                assertSameVector(((DirectionalLight) e).direction, ((DirectionalLight) a).direction);
+        }
+
+        assertEquals(expected.vertices.size(), actual.vertices.size());
+        for (int i = 0; i < expected.vertices.size(); i++)
+            assertSamePoint(expected.vertices.get(i), actual.vertices.get(i));
+
+        assertEquals(expected.meshes.size(), actual.meshes.size());
+        for (int i = 0; i < expected.meshes.size(); i++) {
+            MeshPrototype e = expected.meshes.get(i), a = actual.meshes.get(i);
+            assertEquals(e.name, a.name);
+            assertEquals(e.shapes.size(), a.shapes.size());
+            for (int k = 0; k < e.shapes.size(); k++)
+                assertSameShape(e.shapes.get(k), a.shapes.get(k));
+        }
+
+        assertEquals(expected.shapes.size(), actual.shapes.size());
+        for (int i = 0; i < expected.shapes.size(); i++) {
+            Shape e = expected.shapes.get(i), a = actual.shapes.get(i);
+            if (e instanceof MeshInstance) {
+                assertEquals(MeshInstance.class, a.getClass());
+                assertEquals(expected.meshes.indexOf(((MeshInstance) e).mesh),
+                        actual.meshes.indexOf(((MeshInstance) a).mesh));
+                assertArrayEquals(((MeshInstance) e).transform.getMatrix(), ((MeshInstance) a).transform.getMatrix());
+            } else {
+                assertSameShape(e, a);
+            }
+        }
+    }
+
+    private static void assertSameShape(Shape e, Shape a) {
+        assertEquals(e.getClass(), a.getClass());
+        assertSameColor(e.diffuse, a.diffuse);
+        assertSameColor(e.specular, a.specular);
+        assertEquals(e.shininess, a.shininess);
+        if (e instanceof Sphere) {
+            assertSamePoint(((Sphere) e).center, ((Sphere) a).center);
+            assertEquals(((Sphere) e).radius, ((Sphere) a).radius);
+        } else if (e instanceof Plane) {
+            assertSamePoint(((Plane) e).p0, ((Plane) a).p0);
+            assertSameVector(((Plane) e).normal, ((Plane) a).normal);
+        } else if (e instanceof Triangle) {
+            assertSamePoint(((Triangle) e).a, ((Triangle) a).a);
+            assertSamePoint(((Triangle) e).b, ((Triangle) a).b);
+            assertSamePoint(((Triangle) e).c, ((Triangle) a).c);
+        } else if (e instanceof TriangleMesh) {
+            assertArrayEquals(((TriangleMesh) e).positions, ((TriangleMesh) a).positions);
+            assertArrayEquals(((TriangleMesh) e).indices, ((TriangleMesh) a).indices);
+        }
+    }
+
+    private static void assertSamePoint(Point e, Point a) {
+        assertEquals(e.x, a.x);
+        assertEquals(e.y, a.y);
+        assertEquals(e.z, a.z);
+    }
+
+    private static void assertSameVector(Vector e, Vector a) {
+        assertEquals(e.x, a.x);
+        assertEquals(e.y, a.y);
+        assertEquals(e.z, a.z);
+    }
+
+    private static void assertSameColor(Color e, Color a) {
+        assertEquals(e.x, a.x);
+        assertEquals(e.y, a.y);
+        assertEquals(e.z, a.z);
+    }
+}
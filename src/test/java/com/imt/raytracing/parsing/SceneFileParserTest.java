@@ -11,9 +11,12 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.shape.MeshInstance;
 import com.imt.raytracing.geometry.shape.Plane;
 import com.imt.raytracing.geometry.shape.Sphere;
 import com.imt.raytracing.geometry.shape.Triangle;
+import com.imt.raytracing.geometry.shape.TriangleMesh;
 import com.imt.raytracing.raytracer.light.DirectionalLight;
 import com.imt.raytracing.raytracer.light.PointLight;
 import com.imt.raytracing.raytracer.scene.Scene;
@@ -223,4 +226,139 @@ public class SceneFileParserTest {
         assertEquals(10, scene.width);
         assertEquals(0.0, scene.ambient.x);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testParse_ConsecutiveTrianglesBecomeMesh() throws Exception {
+        String content = 
+            "maxverts 4\n" +
+            "vertex 0 0 0\n" +
+            "vertex 1 0 0\n" +
+            "vertex 0 1 0\n" +
+            "vertex 1 1 0\n" +
+            "diffuse 1 0 0\n" +
+            "tri 0 1 2\n" +
+            "tri 1 3 2\n" +
+            "diffuse 0 1 0\n" + // A material change ends the run
+            "tri 0 2 3\n";
+
+        writeSceneContent(content);
+        Scene scene = parser.parse(tempFile.toString());
+
+        assertEquals(2, scene.shapes.size(), "The run of two triangles and the lone triangle should be added.");
+        assertTrue(scene.shapes.get(0) instanceof TriangleMesh, "Consecutive triangles should form a mesh.");
+        assertTrue(scene.shapes.get(1) instanceof Triangle, "A lone triangle stays a Triangle.");
+
+        TriangleMesh mesh = (TriangleMesh) scene.shapes.get(0);
+        assertEquals(2, mesh.getTriangleCount());
+        assertEquals(1.0, mesh.diffuse.x, EPSILON);
+        assertEquals(1.0, ((Triangle) scene.shapes.get(1)).diffuse.y, EPSILON);
+
+        // Only the 4 referenced vertices are copied into the mesh
+        assertEquals(4 * 3, mesh.positions.length);
+    }
+
+    @Test
+    void testParse_SuccessiveRunsRenumberTheirVertices() throws Exception {
+        String content =
+            "maxverts 6\n" +
+            "vertex 0 0 0\n" +
+            "vertex 1 0 0\n" +
+            "vertex 0 1 0\n" +
+            "vertex 1 1 0\n" +
+            "diffuse 1 0 0\n" +
+            "tri 0 1 2\n" +
+            "tri 1 3 2\n" +
+            "diffuse 0 1 0\n" +
+            "tri 3 2 1\n" +
+            "tri 2 0 1\n" +
+            "vertex 2 0 0\n" + // Vertices defined between two runs
+            "vertex 2 1 0\n" +
+            "diffuse 0 0 1\n" +
+            "tri 1 4 3\n" +
+            "tri 4 5 3\n";
+
+        writeSceneContent(content);
+        Scene scene = parser.parse(tempFile.toString());
+
+        assertEquals(3, scene.shapes.size());
+        // Each run numbers the vertices it uses in order of first use
+        TriangleMesh second = (TriangleMesh) scene.shapes.get(1);
+        assertArrayEquals(new int[] {0, 1, 2, 1, 3, 2}, second.indices);
+        assertArrayEquals(new double[] {1, 1, 0, 0, 1, 0, 1, 0, 0, 0, 0, 0}, second.positions);
+
+        TriangleMesh third = (TriangleMesh) scene.shapes.get(2);
+        assertArrayEquals(new int[] {0, 1, 2, 1, 3, 2}, third.indices);
+        assertArrayEquals(new double[] {1, 0, 0, 2, 0, 0, 1, 1, 0, 2, 1, 0}, third.positions);
+    }
+
+    @Test
+    void testParse_TriangleWithUndefinedVertex() throws Exception {
+        writeSceneContent("maxverts 3\nvertex 0 0 0\ntri 0 1 2");
+        assertThrows(Exception.class, () -> parser.parse(tempFile.toString()),
+                     "Should throw exception if a triangle uses a vertex that is not defined.");
+    }
+
+    @Test
+    void testParse_MeshInstances() throws Exception {
+        String content =
+            "maxverts 3\n" +
+            "vertex 0 0 0\n" +
+            "vertex 1 0 0\n" +
+            "vertex 0 1 0\n" +
+            "mesh thing\n" +
+            "diffuse 1 0 0\n" +
+            "tri 0 1 2\n" +
+            "sphere 0 0 0 0.5\n" +
+            "endmesh\n" +
+            "instance thing\n" +
+            "pushTransform\n" +
+            "translate 10 0 0\n" +
+            "scale 2 2 2\n" +
+            "instance thing\n" +
+            "popTransform\n" +
+            "sphere 0 5 0 1\n" +
+            "instance thing\n";
+
+        writeSceneContent(content);
+        Scene scene = parser.parse(tempFile.toString());
+
+        assertEquals(1, scene.meshes.size());
+        assertEquals("thing", scene.meshes.get(0).name);
+        assertEquals(2, scene.meshes.get(0).shapes.size(), "The mesh holds its triangle and its sphere.");
+        assertNotNull(scene.meshes.get(0).getAccelerator(), "Every mesh gets its own structure.");
+
+        assertEquals(4, scene.shapes.size());
+        assertTrue(scene.shapes.get(2) instanceof Sphere);
+        MeshInstance first = (MeshInstance) scene.shapes.get(0);
+        MeshInstance moved = (MeshInstance) scene.shapes.get(1);
+        MeshInstance restored = (MeshInstance) scene.shapes.get(3);
+        assertSame(first.mesh, moved.mesh, "Instances share the mesh.");
+
+        // Scaled first, then translated
+        Point p = moved.transform.apply(new Point(1, 1, 1));
+        assertEquals(12.0, p.x, EPSILON);
+        assertEquals(2.0, p.y, EPSILON);
+        assertEquals(first.transform, restored.transform, "popTransform restores the saved transform.");
+    }
+
+    @Test
+    void testParse_InvalidMeshDefinitions() throws Exception {
+        String[] invalid = {
+            "instance nothing\n",
+            "mesh a\nendmesh\nmesh a\nendmesh\n",
+            "mesh a\nmesh b\n",
+            "mesh a\nsphere 0 0 0 1\n",
+            "endmesh\n",
+            "mesh a\nplane 0 0 0 0 1 0\nendmesh\n",
+            "mesh a\nendmesh\nmesh b\ninstance a\nendmesh\n",
+            "mesh a\nendmesh\nscale 1 0 1\ninstance a\n",
+            "popTransform\n",
+            "rotate 0 0 0 45\n"
+        };
+        for (String content : invalid) {
+            writeSceneContent(content);
+            Exception e = assertThrows(Exception.class, () -> parser.parse(tempFile.toString()), content);
+            assertTrue(e.getMessage().startsWith("Error: "), content);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.imt.raytracing.raytracer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Vector;
+
+/**
+ * Unit tests for the RayPacket class: the frustum must never cull a box reached by
+ * one of the rays, and should cull the boxes clearly outside of it.
+ */
+public class RayPacketTest {
+
+    private final Random random = new Random(7);
+
+    /** A square block of rays, as a camera would shoot them. */
+    private RayPacket block(Point origin, Vector axis, Vector right, Vector up, int size, double extent) {
+        Ray[] rays = new Ray[size * size];
+        for (int j = 0; j < size; j++) {
+            for (int i = 0; i < size; i++) {
+                double a = extent * (2.0 * i / Math.max(size - 1, 1) - 1);
+                double b = extent * (2.0 * j / Math.max(size - 1, 1) - 1);
+                rays[j * size + i] = new Ray(origin, axis.add(right.mul(a)).add(up.mul(b)));
+            }
+        }
+        return new RayPacket(rays);
+    }
+
+    private static double[] box(Point center, double half) {
+        return new double[] {center.x - half, center.y - half, center.z - half,
+                center.x + half, center.y + half, center.z + half};
+    }
+
+    @Test
+    void testCullsBox_NeverCullsABoxOnARay() {
+        for (int n = 0; n < 500; n++) {
+            Point origin = new Point(random.nextGaussian() * 10, random.nextGaussian() * 10, random.nextGaussian() * 10);
+            Vector axis = new Vector(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()).normalize();
+            Vector right = axis.cross(new Vector(0, 1, 0)).normalize();
+            Vector up = right.cross(axis).normalize();
+            RayPacket packet = block(origin, axis, right, up, 1 + random.nextInt(8), random.nextDouble());
+            assertTrue(packet.hasFrustum());
+
+            for (Ray ray : packet.rays) {
+                double t = random.nextDouble() * 100;
+                Point p = new Point(ray.origin.x + t * ray.direction.x, ray.origin.y + t * ray.direction.y,
+                        ray.origin.z + t * ray.direction.z);
+                // Even a point-like box exactly on the ray
+                assertFalse(packet.cullsBox(box(p, 0), 0));
+                assertFalse(packet.cullsBox(box(p, random.nextDouble()), 0));
+            }
+        }
+    }
+
+    @Test
+    void testCullsBox_OutsideTheFrustum() {
+        Point origin = new Point(0, 0, 0);
+        RayPacket packet = block(origin, new Vector(0, 0, -1), new Vector(1, 0, 0), new Vector(0, 1, 0), 8, 0.1);
+
+        assertFalse(packet.cullsBox(box(new Point(0, 0, -10), 0.5), 0));
+        // Partly inside
+        assertFalse(packet.cullsBox(box(new Point(1.5, 0, -10), 0.6), 0));
+        // Behind the origin, aside and above
+        assertTrue(packet.cullsBox(box(new Point(0, 0, 10), 0.5), 0));
+        assertTrue(packet.cullsBox(box(new Point(3, 0, -10), 0.5), 0));
+        assertTrue(packet.cullsBox(box(new Point(0, 3, -10), 0.5), 0));
+        // Boxes are read at an offset
+        double[] boxes = new double[12];
+        System.arraycopy(box(new Point(0, 0, -10), 0.5), 0, boxes, 6, 6);
+        assertFalse(packet.cullsBox(boxes, 6));
+    }
+
+    @Test
+    void testHasFrustum_OnlyForCoherentRays() {
+        Vector axis = new Vector(0, 0, -1);
+        // Different origins
+        RayPacket shifted = new RayPacket(new Ray(new Point(0, 0, 0), axis), new Ray(new Point(1, 0, 0), axis));
+        assertFalse(shifted.hasFrustum());
+        assertFalse(shifted.cullsBox(box(new Point(0, 0, 10), 0.5), 0));
+        // Opposite directions do not fit in a frustum
+        Point origin = new Point(0, 0, 0);
+        assertFalse(new RayPacket(new Ray(origin, axis), new Ray(origin, new Vector(0, 0, 1))).hasFrustum());
+        assertFalse(new RayPacket(new Ray(origin, new Vector(1, 0, 0)), new Ray(origin, new Vector(-1, 0.0001, 0))).hasFrustum());
+        // A single ray has a frustum
+        assertTrue(new RayPacket(new Ray(origin, axis)).hasFrustum());
+    }
+
+    @Test
+    void testConstructor_RejectsInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new RayPacket());
+        assertThrows(IllegalArgumentException.class, () -> new RayPacket(new Ray[RayPacket.MAX_SIZE + 1]));
+    }
+}
@@ -0,0 +1,118 @@
+package com.imt.raytracing.raytracer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.imt.raytracing.geometry.Orthonormal;
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Transform;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.MeshInstance;
+import com.imt.raytracing.geometry.shape.MeshPrototype;
+import com.imt.raytracing.geometry.shape.Plane;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.geometry.shape.Triangle;
+import com.imt.raytracing.geometry.shape.TriangleMesh;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.metrics.RenderMetrics;
+import com.imt.raytracing.metrics.RenderMetrics.Counter;
+import com.imt.raytracing.raytracer.light.DirectionalLight;
+import com.imt.raytracing.raytracer.light.PointLight;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Unit tests for the WavefrontTracer class. Every pixel must have exactly the color
+ * computed recursively by the RayTracer, and the same rays must be traced.
+ */
+public class WavefrontTracerTest {
+
+    /** Mirrors facing each other, so that some pixels go down every reflection. */
+    private static Scene mirrors(int maxdepth, double minweight) {
+        Scene scene = new Scene(37, 29);
+        scene.camera = new Camera(new Point(0, 1, 6), new Point(0, 0, 0), new Vector(0, 1, 0), 60);
+        scene.maxdepth = maxdepth;
+        scene.minweight = minweight;
+        scene.ambient = new Color(0.1, 0.1, 0.1);
+        scene.lights.add(new PointLight(new Point(2, 4, 3), new Color(0.6, 0.6, 0.6)));
+        scene.lights.add(new DirectionalLight(new Vector(-1, 1, 1), new Color(0.3, 0.2, 0.1)));
+
+        Color mirror = new Color(0.6, 0.5, 0.4);
+        scene.shapes.add(new Plane(new Point(0, -1, 0), new Vector(0, 1, 0), new Color(0.3, 0.3, 0.3), mirror, 10));
+        scene.shapes.add(new Plane(new Point(0, 0, -4), new Vector(0, 0, 1), new Color(0.2, 0.2, 0.4), mirror, 10));
+        scene.shapes.add(new Sphere(new Point(0, 0, 0), 1, new Color(0.8, 0.1, 0.1), new Color(0.3, 0.3, 0.3), 20));
+        scene.shapes.add(new Sphere(new Point(1.5, 0, -1), 0.7, new Color(0, 0, 0), new Color(0.9, 0.9, 0.9), 50));
+        scene.shapes.add(new Triangle(new Point(-3, -1, -2), new Point(-1, -1, -2), new Point(-2, 1, -2),
+                new Color(0.1, 0.7, 0.1), new Color(0, 0, 0), 5));
+
+        List<Shape> meshShapes = new ArrayList<>();
+        meshShapes.add(new TriangleMesh(new double[] {0, 0, 0, 1, 0, 0, 0, 1, 0, 1, 1, 0.5},
+                new int[] {0, 1, 2, 1, 3, 2}, new Color(0.5, 0.5, 0.1), new Color(0.2, 0.2, 0.2), 10));
+        MeshPrototype quad = new MeshPrototype("quad", meshShapes);
+        scene.meshes.add(quad);
+        scene.shapes.add(new MeshInstance(quad, Transform.translation(2, 1, -2)));
+
+        scene.buildAccelerationStructure();
+        return scene;
+    }
+
+    private static void assertSameAsRecursive(Scene scene, boolean packets, int x0, int y0, int x1, int y1) {
+        Orthonormal basis = new Orthonormal(scene.camera.getLookFrom(), scene.camera.getLookAt(), scene.camera.getUp());
+        int[] framebuffer = new int[scene.width * scene.height];
+        new WavefrontTracer(packets).render(scene, basis, x0, y0, x1, y1, framebuffer);
+
+        RayTracer rt = new RayTracer();
+        for (int j = 0; j < scene.height; j++) {
+            for (int i = 0; i < scene.width; i++) {
+                int expected = i >= x0 && i < x1 && j >= y0 && j < y1 ? rt.getPixelColor(i, j, scene, basis).toRGB() : 0;
+                assertEquals(expected, framebuffer[(scene.height - j - 1) * scene.width + i], "Pixel mismatch at " + i + "," + j);
+            }
+        }
+    }
+
+    @Test
+    void testRender_IdenticalToRecursive() {
+        assertSameAsRecursive(mirrors(6, 0), false, 0, 0, 37, 29);
+        assertSameAsRecursive(mirrors(6, 0), true, 0, 0, 37, 29);
+    }
+
+    @Test
+    void testRender_MinWeightAndNoReflection() {
+        assertSameAsRecursive(mirrors(10, 0.1), false, 0, 0, 37, 29);
+        assertSameAsRecursive(mirrors(1, 0), false, 0, 0, 37, 29);
+    }
+
+    @Test
+    void testRender_OnlyWritesItsRectangle() {
+        assertSameAsRecursive(mirrors(4, 0), true, 5, 3, 30, 20);
+    }
+
+    @Test
+    void testRender_TracesTheSameRays() {
+        Scene scene = mirrors(6, 0.05);
+        Orthonormal basis = new Orthonormal(scene.camera.getLookFrom(), scene.camera.getLookAt(), scene.camera.getUp());
+
+        RenderMetrics recursive = new RenderMetrics();
+        RenderMetrics.setActive(recursive);
+        try {
+            RayTracer rt = new RayTracer();
+            for (int j = 0; j < scene.height; j++)
+                for (int i = 0; i < scene.width; i++)
+                    rt.getPixelColor(i, j, scene, basis);
+
+            RenderMetrics wavefront = new RenderMetrics();
+            RenderMetrics.setActive(wavefront);
+            new WavefrontTracer(false).render(scene, basis, 0, 0, scene.width, scene.height,
+                    new int[scene.width * scene.height]);
+
+            for (Counter counter : Counter.values())
+                assertEquals(recursive.get(counter), wavefront.get(counter), counter.name());
+        } finally {
+            RenderMetrics.setActive(null);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Transform;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.MeshInstance;
+import com.imt.raytracing.geometry.shape.MeshPrototype;
+import com.imt.raytracing.geometry.shape.Plane;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.geometry.shape.Triangle;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Unit tests for the AccelerationCache class. A structure loaded from the cache must
+ * answer exactly like the structure that was stored.
+ */
+public class AccelerationCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private AccelerationCache cache;
+    private final Color diffuse = new Color(0.5, 0.5, 0.5);
+    private final Color specular = new Color(0.1, 0.1, 0.1);
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cache = new AccelerationCache(directory, AccelerationCache.DEFAULT_MAX_SIZE);
+    }
+
+    private List<Shape> randomShapes(long seed, int count) {
+        Random random = new Random(seed);
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(new Plane(new Point(0, -10, 0), new Vector(0, 1, 0), diffuse, specular, 10));
+        for (int i = 0; i < count; i++) {
+            Point a = new Point(random.nextDouble() * 16 - 8, random.nextDouble() * 16 - 8, random.nextDouble() * 16 - 8);
+            if (i % 2 == 0) {
+                shapes.add(new Sphere(a, 0.1 + random.nextDouble(), diffuse, specular, 10));
+            } else {
+                shapes.add(new Triangle(a, a.add(new Vector(random.nextDouble(), 1, 0)),
+                        a.add(new Vector(0, random.nextDouble(), 1)), diffuse, specular, 10));
+            }
+        }
+        return shapes;
+    }
+
+    private List<Path> entries() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.toString().endsWith(".bvh")).toList();
+        }
+    }
+
+    private static void assertSameHits(Accelerator expected, Accelerator actual) {
+        Random random = new Random(9);
+        for (int k = 0; k < 1000; k++) {
+            Ray ray = new Ray(new Point(random.nextDouble() * 30 - 15, random.nextDouble() * 30 - 15, 20),
+                    new Vector(random.nextDouble() - 0.5, random.nextDouble() - 0.5, -1));
+            HitRecord e = new HitRecord(), a = new HitRecord();
+            assertEquals(expected.closestHit(ray, e), actual.closestHit(ray, a));
+            assertEquals(e.t, a.t, 0.0);
+            assertSame(e.shape, a.shape);
+            assertEquals(e.primitive, a.primitive);
+            assertEquals(expected.anyIntersection(ray, 25), actual.anyIntersection(ray, 25));
+        }
+    }
+
+    @Test
+    void testStoreThenLoad_GivesTheSameHierarchy() {
+        List<Shape> shapes = randomShapes(1, 500);
+        for (AcceleratorType type : new AcceleratorType[] {AcceleratorType.BVH, AcceleratorType.LBVH}) {
+            assertNull(cache.load(type, shapes), "Nothing is cached yet.");
+            Accelerator built = type == AcceleratorType.BVH ? new BVH(shapes) : LinearBVHBuilder.build(shapes);
+            cache.store(type, shapes, built);
+
+            Accelerator loaded = cache.load(type, shapes);
+            assertNotNull(loaded);
+            assertSameHits(built, loaded);
+        }
+    }
+
+    @Test
+    void testKey_DependsOnGeometryOnly() {
+        List<Shape> shapes = randomShapes(2, 50);
+        String key = AccelerationCache.key(AcceleratorType.BVH, shapes);
+        assertEquals(key, AccelerationCache.key(AcceleratorType.BVH, randomShapes(2, 50)));
+        assertNotEquals(key, AccelerationCache.key(AcceleratorType.LBVH, shapes));
+
+        // A change of material keeps the key
+        shapes.get(3).diffuse = new Color(1, 0, 0);
+        assertEquals(key, AccelerationCache.key(AcceleratorType.BVH, shapes));
+
+        // Moving a single shape changes it
+        Sphere moved = (Sphere) shapes.get(1);
+        shapes.set(1, new Sphere(moved.center.add(new Vector(1e-9, 0, 0)), moved.radius, diffuse, specular, 10));
+        assertNotEquals(key, AccelerationCache.key(AcceleratorType.BVH, shapes));
+    }
+
+    @Test
+    void testOtherStructuresAreNotCached() throws IOException {
+        List<Shape> shapes = randomShapes(3, 50);
+        cache.store(AcceleratorType.GRID, shapes, new UniformGrid(shapes));
+        assertNull(cache.load(AcceleratorType.GRID, shapes));
+        assertNull(cache.load(AcceleratorType.NONE, shapes));
+        assertTrue(entries().isEmpty());
+    }
+
+    @Test
+    void testDamagedEntry_IsDeletedAndRebuilt() throws IOException {
+        List<Shape> shapes = randomShapes(4, 200);
+        cache.store(AcceleratorType.BVH, shapes, new BVH(shapes));
+        Path entry = entries().get(0);
+        byte[] bytes = Files.readAllBytes(entry);
+        Files.write(entry, Arrays.copyOf(bytes, bytes.length / 2));
+
+        assertNull(cache.load(AcceleratorType.BVH, shapes));
+        assertFalse(Files.exists(entry), "A damaged entry is removed.");
+
+        // An entry written for other shapes is rejected as well
+        List<Shape> other = randomShapes(4, 200);
+        cache.store(AcceleratorType.BVH, other, new BVH(other));
+        Files.move(entries().get(0), directory.resolve(AccelerationCache.key(AcceleratorType.BVH,
+                randomShapes(5, 10)) + ".bvh"));
+        assertNull(cache.load(AcceleratorType.BVH, randomShapes(5, 10)));
+    }
+
+    @Test
+    void testEviction_RemovesTheLeastRecentlyUsedEntries() throws Exception {
+        List<List<Shape>> scenes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) scenes.add(randomShapes(10 + i, 300));
+
+        cache.store(AcceleratorType.BVH, scenes.get(0), new BVH(scenes.get(0)));
+        long entrySize = Files.size(entries().get(0));
+        // Room for two entries only
+        AccelerationCache small = new AccelerationCache(directory, entrySize * 5 / 2);
+        small.store(AcceleratorType.BVH, scenes.get(1), new BVH(scenes.get(1)));
+
+        // The first entry is used again, so the second one is now the oldest
+        Path first = directory.resolve(AccelerationCache.key(AcceleratorType.BVH, scenes.get(0)) + ".bvh");
+        Path second = directory.resolve(AccelerationCache.key(AcceleratorType.BVH, scenes.get(1)) + ".bvh");
+        Files.setLastModifiedTime(first, FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(second, FileTime.fromMillis(2000));
+        assertNotNull(small.load(AcceleratorType.BVH, scenes.get(0)));
+
+        small.store(AcceleratorType.BVH, scenes.get(2), new BVH(scenes.get(2)));
+
+        assertEquals(2, entries().size());
+        assertTrue(Files.exists(first));
+        assertFalse(Files.exists(second));
+    }
+
+    @Test
+    void testEviction_RemovesStaleTemporaryFiles() throws IOException {
+        Path stale = Files.createFile(directory.resolve("crashed.bvh.tmp"));
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(0));
+        Path recent = Files.createFile(directory.resolve("writing.bvh.tmp"));
+
+        List<Shape> shapes = randomShapes(6, 20);
+        cache.store(AcceleratorType.BVH, shapes, new BVH(shapes));
+
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(recent), "Another render may still be writing it.");
+    }
+
+    @Test
+    void testConcurrentRenders_ShareTheDirectory() throws Exception {
+        List<Shape> shapes = randomShapes(7, 2000);
+        BVH reference = new BVH(shapes);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Accelerator>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(pool.submit(() -> {
+                    AccelerationCache shared = new AccelerationCache(directory, AccelerationCache.DEFAULT_MAX_SIZE);
+                    Accelerator cached = shared.load(AcceleratorType.BVH, shapes);
+                    if (cached != null) return cached;
+                    BVH built = new BVH(shapes);
+                    shared.store(AcceleratorType.BVH, shapes, built);
+                    return built;
+                }));
+            }
+            for (Future<Accelerator> result : results)
+                assertSameHits(reference, result.get());
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(1, entries().size());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count(), "No temporary file is left behind.");
+        }
+    }
+
+    @Test
+    void testScene_CachesTheMeshStructuresToo() throws IOException {
+        List<Shape> meshShapes = randomShapes(8, 100).subList(1, 101);
+        MeshPrototype mesh = new MeshPrototype("cloud", new ArrayList<>(meshShapes));
+        Scene scene = new Scene();
+        scene.meshes.add(mesh);
+        scene.shapes.add(new MeshInstance(mesh, Transform.IDENTITY));
+        scene.shapes.add(new MeshInstance(mesh, Transform.translation(20, 0, 0)));
+
+        scene.buildAccelerationStructure(AcceleratorType.BVH, cache);
+        assertEquals(2, entries().size(), "One entry for the scene, one for the mesh.");
+        Accelerator top = scene.getAccelerator();
+
+        scene.buildAccelerationStructure(AcceleratorType.BVH, cache);
+        assertNotSame(top, scene.getAccelerator(), "The structure is loaded again.");
+        assertSameHits(top, scene.getAccelerator());
+        assertEquals(2, entries().size());
+    }
+}
@@ -0,0 +1,332 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import static com.imt.raytracing.raytracer.acceleration.RandomScenes.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.Plane;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.geometry.shape.TriangleMesh;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.RayPacket;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+import com.imt.raytracing.raytracer.scene.Intersection;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Unit tests for the BVH class. The hierarchy must return exactly the same
+ * intersections as the linear scan performed by the Scene.
+ */
+public class BVHTest {
+
+    private Scene scene;
+    private Random random;
+
+    @BeforeEach
+    void setUp() {
+        random = new Random(42);
+        scene = RandomScenes.create(random, 2000);
+    }
+
+    @Test
+    void testBuild_ContainsAllBoundedShapes() {
+        BVH bvh = new BVH(scene.shapes);
+
+        // The plane is unbounded and stays out of the tree, each mesh triangle is a primitive
+        assertEquals(200 + 2000 + 500, bvh.getPrimitiveCount());
+        assertTrue(bvh.getNodeCount() > 1, "The tree should have been split.");
+    }
+
+    @Test
+    void testClosestIntersection_MatchesLinearScan() {
+        BVH bvh = new BVH(scene.shapes);
+
+        for (int i = 0; i < 2000; i++) {
+            assertSameClosest(scene, bvh, randomRay(random), "ray " + i);
+        }
+    }
+
+    @Test
+    void testClosestIntersection_TieKeepsSceneOrder() {
+        // Two identical spheres: the first one in the list must win, as with the linear scan
+        Scene twins = new Scene(10, 10);
+        Sphere first = new Sphere(new Point(0, 0, 0), 1, DIFFUSE, SPECULAR, 10);
+        Sphere second = new Sphere(new Point(0, 0, 0), 1, DIFFUSE, SPECULAR, 10);
+        twins.shapes.add(first);
+        twins.shapes.add(second);
+
+        BVH bvh = new BVH(twins.shapes);
+        Optional<Intersection> hit = bvh.closestIntersection(new Ray(new Point(0, 0, 5), new Vector(0, 0, -1)));
+
+        assertTrue(hit.isPresent());
+        assertSame(first, hit.get().shape);
+    }
+
+    @Test
+    void testEmptyScene() {
+        BVH bvh = new BVH(new Scene().shapes);
+        assertTrue(bvh.closestIntersection(new Ray(new Point(0, 0, 0), new Vector(1, 0, 0))).isEmpty());
+    }
+
+    @Test
+    void testSceneUsesAccelerator() {
+        scene.buildAccelerationStructure();
+        assertNotNull(scene.getAccelerator());
+
+        Ray ray = new Ray(new Point(0, 20, 0), new Vector(0, -1, 0));
+        assertTrue(scene.closestIntersection(ray).isPresent(), "The ray should at least hit the floor.");
+    }
+
+    @Test
+    void testAnyIntersection_MatchesClosestIntersection() {
+        BVH bvh = new BVH(scene.shapes);
+
+        for (int i = 0; i < 2000; i++) {
+            Ray ray = randomRay(random);
+            double tMax = random.nextDouble() * 30;
+
+            Optional<Intersection> closest = scene.closestIntersection(ray);
+            boolean expected = closest.isPresent() && closest.get().t < tMax;
+
+            assertEquals(expected, bvh.anyIntersection(ray, tMax), "Any-hit mismatch for ray " + i);
+            assertEquals(expected, scene.anyIntersection(ray, tMax), "Linear any-hit mismatch for ray " + i);
+        }
+    }
+
+    private static ByteBuffer serialize(BVH bvh) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            bvh.write(out);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    @Test
+    void testWriteRead_RestoresSameTree() throws IOException {
+        BVH bvh = new BVH(scene.shapes);
+        BVH restored = BVH.read(serialize(bvh), scene.shapes);
+
+        assertEquals(bvh.getNodeCount(), restored.getNodeCount());
+        assertEquals(bvh.getPrimitiveCount(), restored.getPrimitiveCount());
+        for (int i = 0; i < 500; i++) {
+            Ray ray = randomRay(random);
+            assertSameIntersection(bvh.closestIntersection(ray), restored.closestIntersection(ray), "ray " + i);
+        }
+    }
+
+    @Test
+    void testRead_RejectsInvalidLinks() throws IOException {
+        ByteBuffer data = serialize(new BVH(scene.shapes));
+        // The right child of the root, stored just after the node boxes, points back to the root
+        int nodeCount = data.getInt(0);
+        data.putInt(4 + 48 * nodeCount, 0);
+
+        assertThrows(IOException.class, () -> BVH.read(data, scene.shapes));
+    }
+
+    @Test
+    void testRead_RejectsMissingShapes() throws IOException {
+        ByteBuffer data = serialize(new BVH(scene.shapes));
+
+        assertThrows(IOException.class, () -> BVH.read(data, scene.shapes.subList(0, 10)));
+    }
+
+    private void assertMatchesLinearScan(BVH bvh) {
+        RandomScenes.assertMatchesLinearScan(scene, bvh, random, 2000);
+    }
+
+    /**
+     * Packet of rays leaving from a random point, spread around a random direction.
+     * @param spread Twice the deviation of the directions from the axis, at unit distance.
+     */
+    private RayPacket randomPacket(int size, double spread) {
+        Point origin = randomPoint(random, 20);
+        Vector axis = new Vector(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()).normalize();
+        Ray[] rays = new Ray[size];
+        for (int k = 0; k < size; k++) {
+            rays[k] = new Ray(origin, axis.add(new Vector(random.nextGaussian(), random.nextGaussian(),
+                    random.nextGaussian()).mul(spread / 2)));
+        }
+        return new RayPacket(rays);
+    }
+
+    private void assertPacketsMatchSingleRays(BVH bvh) {
+        for (int i = 0; i < 300; i++) {
+            RayPacket packet = randomPacket(1 + random.nextInt(RayPacket.MAX_SIZE), i % 3 == 0 ? 0.5 : 0.05);
+            HitRecord[] hits = new HitRecord[packet.size()];
+            for (int k = 0; k < hits.length; k++) hits[k] = new HitRecord();
+            bvh.closestHits(packet, hits);
+
+            for (int k = 0; k < hits.length; k++) {
+                HitRecord expected = new HitRecord();
+                bvh.closestHit(packet.rays[k], expected);
+                assertEquals(expected.t, hits[k].t, 0.0, "Different distance for packet " + i + " ray " + k);
+                assertSame(expected.shape, hits[k].shape, "Different shape hit for packet " + i + " ray " + k);
+                assertEquals(expected.primitive, hits[k].primitive);
+            }
+        }
+    }
+
+    @Test
+    void testClosestHits_MatchesSingleRays() {
+        assertPacketsMatchSingleRays(new BVH(scene.shapes));
+    }
+
+    @Test
+    void testClosestHits_WithoutFrustum() {
+        BVH bvh = new BVH(scene.shapes);
+        // Rays from different points cannot share a frustum and are traced one by one
+        Ray[] rays = new Ray[20];
+        for (int k = 0; k < rays.length; k++)
+            rays[k] = randomRay(random);
+        RayPacket packet = new RayPacket(rays);
+        assertFalse(packet.hasFrustum());
+
+        HitRecord[] hits = new HitRecord[rays.length];
+        for (int k = 0; k < hits.length; k++) hits[k] = new HitRecord();
+        bvh.closestHits(packet, hits);
+        for (int k = 0; k < rays.length; k++) {
+            Optional<Intersection> expected = scene.closestIntersection(rays[k]);
+            assertEquals(expected.isPresent(), hits[k].isHit());
+            if (expected.isPresent()) assertEquals(expected.get().t, hits[k].t, 0.0);
+        }
+    }
+
+    @Test
+    void testClosestHits_AfterRefit() {
+        BVH bvh = new BVH(scene.shapes);
+        assertPacketsMatchSingleRays(bvh);
+        // The boxes of the primitives used to cull them must follow the moves
+        assertTrue(bvh.refit(scene.shapes, moveShapes(3), BVH.DEFAULT_REBUILD_THRESHOLD));
+        assertPacketsMatchSingleRays(bvh);
+    }
+
+    /** Moves the spheres and the mesh vertices by up to {@code distance} on each axis. */
+    private int[] moveShapes(double distance) {
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < scene.shapes.size(); i++) {
+            if (scene.shapes.get(i) instanceof Sphere) {
+                Sphere sphere = (Sphere) scene.shapes.get(i);
+                sphere.center = sphere.center.add(new Vector((random.nextDouble() * 2 - 1) * distance,
+                        (random.nextDouble() * 2 - 1) * distance, (random.nextDouble() * 2 - 1) * distance));
+                changed.add(i);
+            } else if (scene.shapes.get(i) instanceof TriangleMesh) {
+                TriangleMesh mesh = (TriangleMesh) scene.shapes.get(i);
+                for (int k = 0; k < mesh.positions.length; k++)
+                    mesh.positions[k] += (random.nextDouble() * 2 - 1) * distance;
+                mesh.updateGeometry();
+                changed.add(i);
+            }
+        }
+        return changed.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    void testRefit_FollowsMovedShapes() {
+        BVH bvh = new BVH(scene.shapes);
+        int nodes = bvh.getNodeCount();
+
+        assertTrue(bvh.refit(scene.shapes, moveShapes(0.5), Double.POSITIVE_INFINITY));
+
+        assertEquals(nodes, bvh.getNodeCount(), "A refit alone keeps the topology.");
+        assertMatchesLinearScan(bvh);
+    }
+
+    @Test
+    void testRefit_RebuildsDegradedSubtrees() throws IOException {
+        // A cloud of small spheres only, so that scattering them ruins the tree
+        scene.shapes.clear();
+        for (int i = 0; i < 2000; i++)
+            scene.shapes.add(new Sphere(randomPoint(random, 8), 0.3, DIFFUSE, SPECULAR, 10));
+        BVH refitted = new BVH(scene.shapes);
+        BVH rebuilt = new BVH(scene.shapes);
+        int[] changed = moveShapes(12);
+
+        assertTrue(refitted.refit(scene.shapes, changed, Double.POSITIVE_INFINITY));
+        assertTrue(rebuilt.refit(scene.shapes, changed, BVH.DEFAULT_REBUILD_THRESHOLD));
+
+        assertTrue(rebuilt.getCost() < refitted.getCost() / 2,
+                "Rebuilding the degraded subtrees must give a much cheaper tree.");
+        assertEquals(rebuilt.getPrimitiveCount(), refitted.getPrimitiveCount());
+        assertMatchesLinearScan(refitted);
+        assertMatchesLinearScan(rebuilt);
+        // The spliced tree is still a valid hierarchy
+        assertMatchesLinearScan(BVH.read(serialize(rebuilt), scene.shapes));
+
+        // Once rebuilt, a small move only refits
+        int nodes = rebuilt.getNodeCount();
+        assertTrue(rebuilt.refit(scene.shapes, moveShapes(0.01), BVH.DEFAULT_REBUILD_THRESHOLD));
+        assertEquals(nodes, rebuilt.getNodeCount());
+        assertMatchesLinearScan(rebuilt);
+    }
+
+    @Test
+    void testRefit_PartialRebuildKeepsTheRestOfTheTree() throws IOException {
+        // Only a few spheres of a large scene move far away
+        BVH bvh = new BVH(scene.shapes);
+        int[] changed = new int[20];
+        for (int k = 0; k < changed.length; k++) {
+            changed[k] = 1 + 10 * k;
+            Sphere sphere = (Sphere) scene.shapes.get(changed[k]);
+            sphere.center = new Point(-sphere.center.x, sphere.center.z, sphere.center.y);
+        }
+        double before = bvh.getCost();
+
+        assertTrue(bvh.refit(scene.shapes, changed, 1.0));
+
+        assertTrue(bvh.getCost() <= before * 1.5);
+        assertMatchesLinearScan(bvh);
+        assertMatchesLinearScan(BVH.read(serialize(bvh), scene.shapes));
+    }
+
+    @Test
+    void testRefit_ReplacedShapes() {
+        BVH bvh = new BVH(scene.shapes);
+        Sphere old = (Sphere) scene.shapes.get(1);
+        Sphere replacement = new Sphere(new Point(0, 0, 30), 1, DIFFUSE, SPECULAR, 10);
+        scene.shapes.set(1, replacement);
+
+        assertTrue(bvh.refit(scene.shapes, new int[] {1}, BVH.DEFAULT_REBUILD_THRESHOLD));
+        Optional<Intersection> hit = bvh.closestIntersection(new Ray(new Point(0, 0, 40), new Vector(0, 0, -1)));
+        assertSame(replacement, hit.get().shape);
+        assertNotSame(old, hit.get().shape);
+        assertMatchesLinearScan(bvh);
+    }
+
+    @Test
+    void testRefit_RejectsTopologyChanges() {
+        BVH bvh = new BVH(scene.shapes);
+
+        // A sphere becoming unbounded
+        List<Shape> withPlane = new ArrayList<>(scene.shapes);
+        withPlane.set(1, new Plane(new Point(0, 0, 0), new Vector(0, 1, 0), DIFFUSE, SPECULAR, 10));
+        assertFalse(bvh.refit(withPlane, new int[] {1}, BVH.DEFAULT_REBUILD_THRESHOLD));
+
+        // A shape removed
+        assertFalse(bvh.refit(scene.shapes.subList(0, 100), new int[0], BVH.DEFAULT_REBUILD_THRESHOLD));
+
+        // A mesh with another number of triangles
+        List<Shape> otherMesh = new ArrayList<>(scene.shapes);
+        int last = otherMesh.size() - 1;
+        otherMesh.set(last, new TriangleMesh(new double[] {0, 0, 0, 1, 0, 0, 0, 1, 0}, new int[] {0, 1, 2},
+                DIFFUSE, SPECULAR, 10));
+        assertFalse(bvh.refit(otherMesh, new int[] {last}, BVH.DEFAULT_REBUILD_THRESHOLD));
+
+        // The tree was left untouched
+        assertMatchesLinearScan(bvh);
+    }
+}
@@ -0,0 +1,186 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+import org.junit.jupiter.api.Test;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Transform;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.MeshInstance;
+import com.imt.raytracing.geometry.shape.MeshPrototype;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.geometry.shape.Triangle;
+import com.imt.raytracing.geometry.shape.TriangleMesh;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.HitRecord;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Unit tests for the LeafKernel implementations. Every lane must give exactly the
+ * distance of the scalar test of the shape, whichever kernel runs (the vector kernel
+ * is only available with the simd profile).
+ */
+public class LeafKernelTest {
+
+    private static final int N = LeafKernel.LANES;
+
+    private final Color color = new Color(0.5, 0.5, 0.5);
+    private final Random random = new Random(17);
+
+    private Point randomPoint(double extent) {
+        return new Point((random.nextDouble() * 2 - 1) * extent,
+                (random.nextDouble() * 2 - 1) * extent, (random.nextDouble() * 2 - 1) * extent);
+    }
+
+    private static double distance(Shape shape, Ray ray) {
+        HitRecord hit = new HitRecord();
+        return shape.intersect(ray, hit) ? hit.t : Double.POSITIVE_INFINITY;
+    }
+
+    private static void assertKernels(double[] expected, BiConsumer<LeafKernel, double[]> test) {
+        for (LeafKernel kernel : new LeafKernel[] {ScalarLeafKernel.INSTANCE, LeafKernel.select()}) {
+            double[] t = new double[N];
+            test.accept(kernel, t);
+            for (int lane = 0; lane < N; lane++)
+                assertEquals(expected[lane], t[lane], 0.0, kernel.getClass().getSimpleName() + " lane " + lane);
+        }
+    }
+
+    @Test
+    void testTriangles_MatchTriangle() {
+        for (int k = 0; k < 2000; k++) {
+            Triangle[] triangles = new Triangle[N];
+            double[] data = new double[LeafKernel.TRIANGLE_BLOCK + 3];
+            int offset = 3;
+            for (int lane = 0; lane < N; lane++) {
+                Point a = randomPoint(2);
+                // Some degenerate triangles, which are never hit
+                Point b = lane == 3 && k % 5 == 0 ? a : randomPoint(2);
+                Triangle tri = new Triangle(a, b, randomPoint(2), color, color, 10);
+                triangles[lane] = tri;
+                data[offset + lane] = a.x;
+                data[offset + N + lane] = a.y;
+                data[offset + 2 * N + lane] = a.z;
+                data[offset + 3 * N + lane] = b.x - a.x;
+                data[offset + 4 * N + lane] = b.y - a.y;
+                data[offset + 5 * N + lane] = b.z - a.z;
+                data[offset + 6 * N + lane] = tri.c.x - a.x;
+                data[offset + 7 * N + lane] = tri.c.y - a.y;
+                data[offset + 8 * N + lane] = tri.c.z - a.z;
+            }
+            Ray ray = new Ray(randomPoint(5), new Vector(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()));
+
+            double[] expected = new double[N];
+            for (int lane = 0; lane < N; lane++) expected[lane] = distance(triangles[lane], ray);
+            assertKernels(expected, (kernel, t) -> kernel.triangles(data, offset, ray.origin.x, ray.origin.y, ray.origin.z,
+                    ray.direction.x, ray.direction.y, ray.direction.z, t));
+        }
+    }
+
+    @Test
+    void testSpheres_MatchSphere() {
+        for (int k = 0; k < 2000; k++) {
+            Sphere[] spheres = new Sphere[N];
+            double[] data = new double[LeafKernel.SPHERE_BLOCK];
+            for (int lane = 0; lane < N; lane++) {
+                Sphere sphere = new Sphere(randomPoint(3), 0.1 + random.nextDouble() * 2, color, color, 10);
+                spheres[lane] = sphere;
+                data[lane] = sphere.center.x;
+                data[N + lane] = sphere.center.y;
+                data[2 * N + lane] = sphere.center.z;
+                data[3 * N + lane] = sphere.radius;
+            }
+            // Some rays start inside a sphere
+            Ray ray = new Ray(randomPoint(4), new Vector(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()));
+
+            double[] expected = new double[N];
+            for (int lane = 0; lane < N; lane++) expected[lane] = distance(spheres[lane], ray);
+            assertKernels(expected, (kernel, t) -> kernel.spheres(data, 0, ray.origin.x, ray.origin.y, ray.origin.z,
+                    ray.direction.x, ray.direction.y, ray.direction.z, t));
+        }
+    }
+
+    @Test
+    void testPadding_IsNeverHit() {
+        double[] triangles = new double[LeafKernel.TRIANGLE_BLOCK];
+        double[] spheres = new double[LeafKernel.SPHERE_BLOCK];
+        Arrays.fill(spheres, Double.NaN);
+        double[] expected = new double[N];
+        Arrays.fill(expected, Double.POSITIVE_INFINITY);
+
+        assertKernels(expected, (kernel, t) -> kernel.triangles(triangles, 0, 0, 0, 1, 0, 0, -1, t));
+        assertKernels(expected, (kernel, t) -> kernel.spheres(spheres, 0, 0, 0, 1, 0, 0, -1, t));
+    }
+
+    @Test
+    void testSelect_FallsBackToScalar() {
+        String previous = System.getProperty("raytracing.simd");
+        System.setProperty("raytracing.simd", "false");
+        try {
+            assertSame(ScalarLeafKernel.INSTANCE, LeafKernel.select());
+        } finally {
+            if (previous == null) System.clearProperty("raytracing.simd");
+            else System.setProperty("raytracing.simd", previous);
+        }
+        // Whatever the build, a kernel is always available
+        assertNotNull(LeafKernel.select());
+    }
+
+    @Test
+    void testLeafBlocks_MatchTheShapes() {
+        // One leaf mixing triangles, mesh triangles, spheres and a shape tested on its own
+        List<Shape> list = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            list.add(new Triangle(randomPoint(2), randomPoint(2), randomPoint(2), color, color, 10));
+        list.add(new TriangleMesh(new double[] {0, 0, 0, 1, 0, 0, 0, 1, 0, 1, 1, 1},
+                new int[] {0, 1, 2, 1, 3, 2}, color, color, 10));
+        for (int i = 0; i < 3; i++)
+            list.add(new Sphere(randomPoint(2), 0.5, color, color, 10));
+        list.add(new MeshInstance(new MeshPrototype("ball", new ArrayList<>(List.of(
+                new Sphere(new Point(0, 0, 0), 1, color, color, 10)))), Transform.translation(1, 1, 1)));
+
+        List<Shape> entryShapes = new ArrayList<>();
+        List<Integer> entryPrimitives = new ArrayList<>();
+        for (int s = 0; s < list.size(); s++) {
+            for (int p = 0; p < list.get(s).getPrimitiveCount(); p++) {
+                entryShapes.add(list.get(s));
+                entryPrimitives.add(p);
+            }
+        }
+        int n = entryShapes.size();
+        Shape[] shapes = entryShapes.toArray(new Shape[0]);
+        int[] primitives = new int[n];
+        long[] order = new long[n];
+        for (int i = 0, s = -1; i < n; i++) {
+            primitives[i] = entryPrimitives.get(i);
+            if (primitives[i] == 0) s++;
+            order[i] = HitRecord.order(s, primitives[i]);
+        }
+
+        Scene scene = new Scene();
+        scene.shapes = list;
+        for (LeafKernel kernel : new LeafKernel[] {ScalarLeafKernel.INSTANCE, LeafKernel.select()}) {
+            LeafBlocks blocks = new LeafBlocks(kernel, new int[] {0, n}, 1, shapes, primitives, order);
+            double[] t = new double[N];
+            for (int k = 0; k < 1000; k++) {
+                Ray ray = new Ray(randomPoint(5), new Vector(random.nextGaussian(), random.nextGaussian(), random.nextGaussian()));
+                HitRecord expected = new HitRecord(), actual = new HitRecord();
+                assertEquals(scene.closestHit(ray, expected), blocks.closestHit(0, ray, actual, t));
+                assertEquals(expected.t, actual.t, 0.0);
+                assertSame(expected.shape, actual.shape);
+                assertEquals(expected.primitive, actual.primitive);
+                double tMax = random.nextDouble() * 5;
+                assertEquals(scene.anyIntersection(ray, tMax), blocks.anyIntersection(0, ray, tMax, t));
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import static com.imt.raytracing.raytracer.acceleration.RandomScenes.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.imaging.Renderer;
+import com.imt.raytracing.parsing.SceneFileParser;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.Intersection;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Unit tests for the LinearBVHBuilder class. The hierarchy must return exactly the
+ * same intersections as the linear scan performed by the Scene, with or without the
+ * treelet optimization.
+ */
+public class LinearBVHBuilderTest {
+
+    private Scene scene;
+    private Random random;
+
+    @BeforeEach
+    void setUp() {
+        random = new Random(42);
+        // Enough triangles for the build to split its work into parallel tasks
+        scene = RandomScenes.create(random, 10000);
+    }
+
+    @Test
+    void testBuild_ContainsAllBoundedShapes() {
+        BVH bvh = LinearBVHBuilder.build(scene.shapes);
+
+        assertEquals(200 + 10000 + 500, bvh.getPrimitiveCount());
+        assertTrue(bvh.getNodeCount() > 1, "The tree should have been split.");
+        assertTrue(bvh.getNodeCount() < 2 * bvh.getPrimitiveCount());
+    }
+
+    @Test
+    void testIntersections_MatchLinearScan() {
+        assertMatchesLinearScan(scene, LinearBVHBuilder.build(scene.shapes, true), random, 1000);
+    }
+
+    @Test
+    void testIntersections_MatchLinearScanWithoutTreelets() {
+        assertMatchesLinearScan(scene, LinearBVHBuilder.build(scene.shapes, false), random, 1000);
+    }
+
+    @Test
+    void testClosestIntersection_TieKeepsSceneOrder() {
+        // Identical spheres: the first one in the list must win, as with the linear scan
+        Scene twins = new Scene(10, 10);
+        for (int i = 0; i < 5; i++)
+            twins.shapes.add(new Sphere(new Point(0, 0, 0), 1, DIFFUSE, SPECULAR, 10));
+
+        BVH bvh = LinearBVHBuilder.build(twins.shapes);
+        Optional<Intersection> hit = bvh.closestIntersection(new Ray(new Point(0, 0, 5), new Vector(0, 0, -1)));
+
+        assertTrue(hit.isPresent());
+        assertSame(twins.shapes.get(0), hit.get().shape);
+    }
+
+    @Test
+    void testSameCentroids_DepthStaysBounded() throws IOException {
+        // Every code is equal: the ranges are split in the middle, and the tree stays readable
+        Scene stack = new Scene(10, 10);
+        for (int i = 0; i < 5000; i++)
+            stack.shapes.add(new Sphere(new Point(1, 2, 3), 1 + i * 1e-3, DIFFUSE, SPECULAR, 10));
+
+        BVH bvh = LinearBVHBuilder.build(stack.shapes);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            bvh.write(out);
+        }
+        BVH restored = BVH.read(ByteBuffer.wrap(bytes.toByteArray()), stack.shapes);
+        assertEquals(bvh.getNodeCount(), restored.getNodeCount());
+
+        Optional<Intersection> hit = bvh.closestIntersection(new Ray(new Point(1, 2, 30), new Vector(0, 0, -1)));
+        assertSame(stack.shapes.get(4999), hit.get().shape);
+    }
+
+    @Test
+    void testEmptyScene() {
+        BVH bvh = LinearBVHBuilder.build(new Scene().shapes);
+        assertEquals(0, bvh.getNodeCount());
+        assertTrue(bvh.closestIntersection(new Ray(new Point(0, 0, 0), new Vector(1, 0, 0))).isEmpty());
+    }
+
+    @Test
+    void testMortonCode_InterleavesBits() {
+        assertEquals(0b111, LinearBVHBuilder.mortonCode(1, 1, 1));
+        assertEquals(0b100100, LinearBVHBuilder.mortonCode(0, 0, 3));
+        assertEquals(Long.MAX_VALUE, LinearBVHBuilder.mortonCode(0x1fffff, 0x1fffff, 0x1fffff));
+        assertEquals(1L << 60, LinearBVHBuilder.mortonCode(1 << 20, 0, 0));
+    }
+
+    @Test
+    void testRadixSort_MatchesStableSort() {
+        int n = 100000;
+        long[] keys = new long[n];
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            // Few distinct high bits, and many duplicates to check stability
+            keys[i] = (random.nextLong() >>> 1) & 0x7f000000000003ffL;
+            values[i] = i;
+        }
+        Long[][] expected = new Long[n][];
+        for (int i = 0; i < n; i++) expected[i] = new Long[] {keys[i], (long) i};
+        Arrays.sort(expected, (a, b) -> Long.compare(a[0], b[0]));
+
+        LinearBVHBuilder.radixSort(keys, values);
+
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected[i][0].longValue(), keys[i]);
+            assertEquals(expected[i][1].intValue(), values[i]);
+        }
+    }
+
+    @Test
+    void testSceneBuildsLinearBVH() {
+        scene.buildAccelerationStructure(AcceleratorType.LBVH);
+        assertTrue(scene.getAccelerator() instanceof BVH);
+        assertEquals(AcceleratorType.LBVH, AcceleratorType.fromName("lbvh"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "src/test/resources/imagetest/tp61.test",
+            "src/test/resources/imagetest/tp62-1.test"
+    })
+    void testRender_MatchesBVH(String file) throws Exception {
+        Scene withBVH = new SceneFileParser(AcceleratorType.BVH).parse(file);
+        Scene withLinear = new SceneFileParser(AcceleratorType.LBVH).parse(file);
+
+        BufferedImage expected = new Renderer().render(withBVH);
+        BufferedImage actual = new Renderer().render(withLinear);
+
+        int w = expected.getWidth(), h = expected.getHeight();
+        assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w), actual.getRGB(0, 0, w, h, null, 0, w));
+    }
+}
@@ -0,0 +1,103 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Optional;
+import java.util.Random;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.Plane;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.geometry.shape.Triangle;
+import com.imt.raytracing.geometry.shape.TriangleMesh;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.Intersection;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Scenes of random shapes and random rays through them, with the exact comparison of
+ * an acceleration structure to the linear scan of the scene, shared by the tests of
+ * the different structures.
+ */
+final class RandomScenes {
+
+    static final Color DIFFUSE = new Color(0.5, 0.5, 0.5);
+    static final Color SPECULAR = new Color(0.1, 0.1, 0.1);
+
+    private RandomScenes() {
+    }
+
+    /**
+     * Creates a floor plane, 200 random spheres, a cloud of random triangles and a mesh
+     * of 500 triangles, all but the plane within 8 of the origin.
+     * @param random The source of the shapes, and of the rays of the test afterwards.
+     * @param triangles The number of triangles of the cloud.
+     */
+    static Scene create(Random random, int triangles) {
+        Scene scene = new Scene(10, 10);
+        scene.shapes.add(new Plane(new Point(0, -10, 0), new Vector(0, 1, 0), DIFFUSE, SPECULAR, 10));
+        for (int i = 0; i < 200; i++) {
+            scene.shapes.add(new Sphere(randomPoint(random, 8), 0.1 + random.nextDouble(), DIFFUSE, SPECULAR, 10));
+        }
+        for (int i = 0; i < triangles; i++) {
+            Point a = randomPoint(random, 8);
+            Point b = a.add(new Vector(random.nextDouble(), random.nextDouble(), random.nextDouble()));
+            Point c = a.add(new Vector(random.nextDouble(), -random.nextDouble(), random.nextDouble()));
+            scene.shapes.add(new Triangle(a, b, c, DIFFUSE, SPECULAR, 10));
+        }
+
+        // A mesh whose triangles are indexed individually by the structures
+        double[] positions = new double[300 * 3];
+        for (int i = 0; i < positions.length; i++) positions[i] = (random.nextDouble() * 2 - 1) * 8;
+        int[] indices = new int[500 * 3];
+        for (int i = 0; i < indices.length; i++) indices[i] = random.nextInt(300);
+        scene.shapes.add(new TriangleMesh(positions, indices, DIFFUSE, SPECULAR, 10));
+        return scene;
+    }
+
+    static Point randomPoint(Random random, double extent) {
+        return new Point(
+            (random.nextDouble() * 2 - 1) * extent,
+            (random.nextDouble() * 2 - 1) * extent,
+            (random.nextDouble() * 2 - 1) * extent);
+    }
+
+    /**
+     * @return A ray starting within 20 of the origin, in a random direction.
+     */
+    static Ray randomRay(Random random) {
+        return new Ray(randomPoint(random, 20), new Vector(
+                random.nextGaussian(), random.nextGaussian(), random.nextGaussian()));
+    }
+
+    static void assertSameIntersection(Optional<Intersection> expected, Optional<Intersection> actual, String message) {
+        assertEquals(expected.isPresent(), actual.isPresent(), "Hit/miss mismatch for " + message);
+        if (expected.isPresent()) {
+            assertSame(expected.get().shape, actual.get().shape, "Different shape hit for " + message);
+            assertEquals(expected.get().t, actual.get().t, 0.0);
+        }
+    }
+
+    /**
+     * Checks that a structure finds the closest hit of the linear scan of the scene.
+     */
+    static void assertSameClosest(Scene scene, Accelerator accelerator, Ray ray, String message) {
+        assertSameIntersection(scene.closestIntersection(ray), accelerator.closestIntersection(ray), message);
+    }
+
+    /**
+     * Checks that a structure finds the closest hits and the occluders of the linear
+     * scan of the scene, on random rays.
+     */
+    static void assertMatchesLinearScan(Scene scene, Accelerator accelerator, Random random, int rays) {
+        for (int i = 0; i < rays; i++) {
+            Ray ray = randomRay(random);
+            assertSameClosest(scene, accelerator, ray, "ray " + i);
+            double tMax = random.nextDouble() * 30;
+            assertEquals(scene.anyIntersection(ray, tMax), accelerator.anyIntersection(ray, tMax),
+                    "Any-hit mismatch for ray " + i);
+        }
+    }
+}
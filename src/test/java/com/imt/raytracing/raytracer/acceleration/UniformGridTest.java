@@ -0,0 +1,181 @@
+package com.imt.raytracing.raytracer.acceleration;
+
+import static com.imt.raytracing.raytracer.acceleration.RandomScenes.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.geometry.shape.Triangle;
+import com.imt.raytracing.imaging.Renderer;
+import com.imt.raytracing.parsing.SceneFileParser;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.scene.Intersection;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Unit tests for the UniformGrid class. The grid must return exactly the same
+ * intersections as the linear scan performed by the Scene.
+ */
+public class UniformGridTest {
+
+    private Scene scene;
+    private Random random;
+
+    @BeforeEach
+    void setUp() {
+        random = new Random(42);
+        scene = RandomScenes.create(random, 2000);
+    }
+
+    @Test
+    void testBuild_ResolutionFollowsPrimitiveCount() {
+        UniformGrid grid = new UniformGrid(scene.shapes);
+
+        // The plane is unbounded and stays out of the grid, each mesh triangle is a primitive
+        assertEquals(200 + 2000 + 500, grid.getPrimitiveCount());
+        int cells = grid.getCellCount();
+        assertEquals(grid.getResolution(0) * grid.getResolution(1) * grid.getResolution(2), cells);
+        // About one primitive per cell for a cubic scene
+        assertTrue(cells > 2700 / 2 && cells < 2700 * 2, "Unexpected cell count " + cells);
+        assertTrue(grid.getReferenceCount() >= grid.getPrimitiveCount());
+    }
+
+    @Test
+    void testClosestIntersection_MatchesLinearScan() {
+        UniformGrid grid = new UniformGrid(scene.shapes);
+
+        for (int i = 0; i < 2000; i++) {
+            assertSameClosest(scene, grid, randomRay(random), "ray " + i);
+        }
+    }
+
+    @Test
+    void testClosestIntersection_RaysInsideAndAlongAxes() {
+        UniformGrid grid = new UniformGrid(scene.shapes);
+        Vector[] axes = {
+            new Vector(1, 0, 0), new Vector(-1, 0, 0), new Vector(0, 1, 0),
+            new Vector(0, -1, 0), new Vector(0, 0, 1), new Vector(0, 0, -1), new Vector(1, 1, 0)
+        };
+
+        // Rays starting inside the grid, with zero direction components
+        for (int i = 0; i < 700; i++) {
+            Ray ray = new Ray(randomPoint(random, 7), axes[i % axes.length]);
+            assertSameClosest(scene, grid, ray, "axis ray " + i);
+        }
+    }
+
+    @Test
+    void testClosestIntersection_TieKeepsSceneOrder() {
+        // Two identical spheres: the first one in the list must win, as with the linear scan
+        Scene twins = new Scene(10, 10);
+        Sphere first = new Sphere(new Point(0, 0, 0), 1, DIFFUSE, SPECULAR, 10);
+        Sphere second = new Sphere(new Point(0, 0, 0), 1, DIFFUSE, SPECULAR, 10);
+        twins.shapes.add(first);
+        twins.shapes.add(second);
+
+        UniformGrid grid = new UniformGrid(twins.shapes);
+        Optional<Intersection> hit = grid.closestIntersection(new Ray(new Point(0, 0, 5), new Vector(0, 0, -1)));
+
+        assertTrue(hit.isPresent());
+        assertSame(first, hit.get().shape);
+    }
+
+    @Test
+    void testOversizedPrimitive_KeptOutOfGrid() {
+        // A huge background sphere, as in final.scene, must not stretch the grid
+        Sphere background = new Sphere(new Point(0, 0, -10000), 10000, DIFFUSE, SPECULAR, 10);
+        scene.shapes.add(1, background);
+        UniformGrid grid = new UniformGrid(scene.shapes);
+
+        assertEquals(200 + 2000 + 500, grid.getPrimitiveCount());
+        assertTrue(grid.getCellCount() > 2700 / 2, "The cells should only span the small shapes.");
+        assertMatchesLinearScan(scene, grid, random, 1000);
+    }
+
+    @Test
+    void testFlatScene() {
+        // All the triangles lie in the plane z = 0: the grid has a single layer of cells
+        Scene flat = new Scene(10, 10);
+        for (int i = 0; i < 100; i++) {
+            double x = random.nextDouble() * 10, y = random.nextDouble() * 10;
+            flat.shapes.add(new Triangle(new Point(x, y, 0), new Point(x + 1, y, 0), new Point(x, y + 1, 0),
+                    DIFFUSE, SPECULAR, 10));
+        }
+        UniformGrid grid = new UniformGrid(flat.shapes);
+        assertEquals(1, grid.getResolution(2));
+
+        for (int i = 0; i < 500; i++) {
+            Ray ray = new Ray(new Point(random.nextDouble() * 12 - 1, random.nextDouble() * 12 - 1, 3),
+                    new Vector(random.nextGaussian() * 0.3, random.nextGaussian() * 0.3, -1));
+            assertSameClosest(flat, grid, ray, "ray " + i);
+        }
+    }
+
+    @Test
+    void testEmptyScene() {
+        UniformGrid grid = new UniformGrid(new Scene().shapes);
+        assertEquals(0, grid.getCellCount());
+        assertTrue(grid.closestIntersection(new Ray(new Point(0, 0, 0), new Vector(1, 0, 0))).isEmpty());
+        assertFalse(grid.anyIntersection(new Ray(new Point(0, 0, 0), new Vector(1, 0, 0)), 10));
+    }
+
+    @Test
+    void testAnyIntersection_MatchesClosestIntersection() {
+        UniformGrid grid = new UniformGrid(scene.shapes);
+
+        for (int i = 0; i < 2000; i++) {
+            Ray ray = randomRay(random);
+            double tMax = random.nextDouble() * 30;
+
+            Optional<Intersection> closest = scene.closestIntersection(ray);
+            boolean expected = closest.isPresent() && closest.get().t < tMax;
+
+            assertEquals(expected, grid.anyIntersection(ray, tMax), "Any-hit mismatch for ray " + i);
+        }
+    }
+
+    @Test
+    void testInvalidDensity() {
+        assertThrows(IllegalArgumentException.class, () -> new UniformGrid(scene.shapes, 0));
+    }
+
+    @Test
+    void testSceneBuildsRequestedStructure() {
+        scene.buildAccelerationStructure(AcceleratorType.GRID);
+        assertTrue(scene.getAccelerator() instanceof UniformGrid);
+        scene.buildAccelerationStructure(AcceleratorType.NONE);
+        assertNull(scene.getAccelerator());
+        assertEquals(AcceleratorType.GRID, AcceleratorType.fromName("grid"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "src/test/resources/imagetest/tp61.test",
+            "src/test/resources/imagetest/tp62-1.test",
+            "final.scene"
+    })
+    void testRender_MatchesBVH(String file) throws Exception {
+        Scene withBVH = new SceneFileParser(AcceleratorType.BVH).parse(file);
+        Scene withGrid = new SceneFileParser(AcceleratorType.GRID).parse(file);
+        assertTrue(withGrid.getAccelerator() instanceof UniformGrid);
+        // A smaller image keeps the large scenes quick to render
+        withBVH.setSize(Math.min(withBVH.width, 320), Math.min(withBVH.height, 180));
+        withGrid.setSize(withBVH.width, withBVH.height);
+
+        BufferedImage expected = new Renderer().render(withBVH);
+        BufferedImage actual = new Renderer().render(withGrid);
+
+        int w = expected.getWidth(), h = expected.getHeight();
+        assertArrayEquals(expected.getRGB(0, 0, w, h, null, 0, w), actual.getRGB(0, 0, w, h, null, 0, w));
+    }
+}
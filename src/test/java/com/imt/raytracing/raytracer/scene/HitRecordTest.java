@@ -0,0 +1,94 @@
+package com.imt.raytracing.raytracer.scene;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.Plane;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.geometry.shape.Triangle;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.raytracer.Ray;
+
+/**
+ * Unit tests for the HitRecord class and the allocation-free intersection path
+ * of the shapes.
+ */
+public class HitRecordTest {
+
+    private static final double EPSILON = 1e-9;
+    private Color diffuse = new Color(0.5, 0.5, 0.5);
+    private Color specular = new Color(0, 0, 0);
+    private Sphere near;
+    private Sphere far;
+
+    @BeforeEach
+    void setUp() {
+        near = new Sphere(new Point(0, 0, 0), 1, diffuse, specular, 10);
+        far = new Sphere(new Point(0, 0, -5), 1, diffuse, specular, 10);
+    }
+
+    @Test
+    void testRecord_KeepsClosestHit() {
+        HitRecord hit = new HitRecord();
+        assertFalse(hit.isHit());
+
+        assertTrue(hit.record(5.0, far, 0));
+        assertTrue(hit.record(2.0, near, 0), "A closer hit replaces the current one.");
+        assertFalse(hit.record(3.0, far, 0), "A farther hit is ignored.");
+
+        assertTrue(hit.isHit());
+        assertSame(near, hit.shape);
+        assertEquals(2.0, hit.t, EPSILON);
+    }
+
+    @Test
+    void testRecord_TieGoesToSceneOrder() {
+        HitRecord hit = new HitRecord();
+
+        hit.nextOrder = 3;
+        hit.record(2.0, far, 0);
+        hit.nextOrder = 1;
+        assertTrue(hit.record(2.0, near, 0), "An equal hit earlier in the scene wins.");
+        hit.nextOrder = 2;
+        assertFalse(hit.record(2.0, far, 0), "An equal hit later in the scene loses.");
+
+        assertSame(near, hit.shape);
+    }
+
+    @Test
+    void testReset_WithBound() {
+        HitRecord hit = new HitRecord();
+        hit.reset(4.0);
+
+        Ray ray = new Ray(new Point(0, 0, 10), new Vector(0, 0, -1));
+        assertFalse(near.intersect(ray, hit), "The sphere at t=9 lies beyond the bound.");
+        assertFalse(hit.isHit());
+    }
+
+    @Test
+    void testShapes_MatchOptionalPath() {
+        Ray ray = new Ray(new Point(0.2, 0.3, 10), new Vector(0, 0, -1));
+        Triangle tri = new Triangle(new Point(-1, -1, 2), new Point(1, -1, 2), new Point(0, 1, 2), diffuse, specular, 10);
+        Plane plane = new Plane(new Point(0, 0, -20), new Vector(0, 0, 1), diffuse, specular, 10);
+
+        for (Shape shape : new Shape[] { near, far, tri, plane }) {
+            HitRecord hit = new HitRecord();
+            assertTrue(shape.intersect(ray, hit));
+
+            Intersection expected = shape.intersect(ray).get();
+            Intersection actual = hit.toIntersection(ray);
+
+            assertEquals(expected.t, actual.t, 0.0);
+            assertSame(expected.getClass(), actual.getClass());
+            assertEquals(expected.point, actual.point);
+            assertEquals(expected.normal.x, actual.normal.x, EPSILON);
+            assertEquals(expected.normal.y, actual.normal.y, EPSILON);
+            assertEquals(expected.normal.z, actual.normal.z, EPSILON);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.util.Optional;
 
 import com.imt.raytracing.geometry.Point;
 import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.Plane;
 import com.imt.raytracing.geometry.shape.Shape;
 import com.imt.raytracing.geometry.shape.Sphere;
 import com.imt.raytracing.geometry.shape.Triangle;
@@ -49,6 +50,12 @@ class TestScene extends Scene {
     public Optional<Intersection> closestIntersection(Ray ray) {
         return shadowHit;
     }
+
+    // Shadow rays only ask whether something lies closer than the light
+    @Override
+    public boolean anyIntersection(Ray ray, double tMax) {
+        return shadowHit.isPresent() && shadowHit.get().t < tMax;
+    }
 }
 
 /**
@@ -248,4 +255,47 @@ public class IntersectionTest {
         
         assertEquals(expectedP, result.x, EPSILON, "Specular highlight intensity should match Blinn-Phong calculation.");
     }
-}
\ No newline at end of file
+
+    /**
+     * Two facing mirrors with a light between them: a ray bounces between them 
+     * until maxdepth or minweight stops it.
+     */
+    private Scene mirrorCorridor(int maxdepth, double minweight) {
+        Scene corridor = new Scene(10, 10);
+        corridor.maxdepth = maxdepth;
+        corridor.minweight = minweight;
+        corridor.ambient = new Color(0.1, 0.1, 0.1);
+        corridor.lights.add(new PointLight(new Point(0, 0, 0), new Color(0.5, 0.5, 0.5)));
+        Color grey = new Color(0.4, 0.4, 0.4);
+        Color mirror = new Color(0.5, 0.5, 0.5);
+        corridor.shapes.add(new Plane(new Point(0, -1, 0), new Vector(0, 1, 0), grey, mirror, 10));
+        corridor.shapes.add(new Plane(new Point(0, 1, 0), new Vector(0, -1, 0), grey, mirror, 10));
+        return corridor;
+    }
+
+    private Color shadeFirstHit(Scene corridor) {
+        Ray ray = new Ray(new Point(0, 0, 0), new Vector(0.3, -1, 0.2).normalize());
+        return corridor.closestIntersection(ray).get().shade(corridor, 0);
+    }
+
+    @Test
+    void testShade_MinWeightStopsFaintReflections() {
+        // Weights of the successive reflections: 0.5, 0.25, 0.125, then 0.0625 < 0.1 is cut
+        Color cut = shadeFirstHit(mirrorCorridor(10, 0.1));
+        Color threeBounces = shadeFirstHit(mirrorCorridor(3, 0));
+
+        assertEquals(threeBounces.x, cut.x, 0.0);
+        assertEquals(threeBounces.y, cut.y, 0.0);
+        assertEquals(threeBounces.z, cut.z, 0.0);
+    }
+
+    @Test
+    void testShade_ZeroMinWeightTracesUpToMaxDepth() {
+        Color all = shadeFirstHit(mirrorCorridor(10, 0));
+        Color cut = shadeFirstHit(mirrorCorridor(10, 0.1));
+
+        assertTrue(all.x > cut.x, "Deeper reflections should still add light.");
+        // The reflections that were cut weigh less than 0.0625 + 0.03125 + ... = 0.125 in total
+        assertEquals(all.x, cut.x, 0.125);
+    }
+}
@@ -0,0 +1,147 @@
+package com.imt.raytracing.raytracer.scene;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.imt.raytracing.geometry.Point;
+import com.imt.raytracing.geometry.Transform;
+import com.imt.raytracing.geometry.Vector;
+import com.imt.raytracing.geometry.shape.MeshInstance;
+import com.imt.raytracing.geometry.shape.MeshPrototype;
+import com.imt.raytracing.geometry.shape.Plane;
+import com.imt.raytracing.geometry.shape.Shape;
+import com.imt.raytracing.geometry.shape.Sphere;
+import com.imt.raytracing.geometry.shape.TriangleMesh;
+import com.imt.raytracing.imaging.Color;
+import com.imt.raytracing.raytracer.Ray;
+import com.imt.raytracing.raytracer.acceleration.Accelerator;
+import com.imt.raytracing.raytracer.acceleration.AcceleratorType;
+
+/**
+ * Unit tests for the updates of the Scene between the frames of an animation. After an
+ * update, the acceleration structure must give the same hits as a linear scan of the
+ * new shapes.
+ */
+public class SceneTest {
+
+    private final Color diffuse = new Color(0.5, 0.5, 0.5);
+    private final Color specular = new Color(0.1, 0.1, 0.1);
+
+    /** A floor, a mesh placed twice and a row of spheres whose height depends on the frame. */
+    private Scene frame(int index) {
+        Scene scene = new Scene(10, 10);
+        scene.output = "frame" + index + ".png";
+        scene.shapes.add(new Plane(new Point(0, -1, 0), new Vector(0, 1, 0), diffuse, specular, 10));
+
+        List<Shape> meshShapes = new ArrayList<>();
+        meshShapes.add(new TriangleMesh(new double[] {0, 0, 0, 1, 0, 0, 0, 1, 0, 1, 1, index},
+                new int[] {0, 1, 2, 1, 3, 2}, diffuse, specular, 10));
+        MeshPrototype mesh = new MeshPrototype("quad", meshShapes);
+        scene.meshes.add(mesh);
+        scene.shapes.add(new MeshInstance(mesh, Transform.translation(-5, 0, 0)));
+        scene.shapes.add(new MeshInstance(mesh, Transform.translation(5, 0, 0)));
+
+        for (int i = 0; i < 100; i++) {
+            double height = i % 10 == 0 ? index * (i - 50) * 0.2 : 0;
+            scene.shapes.add(new Sphere(new Point(i - 50, height, i % 7), 0.4, diffuse, specular, 10));
+        }
+        return scene;
+    }
+
+    private static void assertSameHits(Scene expected, Scene actual) {
+        Random random = new Random(3);
+        for (int k = 0; k < 2000; k++) {
+            Ray ray = new Ray(new Point(random.nextDouble() * 120 - 60, 20, random.nextDouble() * 20 - 10),
+                    new Vector(random.nextDouble() - 0.5, -1, random.nextDouble() - 0.5));
+
+            Optional<Intersection> e = expected.closestIntersection(ray);
+            Optional<Intersection> a = actual.closestIntersection(ray);
+            assertEquals(e.isPresent(), a.isPresent(), "ray " + k);
+            if (e.isPresent()) {
+                assertEquals(e.get().t, a.get().t, 0.0, "ray " + k);
+                assertSame(e.get().shape.diffuse, a.get().shape.diffuse, "ray " + k);
+            }
+            assertEquals(expected.anyIntersection(ray, 15), actual.anyIntersection(ray, 15), "ray " + k);
+        }
+    }
+
+    @Test
+    void testUpdateShapes_RefitsTheHierarchy() {
+        Scene scene = frame(0);
+        scene.buildAccelerationStructure(AcceleratorType.BVH);
+        Accelerator bvh = scene.getAccelerator();
+
+        int[] moved = {3, 13, 40};
+        for (int i : moved) ((Sphere) scene.shapes.get(i)).center = new Point(i, 3, -i);
+        scene.updateShapes(moved);
+
+        assertSame(bvh, scene.getAccelerator(), "A BVH follows the moves without a new build.");
+        Scene linear = frame(0);
+        linear.shapes = scene.shapes;
+        assertSameHits(linear, scene);
+    }
+
+    @Test
+    void testUpdateShapes_BuildsOtherStructuresAgain() {
+        Scene scene = frame(0);
+        scene.buildAccelerationStructure(AcceleratorType.GRID);
+        Accelerator grid = scene.getAccelerator();
+
+        ((Sphere) scene.shapes.get(5)).center = new Point(0, 8, 0);
+        scene.updateShapes(5);
+
+        assertNotSame(grid, scene.getAccelerator());
+        Scene linear = frame(0);
+        linear.shapes = scene.shapes;
+        assertSameHits(linear, scene);
+
+        scene.buildAccelerationStructure(AcceleratorType.NONE);
+        scene.updateShapes(5);
+        assertNull(scene.getAccelerator());
+    }
+
+    @Test
+    void testLoadFrame_MatchesTheNextFrame() {
+        for (AcceleratorType type : new AcceleratorType[] {AcceleratorType.BVH, AcceleratorType.LBVH, AcceleratorType.GRID}) {
+            Scene scene = frame(0);
+            scene.buildAccelerationStructure(type);
+            Accelerator first = scene.getAccelerator();
+
+            for (int index = 1; index <= 3; index++) {
+                Scene next = frame(index);
+                scene.loadFrame(next);
+
+                assertEquals(next.output, scene.output);
+                assertSame(next.shapes, scene.shapes);
+                assertSame(next.meshes, scene.meshes);
+                assertNotNull(next.meshes.get(0).getAccelerator(), type.name());
+                if (type != AcceleratorType.GRID)
+                    assertSame(first, scene.getAccelerator(), type.name());
+                assertSameHits(frame(index), scene);
+            }
+        }
+    }
+
+    @Test
+    void testLoadFrame_WithOtherShapes() {
+        Scene scene = frame(0);
+        scene.buildAccelerationStructure(AcceleratorType.BVH);
+        Accelerator first = scene.getAccelerator();
+
+        // One sphere less: the hierarchy cannot follow and is built again
+        Scene next = frame(1);
+        next.shapes.remove(next.shapes.size() - 1);
+        scene.loadFrame(next);
+
+        assertNotSame(first, scene.getAccelerator());
+        Scene expected = frame(1);
+        expected.shapes.remove(expected.shapes.size() - 1);
+        assertSameHits(expected, scene);
+    }
+}
@@ -0,0 +1,115 @@
+package com.imt.raytracing.server;
+
+import static com.imt.raytracing.imaging.ImageAssertions.assertSameImage;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.imt.raytracing.imaging.PngWriter;
+import com.imt.raytracing.imaging.Renderer;
+import com.imt.raytracing.parsing.SceneFileParser;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Tests of the render daemon, through its client and its job queue.
+ */
+public class RenderServerTest {
+
+    @TempDir
+    Path directory;
+
+    private static Scene parse(Path file) throws Exception {
+        return new SceneFileParser().parse(file.toString());
+    }
+
+    private RenderServer server(SceneStore.Loader loader, int jobs) throws IOException {
+        RenderServer server = new RenderServer(new SceneStore(loader, 4), new Renderer(), new PngWriter(1), jobs, 0);
+        server.start();
+        return server;
+    }
+
+    @Test
+    void testRender_SendsTheImage() throws Exception {
+        Path file = Files.writeString(directory.resolve("small.scene"), SceneStoreTest.SCENE);
+        BufferedImage expected = new Renderer().render(parse(file));
+
+        try (RenderServer server = server(RenderServerTest::parse, 1)) {
+            RenderClient client = new RenderClient(server.getPort());
+            Path output = client.render(file, 0, directory.resolve("out.png"));
+            assertSameImage(expected, ImageIO.read(output.toFile()));
+
+            // The scene stays in memory
+            client.render(file, 0, directory.resolve("again.png"));
+            assertEquals(1, server.getScenes().getLoadCount());
+        }
+    }
+
+    @Test
+    void testRender_MissingScene() throws Exception {
+        try (RenderServer server = server(RenderServerTest::parse, 1)) {
+            RenderClient client = new RenderClient(server.getPort());
+            IOException e = assertThrows(IOException.class,
+                    () -> client.render(directory.resolve("missing.scene"), 0, directory.resolve("out.png")));
+            assertTrue(e.getMessage().contains("404"), e.getMessage());
+        }
+    }
+
+    @Test
+    void testSubmit_HighestPriorityFirst() throws Exception {
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        SceneStore.Loader loader = file -> {
+            String name = file.getFileName().toString();
+            if (name.equals("first.scene"))
+                release.await(10, TimeUnit.SECONDS);
+            order.add(name);
+            return parse(file);
+        };
+        for (String name : new String[] {"first", "low", "high", "middle", "high2"})
+            Files.writeString(directory.resolve(name + ".scene"), SceneStoreTest.SCENE);
+
+        try (RenderServer server = server(loader, 1)) {
+            // The first job goes straight to the only worker, which is busy with it while the others are queued
+            List<CompletableFuture<RenderServer.Result>> jobs = new ArrayList<>();
+            jobs.add(server.submit(directory.resolve("first.scene"), 0));
+            jobs.add(server.submit(directory.resolve("low.scene"), -1));
+            jobs.add(server.submit(directory.resolve("high.scene"), 5));
+            jobs.add(server.submit(directory.resolve("middle.scene"), 2));
+            jobs.add(server.submit(directory.resolve("high2.scene"), 5));
+            release.countDown();
+            for (CompletableFuture<RenderServer.Result> job : jobs)
+                assertNotNull(job.get(30, TimeUnit.SECONDS).image());
+        }
+        assertEquals(List.of("first.scene", "high.scene", "high2.scene", "middle.scene", "low.scene"), order);
+    }
+
+    @Test
+    void testParseQuery() {
+        Map<String, String> query = RenderServer.parseQuery("scene=%2Ftmp%2Fa+b.scene&priority=-3&flag");
+        assertEquals("/tmp/a b.scene", query.get("scene"));
+        assertEquals("-3", query.get("priority"));
+        assertEquals("", query.get("flag"));
+        assertTrue(RenderServer.parseQuery(null).isEmpty());
+    }
+
+    @Test
+    void testConstructor_RejectsInvalidJobCount() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new RenderServer(new SceneStore(RenderServerTest::parse, 1), new Renderer(), new PngWriter(1), 0, 0));
+    }
+}
@@ -0,0 +1,145 @@
+package com.imt.raytracing.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.imt.raytracing.parsing.SceneFileParser;
+import com.imt.raytracing.raytracer.scene.Scene;
+
+/**
+ * Unit tests for the SceneStore class: scenes are parsed once per version of their file.
+ */
+public class SceneStoreTest {
+
+    static final String SCENE = "size 32 24\n"
+            + "output small.png\n"
+            + "camera 0 0 6 0 0 0 0 1 0 45\n"
+            + "point 1 1 1 1 1 1\n"
+            + "specular .5 .5 .5\n"
+            + "shininess 10\n"
+            + "diffuse .2 .2 .2\n"
+            + "plane 0 -1 0 0 1 0\n"
+            + "diffuse .5 .5 0\n"
+            + "sphere 0 0 0 1\n";
+
+    @TempDir
+    Path directory;
+
+    private static final SceneStore.Loader PARSER = file -> new SceneFileParser().parse(file.toString());
+
+    private Path sceneFile(String name) throws Exception {
+        return Files.writeString(directory.resolve(name), SCENE);
+    }
+
+    @Test
+    void testGet_ParsesOnce() throws Exception {
+        Path file = sceneFile("a.scene");
+        SceneStore store = new SceneStore(PARSER, 4);
+        Scene first = store.get(file);
+        // Another path to the same file
+        Scene second = store.get(directory.resolve("sub/../a.scene"));
+        assertSame(first, second);
+        assertEquals(1, store.getLoadCount());
+        assertEquals(32, first.getWidth());
+    }
+
+    @Test
+    void testGet_ReparsesModifiedFile() throws Exception {
+        Path file = sceneFile("a.scene");
+        SceneStore store = new SceneStore(PARSER, 4);
+        Scene first = store.get(file);
+        Files.writeString(file, SCENE.replace("size 32 24", "size 16 12"));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 5000));
+
+        Scene second = store.get(file);
+        assertNotSame(first, second);
+        assertEquals(16, second.getWidth());
+        assertEquals(2, store.getLoadCount());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void testGet_FailureIsNotKept() throws Exception {
+        Path file = sceneFile("a.scene");
+        int[] calls = {0};
+        SceneStore store = new SceneStore(f -> {
+            if (calls[0]++ == 0) throw new IllegalStateException("broken");
+            return PARSER.load(f);
+        }, 4);
+        assertThrows(IllegalStateException.class, () -> store.get(file));
+        assertNotNull(store.get(file));
+        assertEquals(2, store.getLoadCount());
+    }
+
+    @Test
+    void testGet_MissingFile() {
+        SceneStore store = new SceneStore(PARSER, 4);
+        assertThrows(NoSuchFileException.class, () -> store.get(directory.resolve("missing.scene")));
+        assertEquals(0, store.getLoadCount());
+    }
+
+    @Test
+    void testGet_DropsLeastRecentlyUsed() throws Exception {
+        Path a = sceneFile("a.scene");
+        Path b = sceneFile("b.scene");
+        Path c = sceneFile("c.scene");
+        SceneStore store = new SceneStore(PARSER, 2);
+        store.get(a);
+        store.get(b);
+        store.get(a);
+        store.get(c);
+        assertEquals(2, store.size());
+
+        // b was dropped, a was kept
+        store.get(a);
+        assertEquals(3, store.getLoadCount());
+        store.get(b);
+        assertEquals(4, store.getLoadCount());
+    }
+
+    @Test
+    void testGet_ConcurrentRequestsShareTheParse() throws Exception {
+        Path file = sceneFile("a.scene");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        SceneStore store = new SceneStore(f -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return PARSER.load(f);
+        }, 4);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Scene>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+                results.add(pool.submit(() -> store.get(file)));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            release.countDown();
+            Scene scene = results.get(0).get(10, TimeUnit.SECONDS);
+            for (Future<Scene> result : results)
+                assertSame(scene, result.get(10, TimeUnit.SECONDS));
+            assertEquals(1, store.getLoadCount());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void testConstructor_RejectsInvalidSize() {
+        assertThrows(IllegalArgumentException.class, () -> new SceneStore(PARSER, 0));
+    }
+}